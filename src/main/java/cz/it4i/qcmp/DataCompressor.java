@@ -6,6 +6,7 @@ import cz.it4i.qcmp.cli.CliConstants;
 import cz.it4i.qcmp.cli.CompressionOptionsCLIParser;
 import cz.it4i.qcmp.cli.CustomFunctionBase;
 import cz.it4i.qcmp.cli.functions.CalculateDifference;
+import cz.it4i.qcmp.compression.CodebookTrainingScheduler;
 import cz.it4i.qcmp.compression.ImageCompressor;
 import cz.it4i.qcmp.compression.ImageDecompressor;
 import cz.it4i.qcmp.fileformat.FileExtensions;
@@ -82,6 +83,13 @@ public class DataCompressor {
             }
             break;
             case TrainCodebook: {
+                if (!compressionOptionsCLIParsed.getTrainingConfigurations().isEmpty()) {
+                    final CodebookTrainingScheduler scheduler = new CodebookTrainingScheduler(compressionOptionsCLIParsed);
+                    if (!scheduler.trainAndSaveCodebooks()) {
+                        System.err.println("Errors occurred during training/saving of codebooks.");
+                    }
+                    break;
+                }
                 final ImageCompressor compressor = new ImageCompressor(compressionOptionsCLIParsed);
                 if (!compressor.trainAndSaveCodebook()) {
                     System.err.println("Errors occurred during training/saving of codebook.");
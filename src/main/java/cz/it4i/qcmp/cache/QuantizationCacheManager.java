@@ -4,9 +4,12 @@ import cz.it4i.qcmp.compression.CompressionOptions;
 import cz.it4i.qcmp.data.V3i;
 import cz.it4i.qcmp.fileformat.QuantizationType;
 import cz.it4i.qcmp.quantization.scalar.SQCodebook;
+import cz.it4i.qcmp.quantization.vector.LBGCheckpoint;
 import cz.it4i.qcmp.quantization.vector.VQCodebook;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 
 
@@ -60,6 +63,23 @@ public class QuantizationCacheManager {
     }
 
 
+    /**
+     * Get checkpoint file of the LBG training.
+     *
+     * @param trainFile    Input image file name.
+     * @param codebookSize Size of the trained codebook.
+     * @param vDim         Vector dimensions.
+     * @return Checkpoint file.
+     */
+    private File getCheckpointFilePath(final String trainFile,
+                                       final int codebookSize,
+                                       final V3i vDim) {
+        final File inputFile = new File(trainFile);
+        final String checkpointFileName = String.format("%s_%d_%dx%dx%d.lbgcp", inputFile.getName(), codebookSize,
+                                                        vDim.getX(), vDim.getY(), vDim.getZ());
+        return new File(cacheFolder, checkpointFileName);
+    }
+
     /**
      * Create CacheFileHeader for ScalarQuantization cache.
      *
@@ -164,6 +184,68 @@ public class QuantizationCacheManager {
         return fileName;
     }
 
+    /**
+     * Save the LBG training checkpoint. Checkpoint is written to the temporary file, which then replaces the
+     * previous checkpoint, so that the interrupted write doesn't destroy the last valid checkpoint.
+     *
+     * @param trainFile  Image file used for training.
+     * @param checkpoint LBG training checkpoint.
+     * @return Path to the saved checkpoint file.
+     * @throws IOException when fails to save the checkpoint file.
+     */
+    public String saveCheckpoint(final String trainFile, final LBGCheckpoint checkpoint) throws IOException {
+        final File checkpointFile = getCheckpointFilePath(trainFile,
+                                                          checkpoint.getTargetCodebookSize(),
+                                                          checkpoint.getVectorDimensions());
+        final File temporaryFile = new File(checkpointFile.getAbsolutePath() + ".tmp");
+
+        try (final FileOutputStream fos = new FileOutputStream(temporaryFile, false);
+             final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+
+            checkpoint.writeToStream(dos);
+        } catch (final IOException ex) {
+            throw new IOException("Failed to save LBG checkpoint file\n" + ex.getMessage());
+        }
+        Files.move(temporaryFile.toPath(), checkpointFile.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return checkpointFile.getAbsolutePath();
+    }
+
+    /**
+     * Load the LBG training checkpoint.
+     *
+     * @param trainFile    Image file used for training.
+     * @param codebookSize Size of the trained codebook.
+     * @param vDim         Quantization vector dimensions.
+     * @return Checkpoint or null if there is no valid checkpoint.
+     */
+    public LBGCheckpoint loadCheckpoint(final String trainFile, final int codebookSize, final V3i vDim) {
+        final File path = getCheckpointFilePath(trainFile, codebookSize, vDim);
+        if (!path.exists()) {
+            return null;
+        }
+        try (final FileInputStream fis = new FileInputStream(path);
+             final DataInputStream dis = new DataInputStream(new BufferedInputStream(fis))) {
+            return LBGCheckpoint.readFromStream(dis);
+        } catch (final IOException e) {
+            System.err.println("Failed to read LBG checkpoint file." + path);
+            e.printStackTrace(System.err);
+            return null;
+        }
+    }
+
+    /**
+     * Delete the LBG training checkpoint, once the training has finished.
+     *
+     * @param trainFile    Image file used for training.
+     * @param codebookSize Size of the trained codebook.
+     * @param vDim         Quantization vector dimensions.
+     */
+    public void deleteCheckpoint(final String trainFile, final int codebookSize, final V3i vDim) {
+        //noinspection ResultOfMethodCallIgnored
+        getCheckpointFilePath(trainFile, codebookSize, vDim).delete();
+    }
+
     /**
      * Read data from file to cache file.
      *
@@ -421,8 +503,13 @@ public class QuantizationCacheManager {
         }
         final StringBuilder reportBuilder = new StringBuilder();
         final long expectedFileSize = header.getExpectedFileSize();
+        final boolean isVectorCache = header.getQuantizationType().isOneOf(QuantizationType.Vector1D,
+                                                                           QuantizationType.Vector2D,
+                                                                           QuantizationType.Vector3D);
         if (expectedFileSize == fileSize) {
             reportBuilder.append("\u001B[32mCache file is VALID ").append(fileSize).append(" bytes\u001B[0m\n");
+        } else if (isVectorCache && ((expectedFileSize + VQCacheFile.getTSVQSectionSize(header)) == fileSize)) {
+            reportBuilder.append("\u001B[32mCache file is VALID ").append(fileSize).append(" bytes, with TSVQ tree\u001B[0m\n");
         } else {
             reportBuilder.append("\u001B[31mCache file is INVALID.\u001B[0m\n\t")
                     .append(fileSize).append(" bytes instead of expected ")
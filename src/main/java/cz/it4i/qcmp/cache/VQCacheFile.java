@@ -1,5 +1,7 @@
 package cz.it4i.qcmp.cache;
 
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.quantization.vector.TSVQTree;
 import cz.it4i.qcmp.quantization.vector.VQCodebook;
 
 import java.io.DataInputStream;
@@ -7,6 +9,11 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 public class VQCacheFile implements ICacheFile {
+    /**
+     * Magic value of the optional section with the TSVQ tree, which follows the codebook frequencies.
+     */
+    public static final String TSVQ_SECTION_MAGIC_VALUE = "TSVQ";
+
     private CacheFileHeader header;
     private VQCodebook codebook;
 
@@ -22,17 +29,36 @@ public class VQCacheFile implements ICacheFile {
     public void writeToStream(final DataOutputStream outputStream) throws IOException {
         header.writeToStream(outputStream);
 
-        final int[][] entries = codebook.getVectors();
-        for (final int[] entry : entries) {
-            for (final int vectorValue : entry) {
-                outputStream.writeShort(vectorValue);
-            }
+        final int[] codebookData = codebook.getVectorData();
+        for (final int vectorValue : codebookData) {
+            outputStream.writeShort(vectorValue);
         }
 
         final long[] frequencies = codebook.getVectorFrequencies();
         for (final long vF : frequencies) {
             outputStream.writeLong(vF);
         }
+
+        final TSVQTree tree = codebook.getTSVQTree();
+        if (tree != null) {
+            outputStream.writeBytes(TSVQ_SECTION_MAGIC_VALUE);
+            // Node 0 is unused, internal nodes 1 to codebookSize - 1 are written.
+            final int[] nodeData = tree.getNodeData();
+            for (int i = tree.getVectorSize(); i < nodeData.length; i++) {
+                outputStream.writeShort(nodeData[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the size of the optional TSVQ tree section.
+     *
+     * @param header Cache file header.
+     * @return Size of the section in bytes.
+     */
+    public static long getTSVQSectionSize(final CacheFileHeader header) {
+        final long entrySize = (long) header.getVectorSizeX() * header.getVectorSizeY() * header.getVectorSizeZ();
+        return TSVQ_SECTION_MAGIC_VALUE.length() + ((header.getCodebookSize() - 1) * entrySize * 2);
     }
 
     public void readFromStream(final DataInputStream inputStream) throws IOException {
@@ -47,20 +73,46 @@ public class VQCacheFile implements ICacheFile {
         final int codebookSize = header.getCodebookSize();
 
         final int entrySize = header.getVectorSizeX() * header.getVectorSizeY() * header.getVectorSizeZ();
-        final int[][] vectors = new int[codebookSize][entrySize];
+        final VectorBatch vectors = new VectorBatch(entrySize, codebookSize);
+        final int[] vectorData = vectors.getData();
         final long[] frequencies = new long[codebookSize];
 
-        for (int i = 0; i < codebookSize; i++) {
-            //int[] vector = new int[entrySize];
-            for (int j = 0; j < entrySize; j++) {
-                vectors[i][j] = inputStream.readUnsignedShort();
-            }
+        for (int i = 0; i < vectorData.length; i++) {
+            vectorData[i] = inputStream.readUnsignedShort();
         }
 
         for (int i = 0; i < codebookSize; i++) {
             frequencies[i] = inputStream.readLong();
         }
-        codebook = new VQCodebook(header.getVectorDim(), vectors, frequencies);
+        codebook = new VQCodebook(header.getVectorDim(), vectors, frequencies, readTSVQTree(inputStream, codebookSize, entrySize));
+    }
+
+    /**
+     * Read the optional TSVQ tree section. Section is read only if its data are available in the stream,
+     * so the caches written without the tree can be read as before.
+     *
+     * @param inputStream  Input stream positioned after the codebook frequencies.
+     * @param codebookSize Codebook size.
+     * @param entrySize    Size of the codebook vector.
+     * @return TSVQ tree or null if the section is not present.
+     * @throws IOException when fails to read the section.
+     */
+    private TSVQTree readTSVQTree(final DataInputStream inputStream,
+                                  final int codebookSize,
+                                  final int entrySize) throws IOException {
+        if (!TSVQTree.isSupportedCodebookSize(codebookSize) || (inputStream.available() < TSVQ_SECTION_MAGIC_VALUE.length())) {
+            return null;
+        }
+        final byte[] magicBuffer = new byte[TSVQ_SECTION_MAGIC_VALUE.length()];
+        inputStream.readFully(magicBuffer);
+        if (!TSVQ_SECTION_MAGIC_VALUE.equals(new String(magicBuffer))) {
+            throw new IOException("Invalid TSVQ section of the cache file. Wrong magic value.");
+        }
+        final int[] nodeData = new int[codebookSize * entrySize];
+        for (int i = entrySize; i < nodeData.length; i++) {
+            nodeData[i] = inputStream.readUnsignedShort();
+        }
+        return new TSVQTree(nodeData, codebookSize, entrySize);
     }
 
     public CacheFileHeader getHeader() {
@@ -54,6 +54,72 @@ public class CliConstants {
     public static final String USE_MIDDLE_PLANE_SHORT = "mp";
     public static final String USE_MIDDLE_PLANE_LONG = "middle-plane";
 
+    public static final String CODEBOOK_SEARCH_SHORT = "cs";
+    public static final String CODEBOOK_SEARCH_LONG = "codebook-search";
+
+    public static final String KD_TREE_MAX_E_SHORT = "kdme";
+    public static final String KD_TREE_MAX_E_LONG = "kd-tree-max-e";
+
+    public static final String VECTOR_CACHE_SHORT = "vc";
+    public static final String VECTOR_CACHE_LONG = "vector-cache";
+
+    public static final String TSVQ_REFINE_SHORT = "tsvqr";
+    public static final String TSVQ_REFINE_LONG = "tsvq-refine";
+
+    public static final String MINI_BATCH_SHORT = "mb";
+    public static final String MINI_BATCH_LONG = "mini-batch";
+
+    public static final String MINI_BATCH_ITERATIONS_SHORT = "mbi";
+    public static final String MINI_BATCH_ITERATIONS_LONG = "mini-batch-iterations";
+
+    public static final String MINI_BATCH_EPSILON_SHORT = "mbe";
+    public static final String MINI_BATCH_EPSILON_LONG = "mini-batch-epsilon";
+
+    public static final String MINI_BATCH_LEARNING_RATE_SHORT = "mblr";
+    public static final String MINI_BATCH_LEARNING_RATE_LONG = "mini-batch-learning-rate";
+
+    public static final String CODEBOOK_TRAINER_SHORT = "cbt";
+    public static final String CODEBOOK_TRAINER_LONG = "codebook-trainer";
+
+    public static final String CODEBOOK_INIT_SHORT = "cbi";
+    public static final String CODEBOOK_INIT_LONG = "codebook-init";
+
+    public static final String COARSE_TO_FINE_SHORT = "ctf";
+    public static final String COARSE_TO_FINE_LONG = "coarse-to-fine";
+
+    public static final String CHECKPOINT_SHORT = "ckpt";
+    public static final String CHECKPOINT_LONG = "checkpoint";
+
+    public static final String RESUME_SHORT = "res";
+    public static final String RESUME_LONG = "resume";
+
+    public static final String MAPPED_TRAINING_SHORT = "mmap";
+    public static final String MAPPED_TRAINING_LONG = "mapped-training";
+
+    public static final String REFINE_SHORT = "ref";
+    public static final String REFINE_LONG = "refine";
+
+    public static final String SHARD_COORDINATOR_SHORT = "shc";
+    public static final String SHARD_COORDINATOR_LONG = "shard-coordinator";
+
+    public static final String SHARD_COUNT_SHORT = "shn";
+    public static final String SHARD_COUNT_LONG = "shard-count";
+
+    public static final String SHARD_WORKER_SHORT = "shw";
+    public static final String SHARD_WORKER_LONG = "shard-worker";
+
+    public static final String SHARD_TIMEOUT_SHORT = "sht";
+    public static final String SHARD_TIMEOUT_LONG = "shard-timeout";
+
+    public static final String TRAINING_CONFIGURATIONS_SHORT = "tcfg";
+    public static final String TRAINING_CONFIGURATIONS_LONG = "train-configurations";
+
+    public static final String TRAINING_SAMPLE_SHORT = "trs";
+    public static final String TRAINING_SAMPLE_LONG = "training-sample";
+
+    public static final String TRAINING_SAMPLE_IMPORTANCE_SHORT = "trsi";
+    public static final String TRAINING_SAMPLE_IMPORTANCE_LONG = "training-sample-importance";
+
     @NotNull
     public static Options getOptions() {
         final Options options = new Options();
@@ -113,6 +179,116 @@ public class CliConstants {
 
         options.addOption(createCBCMethod());
 
+        options.addOption(new Option(CliConstants.CODEBOOK_SEARCH_SHORT,
+                                     CliConstants.CODEBOOK_SEARCH_LONG,
+                                     true,
+                                     "VQ codebook search method: TiledBatch, PartialDistance, PruningIndex, FullScan, KDTree, TreeStructured [Default TiledBatch]"));
+
+        options.addOption(new Option(CliConstants.KD_TREE_MAX_E_SHORT,
+                                     CliConstants.KD_TREE_MAX_E_LONG,
+                                     true,
+                                     "Maximum number of visited leaves in KDTree codebook search, 0 for exact search [Default 8]"));
+
+        options.addOption(new Option(CliConstants.VECTOR_CACHE_SHORT,
+                                     CliConstants.VECTOR_CACHE_LONG,
+                                     true,
+                                     "Capacity of per-thread cache of quantized vectors, 0 disables the cache [Default 0]"));
+
+        options.addOption(CliConstants.TSVQ_REFINE_SHORT,
+                          CliConstants.TSVQ_REFINE_LONG,
+                          false,
+                          "Refine TSVQ tree of the trained codebook for TreeStructured search");
+
+        options.addOption(new Option(CliConstants.MINI_BATCH_SHORT,
+                                     CliConstants.MINI_BATCH_LONG,
+                                     true,
+                                     "Train VQ codebook by mini-batch LBG with given batch size, 0 for full LBG [Default 0]"));
+
+        options.addOption(new Option(CliConstants.MINI_BATCH_ITERATIONS_SHORT,
+                                     CliConstants.MINI_BATCH_ITERATIONS_LONG,
+                                     true,
+                                     "Maximum number of mini-batch LBG iterations [Default 500]"));
+
+        options.addOption(new Option(CliConstants.MINI_BATCH_EPSILON_SHORT,
+                                     CliConstants.MINI_BATCH_EPSILON_LONG,
+                                     true,
+                                     "Relative MSE improvement, under which mini-batch LBG stops [Default 0.001]"));
+
+        options.addOption(new Option(CliConstants.MINI_BATCH_LEARNING_RATE_SHORT,
+                                     CliConstants.MINI_BATCH_LEARNING_RATE_LONG,
+                                     true,
+                                     "Minimum learning rate of mini-batch LBG codebook entries [Default 0]"));
+
+        options.addOption(new Option(CliConstants.CODEBOOK_TRAINER_SHORT,
+                                     CliConstants.CODEBOOK_TRAINER_LONG,
+                                     true,
+                                     "VQ codebook training algorithm: LBG, MaximumDescent [Default LBG]"));
+
+        options.addOption(new Option(CliConstants.CODEBOOK_INIT_SHORT,
+                                     CliConstants.CODEBOOK_INIT_LONG,
+                                     true,
+                                     "VQ codebook initialization before LBG: Splitting, PNN [Default Splitting]"));
+
+        options.addOption(CliConstants.COARSE_TO_FINE_SHORT,
+                          CliConstants.COARSE_TO_FINE_LONG,
+                          false,
+                          "Train smaller LBG split levels on random sample growing with the codebook size");
+
+        options.addOption(new Option(CliConstants.CHECKPOINT_SHORT,
+                                     CliConstants.CHECKPOINT_LONG,
+                                     true,
+                                     "Save LBG checkpoint to the codebook cache after every split level and every N iterations, 0 for split levels only"));
+
+        options.addOption(CliConstants.RESUME_SHORT,
+                          CliConstants.RESUME_LONG,
+                          false,
+                          "Resume LBG codebook training from the checkpoint in the codebook cache");
+
+        options.addOption(CliConstants.MAPPED_TRAINING_SHORT,
+                          CliConstants.MAPPED_TRAINING_LONG,
+                          false,
+                          "Keep VQ training vectors in memory-mapped file in the codebook cache folder instead of heap");
+
+        options.addOption(CliConstants.REFINE_SHORT,
+                          CliConstants.REFINE_LONG,
+                          true,
+                          "Refine codebook from given cache file instead of training it from scratch");
+
+        options.addOption(new Option(CliConstants.SHARD_COORDINATOR_SHORT,
+                                     CliConstants.SHARD_COORDINATOR_LONG,
+                                     true,
+                                     "Train VQ codebook by sharded LBG, coordinating workers connecting to [address:]port"));
+
+        options.addOption(new Option(CliConstants.SHARD_COUNT_SHORT,
+                                     CliConstants.SHARD_COUNT_LONG,
+                                     true,
+                                     "Number of shard workers the coordinator waits for [Default 1]"));
+
+        options.addOption(new Option(CliConstants.SHARD_WORKER_SHORT,
+                                     CliConstants.SHARD_WORKER_LONG,
+                                     true,
+                                     "Serve sharded LBG as worker of coordinator host:port, using the input plane range as shard"));
+
+        options.addOption(new Option(CliConstants.SHARD_TIMEOUT_SHORT,
+                                     CliConstants.SHARD_TIMEOUT_LONG,
+                                     true,
+                                     "Timeout of waiting for shard workers and their replies in seconds [Default 3600]"));
+
+        options.addOption(new Option(CliConstants.TRAINING_CONFIGURATIONS_SHORT,
+                                     CliConstants.TRAINING_CONFIGURATIONS_LONG,
+                                     true,
+                                     "Comma separated codebooks trained concurrently from single load of the planes, e.g. sq,9,3x3,3x3x3"));
+
+        options.addOption(new Option(CliConstants.TRAINING_SAMPLE_SHORT,
+                                     CliConstants.TRAINING_SAMPLE_LONG,
+                                     true,
+                                     "Train codebook on random sample of at most N vectors streamed plane by plane, 0 loads all [Default 0]"));
+
+        options.addOption(CliConstants.TRAINING_SAMPLE_IMPORTANCE_SHORT,
+                          CliConstants.TRAINING_SAMPLE_IMPORTANCE_LONG,
+                          false,
+                          "Sample VQ training vectors with weight growing with their standard deviation");
+
         options.addOption(CliConstants.OUTPUT_SHORT, CliConstants.OUTPUT_LONG, true, "Custom output file");
         return options;
     }
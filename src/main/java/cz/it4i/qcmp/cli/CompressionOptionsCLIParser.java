@@ -1,6 +1,7 @@
 package cz.it4i.qcmp.cli;
 
 import cz.it4i.qcmp.ScifioWrapper;
+import cz.it4i.qcmp.compression.CodebookTrainingConfiguration;
 import cz.it4i.qcmp.compression.CompressionOptions;
 import cz.it4i.qcmp.compression.CompressorDecompressorBase;
 import cz.it4i.qcmp.data.Range;
@@ -10,6 +11,9 @@ import cz.it4i.qcmp.fileformat.FileExtensions;
 import cz.it4i.qcmp.fileformat.QuantizationType;
 import cz.it4i.qcmp.io.FileInputData;
 import cz.it4i.qcmp.io.InputData;
+import cz.it4i.qcmp.quantization.vector.CodebookInitialization;
+import cz.it4i.qcmp.quantization.vector.CodebookSearchMethod;
+import cz.it4i.qcmp.quantization.vector.CodebookTrainingMethod;
 import io.scif.FormatException;
 import io.scif.Plane;
 import io.scif.Reader;
@@ -19,6 +23,7 @@ import org.apache.commons.io.FilenameUtils;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Optional;
 
 public class CompressionOptionsCLIParser extends CompressionOptions implements Cloneable {
@@ -149,6 +154,8 @@ public class CompressionOptionsCLIParser extends CompressionOptions implements C
             }
         }
 
+        parseCodebookSearchMethod(cmd, errorBuilder);
+
         if (!parseErrorOccurred) {
             setOutputFilePath(cmd.getOptionValue(CliConstants.OUTPUT_LONG,
                                                  getDefaultOutputFilePath(getInputDataInfo().getFilePath())));
@@ -348,6 +355,289 @@ public class CompressionOptionsCLIParser extends CompressionOptions implements C
         }
     }
 
+    /**
+     * Parse method used for the codebook search in vector quantization and its parameters.
+     *
+     * @param cmd          Command line arguments.
+     * @param errorBuilder String error builder.
+     */
+    private void parseCodebookSearchMethod(final CommandLine cmd, final StringBuilder errorBuilder) {
+        if (cmd.hasOption(CliConstants.CODEBOOK_SEARCH_LONG)) {
+            final String searchString = cmd.getOptionValue(CliConstants.CODEBOOK_SEARCH_LONG);
+            final Optional<CodebookSearchMethod> parseResult =
+                    ParseUtils.tryParseEnum(CodebookSearchMethod.class, searchString);
+            if (parseResult.isPresent()) {
+                setCodebookSearchMethod(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Unknown codebook search method: ").append(searchString).append('\n');
+            }
+        }
+
+        if (cmd.hasOption(CliConstants.KD_TREE_MAX_E_LONG)) {
+            final String maxEString = cmd.getOptionValue(CliConstants.KD_TREE_MAX_E_LONG);
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(maxEString);
+            if (parseResult.isPresent() && (parseResult.get() >= 0)) {
+                setKdTreeMaxE(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid KD-tree max E. Expected non-negative int got: ").append(maxEString).append('\n');
+            }
+        }
+
+        setRefineTSVQTree(cmd.hasOption(CliConstants.TSVQ_REFINE_LONG));
+
+        if (cmd.hasOption(CliConstants.VECTOR_CACHE_LONG)) {
+            final String capacityString = cmd.getOptionValue(CliConstants.VECTOR_CACHE_LONG);
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(capacityString);
+            if (parseResult.isPresent() && (parseResult.get() >= 0)) {
+                setVectorCacheCapacity(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid vector cache capacity. Expected non-negative int got: ")
+                        .append(capacityString).append('\n');
+            }
+        }
+
+        parseMiniBatchOptions(cmd, errorBuilder);
+
+        if (cmd.hasOption(CliConstants.CODEBOOK_TRAINER_LONG)) {
+            final String trainerString = cmd.getOptionValue(CliConstants.CODEBOOK_TRAINER_LONG);
+            final Optional<CodebookTrainingMethod> parseResult =
+                    ParseUtils.tryParseEnum(CodebookTrainingMethod.class, trainerString);
+            if (parseResult.isPresent()) {
+                setCodebookTrainingMethod(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Unknown codebook training algorithm: ").append(trainerString).append('\n');
+            }
+        }
+
+        if (cmd.hasOption(CliConstants.CODEBOOK_INIT_LONG)) {
+            final String initString = cmd.getOptionValue(CliConstants.CODEBOOK_INIT_LONG);
+            final Optional<CodebookInitialization> parseResult =
+                    ParseUtils.tryParseEnum(CodebookInitialization.class, initString);
+            if (parseResult.isPresent()) {
+                setCodebookInitialization(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Unknown codebook initialization: ").append(initString).append('\n');
+            }
+        }
+
+        setCoarseToFineTraining(cmd.hasOption(CliConstants.COARSE_TO_FINE_LONG));
+
+        if (cmd.hasOption(CliConstants.CHECKPOINT_LONG)) {
+            final String intervalString = cmd.getOptionValue(CliConstants.CHECKPOINT_LONG);
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(intervalString);
+            if (parseResult.isPresent() && (parseResult.get() >= 0)) {
+                setCheckpointInterval(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid checkpoint interval. Expected non-negative int got: ")
+                        .append(intervalString).append('\n');
+            }
+        }
+        setResumeTraining(cmd.hasOption(CliConstants.RESUME_LONG));
+        setUseMappedTraining(cmd.hasOption(CliConstants.MAPPED_TRAINING_LONG));
+        if (cmd.hasOption(CliConstants.REFINE_LONG)) {
+            final String cacheFile = cmd.getOptionValue(CliConstants.REFINE_LONG);
+            if (new File(cacheFile).isFile()) {
+                setRefinementCacheFile(cacheFile);
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Refined codebook cache file doesn't exist: ").append(cacheFile).append('\n');
+            }
+        }
+        parseShardingOptions(cmd, errorBuilder);
+        parseTrainingConfigurations(cmd, errorBuilder);
+
+        if (cmd.hasOption(CliConstants.TRAINING_SAMPLE_LONG)) {
+            final String sampleSizeString = cmd.getOptionValue(CliConstants.TRAINING_SAMPLE_LONG);
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(sampleSizeString);
+            if (parseResult.isPresent() && (parseResult.get() >= 0)) {
+                setTrainingSampleSize(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid training sample size. Expected non-negative int got: ")
+                        .append(sampleSizeString).append('\n');
+            }
+        }
+        setWeightTrainingSample(cmd.hasOption(CliConstants.TRAINING_SAMPLE_IMPORTANCE_LONG));
+        if (shouldWeightTrainingSample() && (getTrainingSampleSize() <= 0)) {
+            parseErrorOccurred = true;
+            errorBuilder.append("Training sample importance weighting requires the training sample size.\n");
+        }
+    }
+
+    /**
+     * Parse quantization configurations of the codebooks trained from single load of the planes.
+     *
+     * @param cmd          Command line arguments.
+     * @param errorBuilder String error builder.
+     */
+    private void parseTrainingConfigurations(final CommandLine cmd, final StringBuilder errorBuilder) {
+        if (!cmd.hasOption(CliConstants.TRAINING_CONFIGURATIONS_LONG)) {
+            return;
+        }
+        final ArrayList<CodebookTrainingConfiguration> configurations = new ArrayList<>();
+        for (final String definition : cmd.getOptionValue(CliConstants.TRAINING_CONFIGURATIONS_LONG).split(",")) {
+            final String trimmedDefinition = definition.trim();
+            if (trimmedDefinition.equalsIgnoreCase("sq")) {
+                configurations.add(new CodebookTrainingConfiguration());
+                continue;
+            }
+            final Optional<V3i> maybeVectorSize = tryParseQuantizationVector(trimmedDefinition);
+            if (maybeVectorSize.isPresent()) {
+                configurations.add(new CodebookTrainingConfiguration(maybeVectorSize.get()));
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid training configuration: ").append(trimmedDefinition)
+                        .append(". Expected sq, D, DxD or DxDxD.\n");
+            }
+        }
+        setTrainingConfigurations(configurations);
+
+        if (method != ProgramMethod.TrainCodebook) {
+            parseErrorOccurred = true;
+            errorBuilder.append("Training configurations can be used only with codebook training.\n");
+        }
+        if ((getShardCoordinatorPort() >= 0) || (getShardWorkerHost() != null)) {
+            parseErrorOccurred = true;
+            errorBuilder.append("Training configurations can't be combined with sharded training.\n");
+        }
+        // Single configuration options are reported for the first configuration if -sq or -vq isn't set.
+        if ((getQuantizationType() == null) && !configurations.isEmpty()) {
+            setQuantizationType(configurations.get(0).getQuantizationType());
+            setQuantizationVector(configurations.get(0).getQuantizationVector());
+        }
+    }
+
+    /**
+     * Parse parameters of the sharded LBG codebook training.
+     *
+     * @param cmd          Command line arguments.
+     * @param errorBuilder String error builder.
+     */
+    private void parseShardingOptions(final CommandLine cmd, final StringBuilder errorBuilder) {
+        if (cmd.hasOption(CliConstants.SHARD_COORDINATOR_LONG)) {
+            final String addressString = cmd.getOptionValue(CliConstants.SHARD_COORDINATOR_LONG);
+            final int separatorIndex = addressString.lastIndexOf(':');
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(addressString.substring(separatorIndex + 1));
+            if ((separatorIndex != 0) && parseResult.isPresent() &&
+                    (parseResult.get() >= 0) && (parseResult.get() <= 65535)) {
+                setShardCoordinatorAddress((separatorIndex > 0) ? addressString.substring(0, separatorIndex) : null);
+                setShardCoordinatorPort(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid shard coordinator address. Expected [address:]port with port in range " +
+                                            "[0, 65535] got: ")
+                        .append(addressString).append('\n');
+            }
+        }
+
+        if (cmd.hasOption(CliConstants.SHARD_COUNT_LONG)) {
+            final String countString = cmd.getOptionValue(CliConstants.SHARD_COUNT_LONG);
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(countString);
+            if (parseResult.isPresent() && (parseResult.get() > 0)) {
+                setShardCount(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid shard count. Expected positive int got: ")
+                        .append(countString).append('\n');
+            }
+        }
+
+        if (cmd.hasOption(CliConstants.SHARD_WORKER_LONG)) {
+            final String addressString = cmd.getOptionValue(CliConstants.SHARD_WORKER_LONG);
+            final int separatorIndex = addressString.lastIndexOf(':');
+            final Optional<Integer> parseResult = (separatorIndex > 0)
+                    ? ParseUtils.tryParseInt(addressString.substring(separatorIndex + 1))
+                    : Optional.empty();
+            if (parseResult.isPresent() && (parseResult.get() > 0) && (parseResult.get() <= 65535)) {
+                setShardWorkerHost(addressString.substring(0, separatorIndex));
+                setShardWorkerPort(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid shard coordinator address. Expected host:port got: ")
+                        .append(addressString).append('\n');
+            }
+        }
+
+        if (cmd.hasOption(CliConstants.SHARD_TIMEOUT_LONG)) {
+            final String timeoutString = cmd.getOptionValue(CliConstants.SHARD_TIMEOUT_LONG);
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(timeoutString);
+            if (parseResult.isPresent() && (parseResult.get() > 0) && (parseResult.get() <= Integer.MAX_VALUE / 1000)) {
+                setShardTimeout(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid shard timeout. Expected positive int of seconds got: ")
+                        .append(timeoutString).append('\n');
+            }
+        }
+
+        if ((getShardCoordinatorPort() >= 0) && (getShardWorkerHost() != null)) {
+            parseErrorOccurred = true;
+            errorBuilder.append("Process can't be both shard coordinator and shard worker.\n");
+        }
+    }
+
+    /**
+     * Parse parameters of the mini-batch LBG codebook training.
+     *
+     * @param cmd          Command line arguments.
+     * @param errorBuilder String error builder.
+     */
+    private void parseMiniBatchOptions(final CommandLine cmd, final StringBuilder errorBuilder) {
+        if (cmd.hasOption(CliConstants.MINI_BATCH_LONG)) {
+            final String batchSizeString = cmd.getOptionValue(CliConstants.MINI_BATCH_LONG);
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(batchSizeString);
+            if (parseResult.isPresent() && (parseResult.get() >= 0)) {
+                setMiniBatchSize(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid mini-batch size. Expected non-negative int got: ")
+                        .append(batchSizeString).append('\n');
+            }
+        }
+
+        if (cmd.hasOption(CliConstants.MINI_BATCH_ITERATIONS_LONG)) {
+            final String iterationsString = cmd.getOptionValue(CliConstants.MINI_BATCH_ITERATIONS_LONG);
+            final Optional<Integer> parseResult = ParseUtils.tryParseInt(iterationsString);
+            if (parseResult.isPresent() && (parseResult.get() > 0)) {
+                setMiniBatchMaxIterations(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid mini-batch iteration count. Expected positive int got: ")
+                        .append(iterationsString).append('\n');
+            }
+        }
+
+        if (cmd.hasOption(CliConstants.MINI_BATCH_EPSILON_LONG)) {
+            final String epsilonString = cmd.getOptionValue(CliConstants.MINI_BATCH_EPSILON_LONG);
+            final Optional<Double> parseResult = ParseUtils.tryParseDouble(epsilonString);
+            if (parseResult.isPresent() && (parseResult.get() >= 0.0)) {
+                setMiniBatchConvergenceEpsilon(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid mini-batch epsilon. Expected non-negative number got: ")
+                        .append(epsilonString).append('\n');
+            }
+        }
+
+        if (cmd.hasOption(CliConstants.MINI_BATCH_LEARNING_RATE_LONG)) {
+            final String learningRateString = cmd.getOptionValue(CliConstants.MINI_BATCH_LEARNING_RATE_LONG);
+            final Optional<Double> parseResult = ParseUtils.tryParseDouble(learningRateString);
+            if (parseResult.isPresent() && (parseResult.get() >= 0.0) && (parseResult.get() <= 1.0)) {
+                setMiniBatchMinLearningRate(parseResult.get());
+            } else {
+                parseErrorOccurred = true;
+                errorBuilder.append("Invalid mini-batch learning rate. Expected number in range [0, 1] got: ")
+                        .append(learningRateString).append('\n');
+            }
+        }
+    }
+
     /**
      * Check if quantization type option is required for chosen program method..
      *
@@ -372,37 +662,10 @@ public class CompressionOptionsCLIParser extends CompressionOptions implements C
                 setQuantizationType(QuantizationType.Scalar);
             } else if (cmd.hasOption(CliConstants.VECTOR_QUANTIZATION_LONG)) {
                 final String vectorDefinition = cmd.getOptionValue(CliConstants.VECTOR_QUANTIZATION_LONG);
-
-                final Optional<V3i> maybe3DVectorSize = ParseUtils.tryParseV3i(vectorDefinition, 'x');
-                if (maybe3DVectorSize.isPresent()) {
-                    // Process 3D box dims.
-                    setQuantizationType(QuantizationType.Vector1D);
-                    if (maybe3DVectorSize.get().getY() > 1) {
-                        setQuantizationType(QuantizationType.Vector2D);
-                        if (maybe3DVectorSize.get().getZ() > 1) {
-                            setQuantizationType(QuantizationType.Vector3D);
-                        }
-                    }
-                    setQuantizationVector(maybe3DVectorSize.map(v3 -> new V3i(v3.getX(), v3.getY(), v3.getZ())).get());
-                    return;
-                }
-                final Optional<V2i> maybe2DVectorSize = ParseUtils.tryParseV2i(vectorDefinition, 'x');
-                if (maybe2DVectorSize.isPresent()) {
-                    // Process 2D matrix dims.
-                    setQuantizationType(QuantizationType.Vector1D);
-                    if (maybe2DVectorSize.get().getY() > 1) {
-                        setQuantizationType(QuantizationType.Vector2D);
-                    }
-
-                    setQuantizationVector(maybe2DVectorSize.map(v2 -> new V3i(v2.getX(), v2.getY(), 1)).get());
-                    return;
-                }
-
-                final Optional<Integer> maybe1DVectorSize = ParseUtils.tryParseInt(vectorDefinition);
-                if (maybe1DVectorSize.isPresent()) {
-                    // Process 1D row dims.
-                    setQuantizationType(QuantizationType.Vector1D);
-                    setQuantizationVector(maybe1DVectorSize.map(xDim -> new V3i(xDim, 1, 1)).get());
+                final Optional<V3i> maybeVectorSize = tryParseQuantizationVector(vectorDefinition);
+                if (maybeVectorSize.isPresent()) {
+                    setQuantizationType(CodebookTrainingConfiguration.getVectorQuantizationType(maybeVectorSize.get()));
+                    setQuantizationVector(maybeVectorSize.get());
                 } else {
                     parseErrorOccurred = true;
                     errorBuilder.append("Unable to determine vector dimensions from string: ")
@@ -413,6 +676,27 @@ public class CompressionOptionsCLIParser extends CompressionOptions implements C
         }
     }
 
+    /**
+     * Parse vector dimensions of the vector quantization.
+     *
+     * @param vectorDefinition Vector dimensions in D, DxD or DxDxD format.
+     * @return Vector dimensions or empty optional if the definition is invalid.
+     */
+    private Optional<V3i> tryParseQuantizationVector(final String vectorDefinition) {
+        final Optional<V3i> maybe3DVectorSize = ParseUtils.tryParseV3i(vectorDefinition, 'x');
+        if (maybe3DVectorSize.isPresent()) {
+            // Process 3D box dims.
+            return maybe3DVectorSize.map(v3 -> new V3i(v3.getX(), v3.getY(), v3.getZ()));
+        }
+        final Optional<V2i> maybe2DVectorSize = ParseUtils.tryParseV2i(vectorDefinition, 'x');
+        if (maybe2DVectorSize.isPresent()) {
+            // Process 2D matrix dims.
+            return maybe2DVectorSize.map(v2 -> new V3i(v2.getX(), v2.getY(), 1));
+        }
+        // Process 1D row dims.
+        return ParseUtils.tryParseInt(vectorDefinition).map(xDim -> new V3i(xDim, 1, 1));
+    }
+
     /**
      * Parse chosen program method.
      *
@@ -525,6 +809,73 @@ public class CompressionOptionsCLIParser extends CompressionOptions implements C
             sb.append("ToPlaneIndex: ").append(getInputDataInfo().getPlaneRange().getTo()).append('\n');
         }
 
+        if (!getTrainingConfigurations().isEmpty()) {
+            sb.append("TrainingConfigurations: ").append(getTrainingConfigurations()).append('\n');
+        }
+
+        if (getRefinementCacheFile() != null) {
+            sb.append("RefinedCodebook: ").append(getRefinementCacheFile()).append('\n');
+        }
+
+        if (getTrainingSampleSize() > 0) {
+            sb.append("TrainingSampleSize: ").append(getTrainingSampleSize()).append('\n');
+            if (shouldWeightTrainingSample()) {
+                sb.append("TrainingSampleImportance: true\n");
+            }
+        }
+
+        if (hasQuantizationType(method) && getQuantizationType().isOneOf(QuantizationType.Vector1D,
+                                                                             QuantizationType.Vector2D,
+                                                                             QuantizationType.Vector3D)) {
+            sb.append("CodebookSearch: ").append(getCodebookSearchMethod()).append('\n');
+            if (getCodebookSearchMethod() == CodebookSearchMethod.KDTree) {
+                sb.append("KDTreeMaxE: ").append(getKdTreeMaxE()).append('\n');
+            }
+            if (shouldRefineTSVQTree()) {
+                sb.append("RefineTSVQTree: true\n");
+            }
+            if (getVectorCacheCapacity() > 0) {
+                sb.append("VectorCacheCapacity: ").append(getVectorCacheCapacity()).append('\n');
+            }
+            if (getMiniBatchSize() > 0) {
+                sb.append("MiniBatchSize: ").append(getMiniBatchSize()).append('\n');
+                sb.append("MiniBatchMaxIterations: ").append(getMiniBatchMaxIterations()).append('\n');
+                sb.append("MiniBatchEpsilon: ").append(getMiniBatchConvergenceEpsilon()).append('\n');
+                sb.append("MiniBatchMinLearningRate: ").append(getMiniBatchMinLearningRate()).append('\n');
+            }
+            if (getCodebookTrainingMethod() != CodebookTrainingMethod.LBG) {
+                sb.append("CodebookTrainer: ").append(getCodebookTrainingMethod()).append('\n');
+            }
+            if (getCodebookInitialization() != CodebookInitialization.Splitting) {
+                sb.append("CodebookInitialization: ").append(getCodebookInitialization()).append('\n');
+            }
+            if (shouldUseCoarseToFineTraining()) {
+                sb.append("CoarseToFineTraining: true\n");
+            }
+            if (getCheckpointInterval() >= 0) {
+                sb.append("CheckpointInterval: ").append(getCheckpointInterval()).append('\n');
+            }
+            if (shouldResumeTraining()) {
+                sb.append("ResumeTraining: true\n");
+            }
+            if (shouldUseMappedTraining()) {
+                sb.append("MappedTraining: true\n");
+            }
+            if (getShardCoordinatorPort() >= 0) {
+                if (getShardCoordinatorAddress() != null) {
+                    sb.append("ShardCoordinatorAddress: ").append(getShardCoordinatorAddress()).append('\n');
+                }
+                sb.append("ShardCoordinatorPort: ").append(getShardCoordinatorPort()).append('\n');
+                sb.append("ShardCount: ").append(getShardCount()).append('\n');
+            }
+            if (getShardWorkerHost() != null) {
+                sb.append("ShardWorker: ").append(getShardWorkerHost()).append(':').append(getShardWorkerPort()).append('\n');
+            }
+            if ((getShardCoordinatorPort() >= 0) || (getShardWorkerHost() != null)) {
+                sb.append("ShardTimeout: ").append(getShardTimeout()).append('\n');
+            }
+        }
+
         sb.append("Verbose: ").append(isVerbose()).append('\n');
         sb.append("ThreadWorkerCount: ").append(getWorkerCount()).append('\n');
 
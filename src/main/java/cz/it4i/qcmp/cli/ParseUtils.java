@@ -26,6 +26,38 @@ public abstract class ParseUtils {
         }
     }
 
+    /**
+     * Try to parse double from string.
+     *
+     * @param string Possible double value.
+     * @return Parse result.
+     */
+    public static Optional<Double> tryParseDouble(final String string) {
+        try {
+            return Optional.of(Double.parseDouble(string));
+        } catch (final NumberFormatException ignored) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Try to parse enum constant from string. Comparison is case insensitive.
+     *
+     * @param enumClass Class of the enum.
+     * @param string    Name of the enum constant.
+     * @param <E>       Enum type.
+     * @return Parse result.
+     */
+    public static <E extends Enum<E>> Optional<E> tryParseEnum(final Class<E> enumClass, final String string) {
+        final String name = removeSpacesInString(string);
+        for (final E constant : enumClass.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(name)) {
+                return Optional.of(constant);
+            }
+        }
+        return Optional.empty();
+    }
+
     /**
      * Try to parse integer range from string.
      *
@@ -0,0 +1,72 @@
+package cz.it4i.qcmp.compression;
+
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.fileformat.QuantizationType;
+
+/**
+ * Quantization type and vector dimensions of single codebook trained by {@link CodebookTrainingScheduler}.
+ */
+public class CodebookTrainingConfiguration {
+    private final QuantizationType quantizationType;
+    private final V3i quantizationVector;
+
+    /**
+     * Create configuration of the scalar quantization codebook.
+     */
+    public CodebookTrainingConfiguration() {
+        this(QuantizationType.Scalar, new V3i(1, 1, 1));
+    }
+
+    /**
+     * Create configuration of the vector quantization codebook. Quantization type is derived from the vector
+     * dimensions.
+     *
+     * @param quantizationVector Dimensions of the quantization vector.
+     */
+    public CodebookTrainingConfiguration(final V3i quantizationVector) {
+        this(getVectorQuantizationType(quantizationVector), quantizationVector);
+    }
+
+    private CodebookTrainingConfiguration(final QuantizationType quantizationType, final V3i quantizationVector) {
+        this.quantizationType = quantizationType;
+        this.quantizationVector = quantizationVector;
+    }
+
+    /**
+     * Get the vector quantization type of the vector dimensions.
+     *
+     * @param quantizationVector Dimensions of the quantization vector.
+     * @return Vector1D, Vector2D or Vector3D.
+     */
+    public static QuantizationType getVectorQuantizationType(final V3i quantizationVector) {
+        if (quantizationVector.getY() > 1) {
+            return (quantizationVector.getZ() > 1) ? QuantizationType.Vector3D : QuantizationType.Vector2D;
+        }
+        return QuantizationType.Vector1D;
+    }
+
+    public QuantizationType getQuantizationType() {
+        return quantizationType;
+    }
+
+    public V3i getQuantizationVector() {
+        return quantizationVector;
+    }
+
+    /**
+     * Get the number of elements of the quantization vector, one for the scalar quantization.
+     *
+     * @return Vector size.
+     */
+    public int getVectorSize() {
+        return (int) quantizationVector.multiplyTogether();
+    }
+
+    @Override
+    public String toString() {
+        if (quantizationType == QuantizationType.Scalar) {
+            return "SQ";
+        }
+        return quantizationVector.getX() + "x" + quantizationVector.getY() + "x" + quantizationVector.getZ();
+    }
+}
@@ -0,0 +1,292 @@
+package cz.it4i.qcmp.compression;
+
+import cz.it4i.qcmp.compression.exception.ImageCompressionException;
+import cz.it4i.qcmp.data.Range;
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.fileformat.QuantizationType;
+import cz.it4i.qcmp.io.FlatBufferInputData;
+import cz.it4i.qcmp.io.InputData;
+import cz.it4i.qcmp.io.loader.IPlaneLoader;
+import cz.it4i.qcmp.io.loader.PlaneLoaderFactory;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
+import cz.it4i.qcmp.utilities.Stopwatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Training job, which trains codebooks of several quantization configurations from single load of the input planes.
+ * <p>
+ * Training planes are loaded once into the flat 16 bit buffer and every configuration is trained by the SQ or VQ
+ * compressor reading its vectors from that buffer, so the codebooks are saved to the cache folder exactly as by
+ * separate training runs. The SQ compressor trains on the plane range including its last plane, the VQ compressor
+ * excludes it, so the buffer holds the planes of both and the VQ trainings read it through the plane range without
+ * the last plane. Configurations are trained concurrently and share the worker count of the options.
+ * Configurations with the largest vectors are started first and every started training gets the even share of the
+ * free workers, workers of the finished training are passed to the configurations started after it. Every training
+ * runs in its own job pool sized to its share, so the trainings with the same share don't compete for the threads
+ * of one shared pool.
+ */
+public class CodebookTrainingScheduler extends CompressorDecompressorBase {
+
+    /**
+     * Number of workers not used by the running trainings.
+     */
+    private int freeWorkerCount;
+
+    /**
+     * Number of trainings which can run at once.
+     */
+    private int idleSlotCount;
+
+    /**
+     * Number of workers requested by options.
+     */
+    private int totalWorkerCount;
+
+    /**
+     * Job pools of the running trainings.
+     */
+    private final ArrayList<ForkJoinPool> activePools = new ArrayList<>();
+
+    public CodebookTrainingScheduler(final CompressionOptions options) {
+        super(options);
+        if (options.isVerbose()) {
+            addStatusListener(this::defaultLog);
+        }
+    }
+
+    /**
+     * Train and save codebooks of all training configurations set in options.
+     *
+     * @return True if all codebooks were trained and saved.
+     */
+    public boolean trainAndSaveCodebooks() {
+        reportStatusToListeners("=== Training codebooks of %d configurations ===", options.getTrainingConfigurations().size());
+        final Stopwatch stopwatch = Stopwatch.startNew();
+        final List<CodebookTrainingConfiguration> configurations = new ArrayList<>(options.getTrainingConfigurations());
+        configurations.sort(Comparator.comparingInt(CodebookTrainingConfiguration::getVectorSize).reversed());
+
+        final boolean hasScalarConfiguration = configurations.stream().anyMatch(
+                configuration -> configuration.getQuantizationType() == QuantizationType.Scalar);
+        final Range<Integer> loadedPlaneRange = getTrainingPlaneRange(hasScalarConfiguration);
+        final Range<Integer> vectorPlaneRange = getTrainingPlaneRange(false);
+        final FlatBufferInputData trainingData;
+        try {
+            trainingData = loadTrainingPlanes(loadedPlaneRange);
+        } catch (final ImageCompressionException e) {
+            System.err.println(e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        final InputData vectorTrainingData = createVectorTrainingData(trainingData, vectorPlaneRange);
+
+        final int workerCount = Math.max(1, options.getWorkerCount());
+        totalWorkerCount = workerCount;
+        freeWorkerCount = workerCount;
+        idleSlotCount = Math.min(configurations.size(), workerCount);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(idleSlotCount);
+        final ArrayList<Future<?>> futures = new ArrayList<>(configurations.size());
+        for (int i = 0; i < configurations.size(); i++) {
+            final CodebookTrainingConfiguration configuration = configurations.get(i);
+            final int remainingCount = configurations.size() - i;
+            futures.add(executor.submit(() -> {
+                final InputData configurationData = (configuration.getQuantizationType() == QuantizationType.Scalar)
+                        ? trainingData
+                        : vectorTrainingData;
+                trainConfiguration(configuration, configurationData, remainingCount);
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        boolean success = true;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (final ExecutionException e) {
+                System.err.printf("Training of %s codebook failed. %s%n", configurations.get(i), e.getCause().getMessage());
+                e.getCause().printStackTrace();
+                success = false;
+            }
+        }
+        stopwatch.stop();
+        reportStatusToListeners("Trained codebooks of %d configurations in %s.",
+                                configurations.size(), stopwatch.getElapsedTimeString());
+        return success;
+    }
+
+    /**
+     * Load the training planes into the flat buffer.
+     *
+     * @param planeRange Range of the loaded planes, end exclusive.
+     * @return Input data of the buffer, which doesn't select any plane.
+     * @throws ImageCompressionException when the planes can't be loaded.
+     */
+    private FlatBufferInputData loadTrainingPlanes(final Range<Integer> planeRange) throws ImageCompressionException {
+        final InputData inputDataInfo = options.getInputDataInfo();
+        final IPlaneLoader planeLoader;
+        try {
+            planeLoader = PlaneLoaderFactory.getPlaneLoaderForInputFile(inputDataInfo);
+        } catch (final Exception e) {
+            throw new ImageCompressionException("Unable to create plane reader. " + e.getMessage());
+        }
+
+        final V3i dims = inputDataInfo.getDimensions();
+        final int planePixelCount = dims.getX() * dims.getY();
+        final int planeCount = planeRange.getTo() - planeRange.getFrom();
+        if ((long) planePixelCount * planeCount > Integer.MAX_VALUE) {
+            throw new ImageCompressionException("Training planes " + planeRange + " don't fit into single buffer.");
+        }
+
+        reportStatusToListeners("Loading training planes %s...", planeRange.toString());
+        final short[] buffer = new short[planePixelCount * planeCount];
+        try {
+            for (int plane = planeRange.getFrom(); plane < planeRange.getTo(); plane++) {
+                final int[] planeData = planeLoader.loadPlaneData(plane);
+                final int offset = (plane - planeRange.getFrom()) * planePixelCount;
+                for (int i = 0; i < planePixelCount; i++) {
+                    buffer[offset + i] = (short) planeData[i];
+                }
+            }
+        } catch (final IOException e) {
+            throw new ImageCompressionException("Unable to load training planes.", e);
+        }
+        return new FlatBufferInputData(buffer,
+                                       new V3i(dims.getX(), dims.getY(), planeCount),
+                                       InputData.PixelType.Gray16,
+                                       inputDataInfo.getCacheFileName());
+    }
+
+    /**
+     * Get the range of the training planes selected by options. The plane range of options includes its last plane
+     * in the SQ training (see getPlaneIndicesForCompression()) and excludes it in the VQ training.
+     *
+     * @param scalar True to get the planes of the SQ training, false for the VQ training.
+     * @return Plane range, end exclusive.
+     */
+    private Range<Integer> getTrainingPlaneRange(final boolean scalar) {
+        final InputData inputDataInfo = options.getInputDataInfo();
+        if (options.getCodebookType() == CompressionOptions.CodebookType.MiddlePlane) {
+            final int middlePlaneIndex = inputDataInfo.getDimensions().getZ() / 2;
+            return new Range<>(middlePlaneIndex, middlePlaneIndex + 1);
+        } else if (inputDataInfo.isPlaneIndexSet()) {
+            return new Range<>(inputDataInfo.getPlaneIndex(), inputDataInfo.getPlaneIndex() + 1);
+        } else if (inputDataInfo.isPlaneRangeSet()) {
+            final Range<Integer> planeRange = inputDataInfo.getPlaneRange();
+            return scalar ? new Range<>(planeRange.getFrom(), planeRange.getTo() + 1) : planeRange;
+        }
+        return new Range<>(0, inputDataInfo.getDimensions().getZ());
+    }
+
+    /**
+     * Create input data of the VQ trainings, which selects the VQ training planes from the loaded buffer.
+     *
+     * @param loadedData       Input data of the loaded buffer.
+     * @param vectorPlaneRange Range of the VQ training planes, starting at the first loaded plane.
+     * @return Input data of the same buffer.
+     */
+    private static InputData createVectorTrainingData(final FlatBufferInputData loadedData,
+                                                      final Range<Integer> vectorPlaneRange) {
+        final int vectorPlaneCount = vectorPlaneRange.getTo() - vectorPlaneRange.getFrom();
+        final V3i dims = loadedData.getDimensions();
+        if (vectorPlaneCount == dims.getZ()) {
+            return loadedData;
+        }
+        final FlatBufferInputData vectorData = new FlatBufferInputData(loadedData.getPixelBuffer(),
+                                                                       dims,
+                                                                       loadedData.getPixelType(),
+                                                                       loadedData.getCacheFileName());
+        vectorData.setPlaneRange(new Range<>(0, vectorPlaneCount));
+        return vectorData;
+    }
+
+    /**
+     * Train and save the codebook of single configuration.
+     *
+     * @param configuration  Training configuration.
+     * @param trainingData   Input data of the loaded training planes.
+     * @param remainingCount Number of configurations which weren't started yet, including this one.
+     * @throws ImageCompressionException when the training fails.
+     */
+    private void trainConfiguration(final CodebookTrainingConfiguration configuration,
+                                    final InputData trainingData,
+                                    final int remainingCount) throws ImageCompressionException {
+        final ForkJoinPool pool = acquireWorkerPool(remainingCount);
+        final int workerCount = pool.getParallelism();
+        try {
+            final CompressionOptions configurationOptions = options.createClone();
+            configurationOptions.setQuantizationType(configuration.getQuantizationType());
+            configurationOptions.setQuantizationVector(configuration.getQuantizationVector());
+            configurationOptions.setInputDataInfo(trainingData);
+            configurationOptions.setWorkerCount(workerCount);
+
+            final IImageCompressor compressor = (configuration.getQuantizationType() == QuantizationType.Scalar)
+                    ? new SQImageCompressor(configurationOptions)
+                    : new VQImageCompressor(configurationOptions);
+            final String prefix = "[" + configuration + "] ";
+            compressor.addStatusListener(message -> reportStatusToListeners(prefix + message));
+
+            reportStatusToListeners("%sTraining codebook with %d workers.", prefix, workerCount);
+            final Stopwatch stopwatch = Stopwatch.startNew();
+            ParallelExecutor.runInPool(pool, compressor::trainAndSaveCodebook);
+            stopwatch.stop();
+            reportStatusToListeners("%sCodebook trained in %s.", prefix, stopwatch.getElapsedTimeString());
+        } finally {
+            releaseWorkerPool(pool);
+        }
+    }
+
+    /**
+     * Take the share of the free workers for the started training and create its job pool.
+     *
+     * @param remainingCount Number of configurations which weren't started yet, including the started one.
+     * @return Job pool of the training with parallelism equal to the number of its workers.
+     */
+    private synchronized ForkJoinPool acquireWorkerPool(final int remainingCount) {
+        final int startingCount = Math.max(1, Math.min(idleSlotCount, remainingCount));
+        final int workerCount = Math.max(1, (freeWorkerCount + startingCount - 1) / startingCount);
+        freeWorkerCount -= workerCount;
+        --idleSlotCount;
+        final ForkJoinPool pool = ParallelExecutor.createJobPool(workerCount);
+        activePools.add(pool);
+        checkActiveParallelism();
+        return pool;
+    }
+
+    private synchronized void releaseWorkerPool(final ForkJoinPool pool) {
+        activePools.remove(pool);
+        pool.shutdown();
+        freeWorkerCount += pool.getParallelism();
+        ++idleSlotCount;
+        checkActiveParallelism();
+    }
+
+    /**
+     * Check that the job pools of the running trainings together have exactly the acquired workers, so the
+     * requested worker count is neither exceeded nor left unused.
+     */
+    private void checkActiveParallelism() {
+        int activeParallelism = 0;
+        for (final ForkJoinPool activePool : activePools) {
+            activeParallelism += activePool.getParallelism();
+        }
+        if ((activeParallelism != totalWorkerCount - freeWorkerCount) || (freeWorkerCount < 0)) {
+            throw new IllegalStateException(String.format("Job pools have %d workers, but %d of %d workers were acquired.",
+                                                          activeParallelism,
+                                                          totalWorkerCount - freeWorkerCount,
+                                                          totalWorkerCount));
+        }
+    }
+}
@@ -4,6 +4,15 @@ import cz.it4i.qcmp.cache.ICacheFile;
 import cz.it4i.qcmp.data.V3i;
 import cz.it4i.qcmp.fileformat.QuantizationType;
 import cz.it4i.qcmp.io.InputData;
+import cz.it4i.qcmp.quantization.vector.CodebookInitialization;
+import cz.it4i.qcmp.quantization.vector.CodebookSearchMethod;
+import cz.it4i.qcmp.quantization.vector.CodebookTrainingMethod;
+import cz.it4i.qcmp.quantization.vector.KDTreeSearch;
+import cz.it4i.qcmp.quantization.vector.MiniBatchLBGVectorQuantizer;
+import cz.it4i.qcmp.quantization.vector.ShardedLBGCoordinator;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Options for the compressor/decompressor.
@@ -62,9 +71,126 @@ public class CompressionOptions implements Cloneable {
      */
     private boolean verbose = false;
 
+    /**
+     * Method used to find the closest codebook entry in vector quantization.
+     */
+    private CodebookSearchMethod codebookSearchMethod = CodebookSearchMethod.TiledBatch;
+
+    /**
+     * Maximum number of visited KD-tree leaves in the KDTree codebook search, zero means exact search.
+     */
+    private int kdTreeMaxE = KDTreeSearch.DEFAULT_MAX_E;
+
+    /**
+     * Capacity of the per thread cache of quantized vectors, zero disables the cache.
+     */
+    private int vectorCacheCapacity = 0;
+
+    /**
+     * Flag whether the TSVQ tree of the trained codebook is refined for the tree descent.
+     */
+    private boolean refineTSVQTree = false;
+
+    /**
+     * Batch size of the mini-batch LBG codebook training, zero selects the full LBG.
+     */
+    private int miniBatchSize = 0;
+
+    /**
+     * Maximum number of mini-batch LBG iterations.
+     */
+    private int miniBatchMaxIterations = MiniBatchLBGVectorQuantizer.DEFAULT_MAX_ITERATIONS;
+
+    /**
+     * Relative improvement of the batch MSE, under which the mini-batch LBG stops.
+     */
+    private double miniBatchConvergenceEpsilon = MiniBatchLBGVectorQuantizer.DEFAULT_CONVERGENCE_EPSILON;
+
+    /**
+     * Lower bound of the mini-batch LBG learning rate.
+     */
+    private double miniBatchMinLearningRate = MiniBatchLBGVectorQuantizer.DEFAULT_MIN_LEARNING_RATE;
+
+    /**
+     * Algorithm training the VQ codebook from the data loaded into memory.
+     */
+    private CodebookTrainingMethod codebookTrainingMethod = CodebookTrainingMethod.LBG;
+
+    /**
+     * Method creating the initial codebook for the LBG training.
+     */
+    private CodebookInitialization codebookInitialization = CodebookInitialization.Splitting;
+
+    /**
+     * Flag whether the smaller LBG split levels are trained on the sample of the training vectors.
+     */
+    private boolean coarseToFineTraining = false;
+
+    /**
+     * Number of LBG iterations between the training checkpoints, zero for checkpoints only after the split levels
+     * and negative value disables the checkpoints.
+     */
+    private int checkpointInterval = -1;
+
+    /**
+     * Flag whether the LBG training is resumed from the checkpoint in the codebook cache.
+     */
+    private boolean resumeTraining = false;
+
+    /**
+     * Flag whether the training vectors are kept in the memory-mapped file instead of the heap.
+     */
+    private boolean useMappedTraining = false;
+
+    /**
+     * Cache file with the codebook which is refined instead of training the codebook from scratch, null if not set.
+     */
+    private String refinementCacheFile = null;
+
+    /**
+     * Quantization configurations of the codebooks trained from single load of the planes, empty for single codebook.
+     */
+    private List<CodebookTrainingConfiguration> trainingConfigurations = Collections.emptyList();
+
+    /**
+     * Maximum number of training vectors sampled while streaming the training planes, zero loads all vectors.
+     */
+    private int trainingSampleSize = 0;
+
+    /**
+     * Flag whether the VQ training vectors are sampled with the weight given by the deviation of their values.
+     */
+    private boolean weightTrainingSample = false;
+
+    /**
+     * Port of the sharded LBG coordinator, negative value disables the sharded training.
+     */
+    private int shardCoordinatorPort = -1;
+
+    /**
+     * Address on which the sharded LBG coordinator listens, null for all interfaces.
+     */
+    private String shardCoordinatorAddress = null;
+
+    /**
+     * Timeout of the sharded LBG communication in seconds.
+     */
+    private int shardTimeout = ShardedLBGCoordinator.DEFAULT_TIMEOUT;
+
+    /**
+     * Number of workers the sharded LBG coordinator waits for.
+     */
+    private int shardCount = 1;
+
+    /**
+     * Host of the coordinator served by this process as the shard worker or null.
+     */
+    private String shardWorkerHost = null;
+    private int shardWorkerPort = -1;
+
     public CompressionOptions() {
         final int cores = Runtime.getRuntime().availableProcessors();
-        this.workerCount = (cores / 2);
+        this.workerCount = Math.max(1, cores / 2);
     }
 
     public CompressionOptions(final ICacheFile codebookCacheFile) {
@@ -166,6 +292,198 @@ public class CompressionOptions implements Cloneable {
         this.codebookType = codebookType;
     }
 
+    public CodebookSearchMethod getCodebookSearchMethod() {
+        return codebookSearchMethod;
+    }
+
+    public void setCodebookSearchMethod(final CodebookSearchMethod codebookSearchMethod) {
+        this.codebookSearchMethod = codebookSearchMethod;
+    }
+
+    public int getKdTreeMaxE() {
+        return kdTreeMaxE;
+    }
+
+    public void setKdTreeMaxE(final int kdTreeMaxE) {
+        this.kdTreeMaxE = kdTreeMaxE;
+    }
+
+    public int getVectorCacheCapacity() {
+        return vectorCacheCapacity;
+    }
+
+    public void setVectorCacheCapacity(final int vectorCacheCapacity) {
+        this.vectorCacheCapacity = vectorCacheCapacity;
+    }
+
+    public boolean shouldRefineTSVQTree() {
+        return refineTSVQTree;
+    }
+
+    public void setRefineTSVQTree(final boolean refineTSVQTree) {
+        this.refineTSVQTree = refineTSVQTree;
+    }
+
+    public int getMiniBatchSize() {
+        return miniBatchSize;
+    }
+
+    public void setMiniBatchSize(final int miniBatchSize) {
+        this.miniBatchSize = miniBatchSize;
+    }
+
+    public int getMiniBatchMaxIterations() {
+        return miniBatchMaxIterations;
+    }
+
+    public void setMiniBatchMaxIterations(final int miniBatchMaxIterations) {
+        this.miniBatchMaxIterations = miniBatchMaxIterations;
+    }
+
+    public double getMiniBatchConvergenceEpsilon() {
+        return miniBatchConvergenceEpsilon;
+    }
+
+    public void setMiniBatchConvergenceEpsilon(final double miniBatchConvergenceEpsilon) {
+        this.miniBatchConvergenceEpsilon = miniBatchConvergenceEpsilon;
+    }
+
+    public double getMiniBatchMinLearningRate() {
+        return miniBatchMinLearningRate;
+    }
+
+    public void setMiniBatchMinLearningRate(final double miniBatchMinLearningRate) {
+        this.miniBatchMinLearningRate = miniBatchMinLearningRate;
+    }
+
+    public CodebookTrainingMethod getCodebookTrainingMethod() {
+        return codebookTrainingMethod;
+    }
+
+    public void setCodebookTrainingMethod(final CodebookTrainingMethod codebookTrainingMethod) {
+        this.codebookTrainingMethod = codebookTrainingMethod;
+    }
+
+    public CodebookInitialization getCodebookInitialization() {
+        return codebookInitialization;
+    }
+
+    public void setCodebookInitialization(final CodebookInitialization codebookInitialization) {
+        this.codebookInitialization = codebookInitialization;
+    }
+
+    public boolean shouldUseCoarseToFineTraining() {
+        return coarseToFineTraining;
+    }
+
+    public void setCoarseToFineTraining(final boolean coarseToFineTraining) {
+        this.coarseToFineTraining = coarseToFineTraining;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(final int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public boolean shouldResumeTraining() {
+        return resumeTraining;
+    }
+
+    public void setResumeTraining(final boolean resumeTraining) {
+        this.resumeTraining = resumeTraining;
+    }
+
+    public boolean shouldUseMappedTraining() {
+        return useMappedTraining;
+    }
+
+    public void setUseMappedTraining(final boolean useMappedTraining) {
+        this.useMappedTraining = useMappedTraining;
+    }
+
+    public String getRefinementCacheFile() {
+        return refinementCacheFile;
+    }
+
+    public void setRefinementCacheFile(final String refinementCacheFile) {
+        this.refinementCacheFile = refinementCacheFile;
+    }
+
+    public List<CodebookTrainingConfiguration> getTrainingConfigurations() {
+        return trainingConfigurations;
+    }
+
+    public void setTrainingConfigurations(final List<CodebookTrainingConfiguration> trainingConfigurations) {
+        this.trainingConfigurations = trainingConfigurations;
+    }
+
+    public int getTrainingSampleSize() {
+        return trainingSampleSize;
+    }
+
+    public void setTrainingSampleSize(final int trainingSampleSize) {
+        this.trainingSampleSize = trainingSampleSize;
+    }
+
+    public boolean shouldWeightTrainingSample() {
+        return weightTrainingSample;
+    }
+
+    public void setWeightTrainingSample(final boolean weightTrainingSample) {
+        this.weightTrainingSample = weightTrainingSample;
+    }
+
+    public int getShardCoordinatorPort() {
+        return shardCoordinatorPort;
+    }
+
+    public void setShardCoordinatorPort(final int shardCoordinatorPort) {
+        this.shardCoordinatorPort = shardCoordinatorPort;
+    }
+
+    public String getShardCoordinatorAddress() {
+        return shardCoordinatorAddress;
+    }
+
+    public void setShardCoordinatorAddress(final String shardCoordinatorAddress) {
+        this.shardCoordinatorAddress = shardCoordinatorAddress;
+    }
+
+    public int getShardTimeout() {
+        return shardTimeout;
+    }
+
+    public void setShardTimeout(final int shardTimeout) {
+        this.shardTimeout = shardTimeout;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public void setShardCount(final int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public String getShardWorkerHost() {
+        return shardWorkerHost;
+    }
+
+    public void setShardWorkerHost(final String shardWorkerHost) {
+        this.shardWorkerHost = shardWorkerHost;
+    }
+
+    public int getShardWorkerPort() {
+        return shardWorkerPort;
+    }
+
+    public void setShardWorkerPort(final int shardWorkerPort) {
+        this.shardWorkerPort = shardWorkerPort;
+    }
+
     public boolean isConsoleApplication() {
         return false;
     }
@@ -6,6 +6,7 @@ import cz.it4i.qcmp.compression.listeners.IStatusListener;
 import cz.it4i.qcmp.huffman.Huffman;
 import cz.it4i.qcmp.io.InputData;
 import cz.it4i.qcmp.io.OutBitStream;
+import cz.it4i.qcmp.quantization.QuantizationResult;
 
 import java.io.DataOutputStream;
 import java.util.ArrayList;
@@ -169,6 +170,18 @@ public abstract class CompressorDecompressorBase {
         }
     }
 
+    /**
+     * Report the quantization error and statistics of the codebook indices, which were collected
+     * during the quantization pass.
+     *
+     * @param result Quantization result.
+     */
+    protected void reportQuantizationStatistics(final QuantizationResult result) {
+        reportStatusToListeners("Quantization: MSE %.4f, PSNR %.4f dB, index entropy %.4f bits, %d/%d codebook entries used.",
+                                result.getMse(), result.getPsnr(), result.getIndexEntropy(),
+                                result.getUsedEntryCount(), result.getHistogram().length);
+    }
+
     protected int getCodebookSize() {
         return codebookSize;
     }
@@ -0,0 +1,181 @@
+package cz.it4i.qcmp.compression;
+
+import cz.it4i.qcmp.compression.exception.ImageCompressionException;
+import cz.it4i.qcmp.data.Range;
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.data.VectorReservoir;
+import cz.it4i.qcmp.fileformat.QuantizationType;
+import cz.it4i.qcmp.io.loader.IPlaneLoader;
+import cz.it4i.qcmp.quantization.vector.IVectorBatchSource;
+
+import java.util.Random;
+
+/**
+ * Source of training vector batches, which samples vectors from the pool of randomly selected planes (voxel layers).
+ * <p>
+ * Pool holds at most POOL_LAYER_COUNT loaded layers and every vector of the batch is drawn uniformly from all pooled
+ * vectors, so single batch doesn't depend on one layer. After every batch one pooled layer is replaced by another
+ * random layer, so only one layer is loaded per batch and all layers are visited during the training. Validation
+ * batch is sampled from the evenly spaced layers of the whole plane range.
+ */
+class PlaneVectorBatchSource implements IVectorBatchSource {
+    /**
+     * Maximum number of layers held in the pool.
+     */
+    private static final int POOL_LAYER_COUNT = 4;
+
+    /**
+     * Maximum number of evenly spaced layers sampled into the validation batch.
+     */
+    private static final int VALIDATION_LAYER_COUNT = 16;
+
+    private final IPlaneLoader planeLoader;
+    private final CompressionOptions options;
+    private final Range<Integer> planeRange;
+
+    /**
+     * Number of planes loaded together, voxel depth for 3D vectors, otherwise one.
+     */
+    private final int layerDepth;
+    private final int layerCount;
+    private final Random random;
+
+    /**
+     * Pooled layers and their layer indices.
+     */
+    private final VectorBatch[] pool;
+    private final int[] poolLayers;
+    private boolean poolLoaded = false;
+
+    /**
+     * Create batch source.
+     *
+     * @param planeLoader Loader of the image planes.
+     * @param options     Compression options with the quantization vector.
+     * @param planeRange  Range of planes, from which the vectors are sampled.
+     * @param seed        Seed of the random layer and vector selection.
+     */
+    PlaneVectorBatchSource(final IPlaneLoader planeLoader,
+                           final CompressionOptions options,
+                           final Range<Integer> planeRange,
+                           final long seed) {
+        this.planeLoader = planeLoader;
+        this.options = options;
+        this.planeRange = planeRange;
+        this.layerDepth = (options.getQuantizationType() == QuantizationType.Vector3D)
+                ? options.getQuantizationVector().getZ()
+                : 1;
+        this.layerCount = Math.max(1, (planeRange.getTo() - planeRange.getFrom()) / layerDepth);
+        this.random = new Random(seed);
+        this.pool = new VectorBatch[Math.min(POOL_LAYER_COUNT, layerCount)];
+        this.poolLayers = new int[pool.length];
+    }
+
+    @Override
+    public VectorBatch nextBatch(final int batchSize) throws ImageCompressionException {
+        if (!poolLoaded) {
+            loadPool();
+        } else {
+            replacePooledLayer();
+        }
+
+        int pooledVectorCount = 0;
+        for (final VectorBatch layerVectors : pool) {
+            pooledVectorCount += layerVectors.getVectorCount();
+        }
+        final int vectorSize = (int) options.getQuantizationVector().multiplyTogether();
+        final int[] batchData = new int[batchSize * vectorSize];
+        for (int vectorIndex = 0; vectorIndex < batchSize; vectorIndex++) {
+            int pooledIndex = random.nextInt(pooledVectorCount);
+            int poolIndex = 0;
+            while (pooledIndex >= pool[poolIndex].getVectorCount()) {
+                pooledIndex -= pool[poolIndex].getVectorCount();
+                ++poolIndex;
+            }
+            System.arraycopy(pool[poolIndex].getData(), pool[poolIndex].getOffset(pooledIndex),
+                             batchData, vectorIndex * vectorSize, vectorSize);
+        }
+        return new VectorBatch(batchData, vectorSize);
+    }
+
+    @Override
+    public VectorBatch nextValidationBatch(final int batchSize) throws ImageCompressionException {
+        final int vectorSize = (int) options.getQuantizationVector().multiplyTogether();
+        final VectorReservoir reservoir = new VectorReservoir(vectorSize, batchSize, false, random);
+        final int sampledLayerCount = Math.min(VALIDATION_LAYER_COUNT, layerCount);
+        for (int i = 0; i < sampledLayerCount; i++) {
+            reservoir.add(loadLayer((int) (((long) i * layerCount) / sampledLayerCount)));
+        }
+        return reservoir.toVectorBatch();
+    }
+
+    /**
+     * Fill the pool with distinct random layers.
+     *
+     * @throws ImageCompressionException when the layer can't be loaded or yields no vectors.
+     */
+    private void loadPool() throws ImageCompressionException {
+        // Partial Fisher-Yates shuffle of the layer indices selects the distinct layers.
+        final int[] layers = new int[layerCount];
+        for (int i = 0; i < layerCount; i++) {
+            layers[i] = i;
+        }
+        for (int i = 0; i < pool.length; i++) {
+            final int j = i + random.nextInt(layerCount - i);
+            final int layer = layers[j];
+            layers[j] = layers[i];
+            layers[i] = layer;
+            poolLayers[i] = layer;
+            pool[i] = loadLayer(layer);
+        }
+        poolLoaded = true;
+    }
+
+    /**
+     * Replace random pooled layer by random layer, which isn't in the pool.
+     *
+     * @throws ImageCompressionException when the layer can't be loaded or yields no vectors.
+     */
+    private void replacePooledLayer() throws ImageCompressionException {
+        if (pool.length == layerCount) {
+            return;
+        }
+        int layer;
+        do {
+            layer = random.nextInt(layerCount);
+        } while (isPooled(layer));
+        final int poolIndex = random.nextInt(pool.length);
+        poolLayers[poolIndex] = layer;
+        pool[poolIndex] = loadLayer(layer);
+    }
+
+    private boolean isPooled(final int layer) {
+        for (final int pooledLayer : poolLayers) {
+            if (pooledLayer == layer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Load vectors of the layer.
+     *
+     * @param layer Layer index.
+     * @return Vectors of the layer.
+     * @throws ImageCompressionException when the layer can't be loaded or yields no vectors.
+     */
+    private VectorBatch loadLayer(final int layer) throws ImageCompressionException {
+        final int fromPlane = planeRange.getFrom() + (layer * layerDepth);
+        final Range<Integer> layerRange = new Range<>(fromPlane, Math.min(fromPlane + layerDepth, planeRange.getTo()));
+        final VectorBatch layerVectors = planeLoader.loadVectorBatchFromPlaneRange(options, layerRange);
+        if (layerVectors.getVectorCount() == 0) {
+            final V3i vectorDims = options.getQuantizationVector();
+            throw new ImageCompressionException(String.format("Planes %s yield no training vectors of dimensions %dx%dx%d.",
+                                                              layerRange, vectorDims.getX(), vectorDims.getY(),
+                                                              vectorDims.getZ()));
+        }
+        return layerVectors;
+    }
+}
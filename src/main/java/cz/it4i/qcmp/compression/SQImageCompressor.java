@@ -5,13 +5,17 @@ import cz.it4i.qcmp.cache.ICacheFile;
 import cz.it4i.qcmp.cache.QuantizationCacheManager;
 import cz.it4i.qcmp.cache.SQCacheFile;
 import cz.it4i.qcmp.compression.exception.ImageCompressionException;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.data.VectorReservoir;
 import cz.it4i.qcmp.huffman.Huffman;
 import cz.it4i.qcmp.io.InputData;
 import cz.it4i.qcmp.io.loader.IPlaneLoader;
 import cz.it4i.qcmp.io.loader.PlaneLoaderFactory;
+import cz.it4i.qcmp.quantization.QuantizationResult;
 import cz.it4i.qcmp.quantization.scalar.LloydMaxU16ScalarQuantization;
 import cz.it4i.qcmp.quantization.scalar.SQCodebook;
 import cz.it4i.qcmp.quantization.scalar.ScalarQuantizer;
+import cz.it4i.qcmp.quantization.scalar.U16Histogram;
 import cz.it4i.qcmp.utilities.Stopwatch;
 
 import java.io.DataOutputStream;
@@ -37,10 +41,28 @@ public class SQImageCompressor extends CompressorDecompressorBase implements IIm
         final LloydMaxU16ScalarQuantization lloydMax = new LloydMaxU16ScalarQuantization(planeData,
                                                                                          getCodebookSize(),
                                                                                          options.getWorkerCount());
+        if (options.getRefinementCacheFile() != null) {
+            lloydMax.setInitialCodebook(loadRefinedCodebook());
+        }
         lloydMax.train();
         return new ScalarQuantizer(U16.Min, U16.Max, lloydMax.getCodebook());
     }
 
+    /**
+     * Load the codebook refined by the Lloyd-Max training from the cache file set in options.
+     *
+     * @return Cached codebook or null if the file doesn't contain SQ codebook.
+     */
+    private SQCodebook loadRefinedCodebook() {
+        final ICacheFile cacheFile = QuantizationCacheManager.readCacheFile(options.getRefinementCacheFile());
+        if (!(cacheFile instanceof SQCacheFile)) {
+            reportStatusToListeners(String.format("Failed to read SQ codebook from %s, training starts from scratch.",
+                                                  options.getRefinementCacheFile()));
+            return null;
+        }
+        return ((SQCacheFile) cacheFile).getCodebook();
+    }
+
     @Override
     public void preloadGlobalCodebook(final ICacheFile codebookCacheFile) {
         final SQCodebook cachedCodebook = ((SQCacheFile) codebookCacheFile).getCodebook();
@@ -181,9 +203,12 @@ public class SQImageCompressor extends CompressorDecompressorBase implements IIm
             assert (quantizer != null) : "Scalar Quantizer wasn't initialized.";
             assert (huffman != null) : "Huffman wasn't initialized.";
 
-            final int[] indices = quantizer.quantizeIntoIndices(planeData, 1);
+            final QuantizationResult result = quantizer.quantizeWithStatistics(planeData, options.getWorkerCount());
+            if (options.isVerbose()) {
+                reportQuantizationStatistics(result);
+            }
 
-            planeDataSizes[planeCounter++] = writeHuffmanEncodedIndices(compressStream, huffman, indices);
+            planeDataSizes[planeCounter++] = writeHuffmanEncodedIndices(compressStream, huffman, result.getIndices());
 
             stopwatch.stop();
             reportProgressToListeners(planeIndex, planeIndices.length,
@@ -192,7 +217,15 @@ public class SQImageCompressor extends CompressorDecompressorBase implements IIm
         return planeDataSizes;
     }
 
-    private int[] loadConfiguredPlanesData() throws ImageCompressionException, IOException {
+    /**
+     * Stream the configured planes one by one into the histogram of the training values, so only single plane is
+     * held in the heap at once. With the training sample size set, only the random sample of the pixels is counted.
+     *
+     * @return Histogram of the training values.
+     * @throws ImageCompressionException when the plane loader can't be created.
+     * @throws IOException               when the plane can't be loaded.
+     */
+    private U16Histogram loadConfiguredPlanesHistogram() throws ImageCompressionException, IOException {
         final InputData inputDataInfo = options.getInputDataInfo();
         final IPlaneLoader planeLoader;
         try {
@@ -200,38 +233,57 @@ public class SQImageCompressor extends CompressorDecompressorBase implements IIm
         } catch (final Exception e) {
             throw new ImageCompressionException("Unable to create SCIFIO reader. " + e.getMessage());
         }
-        int[] trainData = null;
-
-        if (options.getCodebookType() == CompressionOptions.CodebookType.MiddlePlane) {
-            final int middlePlaneIndex = inputDataInfo.getDimensions().getZ() / 2;
-            reportStatusToListeners("Loading single plane data.");
-            trainData = planeLoader.loadPlaneData(middlePlaneIndex);
-        } else if (inputDataInfo.isPlaneIndexSet()) {
-            reportStatusToListeners("Loading single plane data.");
-            trainData = planeLoader.loadPlaneData(inputDataInfo.getPlaneIndex());
-        } else if (inputDataInfo.isPlaneRangeSet()) {
-            reportStatusToListeners("Loading plane range data.");
-            final int[] planes = getPlaneIndicesForCompression(options.getInputDataInfo());
-            trainData = planeLoader.loadPlanesU16Data(planes);
-        } else {
-            reportStatusToListeners("Loading all planes data.");
-            trainData = planeLoader.loadAllPlanesU16Data();
+        final int[] planes = (options.getCodebookType() == CompressionOptions.CodebookType.MiddlePlane)
+                ? new int[]{inputDataInfo.getDimensions().getZ() / 2}
+                : getPlaneIndicesForCompression(inputDataInfo);
+
+        final U16Histogram histogram = new U16Histogram(options.getWorkerCount());
+        if (options.getTrainingSampleSize() > 0) {
+            histogram.add(sampleConfiguredPlanesData(planeLoader, planes));
+            return histogram;
+        }
+        reportStatusToListeners("Counting pixel values of %d planes.", planes.length);
+        for (final int plane : planes) {
+            histogram.add(planeLoader.loadPlaneData(plane));
         }
-        return trainData;
+        return histogram;
+    }
+
+    /**
+     * Stream the configured planes one by one into the reservoir, which keeps the uniform random sample of at most
+     * training sample size pixels. Only single plane and the sample are held in the heap at once.
+     *
+     * @param planeLoader Loader of the image planes.
+     * @param planes      Indices of the sampled planes.
+     * @return Sampled pixel values.
+     * @throws IOException when the plane can't be loaded.
+     */
+    private int[] sampleConfiguredPlanesData(final IPlaneLoader planeLoader, final int[] planes) throws IOException {
+        reportStatusToListeners("Sampling %d pixels from %d planes.", options.getTrainingSampleSize(), planes.length);
+        // Single pixel has no deviation, so the pixels are always sampled uniformly.
+        final VectorReservoir reservoir = new VectorReservoir(1, options.getTrainingSampleSize(), false);
+        for (final int plane : planes) {
+            reservoir.add(new VectorBatch(planeLoader.loadPlaneData(plane), 1));
+        }
+        reportStatusToListeners("Sampled %d out of %d pixels.", reservoir.getSize(), reservoir.getOfferedCount());
+        return reservoir.toVectorBatch().getData();
     }
 
     @Override
     public void trainAndSaveCodebook() throws ImageCompressionException {
-        final int[] trainData;
+        final U16Histogram trainHistogram;
         try {
-            trainData = loadConfiguredPlanesData();
+            trainHistogram = loadConfiguredPlanesHistogram();
         } catch (final IOException e) {
             throw new ImageCompressionException("Failed to load configured plane data in SQImageCompressor.");
         }
 
-        final LloydMaxU16ScalarQuantization lloydMax = new LloydMaxU16ScalarQuantization(trainData,
+        final LloydMaxU16ScalarQuantization lloydMax = new LloydMaxU16ScalarQuantization(trainHistogram,
                                                                                          getCodebookSize(),
                                                                                          options.getWorkerCount());
+        if (options.getRefinementCacheFile() != null) {
+            lloydMax.setInitialCodebook(loadRefinedCodebook());
+        }
         reportStatusToListeners("Starting LloydMax training.");
 
         lloydMax.setStatusListener(this::reportStatusToListeners);
@@ -3,15 +3,34 @@ package cz.it4i.qcmp.compression;
 import cz.it4i.qcmp.cache.ICacheFile;
 import cz.it4i.qcmp.cache.QuantizationCacheManager;
 import cz.it4i.qcmp.cache.VQCacheFile;
+import cz.it4i.qcmp.U16;
 import cz.it4i.qcmp.compression.exception.ImageCompressionException;
+import cz.it4i.qcmp.data.MappedVectorStore;
 import cz.it4i.qcmp.data.Range;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.data.VectorReservoir;
 import cz.it4i.qcmp.fileformat.QuantizationType;
 import cz.it4i.qcmp.huffman.Huffman;
 import cz.it4i.qcmp.io.InputData;
 import cz.it4i.qcmp.io.loader.IPlaneLoader;
 import cz.it4i.qcmp.io.loader.PlaneLoaderFactory;
+import cz.it4i.qcmp.quantization.QuantizationResult;
+import cz.it4i.qcmp.quantization.vector.CachedCodebookSearch;
+import cz.it4i.qcmp.quantization.vector.CodebookSearchMethod;
+import cz.it4i.qcmp.quantization.vector.CodebookTrainingMethod;
+import cz.it4i.qcmp.quantization.vector.ICodebookSearch;
+import cz.it4i.qcmp.quantization.vector.ICodebookTrainer;
+import cz.it4i.qcmp.quantization.vector.KDTreeSearch;
+import cz.it4i.qcmp.quantization.vector.LBGCheckpoint;
 import cz.it4i.qcmp.quantization.vector.LBGResult;
 import cz.it4i.qcmp.quantization.vector.LBGVectorQuantizer;
+import cz.it4i.qcmp.quantization.vector.MappedLBGVectorQuantizer;
+import cz.it4i.qcmp.quantization.vector.MaximumDescentVectorQuantizer;
+import cz.it4i.qcmp.quantization.vector.MiniBatchLBGVectorQuantizer;
+import cz.it4i.qcmp.quantization.vector.PruningSearchIndex;
+import cz.it4i.qcmp.quantization.vector.ShardedLBGCoordinator;
+import cz.it4i.qcmp.quantization.vector.ShardedLBGWorker;
+import cz.it4i.qcmp.quantization.vector.TSVQSearch;
 import cz.it4i.qcmp.quantization.vector.VQCodebook;
 import cz.it4i.qcmp.quantization.vector.VectorQuantizer;
 import cz.it4i.qcmp.utilities.Stopwatch;
@@ -19,6 +38,7 @@ import cz.it4i.qcmp.utilities.Utils;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 
 public class VQImageCompressor extends CompressorDecompressorBase implements IImageCompressor {
@@ -35,7 +55,7 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
     @Override
     public void preloadGlobalCodebook(final ICacheFile codebookCacheFile) {
         final VQCodebook cachedCodebook = ((VQCacheFile) codebookCacheFile).getCodebook();
-        cachedQuantizer = new VectorQuantizer(cachedCodebook);
+        cachedQuantizer = createQuantizer(cachedCodebook);
         cachedHuffman = createHuffmanCoder(createHuffmanSymbols(cachedCodebook.getCodebookSize()), cachedCodebook.getVectorFrequencies());
     }
 
@@ -45,6 +65,23 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
 
     public void setUseKdTree(final boolean useKdTree) {
         this.useKdTree = useKdTree;
+        if (cachedQuantizer != null) {
+            cachedQuantizer = createQuantizer(cachedQuantizer.getCodebook());
+        }
+    }
+
+    /**
+     * Create vector quantizer with the codebook search method set in options. KD-tree search is used when enabled
+     * by setUseKdTree.
+     *
+     * @param codebook Codebook of the quantizer.
+     * @return Vector quantizer.
+     */
+    private VectorQuantizer createQuantizer(final VQCodebook codebook) {
+        final CodebookSearchMethod searchMethod = useKdTree ? CodebookSearchMethod.KDTree : options.getCodebookSearchMethod();
+        final VectorQuantizer quantizer = new VectorQuantizer(codebook, searchMethod, options.getKdTreeMaxE());
+        quantizer.setVectorCacheCapacity(options.getVectorCacheCapacity());
+        return quantizer;
     }
 
     /**
@@ -53,15 +90,58 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
      * @param planeVectors Image vectors.
      * @return Trained vector quantizer with codebook of set size.
      */
-    private VectorQuantizer trainVectorQuantizerFromPlaneVectors(final int[][] planeVectors) {
-
-        final LBGVectorQuantizer vqInitializer = new LBGVectorQuantizer(planeVectors,
-                                                                        getCodebookSize(),
-                                                                        options.getWorkerCount(),
-                                                                        options.getQuantizationVector(),
-                                                                        true);
-        final LBGResult vqResult = vqInitializer.findOptimalCodebook();
-        return new VectorQuantizer(vqResult.getCodebook());
+    private VectorQuantizer trainVectorQuantizerFromPlaneVectors(final VectorBatch planeVectors) {
+        final ICodebookTrainer codebookTrainer = createCodebookTrainer(planeVectors, getCodebookSize(), null);
+        final LBGResult vqResult = codebookTrainer.findOptimalCodebook();
+        return createQuantizer(vqResult.getCodebook());
+    }
+
+    /**
+     * Create the codebook trainer selected in options. LBG specific options are applied only to the LBG trainer.
+     *
+     * @param trainingData Training vectors.
+     * @param codebookSize Size of the trained codebook.
+     * @param cacheManager Cache manager storing the LBG checkpoints or null to disable the checkpoints.
+     * @return Codebook trainer.
+     */
+    private ICodebookTrainer createCodebookTrainer(final VectorBatch trainingData,
+                                                   final int codebookSize,
+                                                   final QuantizationCacheManager cacheManager) {
+        if (options.getCodebookTrainingMethod() == CodebookTrainingMethod.MaximumDescent) {
+            return new MaximumDescentVectorQuantizer(trainingData,
+                                                     codebookSize,
+                                                     options.getWorkerCount(),
+                                                     options.getQuantizationVector());
+        }
+        final LBGVectorQuantizer lbgTrainer = new LBGVectorQuantizer(trainingData,
+                                                                     codebookSize,
+                                                                     options.getWorkerCount(),
+                                                                     options.getQuantizationVector());
+        lbgTrainer.setRefineTSVQTree(options.shouldRefineTSVQTree());
+        lbgTrainer.setInitialization(options.getCodebookInitialization());
+        lbgTrainer.setCoarseToFine(options.shouldUseCoarseToFineTraining());
+        if (options.getRefinementCacheFile() != null) {
+            lbgTrainer.setInitialCodebook(loadRefinedCodebook());
+        }
+        if (cacheManager != null) {
+            configureCheckpoints(lbgTrainer, cacheManager, codebookSize);
+        }
+        return lbgTrainer;
+    }
+
+    /**
+     * Load the codebook refined by the LBG training from the cache file set in options.
+     *
+     * @return Cached codebook or null if the file doesn't contain VQ codebook.
+     */
+    private VQCodebook loadRefinedCodebook() {
+        final ICacheFile cacheFile = QuantizationCacheManager.readCacheFile(options.getRefinementCacheFile());
+        if (!(cacheFile instanceof VQCacheFile)) {
+            reportStatusToListeners("Failed to read VQ codebook from %s, training starts from scratch.",
+                                    options.getRefinementCacheFile());
+            return null;
+        }
+        return ((VQCacheFile) cacheFile).getCodebook();
     }
 
     /**
@@ -73,12 +153,10 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
      */
     private void writeQuantizerToCompressStream(final VectorQuantizer quantizer,
                                                 final DataOutputStream compressStream) throws ImageCompressionException {
-        final int[][] codebook = quantizer.getCodebookVectors();
+        final int[] codebookData = quantizer.getCodebookData();
         try {
-            for (final int[] entry : codebook) {
-                for (final int vecVal : entry) {
-                    compressStream.writeShort(vecVal);
-                }
+            for (final int vecVal : codebookData) {
+                compressStream.writeShort(vecVal);
             }
             final long[] frequencies = quantizer.getFrequencies();
             for (final long symbolFrequency : frequencies) {
@@ -115,7 +193,7 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
         if (codebook == null) {
             throw new ImageCompressionException("Failed to read quantization vectors from cache.");
         }
-        return new VectorQuantizer(codebook);
+        return createQuantizer(codebook);
     }
 
     /**
@@ -171,8 +249,8 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
             } else if (options.getCodebookType() == CompressionOptions.CodebookType.MiddlePlane) {
                 stopwatch.restart();
                 reportStatusToListeners("Training vector quantizer from middle plane.");
-                final int[][] refPlaneVectors = planeLoader.loadVectorsFromPlaneRange(options,
-                                                                                      Utils.singlePlaneRange(getMiddlePlaneIndex()));
+                final VectorBatch refPlaneVectors = planeLoader.loadVectorBatchFromPlaneRange(options,
+                                                                                              Utils.singlePlaneRange(getMiddlePlaneIndex()));
                 quantizer = trainVectorQuantizerFromPlaneVectors(refPlaneVectors);
                 huffman = createHuffmanCoder(huffmanSymbols, quantizer.getFrequencies());
                 stopwatch.stop();
@@ -202,7 +280,7 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
             stopwatch.restart();
 
 
-            final int[][] planeVectors = planeLoader.loadVectorsFromPlaneRange(options, Utils.singlePlaneRange(planeIndex));
+            final VectorBatch planeVectors = planeLoader.loadVectorBatchFromPlaneRange(options, Utils.singlePlaneRange(planeIndex));
 
 
             if (!streamMode && !hasGeneralQuantizer) {
@@ -212,7 +290,7 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
                 writeQuantizerToCompressStream(quantizer, compressStream);
             }
 
-            final int[] indices = quantizeVectorsImpl(quantizer, planeVectors, options.getWorkerCount());
+            final int[] indices = quantizeVectorsImpl(quantizer, planeVectors, options.getWorkerCount()).getIndices();
 
             planeDataSizes[planeCounter++] = writeHuffmanEncodedIndices(compressStream, huffman, indices);
 
@@ -228,17 +306,80 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
     }
 
     /**
-     * Quantize into indices call wrapper for KDTree switch.
+     * Quantize vectors into indices and in verbose mode report the quantization error, index statistics and
+     * the codebook search statistics.
      *
      * @param quantizer   Vector quantizer.
      * @param srcVectors  Vectors to quantize.
      * @param workerCount Maximum number of worker threads.
-     * @return Indices of codebook vectors.
+     * @return Indices of codebook vectors with their histogram and the quantization error.
      */
-    private int[] quantizeVectorsImpl(final VectorQuantizer quantizer, final int[][] srcVectors, final int workerCount) {
-        //        if (useKdTree)
-        //            return quantizer.quantizeIntoIndicesUsingKDTree(srcVectors, workerCount);
-        return quantizer.quantizeIntoIndices(srcVectors, workerCount);
+    private QuantizationResult quantizeVectorsImpl(final VectorQuantizer quantizer,
+                                                   final VectorBatch srcVectors,
+                                                   final int workerCount) {
+        final QuantizationResult result = quantizer.quantizeWithStatistics(srcVectors, workerCount);
+        if (!options.isVerbose()) {
+            return result;
+        }
+        reportQuantizationStatistics(result);
+        ICodebookSearch search = quantizer.getCodebookSearch();
+        if (search instanceof CachedCodebookSearch) {
+            final CachedCodebookSearch cachedSearch = (CachedCodebookSearch) search;
+            reportStatusToListeners("Vector cache: %.2f%% hits (%d hits, %d misses).",
+                                    cachedSearch.getHitRate() * 100.0, cachedSearch.getHitCount(), cachedSearch.getMissCount());
+            search = cachedSearch.getSearch();
+        }
+        if (search instanceof PruningSearchIndex) {
+            final PruningSearchIndex searchIndex = (PruningSearchIndex) search;
+            reportStatusToListeners("Codebook search: %.2f distance evaluations per vector (%.2f%% pruned).",
+                                    searchIndex.getAverageDistanceEvaluations(),
+                                    searchIndex.getPruningRate() * 100.0);
+        }
+        if ((search instanceof KDTreeSearch) && ((KDTreeSearch) search).isApproximate()) {
+            reportApproximateSearchError(String.format("KD-tree search (maxE=%d)", ((KDTreeSearch) search).getMaxE()),
+                                         quantizer, srcVectors, result, workerCount);
+        }
+        if (search instanceof TSVQSearch) {
+            reportApproximateSearchError("TSVQ search", quantizer, srcVectors, result, workerCount);
+        } else if (options.getCodebookSearchMethod() == CodebookSearchMethod.TreeStructured) {
+            reportStatusToListeners("Codebook has no TSVQ tree, exact search was used.");
+        }
+        return result;
+    }
+
+    /**
+     * Compare indices found by the approximate codebook search with the exact search and report the number of
+     * differing indices and the quality loss.
+     *
+     * @param searchName    Name of the approximate search used in the report.
+     * @param quantizer     Vector quantizer with the approximate search.
+     * @param srcVectors    Quantized vectors.
+     * @param approxResult  Result of the approximate search.
+     * @param workerCount   Maximum number of worker threads.
+     */
+    private void reportApproximateSearchError(final String searchName,
+                                              final VectorQuantizer quantizer,
+                                              final VectorBatch srcVectors,
+                                              final QuantizationResult approxResult,
+                                              final int workerCount) {
+        final VectorQuantizer exactQuantizer = new VectorQuantizer(quantizer.getCodebook(), CodebookSearchMethod.TiledBatch);
+        final QuantizationResult exactResult = exactQuantizer.quantizeWithStatistics(srcVectors, workerCount);
+        final int[] approxIndices = approxResult.getIndices();
+        final int[] exactIndices = exactResult.getIndices();
+        int differentCount = 0;
+        for (int i = 0; i < exactIndices.length; i++) {
+            if (approxIndices[i] != exactIndices[i]) {
+                ++differentCount;
+            }
+        }
+        final double approxMse = approxResult.getMse();
+        final double exactMse = exactResult.getMse();
+        reportStatusToListeners("%s: %.2f%% of vectors differ from exact search, " +
+                                        "MSE %.4f (exact %.4f), PSNR %.4f dB (exact %.4f dB).",
+                                searchName,
+                                ((double) differentCount / (double) exactIndices.length) * 100.0,
+                                approxMse, exactMse,
+                                Utils.calculatePsnr(approxMse, U16.Max), Utils.calculatePsnr(exactMse, U16.Max));
     }
 
     /**
@@ -287,7 +428,7 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
         if (!streamMode)
             writeQuantizerToCompressStream(quantizer, compressStream);
 
-        int[][] voxelData;
+        VectorBatch voxelData;
         final Stopwatch stopwatch = new Stopwatch();
         for (int voxelLayerIndex = 0; voxelLayerIndex < voxelLayerCount; voxelLayerIndex++) {
             stopwatch.restart();
@@ -301,12 +442,12 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
             final Range<Integer> voxelLayerRange = new Range<>(fromZ, toZ);
 
             try {
-                voxelData = planeLoader.loadVoxels(options.getQuantizationVector(), voxelLayerRange);
+                voxelData = planeLoader.loadVoxelBatch(options.getQuantizationVector(), voxelLayerRange);
             } catch (final IOException e) {
                 throw new ImageCompressionException("Unable to load voxels from voxel layer " + voxelLayerRange, e);
             }
 
-            final int[] indices = quantizeVectorsImpl(quantizer, voxelData, options.getWorkerCount());
+            final int[] indices = quantizeVectorsImpl(quantizer, voxelData, options.getWorkerCount()).getIndices();
 
             voxelLayersSizes[voxelLayerIndex] = writeHuffmanEncodedIndices(compressStream, huffman, indices);
             stopwatch.stop();
@@ -325,8 +466,6 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
 
     @Override
     public void trainAndSaveCodebook() throws ImageCompressionException {
-        reportStatusToListeners("Loading image data...");
-
         final IPlaneLoader planeLoader;
         try {
             planeLoader = PlaneLoaderFactory.getPlaneLoaderForInputFile(options.getInputDataInfo());
@@ -334,38 +473,87 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
             throw new ImageCompressionException("Unable to create plane reader. " + e.getMessage());
         }
 
-        final int[][] trainingData = loadDataForCodebookTraining(planeLoader);
+        if (options.getShardWorkerHost() != null) {
+            serveShardedTraining(planeLoader);
+            return;
+        }
+
+        final QuantizationCacheManager cacheManager = new QuantizationCacheManager(options.getCodebookCacheFolder());
+        final LBGResult lbgResult;
+        if (options.getShardCoordinatorPort() >= 0) {
+            lbgResult = trainCodebookBySharding();
+        } else if (options.getMiniBatchSize() > 0) {
+            lbgResult = trainCodebookByMiniBatchLBG(planeLoader);
+        } else if (options.shouldUseMappedTraining()) {
+            lbgResult = trainCodebookFromMappedStore(planeLoader);
+        } else {
+            reportStatusToListeners("Loading image data...");
+            final VectorBatch trainingData = loadDataForCodebookTraining(planeLoader);
 
 
-        final LBGVectorQuantizer vqInitializer = new LBGVectorQuantizer(trainingData,
-                                                                        getCodebookSize(),
-                                                                        options.getWorkerCount(),
-                                                                        options.getQuantizationVector(),
-                                                                        false);
+            final ICodebookTrainer codebookTrainer = createCodebookTrainer(trainingData, getCodebookSize(), cacheManager);
 
-        reportStatusToListeners("Starting LBG optimization.");
-        try {
-            System.out.println("Sleeping for 10 seconds...");
-            Thread.sleep(10000);
-        } catch (final InterruptedException e) {
-            e.printStackTrace();
-        }
+            reportStatusToListeners("Starting %s codebook training.", options.getCodebookTrainingMethod());
+            try {
+                System.out.println("Sleeping for 10 seconds...");
+                Thread.sleep(10000);
+            } catch (final InterruptedException e) {
+                e.printStackTrace();
+            }
 
-        vqInitializer.setStatusListener(this::reportStatusToListeners);
-        final LBGResult lbgResult = vqInitializer.findOptimalCodebook();
+            codebookTrainer.setStatusListener(this::reportStatusToListeners);
+            lbgResult = codebookTrainer.findOptimalCodebook();
+        }
         reportStatusToListeners("Learned the optimal codebook.");
 
 
-        final QuantizationCacheManager cacheManager = new QuantizationCacheManager(options.getCodebookCacheFolder());
         try {
             final String cacheFilePath = cacheManager.saveCodebook(options.getInputDataInfo().getCacheFileName(), lbgResult.getCodebook());
             reportStatusToListeners("Saved cache file to %s", cacheFilePath);
         } catch (final IOException e) {
             throw new ImageCompressionException("Unable to write VQ cache.", e);
         }
+        cacheManager.deleteCheckpoint(options.getInputDataInfo().getCacheFileName(), getCodebookSize(),
+                                      options.getQuantizationVector());
         reportStatusToListeners("Operation completed.");
     }
 
+    /**
+     * Set up saving of the LBG training checkpoints and resuming from the last checkpoint according to options.
+     *
+     * @param trainer      LBG codebook trainer.
+     * @param cacheManager Cache manager of the codebook cache folder.
+     * @param codebookSize Size of the trained codebook.
+     */
+    private void configureCheckpoints(final LBGVectorQuantizer trainer,
+                                      final QuantizationCacheManager cacheManager,
+                                      final int codebookSize) {
+        final String trainFile = options.getInputDataInfo().getCacheFileName();
+        if (options.shouldResumeTraining()) {
+            final LBGCheckpoint checkpoint = cacheManager.loadCheckpoint(trainFile, codebookSize,
+                                                                         options.getQuantizationVector());
+            if (checkpoint != null) {
+                trainer.setResumeCheckpoint(checkpoint);
+            } else {
+                reportStatusToListeners("No LBG checkpoint found, training starts from scratch.");
+            }
+        }
+        if (options.getCheckpointInterval() >= 0) {
+            trainer.setCheckpointCallback(checkpoint -> {
+                try {
+                    final String checkpointPath = cacheManager.saveCheckpoint(trainFile, checkpoint);
+                    if (options.isVerbose()) {
+                        reportStatusToListeners("Saved LBG checkpoint (%d entries, %s) to %s",
+                                                checkpoint.getCodebookSize(), checkpoint.getPhase(), checkpointPath);
+                    }
+                } catch (final IOException e) {
+                    System.err.println("Failed to save LBG checkpoint.");
+                    e.printStackTrace();
+                }
+            }, options.getCheckpointInterval());
+        }
+    }
+
     @Override
     public void trainAndSaveAllCodebooks() throws ImageCompressionException {
         reportStatusToListeners("trainAndSaveAllCodebooks is starting with %d workers.", options.getWorkerCount());
@@ -377,17 +565,12 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
         } catch (final Exception e) {
             throw new ImageCompressionException("Unable to create plane reader. " + e.getMessage());
         }
-        final int[][] trainingData = loadDataForCodebookTraining(planeLoader);
+        final VectorBatch trainingData = loadDataForCodebookTraining(planeLoader);
         reportStatusToListeners("Data loading is finished.");
 
         final QuantizationCacheManager qcm = new QuantizationCacheManager(options.getCodebookCacheFolder());
 
-        final LBGVectorQuantizer codebookTrainer = new LBGVectorQuantizer(trainingData,
-                                                                          256,
-                                                                          options.getWorkerCount(),
-                                                                          options.getQuantizationVector(),
-                                                                          false);
-
+        final ICodebookTrainer codebookTrainer = createCodebookTrainer(trainingData, 256, qcm);
         codebookTrainer.findOptimalCodebook(vqCodebook -> {
             try {
                 assert ((vqCodebook.getCodebookSize() == vqCodebook.getVectors().length) &&
@@ -401,27 +584,226 @@ public class VQImageCompressor extends CompressorDecompressorBase implements IIm
             reportStatusToListeners("Optimal codebook of size %d was found.", vqCodebook.getCodebookSize());
         });
 
+        qcm.deleteCheckpoint(options.getInputDataInfo().getCacheFileName(), 256, options.getQuantizationVector());
         reportStatusToListeners("Trained all codebooks.");
     }
 
-    int[][] loadDataForCodebookTraining(final IPlaneLoader planeLoader) throws ImageCompressionException {
-        final int[][] trainingData;
+    /**
+     * Train the codebook by LBG over the training vectors stored in the memory-mapped file. Planes are loaded
+     * layer after layer, so only single layer is held in the heap at once.
+     *
+     * @param planeLoader Loader of the image planes.
+     * @return Result of the training.
+     * @throws ImageCompressionException when the vectors can't be loaded or stored.
+     */
+    private LBGResult trainCodebookFromMappedStore(final IPlaneLoader planeLoader) throws ImageCompressionException {
+        final Range<Integer> planeRange = getCodebookTrainingPlaneRange();
+        final int layerDepth = (options.getQuantizationType() == QuantizationType.Vector3D)
+                ? options.getQuantizationVector().getZ()
+                : 1;
+        final int vectorSize = (int) options.getQuantizationVector().multiplyTogether();
+        // Temporary file is created in the cache folder, default temporary directory may be in memory file system.
+        final File storeDirectory = (options.getCodebookCacheFolder() != null)
+                ? new File(options.getCodebookCacheFolder())
+                : null;
+        try (final MappedVectorStore store = new MappedVectorStore(vectorSize, storeDirectory)) {
+            reportStatusToListeners("Storing training vectors of planes %s to memory-mapped file...", planeRange.toString());
+            for (int fromPlane = planeRange.getFrom(); fromPlane < planeRange.getTo(); fromPlane += layerDepth) {
+                final int toPlane = Math.min(fromPlane + layerDepth, planeRange.getTo());
+                store.append(planeLoader.loadVectorBatchFromPlaneRange(options, new Range<>(fromPlane, toPlane)));
+            }
+
+            final MappedLBGVectorQuantizer trainer = new MappedLBGVectorQuantizer(store,
+                                                                                getCodebookSize(),
+                                                                                options.getWorkerCount(),
+                                                                                options.getQuantizationVector());
+            trainer.setStatusListener(this::reportStatusToListeners);
+            return trainer.findOptimalCodebook();
+        } catch (final IOException e) {
+            throw new ImageCompressionException("Unable to store training vectors to memory-mapped file.", e);
+        }
+    }
+
+    /**
+     * Train the codebook as the coordinator of the sharded LBG. Training vectors are held by the worker processes.
+     *
+     * @return Result of the training.
+     * @throws ImageCompressionException when the communication with the workers fails.
+     */
+    private LBGResult trainCodebookBySharding() throws ImageCompressionException {
+        final ShardedLBGCoordinator coordinator = new ShardedLBGCoordinator(options.getShardCoordinatorPort(),
+                                                                            options.getShardCount(),
+                                                                            getCodebookSize(),
+                                                                            options.getWorkerCount(),
+                                                                            options.getQuantizationVector());
+        coordinator.setBindAddress(options.getShardCoordinatorAddress());
+        coordinator.setTimeout(options.getShardTimeout());
+        coordinator.setStatusListener(this::reportStatusToListeners);
+        try {
+            return coordinator.findOptimalCodebook();
+        } catch (final IOException e) {
+            throw new ImageCompressionException("Sharded codebook training failed.", e);
+        }
+    }
+
+    /**
+     * Load the training planes as the shard and serve the sharded LBG coordinator until the training finishes.
+     *
+     * @param planeLoader Loader of the image planes.
+     * @throws ImageCompressionException when the shard can't be loaded or the communication fails.
+     */
+    private void serveShardedTraining(final IPlaneLoader planeLoader) throws ImageCompressionException {
+        final Range<Integer> planeRange = getCodebookTrainingPlaneRange();
+        reportStatusToListeners("Loading shard planes %s...", planeRange.toString());
+        final VectorBatch shardVectors = planeLoader.loadVectorBatchFromPlaneRange(options, planeRange);
+
+        final ShardedLBGWorker worker = new ShardedLBGWorker(shardVectors, options.getWorkerCount());
+        worker.setTimeout(options.getShardTimeout());
+        worker.setStatusListener(this::reportStatusToListeners);
+        try {
+            worker.run(options.getShardWorkerHost(), options.getShardWorkerPort());
+        } catch (final IOException e) {
+            throw new ImageCompressionException("Sharded training worker failed.", e);
+        }
+        reportStatusToListeners("Shard worker finished.");
+    }
+
+    /**
+     * Train the codebook by mini-batch LBG, which loads only the planes needed for the current batch.
+     * In verbose mode the codebook is validated against the full LBG codebook trained on the validation sample.
+     *
+     * @param planeLoader Loader of the image planes.
+     * @return Result of the training.
+     * @throws ImageCompressionException when the training vectors can't be loaded.
+     */
+    private LBGResult trainCodebookByMiniBatchLBG(final IPlaneLoader planeLoader) throws ImageCompressionException {
+        final Range<Integer> planeRange = getCodebookTrainingPlaneRange();
+        reportStatusToListeners("Starting mini-batch LBG with batch size %d on planes %s.",
+                                options.getMiniBatchSize(), planeRange.toString());
+        final PlaneVectorBatchSource batchSource = new PlaneVectorBatchSource(planeLoader, options, planeRange, 0);
+
+        final MiniBatchLBGVectorQuantizer trainer = new MiniBatchLBGVectorQuantizer(batchSource,
+                                                                                    getCodebookSize(),
+                                                                                    options.getWorkerCount(),
+                                                                                    options.getQuantizationVector());
+        trainer.setStatusListener(this::reportStatusToListeners);
+        trainer.setBatchSize(options.getMiniBatchSize());
+        trainer.setMaxIterations(options.getMiniBatchMaxIterations());
+        trainer.setConvergenceEpsilon(options.getMiniBatchConvergenceEpsilon());
+        trainer.setMinLearningRate(options.getMiniBatchMinLearningRate());
+
+        final Stopwatch stopwatch = Stopwatch.startNew();
+        final LBGResult result = trainer.findOptimalCodebook();
+        stopwatch.stop();
+        reportStatusToListeners("Mini-batch LBG finished in %s.", stopwatch.getElapsedTimeString());
+
+        if (options.isVerbose()) {
+            validateMiniBatchCodebook(result.getCodebook(), batchSource);
+        }
+        return result;
+    }
+
+    /**
+     * Compare PSNR of the mini-batch LBG codebook with the codebook trained by the full LBG on the same
+     * validation sample.
+     *
+     * @param codebook    Codebook trained by the mini-batch LBG.
+     * @param batchSource Source of validation vectors.
+     * @throws ImageCompressionException when the validation vectors can't be loaded.
+     */
+    private void validateMiniBatchCodebook(final VQCodebook codebook,
+                                           final PlaneVectorBatchSource batchSource) throws ImageCompressionException {
+        final VectorBatch validationVectors = batchSource.nextValidationBatch(4 * options.getMiniBatchSize());
+        final QuantizationResult miniBatchResult = new VectorQuantizer(codebook)
+                .quantizeWithStatistics(validationVectors, options.getWorkerCount());
+
+        final Stopwatch stopwatch = Stopwatch.startNew();
+        final LBGVectorQuantizer fullTrainer = new LBGVectorQuantizer(validationVectors,
+                                                                      getCodebookSize(),
+                                                                      options.getWorkerCount(),
+                                                                      options.getQuantizationVector());
+        final VQCodebook fullCodebook = fullTrainer.findOptimalCodebook().getCodebook();
+        stopwatch.stop();
+        final QuantizationResult fullResult = new VectorQuantizer(fullCodebook)
+                .quantizeWithStatistics(validationVectors, options.getWorkerCount());
+
+        reportStatusToListeners("Validation on %d vectors: mini-batch LBG PSNR %.4f dB, full LBG PSNR %.4f dB " +
+                                        "(full LBG trained on the validation vectors in %s).",
+                                validationVectors.getVectorCount(), miniBatchResult.getPsnr(), fullResult.getPsnr(),
+                                stopwatch.getElapsedTimeString());
+    }
+
+    /**
+     * Get the range of planes used for the codebook training.
+     *
+     * @return Plane range.
+     */
+    private Range<Integer> getCodebookTrainingPlaneRange() {
+        if (options.getCodebookType() == CompressionOptions.CodebookType.MiddlePlane) {
+            final int middlePlaneIndex = (options.getInputDataInfo().getDimensions().getZ() / 2);
+            return new Range<>(middlePlaneIndex, middlePlaneIndex + 1);
+        } else if (options.getInputDataInfo().isPlaneIndexSet()) {
+            final int planeIndex = options.getInputDataInfo().getPlaneIndex();
+            return new Range<>(planeIndex, planeIndex + 1);
+        } else if (options.getInputDataInfo().isPlaneRangeSet()) {
+            return options.getInputDataInfo().getPlaneRange();
+        }
+        return new Range<>(0, options.getInputDataInfo().getDimensions().getZ());
+    }
+
+    VectorBatch loadDataForCodebookTraining(final IPlaneLoader planeLoader) throws ImageCompressionException {
+        if (options.getTrainingSampleSize() > 0) {
+            return sampleDataForCodebookTraining(planeLoader);
+        }
+        final VectorBatch trainingData;
         if (options.getCodebookType() == CompressionOptions.CodebookType.MiddlePlane) {
             final int middlePlaneIndex = (options.getInputDataInfo().getDimensions().getZ() / 2);
-            trainingData = planeLoader.loadVectorsFromPlaneRange(options, new Range<>(middlePlaneIndex, middlePlaneIndex + 1));
+            trainingData = planeLoader.loadVectorBatchFromPlaneRange(options, new Range<>(middlePlaneIndex, middlePlaneIndex + 1));
         } else if (options.getInputDataInfo().isPlaneIndexSet()) {
             reportStatusToListeners("VQ: Loading single plane data.");
             final int planeIndex = options.getInputDataInfo().getPlaneIndex();
-            trainingData = planeLoader.loadVectorsFromPlaneRange(options, new Range<>(planeIndex, planeIndex + 1));
+            trainingData = planeLoader.loadVectorBatchFromPlaneRange(options, new Range<>(planeIndex, planeIndex + 1));
         } else if (options.getInputDataInfo().isPlaneRangeSet()) {
             reportStatusToListeners("VQ: Loading plane range data.");
-            trainingData = planeLoader.loadVectorsFromPlaneRange(options, options.getInputDataInfo().getPlaneRange());
+            trainingData = planeLoader.loadVectorBatchFromPlaneRange(options, options.getInputDataInfo().getPlaneRange());
         } else {
             reportStatusToListeners("VQ: Loading all planes data.");
-            trainingData = planeLoader.loadVectorsFromPlaneRange(options,
-                                                                 new Range<>(0, options.getInputDataInfo().getDimensions().getZ()));
+            trainingData = planeLoader.loadVectorBatchFromPlaneRange(options,
+                                                                     new Range<>(0, options.getInputDataInfo().getDimensions().getZ()));
         }
         return trainingData;
     }
 
+    /**
+     * Stream the training planes layer after layer into the reservoir, which keeps the random sample of at most
+     * training sample size vectors. Only single layer and the sample are held in the heap at once.
+     *
+     * @param planeLoader Loader of the image planes.
+     * @return Sampled training vectors.
+     * @throws ImageCompressionException when the vectors can't be loaded.
+     */
+    private VectorBatch sampleDataForCodebookTraining(final IPlaneLoader planeLoader) throws ImageCompressionException {
+        final Range<Integer> planeRange = getCodebookTrainingPlaneRange();
+        final int layerDepth = (options.getQuantizationType() == QuantizationType.Vector3D)
+                ? options.getQuantizationVector().getZ()
+                : 1;
+        final int vectorSize = (int) options.getQuantizationVector().multiplyTogether();
+        if ((long) options.getTrainingSampleSize() * vectorSize > Integer.MAX_VALUE) {
+            throw new ImageCompressionException("Training sample of " + options.getTrainingSampleSize() +
+                                                        " vectors doesn't fit into single buffer.");
+        }
+
+        reportStatusToListeners("VQ: Sampling %d training vectors from planes %s.",
+                                options.getTrainingSampleSize(), planeRange.toString());
+        final VectorReservoir reservoir = new VectorReservoir(vectorSize,
+                                                              options.getTrainingSampleSize(),
+                                                              options.shouldWeightTrainingSample());
+        for (int fromPlane = planeRange.getFrom(); fromPlane < planeRange.getTo(); fromPlane += layerDepth) {
+            final int toPlane = Math.min(fromPlane + layerDepth, planeRange.getTo());
+            reservoir.add(planeLoader.loadVectorBatchFromPlaneRange(options, new Range<>(fromPlane, toPlane)));
+        }
+        reportStatusToListeners("VQ: Sampled %d out of %d training vectors.",
+                                reservoir.getSize(), reservoir.getOfferedCount());
+        return reservoir.toVectorBatch();
+    }
 }
@@ -47,14 +47,12 @@ public class VQImageDecompressor extends CompressorDecompressorBase implements I
                                     final int codebookSize,
                                     final int vectorSize) throws ImageDecompressionException {
 
-        final int[][] codebookVectors = new int[codebookSize][vectorSize];
+        final VectorBatch codebookVectors = new VectorBatch(vectorSize, codebookSize);
+        final int[] codebookData = codebookVectors.getData();
         final long[] frequencies = new long[codebookSize];
         try {
-            for (int codebookIndex = 0; codebookIndex < codebookSize; codebookIndex++) {
-                //                final int[] vector = new int[vectorSize];
-                for (int vecIndex = 0; vecIndex < vectorSize; vecIndex++) {
-                    codebookVectors[codebookIndex][vecIndex] = compressedStream.readUnsignedShort();
-                }
+            for (int i = 0; i < codebookData.length; i++) {
+                codebookData[i] = compressedStream.readUnsignedShort();
             }
             for (int codebookIndex = 0; codebookIndex < codebookSize; codebookIndex++) {
                 frequencies[codebookIndex] = compressedStream.readLong();
@@ -173,8 +171,8 @@ public class VQImageDecompressor extends CompressorDecompressorBase implements I
                         bit = inBitStream.readBit();
                         currentHuffmanNode = currentHuffmanNode.traverse(bit);
                     }
-                    System.arraycopy(codebook.getVectors()[currentHuffmanNode.getSymbol()],
-                                     0, decompressedVectors[vecIndex], 0, vectorSize);
+                    System.arraycopy(codebook.getVectorData(), currentHuffmanNode.getSymbol() * vectorSize,
+                                     decompressedVectors[vecIndex], 0, vectorSize);
                 }
 
 
@@ -219,7 +217,7 @@ public class VQImageDecompressor extends CompressorDecompressorBase implements I
                 int huffmanIndex;
                 for (int vecIndex = 0; vecIndex < planeVectorCount; vecIndex++) {
                     huffmanIndex = decodeHuffmanSymbol(cachedHuffman, inBitStream);
-                    System.arraycopy(cachedCodebook.getVectors()[huffmanIndex], 0, decompressedVectors[vecIndex], 0, vectorSize);
+                    System.arraycopy(cachedCodebook.getVectorData(), huffmanIndex * vectorSize, decompressedVectors[vecIndex], 0, vectorSize);
                 }
 
 
@@ -289,7 +287,7 @@ public class VQImageDecompressor extends CompressorDecompressorBase implements I
 
                 for (int voxelIndex = 0; voxelIndex < voxelLayerVoxelCount; voxelIndex++) {
                     final int huffmanSymbol = decodeHuffmanSymbol(huffman, inBitStream);
-                    System.arraycopy(codebook.getVectors()[huffmanSymbol], 0, decompressedVoxels[voxelIndex], 0, vectorSize);
+                    System.arraycopy(codebook.getVectorData(), huffmanSymbol * vectorSize, decompressedVoxels[voxelIndex], 0, vectorSize);
                 }
 
             } catch (final Exception e) {
@@ -347,7 +345,7 @@ public class VQImageDecompressor extends CompressorDecompressorBase implements I
 
                 for (int voxelIndex = 0; voxelIndex < voxelLayerVoxelCount; voxelIndex++) {
                     final int huffmanSymbol = decodeHuffmanSymbol(cachedHuffman, inBitStream);
-                    System.arraycopy(cachedCodebook.getVectors()[huffmanSymbol], 0, decompressedVoxels[voxelIndex], 0, vectorSize);
+                    System.arraycopy(cachedCodebook.getVectorData(), huffmanSymbol * vectorSize, decompressedVoxels[voxelIndex], 0, vectorSize);
                 }
 
             } catch (final Exception e) {
@@ -0,0 +1,155 @@
+package cz.it4i.qcmp.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Store of 16 bit training vectors kept outside of the heap in the memory-mapped temporary file.
+ * <p>
+ * Vectors are appended batch after batch and read back in continuous blocks, so the training scans the file
+ * sequentially and the operating system page cache decides how much of it stays in memory. File is mapped in
+ * segments of fixed vector count, which keeps every vector inside single mapping and allows the store to grow
+ * beyond the 2 GB limit of single mapping. Temporary file is deleted on close.
+ */
+public final class MappedVectorStore implements Closeable {
+    /**
+     * Number of vectors in single mapped segment.
+     */
+    private static final int SEGMENT_VECTOR_COUNT = 1 << 20;
+
+    private final int vectorSize;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final ArrayList<ShortBuffer> segments = new ArrayList<>();
+    private int vectorCount = 0;
+
+    /**
+     * Create empty store backed by new temporary file.
+     *
+     * @param vectorSize Number of elements of single vector.
+     * @param directory  Directory of the temporary file, null for the default temporary directory.
+     * @throws IOException when the temporary file can't be created.
+     */
+    public MappedVectorStore(final int vectorSize, final File directory) throws IOException {
+        assert (vectorSize > 0) : "Invalid vector size";
+        this.vectorSize = vectorSize;
+        this.file = File.createTempFile("qcmp-training-", ".vectors", directory);
+        this.file.deleteOnExit();
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+    }
+
+    public int getVectorSize() {
+        return vectorSize;
+    }
+
+    public int getVectorCount() {
+        return vectorCount;
+    }
+
+    /**
+     * Append vectors to the end of the store.
+     *
+     * @param batch Vectors with 16 bit unsigned elements.
+     * @throws IOException when the file can't be extended.
+     */
+    public void append(final VectorBatch batch) throws IOException {
+        assert (batch.getVectorSize() == vectorSize) : "Vector size mismatch";
+        if ((long) vectorCount + batch.getVectorCount() > Integer.MAX_VALUE) {
+            throw new IOException("Mapped vector store is limited to " + Integer.MAX_VALUE + " vectors.");
+        }
+        final int[] data = batch.getData();
+        int batchVector = 0;
+        while (batchVector < batch.getVectorCount()) {
+            final int segmentIndex = vectorCount / SEGMENT_VECTOR_COUNT;
+            if (segmentIndex == segments.size()) {
+                mapSegment(segmentIndex);
+            }
+            final ShortBuffer segment = segments.get(segmentIndex).duplicate();
+            final int segmentOffset = vectorCount % SEGMENT_VECTOR_COUNT;
+            final int copyCount = Math.min(batch.getVectorCount() - batchVector, SEGMENT_VECTOR_COUNT - segmentOffset);
+
+            final short[] values = new short[copyCount * vectorSize];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (short) data[(batchVector * vectorSize) + i];
+            }
+            segment.position(segmentOffset * vectorSize);
+            segment.put(values);
+
+            batchVector += copyCount;
+            vectorCount += copyCount;
+        }
+    }
+
+    private void mapSegment(final int segmentIndex) throws IOException {
+        final long segmentBytes = (long) SEGMENT_VECTOR_COUNT * vectorSize * 2;
+        final MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                                                                          segmentIndex * segmentBytes,
+                                                                          segmentBytes);
+        buffer.order(ByteOrder.nativeOrder());
+        segments.add(buffer.asShortBuffer());
+    }
+
+    /**
+     * Read the continuous block of vectors. Method is thread safe, every call uses its own view of the mapping.
+     *
+     * @param fromVector Index of the first vector.
+     * @param count      Number of vectors.
+     * @param values     Buffer of at least count * vectorSize shorts.
+     * @param target     Flat target array of at least count * vectorSize elements.
+     */
+    public void readBlock(final int fromVector, final int count, final short[] values, final int[] target) {
+        assert (fromVector >= 0 && fromVector + count <= vectorCount) : "Block out of range";
+        int vector = fromVector;
+        int targetOffset = 0;
+        while (vector < fromVector + count) {
+            final ShortBuffer segment = segments.get(vector / SEGMENT_VECTOR_COUNT).duplicate();
+            final int segmentOffset = vector % SEGMENT_VECTOR_COUNT;
+            final int readCount = Math.min(fromVector + count - vector, SEGMENT_VECTOR_COUNT - segmentOffset);
+            final int valueCount = readCount * vectorSize;
+            segment.position(segmentOffset * vectorSize);
+            segment.get(values, 0, valueCount);
+            for (int i = 0; i < valueCount; i++) {
+                target[targetOffset + i] = values[i] & 0xffff;
+            }
+            vector += readCount;
+            targetOffset += valueCount;
+        }
+    }
+
+    /**
+     * Read single vector.
+     *
+     * @param vectorIndex Index of the vector.
+     * @param target      Target array.
+     * @param offset      Offset of the vector in the target array.
+     */
+    public void readVector(final int vectorIndex, final int[] target, final int offset) {
+        final ShortBuffer segment = segments.get(vectorIndex / SEGMENT_VECTOR_COUNT);
+        final int segmentOffset = (vectorIndex % SEGMENT_VECTOR_COUNT) * vectorSize;
+        for (int dim = 0; dim < vectorSize; dim++) {
+            target[offset + dim] = segment.get(segmentOffset + dim) & 0xffff;
+        }
+    }
+
+    /**
+     * Close the file and delete it. Mapped segments are released by the garbage collector, on systems which
+     * don't allow deleting of the mapped file it is deleted on exit.
+     *
+     * @throws IOException when the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        segments.clear();
+        randomAccessFile.close();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
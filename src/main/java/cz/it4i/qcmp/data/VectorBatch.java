@@ -0,0 +1,110 @@
+package cz.it4i.qcmp.data;
+
+/**
+ * Batch of equally sized vectors stored in single flat array.
+ * Element `dim` of vector `i` is stored at index `(i * vectorSize) + dim`.
+ */
+public final class VectorBatch {
+    /**
+     * Vector data, vector after vector.
+     */
+    private final int[] data;
+
+    /**
+     * Number of elements of single vector.
+     */
+    private final int vectorSize;
+
+    /**
+     * Number of vectors in the batch.
+     */
+    private final int vectorCount;
+
+    /**
+     * Allocate zero filled batch.
+     *
+     * @param vectorSize  Number of elements of single vector.
+     * @param vectorCount Number of vectors.
+     */
+    public VectorBatch(final int vectorSize, final int vectorCount) {
+        this(new int[vectorSize * vectorCount], vectorSize);
+    }
+
+    /**
+     * Wrap existing flat vector data.
+     *
+     * @param data       Vector data, its length must be multiple of vectorSize.
+     * @param vectorSize Number of elements of single vector.
+     */
+    public VectorBatch(final int[] data, final int vectorSize) {
+        assert (vectorSize > 0) : "Invalid vector size";
+        assert ((data.length % vectorSize) == 0) : "Data length is not multiple of the vector size";
+        this.data = data;
+        this.vectorSize = vectorSize;
+        this.vectorCount = data.length / vectorSize;
+    }
+
+    /**
+     * Create batch by copying vectors from 2D array.
+     *
+     * @param vectors Vectors of the same size.
+     * @return Vector batch.
+     */
+    public static VectorBatch fromVectorArray(final int[][] vectors) {
+        assert (vectors.length > 0) : "No vectors";
+        final int vectorSize = vectors[0].length;
+        final VectorBatch batch = new VectorBatch(vectorSize, vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            assert (vectors[i].length == vectorSize) : "Vectors are not of the same size";
+            System.arraycopy(vectors[i], 0, batch.data, i * vectorSize, vectorSize);
+        }
+        return batch;
+    }
+
+    /**
+     * Copy vectors to 2D array.
+     *
+     * @return Array of vectors.
+     */
+    public int[][] toVectorArray() {
+        final int[][] vectors = new int[vectorCount][vectorSize];
+        for (int i = 0; i < vectorCount; i++) {
+            System.arraycopy(data, i * vectorSize, vectors[i], 0, vectorSize);
+        }
+        return vectors;
+    }
+
+    /**
+     * Get offset of the first element of vector in the data array.
+     *
+     * @param vectorIndex Zero based vector index.
+     * @return Offset in the data array.
+     */
+    public int getOffset(final int vectorIndex) {
+        return vectorIndex * vectorSize;
+    }
+
+    /**
+     * Copy single vector out of the batch.
+     *
+     * @param vectorIndex Zero based vector index.
+     * @return Copy of the vector.
+     */
+    public int[] getVector(final int vectorIndex) {
+        final int[] vector = new int[vectorSize];
+        System.arraycopy(data, vectorIndex * vectorSize, vector, 0, vectorSize);
+        return vector;
+    }
+
+    public int[] getData() {
+        return data;
+    }
+
+    public int getVectorSize() {
+        return vectorSize;
+    }
+
+    public int getVectorCount() {
+        return vectorCount;
+    }
+}
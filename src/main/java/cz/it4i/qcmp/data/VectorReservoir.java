@@ -0,0 +1,253 @@
+package cz.it4i.qcmp.data;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Bounded random sample of the vectors streamed batch after batch, so the training set can be built from data
+ * which don't fit into the memory at once.
+ * <p>
+ * Uniform sample is kept by the reservoir sampling with geometric skips (Vitter's Algorithm L), so the random
+ * numbers are generated only for the vectors entering the reservoir. With the importance weighting the vector is
+ * sampled with the weight of one plus the standard deviation of its values, which favours the structured
+ * (foreground) vectors over the flat background. Weighted sample is kept by the exponential jumps reservoir
+ * (Efraimidis and Spirakis, A-ExpJ) with the min-heap of the logarithmic keys.
+ */
+public final class VectorReservoir {
+    private final int vectorSize;
+    private final int capacity;
+    private final boolean importanceWeighting;
+    private final Random random;
+
+    /**
+     * Sampled vectors, vector after vector.
+     */
+    private final int[] data;
+    private int size = 0;
+
+    /**
+     * Number of vectors offered to the reservoir.
+     */
+    private long offeredCount = 0;
+
+    /**
+     * Algorithm L state, largest of the random keys u^(1 / capacity) of the sampled vectors and the index of the
+     * next vector entering the uniform sample.
+     */
+    private double largestKey = 0.0;
+    private long nextIndex = 0;
+
+    /**
+     * Min-heap of the weighted sample keys log(u) / weight and the reservoir slots of their vectors.
+     */
+    private final double[] heapKeys;
+    private final int[] heapSlots;
+
+    /**
+     * Remaining weight of the vectors skipped before the next vector enters the weighted sample.
+     */
+    private double remainingJump = 0.0;
+
+    /**
+     * Create empty reservoir.
+     *
+     * @param vectorSize          Number of elements of single vector.
+     * @param capacity            Maximum number of sampled vectors.
+     * @param importanceWeighting True to sample vectors with the weight given by the deviation of their values.
+     */
+    public VectorReservoir(final int vectorSize, final int capacity, final boolean importanceWeighting) {
+        this(vectorSize, capacity, importanceWeighting, new Random());
+    }
+
+    /**
+     * Create empty reservoir.
+     *
+     * @param vectorSize          Number of elements of single vector.
+     * @param capacity            Maximum number of sampled vectors.
+     * @param importanceWeighting True to sample vectors with the weight given by the deviation of their values.
+     * @param random              Source of the random sampling.
+     */
+    public VectorReservoir(final int vectorSize,
+                           final int capacity,
+                           final boolean importanceWeighting,
+                           final Random random) {
+        assert (capacity > 0) : "Invalid reservoir capacity";
+        assert ((long) capacity * vectorSize <= Integer.MAX_VALUE) : "Reservoir doesn't fit into single array";
+        this.vectorSize = vectorSize;
+        this.capacity = capacity;
+        this.importanceWeighting = importanceWeighting;
+        this.random = random;
+        this.data = new int[capacity * vectorSize];
+        this.heapKeys = importanceWeighting ? new double[capacity] : null;
+        this.heapSlots = importanceWeighting ? new int[capacity] : null;
+    }
+
+    /**
+     * Offer all vectors of the batch to the reservoir.
+     *
+     * @param batch Vectors of the reservoir vector size.
+     */
+    public void add(final VectorBatch batch) {
+        assert (batch.getVectorSize() == vectorSize) : "Vector size mismatch";
+        if (importanceWeighting) {
+            addWeighted(batch);
+        } else {
+            addUniform(batch);
+        }
+    }
+
+    private void addUniform(final VectorBatch batch) {
+        final int batchCount = batch.getVectorCount();
+        int vectorIndex = 0;
+        while ((size < capacity) && (vectorIndex < batchCount)) {
+            System.arraycopy(batch.getData(), batch.getOffset(vectorIndex++), data, (size++) * vectorSize, vectorSize);
+            if (size == capacity) {
+                largestKey = Math.exp(Math.log(nextUniform()) / capacity);
+                nextIndex = offeredCount + vectorIndex + nextSkip();
+            }
+        }
+
+        final long batchEnd = offeredCount + batchCount;
+        while ((size == capacity) && (nextIndex < batchEnd)) {
+            final int slot = random.nextInt(capacity);
+            System.arraycopy(batch.getData(), batch.getOffset((int) (nextIndex - offeredCount)),
+                             data, slot * vectorSize, vectorSize);
+            largestKey *= Math.exp(Math.log(nextUniform()) / capacity);
+            nextIndex += nextSkip() + 1;
+        }
+        offeredCount = batchEnd;
+    }
+
+    /**
+     * Get the number of vectors skipped before the next vector enters the uniform sample.
+     *
+     * @return Skipped vector count.
+     */
+    private long nextSkip() {
+        return (long) Math.floor(Math.log(nextUniform()) / Math.log(1.0 - largestKey));
+    }
+
+    private void addWeighted(final VectorBatch batch) {
+        final int batchCount = batch.getVectorCount();
+        for (int vectorIndex = 0; vectorIndex < batchCount; vectorIndex++) {
+            final int offset = batch.getOffset(vectorIndex);
+            final double weight = getImportance(batch.getData(), offset);
+            if (size < capacity) {
+                System.arraycopy(batch.getData(), offset, data, size * vectorSize, vectorSize);
+                pushKey(Math.log(nextUniform()) / weight, size);
+                ++size;
+                if (size == capacity) {
+                    remainingJump = nextJump();
+                }
+                continue;
+            }
+
+            remainingJump -= weight;
+            if (remainingJump > 0.0) {
+                continue;
+            }
+            // Key of the entering vector is drawn above the current threshold key.
+            final double threshold = Math.exp(weight * heapKeys[0]);
+            final double u = threshold + ((1.0 - threshold) * random.nextDouble());
+            final int slot = heapSlots[0];
+            System.arraycopy(batch.getData(), offset, data, slot * vectorSize, vectorSize);
+            heapKeys[0] = Math.max(Math.log(u) / weight, heapKeys[0]);
+            siftDown(0);
+            remainingJump = nextJump();
+        }
+        offeredCount += batchCount;
+    }
+
+    /**
+     * Get the total weight of the vectors skipped before the next vector enters the weighted sample.
+     *
+     * @return Skipped weight.
+     */
+    private double nextJump() {
+        return Math.log(nextUniform()) / heapKeys[0];
+    }
+
+    /**
+     * Get the sampling weight of the vector, one plus the standard deviation of its values.
+     *
+     * @param vectorData Array containing the vector.
+     * @param offset     Offset of the vector.
+     * @return Sampling weight.
+     */
+    private double getImportance(final int[] vectorData, final int offset) {
+        double sum = 0.0;
+        double squaredSum = 0.0;
+        for (int dim = 0; dim < vectorSize; dim++) {
+            final double value = vectorData[offset + dim];
+            sum += value;
+            squaredSum += value * value;
+        }
+        final double mean = sum / vectorSize;
+        return 1.0 + Math.sqrt(Math.max(0.0, (squaredSum / vectorSize) - (mean * mean)));
+    }
+
+    /**
+     * Draw uniform random number from (0, 1].
+     *
+     * @return Random number.
+     */
+    private double nextUniform() {
+        return 1.0 - random.nextDouble();
+    }
+
+    private void pushKey(final double key, final int slot) {
+        int index = size;
+        while (index > 0) {
+            final int parent = (index - 1) / 2;
+            if (heapKeys[parent] <= key) {
+                break;
+            }
+            heapKeys[index] = heapKeys[parent];
+            heapSlots[index] = heapSlots[parent];
+            index = parent;
+        }
+        heapKeys[index] = key;
+        heapSlots[index] = slot;
+    }
+
+    private void siftDown(int index) {
+        final double key = heapKeys[index];
+        final int slot = heapSlots[index];
+        while (true) {
+            int child = (2 * index) + 1;
+            if (child >= size) {
+                break;
+            }
+            if ((child + 1 < size) && (heapKeys[child + 1] < heapKeys[child])) {
+                ++child;
+            }
+            if (key <= heapKeys[child]) {
+                break;
+            }
+            heapKeys[index] = heapKeys[child];
+            heapSlots[index] = heapSlots[child];
+            index = child;
+        }
+        heapKeys[index] = key;
+        heapSlots[index] = slot;
+    }
+
+    /**
+     * Get the sampled vectors in the order of the reservoir slots, which isn't shuffled. Until the reservoir is
+     * full, the vectors are in the order in which they were offered. Batch shares the data with the reservoir when
+     * it is full.
+     *
+     * @return Batch of the sampled vectors.
+     */
+    public VectorBatch toVectorBatch() {
+        return new VectorBatch((size == capacity) ? data : Arrays.copyOf(data, size * vectorSize), vectorSize);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getOfferedCount() {
+        return offeredCount;
+    }
+}
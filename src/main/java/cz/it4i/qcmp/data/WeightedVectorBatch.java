@@ -0,0 +1,156 @@
+package cz.it4i.qcmp.data;
+
+import java.util.Arrays;
+
+/**
+ * Batch of unique vectors with the number of occurrences of every vector in the source data.
+ */
+public final class WeightedVectorBatch {
+    private static final int INITIAL_SLOT_COUNT = 1024;
+    private static final int EMPTY_SLOT = -1;
+
+    /**
+     * Unique vectors in the order of their first occurrence.
+     */
+    private final VectorBatch vectors;
+
+    /**
+     * Number of occurrences of every unique vector.
+     */
+    private final int[] weights;
+
+    /**
+     * Number of source vectors, sum of all weights.
+     */
+    private final int totalWeight;
+
+    /**
+     * Create weighted batch.
+     *
+     * @param vectors Unique vectors.
+     * @param weights Number of occurrences of every vector.
+     */
+    public WeightedVectorBatch(final VectorBatch vectors, final int[] weights) {
+        assert (vectors.getVectorCount() == weights.length) : "Vector and weight count mismatch";
+        this.vectors = vectors;
+        this.weights = weights;
+        long sum = 0;
+        for (final int weight : weights) {
+            sum += weight;
+        }
+        assert (sum <= Integer.MAX_VALUE) : "Total weight overflow";
+        this.totalWeight = (int) sum;
+    }
+
+    /**
+     * Find unique vectors of the batch and count their occurrences. Vectors are compared by their content
+     * using the open-addressing hash table, so the whole batch is processed in single pass.
+     * When the batch doesn't contain any duplicate vectors, its data are not copied.
+     *
+     * @param batch Source vectors.
+     * @return Unique vectors with their occurrence counts.
+     */
+    public static WeightedVectorBatch deduplicate(final VectorBatch batch) {
+        final int[] data = batch.getData();
+        final int vectorSize = batch.getVectorSize();
+        final int vectorCount = batch.getVectorCount();
+
+        // Source index of the first occurrence of every unique vector and the count of its occurrences.
+        int[] firstOccurrences = new int[Math.min(vectorCount, INITIAL_SLOT_COUNT)];
+        int[] counts = new int[firstOccurrences.length];
+        int[] uniqueHashes = new int[firstOccurrences.length];
+        int uniqueCount = 0;
+
+        int[] slots = new int[INITIAL_SLOT_COUNT];
+        Arrays.fill(slots, EMPTY_SLOT);
+        int mask = slots.length - 1;
+
+        for (int vectorIndex = 0; vectorIndex < vectorCount; vectorIndex++) {
+            final int offset = vectorIndex * vectorSize;
+            final int hash = hash(data, offset, vectorSize);
+            int slot = hash & mask;
+            int unique;
+            while ((unique = slots[slot]) != EMPTY_SLOT) {
+                if ((uniqueHashes[unique] == hash) &&
+                        vectorsEqual(data, firstOccurrences[unique] * vectorSize, offset, vectorSize)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (unique != EMPTY_SLOT) {
+                ++counts[unique];
+                continue;
+            }
+
+            if (uniqueCount == firstOccurrences.length) {
+                final int newLength = (int) Math.min((long) vectorCount, 2L * firstOccurrences.length);
+                firstOccurrences = Arrays.copyOf(firstOccurrences, newLength);
+                counts = Arrays.copyOf(counts, newLength);
+                uniqueHashes = Arrays.copyOf(uniqueHashes, newLength);
+            }
+            firstOccurrences[uniqueCount] = vectorIndex;
+            counts[uniqueCount] = 1;
+            uniqueHashes[uniqueCount] = hash;
+            slots[slot] = uniqueCount++;
+
+            // Keep the load factor under one half.
+            if (2 * uniqueCount > slots.length) {
+                slots = new int[slots.length * 2];
+                Arrays.fill(slots, EMPTY_SLOT);
+                mask = slots.length - 1;
+                for (int i = 0; i < uniqueCount; i++) {
+                    int newSlot = uniqueHashes[i] & mask;
+                    while (slots[newSlot] != EMPTY_SLOT) {
+                        newSlot = (newSlot + 1) & mask;
+                    }
+                    slots[newSlot] = i;
+                }
+            }
+        }
+
+        if (uniqueCount == vectorCount) {
+            return new WeightedVectorBatch(batch, counts);
+        }
+        final VectorBatch uniqueVectors = new VectorBatch(vectorSize, uniqueCount);
+        for (int i = 0; i < uniqueCount; i++) {
+            System.arraycopy(data, firstOccurrences[i] * vectorSize, uniqueVectors.getData(), i * vectorSize, vectorSize);
+        }
+        return new WeightedVectorBatch(uniqueVectors, Arrays.copyOf(counts, uniqueCount));
+    }
+
+    private static int hash(final int[] data, final int offset, final int vectorSize) {
+        int hash = 0x9E3779B9;
+        for (int i = 0; i < vectorSize; i++) {
+            hash = (hash ^ data[offset + i]) * 0x01000193;
+        }
+        hash ^= (hash >>> 16);
+        hash *= 0x85EBCA6B;
+        hash ^= (hash >>> 13);
+        return hash;
+    }
+
+    private static boolean vectorsEqual(final int[] data, final int offsetA, final int offsetB, final int vectorSize) {
+        for (int i = 0; i < vectorSize; i++) {
+            if (data[offsetA + i] != data[offsetB + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public VectorBatch getVectors() {
+        return vectors;
+    }
+
+    public int[] getWeights() {
+        return weights;
+    }
+
+    public int getUniqueVectorCount() {
+        return weights.length;
+    }
+
+    public int getTotalWeight() {
+        return totalWeight;
+    }
+}
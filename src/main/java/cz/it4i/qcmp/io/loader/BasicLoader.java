@@ -97,13 +97,14 @@ public abstract class BasicLoader {
         return z;
     }
 
-    protected int[][] loadRowVectorsImplByLoadPlaneData(final int vectorSize, final Range<Integer> planeRange) throws IOException {
+    protected VectorBatch loadRowVectorsImplByLoadPlaneData(final int vectorSize, final Range<Integer> planeRange) throws IOException {
         final int rowVectorCount = (int) Math.ceil((double) dims.getX() / (double) vectorSize);
         final int planeCount = planeRange.getTo() - planeRange.getFrom();
         final int vectorCount = planeCount * dims.getY() * rowVectorCount;
-        final int[][] rowVectors = new int[vectorCount][vectorSize];
+        final VectorBatch rowVectors = new VectorBatch(vectorSize, vectorCount);
+        final int[] rowVectorsData = rowVectors.getData();
 
-        int vectorIndex = 0;
+        int vectorOffset = 0;
         int baseX, srcX;
 
         for (int plane = planeRange.getFrom(); plane < planeRange.getTo(); plane++) {
@@ -120,22 +121,24 @@ public abstract class BasicLoader {
                                 break;
                             srcX = wrapColumnIndex(srcX);
                         }
-                        rowVectors[vectorIndex][vectorX] = planeData[Block.index(srcX, row, dims.getX())];
+                        rowVectorsData[vectorOffset + vectorX] = planeData[Block.index(srcX, row, dims.getX())];
                     }
-                    ++vectorIndex;
+                    vectorOffset += vectorSize;
                 }
             }
         }
         return rowVectors;
     }
 
-    protected int[][] loadRowVectorsImplByValueAt(final int vectorSize, final Range<Integer> planeRange) {
+    protected VectorBatch loadRowVectorsImplByValueAt(final int vectorSize, final Range<Integer> planeRange) {
         final int rowVectorCount = (int) Math.ceil((double) dims.getX() / (double) vectorSize);
-        final int vectorCount = dims.getZ() * dims.getY() * rowVectorCount;
+        final int planeCount = planeRange.getTo() - planeRange.getFrom();
+        final int vectorCount = planeCount * dims.getY() * rowVectorCount;
 
-        final int[][] rowVectors = new int[vectorCount][vectorSize];
+        final VectorBatch rowVectors = new VectorBatch(vectorSize, vectorCount);
+        final int[] rowVectorsData = rowVectors.getData();
 
-        int vectorIndex = 0;
+        int vectorOffset = 0;
         int baseX, srcX;
 
         for (int plane = planeRange.getFrom(); plane < planeRange.getTo(); plane++) {
@@ -153,53 +156,55 @@ public abstract class BasicLoader {
                         }
 
                         // TODO(Moravec): dims.getY() should probably be dims.getX()! Check this!
-                        rowVectors[vectorIndex][vectorX] = valueAt(plane, srcX, row, dims.getY());
+                        rowVectorsData[vectorOffset + vectorX] = valueAt(plane, srcX, row, dims.getY());
                     }
-                    ++vectorIndex;
+                    vectorOffset += vectorSize;
                 }
             }
         }
         return rowVectors;
     }
 
-    protected int[][] loadBlocksImplByLoadPlaneData(final V2i blockDim, final Range<Integer> planeRange) throws IOException {
+    protected VectorBatch loadBlocksImplByLoadPlaneData(final V2i blockDim, final Range<Integer> planeRange) throws IOException {
         final int blockSize = blockDim.multiplyTogether();
         final int planeCount = planeRange.getTo() - planeRange.getFrom();
         final int blockCount = planeCount * Block.calculateRequiredChunkCount(dims.toV2i(), blockDim);
 
-        final int[][] blocks = new int[blockCount][blockSize];
+        final VectorBatch blocks = new VectorBatch(blockSize, blockCount);
 
-        int blockIndex = 0;
+        int blockOffset = 0;
         for (int plane = planeRange.getFrom(); plane < planeRange.getTo(); plane++) {
             final int[] planeData = loadPlaneData(plane);
             for (int blockYOffset = 0; blockYOffset < dims.getY(); blockYOffset += blockDim.getY()) {
                 for (int blockXOffset = 0; blockXOffset < dims.getX(); blockXOffset += blockDim.getX()) {
-                    loadBlock(blocks[blockIndex++], planeData, blockXOffset, blockYOffset, blockDim);
+                    loadBlock(blocks.getData(), blockOffset, planeData, blockXOffset, blockYOffset, blockDim);
+                    blockOffset += blockSize;
                 }
             }
         }
         return blocks;
     }
 
-    protected int[][] loadBlocksImplByValueAt(final V2i blockDim, final Range<Integer> planeRange) {
+    protected VectorBatch loadBlocksImplByValueAt(final V2i blockDim, final Range<Integer> planeRange) {
         final int blockSize = blockDim.multiplyTogether();
         final int planeCount = planeRange.getTo() - planeRange.getFrom();
         final int blockCount = planeCount * Block.calculateRequiredChunkCount(dims.toV2i(), blockDim);
 
-        final int[][] blocks = new int[blockCount][blockSize];
+        final VectorBatch blocks = new VectorBatch(blockSize, blockCount);
 
-        int blockIndex = 0;
+        int blockOffset = 0;
         for (int plane = planeRange.getFrom(); plane < planeRange.getTo(); plane++) {
             for (int blockYOffset = 0; blockYOffset < dims.getY(); blockYOffset += blockDim.getY()) {
                 for (int blockXOffset = 0; blockXOffset < dims.getX(); blockXOffset += blockDim.getX()) {
-                    loadBlock(blocks[blockIndex++], plane, blockXOffset, blockYOffset, blockDim);
+                    loadBlock(blocks.getData(), blockOffset, plane, blockXOffset, blockYOffset, blockDim);
+                    blockOffset += blockSize;
                 }
             }
         }
         return blocks;
     }
 
-    private void loadBlock(final int[] block, final int planeIndex, final int blockXOffset, final int blockYOffset, final V2i blockDim) {
+    private void loadBlock(final int[] dst, final int dstOffset, final int planeIndex, final int blockXOffset, final int blockYOffset, final V2i blockDim) {
         int srcX, srcY;
         for (int y = 0; y < blockDim.getY(); y++) {
             srcY = blockYOffset + y;
@@ -222,13 +227,13 @@ public abstract class BasicLoader {
                     srcX = wrapColumnIndex(srcX);
                 }
 
-                block[Block.index(x, y, blockDim.getX())] = valueAt(planeIndex, srcX, srcY, dims.getX());
+                dst[dstOffset + Block.index(x, y, blockDim.getX())] = valueAt(planeIndex, srcX, srcY, dims.getX());
             }
         }
     }
 
 
-    private void loadBlock(final int[] block, final int[] planeData, final int blockXOffset, final int blockYOffset, final V2i blockDim) {
+    private void loadBlock(final int[] dst, final int dstOffset, final int[] planeData, final int blockXOffset, final int blockYOffset, final V2i blockDim) {
         int srcX, srcY;
         for (int y = 0; y < blockDim.getY(); y++) {
             srcY = blockYOffset + y;
@@ -249,12 +254,12 @@ public abstract class BasicLoader {
                     srcX = wrapColumnIndex(srcX);
                 }
 
-                block[Block.index(x, y, blockDim.getX())] = planeData[Block.index(srcX, srcY, dims.getX())];
+                dst[dstOffset + Block.index(x, y, blockDim.getX())] = planeData[Block.index(srcX, srcY, dims.getX())];
             }
         }
     }
 
-    private void loadVoxel(final int[] voxel, final int voxelXOffset, final int voxelYOffset, final int voxelZOffset, final V3i voxelDim) {
+    private void loadVoxel(final int[] dst, final int dstOffset, final int voxelXOffset, final int voxelYOffset, final int voxelZOffset, final V3i voxelDim) {
         int srcX, srcY, srcZ;
         for (int z = 0; z < voxelDim.getZ(); z++) {
             srcZ = voxelZOffset + z;
@@ -289,13 +294,14 @@ public abstract class BasicLoader {
                         srcX = wrapColumnIndex(srcX);
                     }
 
-                    voxel[Voxel.dataIndex(x, y, z, voxelDim)] = valueAt(srcZ, srcX, srcY, dims.getX());
+                    dst[dstOffset + Voxel.dataIndex(x, y, z, voxelDim)] = valueAt(srcZ, srcX, srcY, dims.getX());
                 }
             }
         }
     }
 
-    private void loadVoxel(final int[] voxel,
+    private void loadVoxel(final int[] dst,
+                           final int dstOffset,
                            final int[][] planesData,
                            final int voxelXOffset,
                            final int voxelYOffset,
@@ -325,25 +331,25 @@ public abstract class BasicLoader {
                         srcX = wrapColumnIndex(srcX);
                     }
 
-                    voxel[Voxel.dataIndex(x, y, z, voxelDim)] = planesData[z][Block.index(srcX, srcY, dims.getX())];
+                    dst[dstOffset + Voxel.dataIndex(x, y, z, voxelDim)] = planesData[z][Block.index(srcX, srcY, dims.getX())];
                 }
             }
         }
     }
 
     /**
-     * Allocate 2D voxel data array for specified voxel layer.
+     * Allocate voxel batch for specified voxel layer.
      *
      * @param voxelDim   Single voxel dimension.
      * @param planeRange Voxel layer depth.
-     * @return Allocated array.
+     * @return Allocated batch.
      */
-    private int[][] allocateVoxelArray(final V3i voxelDim, final Range<Integer> planeRange) {
+    private VectorBatch allocateVoxelBatch(final V3i voxelDim, final Range<Integer> planeRange) {
         final int voxelElementCount = (int) voxelDim.multiplyTogether();
         final int rangeSize = planeRange.getTo() - planeRange.getFrom();
         final V3i srcVoxel = new V3i(dims.getX(), dims.getY(), rangeSize);
         final int voxelCount = Voxel.calculateRequiredVoxelCount(srcVoxel, voxelDim);
-        return new int[voxelCount][voxelElementCount];
+        return new VectorBatch(voxelElementCount, voxelCount);
     }
 
     /**
@@ -352,16 +358,18 @@ public abstract class BasicLoader {
      *
      * @param voxelDim   Single voxel dimensions.
      * @param planeRange Range of planes to load voxels from.
-     * @return Voxel data arranged in arrays.
+     * @return Voxel data batch.
      */
-    protected int[][] loadVoxelsImplByValueAt(final V3i voxelDim, final Range<Integer> planeRange) {
-        final int[][] voxels = allocateVoxelArray(voxelDim, planeRange);
-        int voxelIndex = 0;
+    protected VectorBatch loadVoxelsImplByValueAt(final V3i voxelDim, final Range<Integer> planeRange) {
+        final VectorBatch voxels = allocateVoxelBatch(voxelDim, planeRange);
+        final int voxelSize = voxels.getVectorSize();
+        int voxelOffset = 0;
 
         for (int voxelZOffset = planeRange.getFrom(); voxelZOffset < planeRange.getTo(); voxelZOffset += voxelDim.getZ()) {
             for (int voxelYOffset = 0; voxelYOffset < dims.getY(); voxelYOffset += voxelDim.getY()) {
                 for (int voxelXOffset = 0; voxelXOffset < dims.getX(); voxelXOffset += voxelDim.getX()) {
-                    loadVoxel(voxels[voxelIndex++], voxelXOffset, voxelYOffset, voxelZOffset, voxelDim);
+                    loadVoxel(voxels.getData(), voxelOffset, voxelXOffset, voxelYOffset, voxelZOffset, voxelDim);
+                    voxelOffset += voxelSize;
                 }
             }
         }
@@ -392,11 +400,12 @@ public abstract class BasicLoader {
      *
      * @param voxelDim   Single voxel dimensions.
      * @param planeRange Range of planes to load voxels from.
-     * @return Voxel data arranged in arrays.
+     * @return Voxel data batch.
      */
-    protected int[][] loadVoxelsImplByLoadPlaneData(final V3i voxelDim, final Range<Integer> planeRange) throws IOException {
-        final int[][] voxels = allocateVoxelArray(voxelDim, planeRange);
-        int voxelIndex = 0;
+    protected VectorBatch loadVoxelsImplByLoadPlaneData(final V3i voxelDim, final Range<Integer> planeRange) throws IOException {
+        final VectorBatch voxels = allocateVoxelBatch(voxelDim, planeRange);
+        final int voxelSize = voxels.getVectorSize();
+        int voxelOffset = 0;
 
         final int[][] planesData = new int[voxelDim.getZ()][0];
 
@@ -406,7 +415,8 @@ public abstract class BasicLoader {
 
             for (int voxelYOffset = 0; voxelYOffset < dims.getY(); voxelYOffset += voxelDim.getY()) {
                 for (int voxelXOffset = 0; voxelXOffset < dims.getX(); voxelXOffset += voxelDim.getX()) {
-                    loadVoxel(voxels[voxelIndex++], planesData, voxelXOffset, voxelYOffset, voxelDim);
+                    loadVoxel(voxels.getData(), voxelOffset, planesData, voxelXOffset, voxelYOffset, voxelDim);
+                    voxelOffset += voxelSize;
                 }
             }
         }
@@ -3,6 +3,7 @@ package cz.it4i.qcmp.io.loader;
 import cz.it4i.qcmp.data.Range;
 import cz.it4i.qcmp.data.V2i;
 import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
 import cz.it4i.qcmp.io.CallbackInputData;
 
 import java.io.IOException;
@@ -90,16 +91,31 @@ public class CallbackLoader extends BasicLoader implements IPlaneLoader {
 
     @Override
     public int[][] loadRowVectors(final int vectorSize, final Range<Integer> planeRange) {
-        return loadRowVectorsImplByValueAt(vectorSize, planeRange);
+        return loadRowVectorsImplByValueAt(vectorSize, planeRange).toVectorArray();
     }
 
     @Override
     public int[][] loadBlocks(final V2i blockDim, final Range<Integer> planeRange) {
-        return loadBlocksImplByValueAt(blockDim, planeRange);
+        return loadBlocksImplByValueAt(blockDim, planeRange).toVectorArray();
     }
 
     @Override
     public int[][] loadVoxels(final V3i voxelDim, final Range<Integer> planeRange) {
+        return loadVoxelsImplByValueAt(voxelDim, planeRange).toVectorArray();
+    }
+
+    @Override
+    public VectorBatch loadRowVectorBatch(final int vectorSize, final Range<Integer> planeRange) {
+        return loadRowVectorsImplByValueAt(vectorSize, planeRange);
+    }
+
+    @Override
+    public VectorBatch loadBlockBatch(final V2i blockDim, final Range<Integer> planeRange) {
+        return loadBlocksImplByValueAt(blockDim, planeRange);
+    }
+
+    @Override
+    public VectorBatch loadVoxelBatch(final V3i voxelDim, final Range<Integer> planeRange) {
         return loadVoxelsImplByValueAt(voxelDim, planeRange);
     }
 }
@@ -5,6 +5,7 @@ import cz.it4i.qcmp.compression.exception.ImageCompressionException;
 import cz.it4i.qcmp.data.Range;
 import cz.it4i.qcmp.data.V2i;
 import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
 
 import java.io.IOException;
 
@@ -148,6 +149,37 @@ public interface IPlaneLoader {
      */
     int[][] loadVoxels(final V3i voxelDim, final Range<Integer> planeRange) throws IOException;
 
+    /**
+     * Load row vectors from specified plane range in the dataset into single flat batch.
+     *
+     * @param vectorSize Width of the row vector.
+     * @param planeRange Source plane range.
+     * @return Row vector batch from the specified plane range.
+     * @throws IOException When fails to load plane data.
+     */
+    VectorBatch loadRowVectorBatch(final int vectorSize, final Range<Integer> planeRange) throws IOException;
+
+    /**
+     * Load blocks from specified plane range in the dataset into single flat batch.
+     *
+     * @param blockDim   Dimensions of the 2D block. (Matrix)
+     * @param planeRange Source plane range.
+     * @return Block batch from the specified plane range.
+     * @throws IOException When fails to load plane data.
+     */
+    VectorBatch loadBlockBatch(final V2i blockDim, final Range<Integer> planeRange) throws IOException;
+
+    /**
+     * Load voxels from specified plane range in the dataset into single flat batch.
+     * Plane range should be divisible by `voxelDim.getZ()`
+     *
+     * @param voxelDim   Voxel dimensions.
+     * @param planeRange Source plane range.
+     * @return Voxel batch from the specified plane range.
+     * @throws IOException when fails to load plane data.
+     */
+    VectorBatch loadVoxelBatch(final V3i voxelDim, final Range<Integer> planeRange) throws IOException;
+
     /**
      * Set thread count, which can be used by the loader if needed.
      *
@@ -183,4 +215,33 @@ public interface IPlaneLoader {
             throw new ImageCompressionException("Unable to load vectors QuantizationType=" + options.getQuantizationType(), e);
         }
     }
+
+    /**
+     * Load correct type of vectors (quantization type in options) from specified plane range into flat batch.
+     *
+     * @param planeRange Plane range to load vectors from.
+     * @return Vector batch from plane range.
+     * @throws ImageCompressionException When fails to load plane range.
+     */
+    default VectorBatch loadVectorBatchFromPlaneRange(final CompressionOptions options,
+                                                      final Range<Integer> planeRange) throws ImageCompressionException {
+
+        setWorkerCount(supportParallelLoading() ? options.getWorkerCount() : 1);
+
+        try {
+            switch (options.getQuantizationType()) {
+                case Vector1D:
+                    return loadRowVectorBatch(options.getQuantizationVector().getX(), planeRange);
+                case Vector2D:
+                    return loadBlockBatch(options.getQuantizationVector().toV2i(), planeRange);
+                case Vector3D:
+                    return loadVoxelBatch(options.getQuantizationVector(), planeRange);
+                default: {
+                    throw new ImageCompressionException("Invalid QuantizationType '" + options.getQuantizationType().toString() + "'");
+                }
+            }
+        } catch (final IOException e) {
+            throw new ImageCompressionException("Unable to load vectors QuantizationType=" + options.getQuantizationType(), e);
+        }
+    }
 }
@@ -4,6 +4,7 @@ import cz.it4i.qcmp.data.Block;
 import cz.it4i.qcmp.data.Range;
 import cz.it4i.qcmp.data.V2i;
 import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
 import cz.it4i.qcmp.io.BufferInputData;
 import cz.it4i.qcmp.io.InputData;
 import cz.it4i.qcmp.utilities.TypeConverter;
@@ -94,16 +95,31 @@ public final class ImageJBufferLoader extends BasicLoader implements IPlaneLoade
 
     @Override
     public int[][] loadRowVectors(final int vectorSize, final Range<Integer> planeRange) {
-        return loadRowVectorsImplByValueAt(vectorSize, planeRange);
+        return loadRowVectorsImplByValueAt(vectorSize, planeRange).toVectorArray();
     }
 
     @Override
     public int[][] loadBlocks(final V2i blockDim, final Range<Integer> planeRange) {
-        return loadBlocksImplByValueAt(blockDim, planeRange);
+        return loadBlocksImplByValueAt(blockDim, planeRange).toVectorArray();
     }
 
     @Override
     public int[][] loadVoxels(final V3i voxelDim, final Range<Integer> planeRange) {
+        return loadVoxelsImplByValueAt(voxelDim, planeRange).toVectorArray();
+    }
+
+    @Override
+    public VectorBatch loadRowVectorBatch(final int vectorSize, final Range<Integer> planeRange) {
+        return loadRowVectorsImplByValueAt(vectorSize, planeRange);
+    }
+
+    @Override
+    public VectorBatch loadBlockBatch(final V2i blockDim, final Range<Integer> planeRange) {
+        return loadBlocksImplByValueAt(blockDim, planeRange);
+    }
+
+    @Override
+    public VectorBatch loadVoxelBatch(final V3i voxelDim, final Range<Integer> planeRange) {
         return loadVoxelsImplByValueAt(voxelDim, planeRange);
     }
 }
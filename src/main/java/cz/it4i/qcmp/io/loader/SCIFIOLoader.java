@@ -4,6 +4,7 @@ import cz.it4i.qcmp.ScifioWrapper;
 import cz.it4i.qcmp.data.Range;
 import cz.it4i.qcmp.data.V2i;
 import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
 import cz.it4i.qcmp.io.FileInputData;
 import cz.it4i.qcmp.utilities.TypeConverter;
 import io.scif.FormatException;
@@ -114,16 +115,31 @@ public final class SCIFIOLoader extends BasicLoader implements IPlaneLoader {
 
     @Override
     public int[][] loadRowVectors(final int vectorSize, final Range<Integer> planeRange) throws IOException {
-        return loadRowVectorsImplByLoadPlaneData(vectorSize, planeRange);
+        return loadRowVectorsImplByLoadPlaneData(vectorSize, planeRange).toVectorArray();
     }
 
     @Override
     public int[][] loadBlocks(final V2i blockDim, final Range<Integer> planeRange) throws IOException {
-        return loadBlocksImplByLoadPlaneData(blockDim, planeRange);
+        return loadBlocksImplByLoadPlaneData(blockDim, planeRange).toVectorArray();
     }
 
     @Override
     public int[][] loadVoxels(final V3i voxelDim, final Range<Integer> planeRange) throws IOException {
+        return loadVoxelsImplByLoadPlaneData(voxelDim, planeRange).toVectorArray();
+    }
+
+    @Override
+    public VectorBatch loadRowVectorBatch(final int vectorSize, final Range<Integer> planeRange) throws IOException {
+        return loadRowVectorsImplByLoadPlaneData(vectorSize, planeRange);
+    }
+
+    @Override
+    public VectorBatch loadBlockBatch(final V2i blockDim, final Range<Integer> planeRange) throws IOException {
+        return loadBlocksImplByLoadPlaneData(blockDim, planeRange);
+    }
+
+    @Override
+    public VectorBatch loadVoxelBatch(final V3i voxelDim, final Range<Integer> planeRange) throws IOException {
         return loadVoxelsImplByLoadPlaneData(voxelDim, planeRange);
     }
 }
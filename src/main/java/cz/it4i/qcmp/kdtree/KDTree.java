@@ -2,6 +2,8 @@ package cz.it4i.qcmp.kdtree;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.PriorityQueue;
 
 // TODO(Moravec):   One more time read the paper and check the implementation!
@@ -22,20 +24,20 @@ public class KDTree {
 
     public static class BBFSearchInfo {
         private final int[][] featureVectors;
-        private double nearestVectorDistance;
+        private long nearestVectorDistance;
         private int nearestVectorIndex;
 
         public BBFSearchInfo(final int[][] featureVectors) {
             this.featureVectors = featureVectors;
             nearestVectorIndex = -1;
-            nearestVectorDistance = Double.POSITIVE_INFINITY;
+            nearestVectorDistance = Long.MAX_VALUE;
         }
 
         public int[][] getFeatureVectors() {
             return featureVectors;
         }
 
-        public double getNearestVectorDistance() {
+        public long getNearestVectorDistance() {
             return nearestVectorDistance;
         }
 
@@ -43,7 +45,7 @@ public class KDTree {
             return nearestVectorIndex;
         }
 
-        public void setNearestRecord(final int vectorIndex, final double recordDistance) {
+        public void setNearestRecord(final int vectorIndex, final long recordDistance) {
             this.nearestVectorIndex = vectorIndex;
             this.nearestVectorDistance = recordDistance;
         }
@@ -51,9 +53,9 @@ public class KDTree {
 
     private static class NodeWithDistance implements Comparable<NodeWithDistance> {
         private final KDNode node;
-        private final double distance;
+        private final long distance;
 
-        private NodeWithDistance(final KDNode node, final double distance) {
+        private NodeWithDistance(final KDNode node, final long distance) {
             this.node = node;
             this.distance = distance;
         }
@@ -62,13 +64,13 @@ public class KDTree {
             return node;
         }
 
-        public double getDistance() {
+        public long getDistance() {
             return distance;
         }
 
         @Override
         public int compareTo(@NotNull final KDTree.NodeWithDistance o) {
-            return Double.compare(distance, o.distance);
+            return Long.compare(distance, o.distance);
         }
     }
 
@@ -85,38 +87,86 @@ public class KDTree {
         this.terminalNodeCount = terminalNodeCount;
     }
 
+    /**
+     * Find the nearest feature vector by the Best Bin First search.
+     *
+     * @param queryVector Query vector.
+     * @param maxE        Maximum number of visited terminal nodes, zero or negative value means no limit.
+     * @return Index of the nearest found feature vector.
+     */
     public int findNearestBBF(final int[] queryVector, final int maxE) {
+        return findNearestBBF(queryVector, 0, maxE);
+    }
+
+    /**
+     * Find the nearest feature vector by the Best Bin First search.
+     * <p>
+     * Bins are visited in the order of their lower bound distance from the query. Search ends when the closest
+     * remaining bin is further than the best found vector, in which case the result is exact, or after maxE
+     * terminal nodes were visited, in which case the result is approximate.
+     *
+     * @param queryData Array containing the query vector.
+     * @param offset    Offset of the first query vector element.
+     * @param maxE      Maximum number of visited terminal nodes, zero or negative value means no limit.
+     * @return Index of the nearest found feature vector.
+     */
+    public int findNearestBBF(final int[] queryData, final int offset, final int maxE) {
 
         final PriorityQueue<NodeWithDistance> priorityQueue = new PriorityQueue<>();
-        priorityQueue.add(new NodeWithDistance(root, 0.0));
+        priorityQueue.add(new NodeWithDistance(root, 0));
 
         final BBFSearchInfo searchInfo = new BBFSearchInfo(featureVectors);
         int tryIndex = 0;
         int partition, discriminator;
-        while (!priorityQueue.isEmpty() && tryIndex < maxE) {
+        while (!priorityQueue.isEmpty() && (maxE <= 0 || tryIndex < maxE)) {
             final NodeWithDistance current = priorityQueue.remove();
+            if (current.getDistance() > searchInfo.getNearestVectorDistance()) {
+                break;
+            }
             if (current.getNode().isTerminal()) {
-                ((TerminalKDNode) current.getNode()).findNearestNeighborInBucket(queryVector, searchInfo);
+                ((TerminalKDNode) current.getNode()).findNearestNeighborInBucket(queryData, offset, searchInfo);
                 ++tryIndex;
             } else {
                 discriminator = current.getNode().getDiscriminator();
                 partition = current.getNode().getPartition();
-                if (queryVector[discriminator] < partition) {
-                    priorityQueue.add(new NodeWithDistance(current.getNode().getLoSon(),
-                                                           0.0));
-                    priorityQueue.add(new NodeWithDistance(current.getNode().getHiSon(),
-                                                           (double) partition - (double) queryVector[discriminator]));
+                final long queryValue = queryData[offset + discriminator];
+                final long planeDistance = (queryValue - partition) * (queryValue - partition);
+                // Lower bound of the far bin is the larger of the parent bound and the distance to the split plane.
+                final long farDistance = Math.max(current.getDistance(), planeDistance);
+                if (queryValue <= partition) {
+                    priorityQueue.add(new NodeWithDistance(current.getNode().getLoSon(), current.getDistance()));
+                    priorityQueue.add(new NodeWithDistance(current.getNode().getHiSon(), farDistance));
                 } else {
-                    priorityQueue.add(new NodeWithDistance(current.getNode().getHiSon(),
-                                                           0.0));
-                    priorityQueue.add(new NodeWithDistance(current.getNode().getLoSon(),
-                                                           (double) queryVector[discriminator] - (double) partition));
+                    priorityQueue.add(new NodeWithDistance(current.getNode().getHiSon(), current.getDistance()));
+                    priorityQueue.add(new NodeWithDistance(current.getNode().getLoSon(), farDistance));
                 }
             }
         }
         return searchInfo.getNearestVectorIndex();
     }
 
+    /**
+     * Get the feature vector indices of all terminal buckets. Buckets are returned in the order of the tree
+     * traversal, so neighbouring buckets cover neighbouring parts of the space.
+     *
+     * @return Indices of the feature vectors in every bucket.
+     */
+    public ArrayList<int[]> getBuckets() {
+        final ArrayList<int[]> buckets = new ArrayList<>(terminalNodeCount);
+        final ArrayDeque<KDNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            final KDNode node = stack.pop();
+            if (node.isTerminal()) {
+                buckets.add(((TerminalKDNode) node).getBucketIndices());
+            } else {
+                stack.push(node.getHiSon());
+                stack.push(node.getLoSon());
+            }
+        }
+        return buckets;
+    }
+
     public int getTotalNodeCount() {
         return totalNodeCount;
     }
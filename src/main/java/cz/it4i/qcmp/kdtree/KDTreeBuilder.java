@@ -1,6 +1,5 @@
 package cz.it4i.qcmp.kdtree;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 public class KDTreeBuilder {
@@ -74,6 +73,10 @@ public class KDTreeBuilder {
 
         // Divide records in one method to hi and lo.
         final DividedRecords dividedRecords = divideRecords(indices, median, dimensionIndex);
+        // Records with the same value in the split dimension (e.g. duplicate vectors) can't be divided.
+        if ((dividedRecords.getLoIndices().length == 0) || (dividedRecords.getHiIndices().length == 0)) {
+            return makeTerminalNode(indices);
+        }
         return makeNonTerminalNode(dimensionIndex, median, dividedRecords);
     }
 
@@ -87,20 +90,25 @@ public class KDTreeBuilder {
      * @return Divided vectors.
      */
     private DividedRecords divideRecords(final int[] indices, final int median, final int dimension) {
-        final ArrayList<Integer> loIndices = new ArrayList<>();
-        final ArrayList<Integer> hiIndices = new ArrayList<>();
+        int loCount = 0;
+        for (final int fVecIndex : indices) {
+            if (featureVectors[fVecIndex][dimension] <= median) {
+                ++loCount;
+            }
+        }
 
+        final int[] loIndices = new int[loCount];
+        final int[] hiIndices = new int[indices.length - loCount];
+        int loIndex = 0;
+        int hiIndex = 0;
         for (final int fVecIndex : indices) {
             if (featureVectors[fVecIndex][dimension] <= median) {
-                loIndices.add(fVecIndex);
+                loIndices[loIndex++] = fVecIndex;
             } else {
-
-                hiIndices.add(fVecIndex);
+                hiIndices[hiIndex++] = fVecIndex;
             }
         }
-
-        return new DividedRecords(loIndices.stream().mapToInt(Integer::intValue).toArray(),
-                                  hiIndices.stream().mapToInt(Integer::intValue).toArray());
+        return new DividedRecords(loIndices, hiIndices);
     }
 
     /**
@@ -191,7 +199,8 @@ public class KDTreeBuilder {
         double var = 0.0;
 
         for (final int fVecIndex : indices) {
-            var += Math.pow(((double) featureVectors[fVecIndex][dimension] - mean), 2);
+            final double diff = (double) featureVectors[fVecIndex][dimension] - mean;
+            var += diff * diff;
         }
         return (var / (double) indices.length);
     }
@@ -1,7 +1,5 @@
 package cz.it4i.qcmp.kdtree;
 
-import cz.it4i.qcmp.utilities.Utils;
-
 public class TerminalKDNode extends KDNode {
 
     private final int[] bucketIndices;
@@ -20,11 +18,24 @@ public class TerminalKDNode extends KDNode {
         return bucketIndices;
     }
 
-    public void findNearestNeighborInBucket(final int[] queryRecord, final KDTree.BBFSearchInfo searchInfo) {
-        double recordDistance;
+    /**
+     * Update the search info with the nearest vector from this bucket. Vectors are compared by squared euclidean
+     * distance and ties are resolved in favor of the lower feature vector index.
+     *
+     * @param queryData  Array containing the query vector.
+     * @param offset     Offset of the first query vector element.
+     * @param searchInfo Search info with the best vector found so far.
+     */
+    public void findNearestNeighborInBucket(final int[] queryData, final int offset, final KDTree.BBFSearchInfo searchInfo) {
         for (final int index : bucketIndices) {
-            recordDistance = Utils.calculateEuclideanDistance(queryRecord, searchInfo.getFeatureVectors()[index]);
-            if (recordDistance < searchInfo.getNearestVectorDistance()) {
+            final int[] featureVector = searchInfo.getFeatureVectors()[index];
+            long recordDistance = 0;
+            for (int dim = 0; dim < featureVector.length; dim++) {
+                final long diff = queryData[offset + dim] - featureVector[dim];
+                recordDistance += diff * diff;
+            }
+            if ((recordDistance < searchInfo.getNearestVectorDistance()) ||
+                    ((recordDistance == searchInfo.getNearestVectorDistance()) && (index < searchInfo.getNearestVectorIndex()))) {
                 searchInfo.setNearestRecord(index, recordDistance);
             }
         }
@@ -0,0 +1,109 @@
+package cz.it4i.qcmp.quantization;
+
+import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.utilities.Utils;
+
+/**
+ * Result of the quantization pass, which produces the codebook indices together with the index histogram and
+ * the sum of squared quantization errors.
+ */
+public class QuantizationResult {
+    /**
+     * Codebook indices of the quantized values or vectors.
+     */
+    private final int[] indices;
+
+    /**
+     * Number of occurrences of every codebook index.
+     */
+    private final long[] histogram;
+
+    /**
+     * Sum of squared differences between the original and quantized elements.
+     */
+    private final double squaredErrorSum;
+
+    /**
+     * Number of quantized elements (values, not vectors).
+     */
+    private final long elementCount;
+
+    public QuantizationResult(final int[] indices,
+                              final long[] histogram,
+                              final double squaredErrorSum,
+                              final long elementCount) {
+        this.indices = indices;
+        this.histogram = histogram;
+        this.squaredErrorSum = squaredErrorSum;
+        this.elementCount = elementCount;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public long[] getHistogram() {
+        return histogram;
+    }
+
+    public double getSquaredErrorSum() {
+        return squaredErrorSum;
+    }
+
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Get the mean squared error per element.
+     *
+     * @return Mean squared error.
+     */
+    public double getMse() {
+        return (elementCount > 0) ? (squaredErrorSum / (double) elementCount) : 0.0;
+    }
+
+    /**
+     * Get the peak signal to noise ratio for 16 bit data.
+     *
+     * @return PSNR in dB.
+     */
+    public double getPsnr() {
+        return Utils.calculatePsnr(getMse(), U16.Max);
+    }
+
+    /**
+     * Get the number of codebook entries, which were used at least once.
+     *
+     * @return Number of used codebook entries.
+     */
+    public int getUsedEntryCount() {
+        int used = 0;
+        for (final long count : histogram) {
+            if (count > 0) {
+                ++used;
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Get the entropy of the index sequence, which is the lower bound of bits per index for the entropy coder.
+     *
+     * @return Entropy in bits per index.
+     */
+    public double getIndexEntropy() {
+        long total = 0;
+        for (final long count : histogram) {
+            total += count;
+        }
+        double entropy = 0.0;
+        for (final long count : histogram) {
+            if (count > 0) {
+                final double probability = (double) count / (double) total;
+                entropy -= probability * Utils.log2(probability);
+            }
+        }
+        return entropy;
+    }
+}
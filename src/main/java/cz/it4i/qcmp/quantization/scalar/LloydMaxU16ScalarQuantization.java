@@ -3,7 +3,6 @@ package cz.it4i.qcmp.quantization.scalar;
 import cz.it4i.qcmp.U16;
 import cz.it4i.qcmp.compression.listeners.IStatusListener;
 import cz.it4i.qcmp.quantization.QTrainIteration;
-import cz.it4i.qcmp.utilities.MinMaxResult;
 import cz.it4i.qcmp.utilities.Stopwatch;
 import cz.it4i.qcmp.utilities.Utils;
 
@@ -11,8 +10,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 
+/**
+ * Lloyd-Max scalar quantizer training. Training runs on the histogram of the training values, so after the single
+ * pass building the histogram the cost of the training doesn't depend on the number of training values.
+ */
 public class LloydMaxU16ScalarQuantization {
-    private final int[] trainingData;
+    /**
+     * Histogram of the training values.
+     */
+    private final U16Histogram histogram;
     private final int codebookSize;
 
     private int dataMin;
@@ -24,16 +30,44 @@ public class LloydMaxU16ScalarQuantization {
 
     private double[] pdf;
 
+    /**
+     * Index of the interval containing every value of the data range, used by the MSE calculation.
+     */
+    private int[] valueIntervals;
+
     private final int workerCount;
 
     private IStatusListener statusListener = null;
 
+    /**
+     * Codebook whose centroids replace the initial centroids or null.
+     */
+    private SQCodebook initialCodebook = null;
+
     public LloydMaxU16ScalarQuantization(final int[] trainData, final int codebookSize, final int workerCount) {
-        trainingData = trainData;
+        this(createHistogram(trainData, workerCount), codebookSize, workerCount);
+    }
+
+    /**
+     * Create Lloyd-Max training of the values counted in the histogram, e.g. streamed plane by plane.
+     *
+     * @param histogram    Histogram of the training values.
+     * @param codebookSize Number of the quantization levels.
+     * @param workerCount  Number of worker threads.
+     */
+    public LloydMaxU16ScalarQuantization(final U16Histogram histogram, final int codebookSize, final int workerCount) {
+        assert (histogram.getTotalCount() > 0) : "No training data provided";
+        this.histogram = histogram;
         this.codebookSize = codebookSize;
         this.workerCount = workerCount;
     }
 
+    private static U16Histogram createHistogram(final int[] trainData, final int workerCount) {
+        final U16Histogram histogram = new U16Histogram(workerCount);
+        histogram.add(trainData);
+        return histogram;
+    }
+
     public LloydMaxU16ScalarQuantization(final int[] trainData, final int codebookSize) {
         this(trainData, codebookSize, 1);
     }
@@ -42,15 +76,24 @@ public class LloydMaxU16ScalarQuantization {
         this.statusListener = listener;
     }
 
+    /**
+     * Set the codebook, whose centroids are only refined instead of initializing the centroids from the data,
+     * e.g. the cached codebook of the previous time point. Codebook of different size is ignored.
+     *
+     * @param codebook Initial codebook or null.
+     */
+    public void setInitialCodebook(final SQCodebook codebook) {
+        this.initialCodebook = codebook;
+    }
+
     private void initialize() {
         frequencies = new long[codebookSize];
         centroids = new int[codebookSize];
 
         boundaryPoints = new int[codebookSize + 1];
 
-        final MinMaxResult<Integer> minMax = Utils.getMinAndMax(trainingData);
-        dataMin = minMax.getMin();
-        dataMax = minMax.getMax();
+        dataMin = histogram.getMin();
+        dataMax = histogram.getMax();
         final int dataSpan = dataMax - dataMin;
         centroids[0] = dataMin;
 
@@ -73,9 +116,11 @@ public class LloydMaxU16ScalarQuantization {
 
     private void initializeProbabilityDensityFunction() {
         pdf = new double[U16.Max + 1];
-        for (final int trainingDatum : trainingData) {
-            pdf[trainingDatum] += 1.0;
+        final long[] counts = histogram.getCounts();
+        for (int value = 0; value <= U16.Max; value++) {
+            pdf[value] = counts[value];
         }
+        valueIntervals = new int[dataMax - dataMin + 1];
     }
 
     private void recalculateBoundaryPoints() {
@@ -101,6 +146,16 @@ public class LloydMaxU16ScalarQuantization {
         }
     }
 
+    /**
+     * Copy the centroids of the initial codebook, clamped to the range of the training data.
+     */
+    private void useInitialCodebookCentroids() {
+        final int[] initialCentroids = initialCodebook.getCentroids();
+        for (int i = 0; i < codebookSize; i++) {
+            centroids[i] = Math.max(dataMin, Math.min(dataMax, initialCentroids[i]));
+        }
+    }
+
     private void recalculateCentroids() {
         double numerator = 0.0;
         double denominator = 0.0;
@@ -143,54 +198,40 @@ public class LloydMaxU16ScalarQuantization {
         Arrays.fill(frequencies, 0);
     }
 
+    /**
+     * Calculate the MSE and the frequencies of the quantization levels from the histogram. Every value belongs to
+     * the first interval containing it, as in quantize().
+     *
+     * @return Mean square error of the training values.
+     */
     private double getCurrentMse() {
-        double mse = 0.0;
         resetFrequencies();
-
-        if (workerCount > 1) {
-            final int workSize = trainingData.length / workerCount;
-
-            final RunnableLloydMseCalc[] runnables = new RunnableLloydMseCalc[workerCount];
-            final Thread[] workers = new Thread[workerCount];
-            for (int wId = 0; wId < workerCount; wId++) {
-                final int fromIndex = wId * workSize;
-                final int toIndex = (wId == workerCount - 1) ? trainingData.length : (workSize + (wId * workSize));
-
-
-                runnables[wId] = new RunnableLloydMseCalc(trainingData,
-                                                          fromIndex,
-                                                          toIndex,
-                                                          centroids,
-                                                          boundaryPoints,
-                                                          codebookSize);
-                workers[wId] = new Thread(runnables[wId]);
-                workers[wId].start();
-            }
-            try {
-                for (int wId = 0; wId < workerCount; wId++) {
-                    workers[wId].join();
-                    addWorkerFrequencies(runnables[wId].getFrequencies());
-                    mse += runnables[wId].getMse();
+        Arrays.fill(valueIntervals, -1);
+        for (int intervalIndex = 0; intervalIndex < codebookSize; intervalIndex++) {
+            final int lowerBound = Math.max(dataMin, boundaryPoints[intervalIndex]);
+            final int upperBound = Math.min(dataMax, boundaryPoints[intervalIndex + 1]);
+            for (int value = lowerBound; value <= upperBound; value++) {
+                if (valueIntervals[value - dataMin] < 0) {
+                    valueIntervals[value - dataMin] = intervalIndex;
                 }
-            } catch (final InterruptedException e) {
-                e.printStackTrace();
-            }
-        } else {
-            for (final int trainingDatum : trainingData) {
-                final int quantizedValue = quantize(trainingDatum);
-                mse += Math.pow((double) trainingDatum - (double) quantizedValue, 2);
             }
         }
-        mse /= (double) trainingData.length;
 
-        return mse;
-    }
-
-    private void addWorkerFrequencies(final long[] workerFrequencies) {
-        assert (frequencies.length == workerFrequencies.length) : "Frequency array length mismatch.";
-        for (int i = 0; i < frequencies.length; i++) {
-            frequencies[i] += workerFrequencies[i];
+        final long[] counts = histogram.getCounts();
+        double mse = 0.0;
+        for (int value = dataMin; value <= dataMax; value++) {
+            if (counts[value] == 0) {
+                continue;
+            }
+            final int intervalIndex = valueIntervals[value - dataMin];
+            if (intervalIndex < 0) {
+                throw new RuntimeException("Value couldn't be quantized!");
+            }
+            frequencies[intervalIndex] += counts[value];
+            final double error = (double) value - (double) centroids[intervalIndex];
+            mse += (double) counts[value] * error * error;
         }
+        return mse / (double) histogram.getTotalCount();
     }
 
     public QTrainIteration[] train() {
@@ -200,7 +241,7 @@ public class LloydMaxU16ScalarQuantization {
         int noImprovementCounter = 0;
 
         reportStatus("LloydMax::train() - Worker count: %d", workerCount);
-        reportStatus("LloydMax::train() - Training data count: %d", trainingData.length);
+        reportStatus("LloydMax::train() - Training data count: %d", histogram.getTotalCount());
 
         initialize();
         initializeProbabilityDensityFunction();
@@ -213,8 +254,17 @@ public class LloydMaxU16ScalarQuantization {
 
         final ArrayList<QTrainIteration> solutionHistory = new ArrayList<>();
 
-        recalculateBoundaryPoints();
-        initializeCentroids();
+        if ((initialCodebook != null) && (initialCodebook.getCodebookSize() == codebookSize)) {
+            reportStatus("LloydMax::train() - Refining the initial codebook.");
+            useInitialCodebookCentroids();
+            recalculateBoundaryPoints();
+        } else {
+            if (initialCodebook != null) {
+                reportStatus("LloydMax::train() - Initial codebook size doesn't match, starting from scratch.");
+            }
+            recalculateBoundaryPoints();
+            initializeCentroids();
+        }
 
         currentMse = getCurrentMse();
         psnr = Utils.calculatePsnr(currentMse, U16.Max);
@@ -1,6 +1,8 @@
 package cz.it4i.qcmp.quantization.scalar;
 
 import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.quantization.QuantizationResult;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
 
 public class ScalarQuantizer {
     private final int min;
@@ -31,40 +33,55 @@ public class ScalarQuantizer {
 
     public int[] quantizeIntoIndices(final int[] data, final int maxWorkerCount) {
         final int[] indices = new int[data.length];
-        // Speedup?
-        if (maxWorkerCount == 1) {
-            for (int i = 0; i < data.length; i++) {
+        ParallelExecutor.parallelFor(data.length, maxWorkerCount, (fromIndex, toIndex) -> {
+            for (int i = fromIndex; i < toIndex; i++) {
+                indices[i] = quantizeIndex(data[i]);
+            }
+        });
+
+        return indices;
+    }
+
+    /**
+     * Quantize values in single parallel pass, which produces the codebook indices, histogram of the indices
+     * and the sum of squared errors.
+     *
+     * @param data           Values to quantize.
+     * @param maxWorkerCount Maximum number of worker threads.
+     * @return Indices with their histogram and the quantization error.
+     */
+    public QuantizationResult quantizeWithStatistics(final int[] data, final int maxWorkerCount) {
+        final int[] indices = new int[data.length];
+        final int[] centroids = codebook.getCentroids();
+        final int codebookSize = codebook.getCodebookSize();
+
+        final int chunkCount = ParallelExecutor.getChunkCount(data.length, maxWorkerCount);
+        final long[][] chunkHistograms = new long[chunkCount][];
+        final double[] chunkErrors = new double[chunkCount];
+
+        ParallelExecutor.forEachChunk(data.length, maxWorkerCount, (chunkIndex, fromIndex, toIndex) -> {
+            final long[] histogram = new long[codebookSize];
+            double errorSum = 0.0;
+            for (int i = fromIndex; i < toIndex; i++) {
                 final int index = quantizeIndex(data[i]);
                 indices[i] = index;
+                ++histogram[index];
+                final long diff = data[i] - centroids[index];
+                errorSum += diff * diff;
             }
-        } else {
-            // NOTE(Moravec): This function is fast enough single thread. So we use max 2 threads.
-            final int workerCount = Math.min(maxWorkerCount, 2);
-            final Thread[] workers = new Thread[workerCount];
-            final int workSize = data.length / workerCount;
-
-            for (int wId = 0; wId < workerCount; wId++) {
-                final int fromIndex = wId * workSize;
-                final int toIndex = (wId == workerCount - 1) ? data.length : (workSize + (wId * workSize));
-
-                workers[wId] = new Thread(() -> {
-                    for (int vectorIndex = fromIndex; vectorIndex < toIndex; vectorIndex++) {
-                        indices[vectorIndex] = quantizeIndex(data[vectorIndex]);
-                    }
-                });
-
-                workers[wId].start();
-            }
-            try {
-                for (int wId = 0; wId < workerCount; wId++) {
-                    workers[wId].join();
-                }
-            } catch (final InterruptedException e) {
-                e.printStackTrace();
+            chunkHistograms[chunkIndex] = histogram;
+            chunkErrors[chunkIndex] = errorSum;
+        });
+
+        final long[] histogram = new long[codebookSize];
+        double errorSum = 0.0;
+        for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+            for (int i = 0; i < codebookSize; i++) {
+                histogram[i] += chunkHistograms[chunkIndex][i];
             }
+            errorSum += chunkErrors[chunkIndex];
         }
-
-        return indices;
+        return new QuantizationResult(indices, histogram, errorSum, data.length);
     }
 
     private void calculateBoundaryPoints() {
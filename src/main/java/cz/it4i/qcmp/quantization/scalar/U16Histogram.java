@@ -0,0 +1,116 @@
+package cz.it4i.qcmp.quantization.scalar;
+
+import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
+
+/**
+ * Histogram of the 16 bit values with bin width of one, accumulated batch after batch (e.g. plane after plane), so
+ * the data don't have to be loaded at once. Every worker counts its part of the batch into its own histogram,
+ * worker histograms are summed only when the counts are requested.
+ */
+public final class U16Histogram {
+    private final int workerCount;
+
+    /**
+     * Counts of the values, one histogram per worker.
+     */
+    private final long[][] workerCounts;
+
+    /**
+     * Sum of the worker histograms or null if it wasn't calculated since the last batch.
+     */
+    private long[] counts = null;
+
+    private long totalCount = 0;
+
+    /**
+     * Create empty histogram.
+     *
+     * @param workerCount Number of workers counting the batches.
+     */
+    public U16Histogram(final int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+        this.workerCounts = new long[this.workerCount][];
+    }
+
+    /**
+     * Add values to the histogram.
+     *
+     * @param values 16 bit values.
+     */
+    public void add(final int[] values) {
+        counts = null;
+        totalCount += values.length;
+        // Values are split into one part per worker, every chunk processes whole parts with their own histograms.
+        final int partCount = Math.min(workerCount, values.length);
+        ParallelExecutor.forEachChunk(partCount, workerCount, (chunkIndex, fromPart, toPart) -> {
+            for (int part = fromPart; part < toPart; part++) {
+                if (workerCounts[part] == null) {
+                    workerCounts[part] = new long[U16.Max + 1];
+                }
+                final long[] histogram = workerCounts[part];
+                final int toIndex = (int) (((long) values.length * (part + 1)) / partCount);
+                for (int i = (int) (((long) values.length * part) / partCount); i < toIndex; i++) {
+                    ++histogram[values[i]];
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the number of occurrences of every value.
+     *
+     * @return Counts of the values 0 to U16.Max.
+     */
+    public long[] getCounts() {
+        if (counts == null) {
+            counts = new long[U16.Max + 1];
+            for (final long[] histogram : workerCounts) {
+                if (histogram == null) {
+                    continue;
+                }
+                for (int value = 0; value <= U16.Max; value++) {
+                    counts[value] += histogram[value];
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Get the number of added values.
+     *
+     * @return Total count.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Get the smallest added value.
+     *
+     * @return Minimum value or U16.Max + 1 if the histogram is empty.
+     */
+    public int getMin() {
+        final long[] valueCounts = getCounts();
+        int value = 0;
+        while ((value <= U16.Max) && (valueCounts[value] == 0)) {
+            ++value;
+        }
+        return value;
+    }
+
+    /**
+     * Get the largest added value.
+     *
+     * @return Maximum value or -1 if the histogram is empty.
+     */
+    public int getMax() {
+        final long[] valueCounts = getCounts();
+        int value = U16.Max;
+        while ((value >= 0) && (valueCounts[value] == 0)) {
+            --value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,101 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Codebook search memoizing the results for repeated vectors.
+ * <p>
+ * Image planes often contain many identical vectors (e.g. background), for which the codebook search would be
+ * repeated. Every thread has its own bounded {@link VectorIndexCache}, so lookups are lock free and the memory is
+ * limited to capacity * (vectorSize + 2) integers per thread. Results are the same as of the wrapped search.
+ */
+public class CachedCodebookSearch implements ICodebookSearch {
+    private final ICodebookSearch search;
+
+    /**
+     * Per thread caches.
+     */
+    private final ThreadLocal<VectorIndexCache> threadCache;
+
+    /**
+     * All created caches, used to collect the statistics.
+     */
+    private final ConcurrentLinkedQueue<VectorIndexCache> caches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Wrap the codebook search with per thread cache.
+     *
+     * @param search     Search used for vectors not found in cache.
+     * @param capacity   Maximum number of cached vectors per thread.
+     * @param vectorSize Number of elements of single vector.
+     */
+    public CachedCodebookSearch(final ICodebookSearch search, final int capacity, final int vectorSize) {
+        assert (capacity > 0) : "Invalid cache capacity";
+        this.search = search;
+        this.threadCache = ThreadLocal.withInitial(() -> {
+            final VectorIndexCache cache = new VectorIndexCache(capacity, vectorSize);
+            caches.add(cache);
+            return cache;
+        });
+    }
+
+    @Override
+    public int findClosestEntryIndex(final int[] vectorData, final int offset) {
+        return threadCache.get().findOrCompute(vectorData, offset, search);
+    }
+
+    /**
+     * Get the wrapped search.
+     *
+     * @return Search used on cache miss.
+     */
+    public ICodebookSearch getSearch() {
+        return search;
+    }
+
+    /**
+     * Get the number of vectors resolved from the cache. Value is exact after the quantization has finished.
+     *
+     * @return Number of cache hits.
+     */
+    public long getHitCount() {
+        long hits = 0;
+        for (final VectorIndexCache cache : caches) {
+            hits += cache.getHitCount();
+        }
+        return hits;
+    }
+
+    /**
+     * Get the number of vectors, which were passed to the wrapped search.
+     *
+     * @return Number of cache misses.
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for (final VectorIndexCache cache : caches) {
+            misses += cache.getMissCount();
+        }
+        return misses;
+    }
+
+    /**
+     * Get the fraction of vectors resolved from the cache.
+     *
+     * @return Hit rate in range [0, 1].
+     */
+    public double getHitRate() {
+        final long hits = getHitCount();
+        final long total = hits + getMissCount();
+        return (total > 0) ? ((double) hits / (double) total) : 0.0;
+    }
+
+    /**
+     * Reset hit and miss counters. Should not be called during the quantization.
+     */
+    public void resetStatistics() {
+        for (final VectorIndexCache cache : caches) {
+            cache.resetStatistics();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Method used to create the initial codebook, which is refined by LBG.
+ */
+public enum CodebookInitialization {
+    /**
+     * Recursive splitting of the codebook entries with LBG on every level, records the TSVQ hierarchy.
+     */
+    Splitting,
+    /**
+     * Pairwise nearest neighbour merging of the training vectors, see {@link PNNCodebookInitializer}.
+     */
+    PNN
+}
@@ -0,0 +1,32 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Method used by the vector quantizer to find the closest codebook entry.
+ */
+public enum CodebookSearchMethod {
+    /**
+     * Exact search of large batches by the tiled batch search, see {@link TiledBatchSearch}. Single vectors and
+     * small batches are searched by {@link PartialDistanceSearch}.
+     */
+    TiledBatch,
+    /**
+     * Exact search with early exit, see {@link PartialDistanceSearch}.
+     */
+    PartialDistance,
+    /**
+     * Exact search with precomputed codebook structure, see {@link PruningSearchIndex}.
+     */
+    PruningIndex,
+    /**
+     * Exact search evaluating all codebook entries with SIMD capable kernel, see {@link FullScanSearch}.
+     */
+    FullScan,
+    /**
+     * Approximate Best Bin First search in the KD-tree, see {@link KDTreeSearch}.
+     */
+    KDTree,
+    /**
+     * Approximate descent in the tree of tree-structured quantizer, see {@link TSVQSearch}.
+     */
+    TreeStructured
+}
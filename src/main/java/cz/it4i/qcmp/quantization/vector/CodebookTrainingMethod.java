@@ -0,0 +1,15 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Algorithm used to train the vector quantization codebook.
+ */
+public enum CodebookTrainingMethod {
+    /**
+     * Iterative LBG (generalized Lloyd) algorithm, see {@link LBGVectorQuantizer}.
+     */
+    LBG,
+    /**
+     * Greedy hyperplane splitting with the maximum distortion reduction, see {@link MaximumDescentVectorQuantizer}.
+     */
+    MaximumDescent
+}
@@ -0,0 +1,28 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Access to the distance kernel selected for the running JVM.
+ * <p>
+ * On JDK 17+ with the jdk.incubator.vector module enabled (--add-modules jdk.incubator.vector) the SIMD kernel
+ * is used, otherwise the scalar kernel is used. Scalar kernel can be forced by the system property
+ * qcmp.scalarDistanceKernel=true.
+ */
+public final class DistanceKernels {
+    public static final String SCALAR_KERNEL_PROPERTY = "qcmp.scalarDistanceKernel";
+
+    private static final IDistanceKernel kernel = Boolean.getBoolean(SCALAR_KERNEL_PROPERTY)
+            ? new ScalarDistanceKernel()
+            : PlatformDistanceKernel.create();
+
+    private DistanceKernels() {
+    }
+
+    /**
+     * Get the distance kernel for the running JVM.
+     *
+     * @return Distance kernel.
+     */
+    public static IDistanceKernel getKernel() {
+        return kernel;
+    }
+}
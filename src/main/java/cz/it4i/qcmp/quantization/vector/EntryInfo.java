@@ -26,6 +26,17 @@ public class EntryInfo {
         dimensionSum = new double[vectorSize];
     }
 
+    /**
+     * Clear the accumulated properties, so that the object can be reused.
+     */
+    public void reset() {
+        vectorCount = 0;
+        Arrays.fill(max, 0);
+        Arrays.fill(min, U16.Max);
+        distanceSum = 0;
+        Arrays.fill(dimensionSum, 0.0);
+    }
+
     /**
      * Calculate the average distortion as average distance of all vectors from centroid.
      *
@@ -42,10 +53,19 @@ public class EntryInfo {
      */
     public int[] calculateCentroid() {
         final int[] centroid = new int[vectorSize];
+        calculateCentroid(centroid);
+        return centroid;
+    }
+
+    /**
+     * Calculate the centroid from dimension sums into existing array.
+     *
+     * @param centroid Array of size vectorSize for the centroid.
+     */
+    public void calculateCentroid(final int[] centroid) {
         for (int dim = 0; dim < vectorSize; dim++) {
             centroid[dim] = (int) Math.round(dimensionSum[dim] / (double) vectorCount);
         }
-        return centroid;
     }
 
     /**
@@ -55,9 +75,18 @@ public class EntryInfo {
      */
     public double[] calculatePRTVector() {
         final double[] prtV = new double[vectorSize];
+        calculatePRTVector(prtV);
+        return prtV;
+    }
+
+    /**
+     * Calculate the perturbation vector from mins and maxes into existing array.
+     *
+     * @param prtV Array of size vectorSize for the perturbation vector.
+     */
+    public void calculatePRTVector(final double[] prtV) {
         for (int dim = 0; dim < vectorSize; dim++) {
             prtV[dim] = ((double) max[dim] - (double) min[dim]) / LBGVectorQuantizer.PRT_VECTOR_DIVIDER;
         }
-        return prtV;
     }
 }
@@ -0,0 +1,31 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Exact Euclidean nearest codebook entry search, which evaluates distances to all codebook entries with
+ * the platform distance kernel. Without early exit the distance loop can be vectorized, see {@link DistanceKernels}.
+ */
+public class FullScanSearch implements ICodebookSearch {
+    private final IDistanceKernel kernel;
+
+    /**
+     * Codebook in the layout of the kernel.
+     */
+    private final PackedCodebook packedCodebook;
+
+    /**
+     * Create full scan search.
+     *
+     * @param codebookData Flat codebook vectors.
+     * @param vectorSize   Size of single codebook vector.
+     */
+    public FullScanSearch(final int[] codebookData, final int vectorSize) {
+        assert (codebookData.length > 0 && codebookData.length % vectorSize == 0) : "Invalid codebook";
+        this.kernel = DistanceKernels.getKernel();
+        this.packedCodebook = kernel.packCodebook(codebookData, codebookData.length / vectorSize, vectorSize);
+    }
+
+    @Override
+    public int findClosestEntryIndex(final int[] vectorData, final int offset) {
+        return kernel.findClosestEntry(packedCodebook, vectorData, offset);
+    }
+}
@@ -0,0 +1,26 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Interface for the nearest codebook entry search engines.
+ */
+public interface ICodebookSearch {
+
+    /**
+     * Find the index of the closest codebook entry to the vector stored in flat array at given offset.
+     *
+     * @param vectorData Array containing the query vector.
+     * @param offset     Offset of the first vector element.
+     * @return Index of the closest codebook entry.
+     */
+    int findClosestEntryIndex(final int[] vectorData, final int offset);
+
+    /**
+     * Find the index of the closest codebook entry.
+     *
+     * @param vector Query vector.
+     * @return Index of the closest codebook entry.
+     */
+    default int findClosestEntryIndex(final int[] vector) {
+        return findClosestEntryIndex(vector, 0);
+    }
+}
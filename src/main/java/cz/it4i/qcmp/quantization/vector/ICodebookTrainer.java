@@ -0,0 +1,34 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.compression.listeners.IStatusListener;
+
+/**
+ * Algorithm training the vector quantization codebook from the training vectors held in memory.
+ */
+public interface ICodebookTrainer {
+
+    /**
+     * Receiver of the intermediate codebooks of smaller sizes and of the final codebook.
+     */
+    interface CodebookFoundCallback {
+        void process(final VQCodebook trainedCodebook);
+    }
+
+    void setStatusListener(final IStatusListener statusListener);
+
+    /**
+     * Train the codebook of the requested size.
+     *
+     * @return Result with codebook, its MSE and frequencies.
+     */
+    LBGResult findOptimalCodebook();
+
+    /**
+     * Train the codebook of the requested size. Trainers producing the smaller codebooks on the way pass them
+     * to the callback, the final codebook is always passed as the last one.
+     *
+     * @param codebookCallback Callback receiving the trained codebooks or null.
+     * @return Result with codebook, its MSE and frequencies.
+     */
+    LBGResult findOptimalCodebook(final CodebookFoundCallback codebookCallback);
+}
@@ -0,0 +1,78 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Kernel computing squared euclidean distances between integer vectors stored in flat arrays.
+ * Obtain the best implementation available on the running JVM by {@link DistanceKernels#getKernel()}.
+ */
+public interface IDistanceKernel {
+
+    /**
+     * Calculate the squared euclidean distance between two vectors.
+     *
+     * @param a       Array containing the first vector.
+     * @param aOffset Offset of the first vector.
+     * @param b       Array containing the second vector.
+     * @param bOffset Offset of the second vector.
+     * @param size    Number of vector elements.
+     * @return Squared euclidean distance.
+     */
+    long squaredDistance(final int[] a, final int aOffset, final int[] b, final int bOffset, final int size);
+
+    /**
+     * Find the codebook entry with the smallest squared euclidean distance to the query vector.
+     * Ties are resolved in favor of the lower entry index.
+     *
+     * @param codebookData Flat codebook vectors, entry after entry.
+     * @param codebookSize Number of codebook entries.
+     * @param vectorSize   Number of elements of single vector.
+     * @param vectorData   Array containing the query vector.
+     * @param offset       Offset of the query vector.
+     * @return Index of the closest codebook entry.
+     */
+    default int findClosestEntry(final int[] codebookData,
+                                 final int codebookSize,
+                                 final int vectorSize,
+                                 final int[] vectorData,
+                                 final int offset) {
+        long minDistance = Long.MAX_VALUE;
+        int closestEntryIndex = 0;
+        for (int entryIndex = 0; entryIndex < codebookSize; entryIndex++) {
+            final long distance = squaredDistance(vectorData, offset, codebookData, entryIndex * vectorSize, vectorSize);
+            if (distance < minDistance) {
+                minDistance = distance;
+                closestEntryIndex = entryIndex;
+            }
+        }
+        return closestEntryIndex;
+    }
+
+    /**
+     * Prepare the codebook for repeated closest entry searches, e.g. transposed to the layout of the SIMD kernel.
+     * Codebook data must not change while the packed codebook is used.
+     *
+     * @param codebookData Flat codebook vectors, entry after entry.
+     * @param codebookSize Number of codebook entries.
+     * @param vectorSize   Number of elements of single vector.
+     * @return Packed codebook.
+     */
+    default PackedCodebook packCodebook(final int[] codebookData, final int codebookSize, final int vectorSize) {
+        return new PackedCodebook(codebookData, codebookSize, vectorSize);
+    }
+
+    /**
+     * Find the entry of the packed codebook with the smallest squared euclidean distance to the query vector.
+     * Ties are resolved in favor of the lower entry index.
+     *
+     * @param codebook   Codebook packed by this kernel.
+     * @param vectorData Array containing the query vector.
+     * @param offset     Offset of the query vector.
+     * @return Index of the closest codebook entry.
+     */
+    default int findClosestEntry(final PackedCodebook codebook, final int[] vectorData, final int offset) {
+        return findClosestEntry(codebook.getCodebookData(),
+                                codebook.getCodebookSize(),
+                                codebook.getVectorSize(),
+                                vectorData,
+                                offset);
+    }
+}
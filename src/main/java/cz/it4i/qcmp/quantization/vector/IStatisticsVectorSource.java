@@ -0,0 +1,44 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Training vectors of {@link StatisticsLBGTrainer}, which are not held in the heap, e.g. the shards of the worker
+ * processes or the memory-mapped store.
+ *
+ * @param <E> Exception thrown when the vectors can't be accessed.
+ */
+interface IStatisticsVectorSource<E extends Exception> {
+    /**
+     * Get the number of training vectors.
+     *
+     * @return Vector count.
+     */
+    long getVectorCount();
+
+    /**
+     * Draw random training vectors for the initial codebook.
+     *
+     * @param sampleSize Number of vectors, at most the vector count.
+     * @return Flat sample data.
+     * @throws E when the vectors can't be read.
+     */
+    int[] drawSample(final int sampleSize) throws E;
+
+    /**
+     * Assign all training vectors to the closest codebook entries.
+     *
+     * @param codebookData Flat codebook.
+     * @param codebookSize Number of codebook entries.
+     * @return Statistics of all training vectors.
+     * @throws E when the vectors can't be read.
+     */
+    ShardStatistics assignVectors(final int[] codebookData, final int codebookSize) throws E;
+
+    /**
+     * Get the number of vectors which changed their entry in the last assignment.
+     *
+     * @return Changed vector count or -1 if the source doesn't track the assignments.
+     */
+    default long getChangedVectorCount() {
+        return -1;
+    }
+}
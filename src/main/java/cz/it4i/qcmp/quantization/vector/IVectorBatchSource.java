@@ -0,0 +1,29 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.compression.exception.ImageCompressionException;
+import cz.it4i.qcmp.data.VectorBatch;
+
+/**
+ * Source of training vector batches for the incremental codebook training.
+ */
+public interface IVectorBatchSource {
+    /**
+     * Draw next batch of training vectors.
+     *
+     * @param batchSize Requested number of vectors.
+     * @return Batch of at most batchSize vectors, empty batch isn't allowed.
+     * @throws ImageCompressionException when the vectors can't be loaded.
+     */
+    VectorBatch nextBatch(final int batchSize) throws ImageCompressionException;
+
+    /**
+     * Draw batch of validation vectors, which represents the whole training set better than single training batch.
+     *
+     * @param batchSize Requested number of vectors.
+     * @return Batch of at most batchSize vectors, empty batch isn't allowed.
+     * @throws ImageCompressionException when the vectors can't be loaded.
+     */
+    default VectorBatch nextValidationBatch(final int batchSize) throws ImageCompressionException {
+        return nextBatch(batchSize);
+    }
+}
@@ -0,0 +1,54 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.kdtree.KDTree;
+
+/**
+ * Nearest codebook entry search by the Best Bin First search in the KD-tree of the codebook.
+ * <p>
+ * With limited number of visited leaves the result is approximate, it may differ from the exact search when the
+ * closest entry lies in a bin, which was not visited. Unlimited search returns the same result as the brute-force
+ * search.
+ */
+public class KDTreeSearch implements ICodebookSearch {
+    /**
+     * Maximum number of codebook entries in the KD-tree leaf.
+     */
+    public static final int BUCKET_SIZE = 8;
+
+    /**
+     * Default maximum number of visited KD-tree leaves.
+     */
+    public static final int DEFAULT_MAX_E = 8;
+
+    private final KDTree kdTree;
+    private final int maxE;
+
+    /**
+     * Create search in the KD-tree.
+     *
+     * @param kdTree KD-tree of the codebook.
+     * @param maxE   Maximum number of visited leaves, zero or negative value means exact search.
+     */
+    public KDTreeSearch(final KDTree kdTree, final int maxE) {
+        this.kdTree = kdTree;
+        this.maxE = maxE;
+    }
+
+    @Override
+    public int findClosestEntryIndex(final int[] vectorData, final int offset) {
+        return kdTree.findNearestBBF(vectorData, offset, maxE);
+    }
+
+    /**
+     * Check if the search can return approximate result.
+     *
+     * @return True if the number of visited leaves is limited.
+     */
+    public boolean isApproximate() {
+        return (maxE > 0);
+    }
+
+    public int getMaxE() {
+        return maxE;
+    }
+}
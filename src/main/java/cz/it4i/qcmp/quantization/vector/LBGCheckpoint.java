@@ -0,0 +1,279 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.data.V3i;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Snapshot of the LBG training state, from which the training can be resumed.
+ * <p>
+ * Checkpoint holds the learning codebook of the current split level with the entry vector counts and
+ * perturbation vectors needed for the next split, the recorded TSVQ hierarchy, the LBG iteration with its convergence
+ * state and the training seed, so the resumed training makes the same random choices as the uninterrupted one.
+ * SHA-256 digest of the training data, vector dimensions and codebook size is stored as well, so that checkpoint of
+ * different training is rejected.
+ */
+public class LBGCheckpoint {
+    /**
+     * Magic value at the beginning of the checkpoint file.
+     */
+    public static final String MAGIC_VALUE = "QCMPLBG2";
+
+    /**
+     * Phase of the training in which the checkpoint was created.
+     */
+    public enum Phase {
+        /**
+         * LBG of the split level is running.
+         */
+        LevelTraining,
+        /**
+         * LBG of the split level has finished, next step is the split or the final refinement.
+         */
+        LevelFinished,
+        /**
+         * Final LBG refinement of the full size codebook is running.
+         */
+        FinalRefinement
+    }
+
+    private V3i vectorDimensions;
+    private int targetCodebookSize;
+    private byte[] trainingDigest;
+    private long randomSeed;
+    private Phase phase;
+    private int iteration;
+    private double previousDistortion;
+    private double lastDistortion;
+    private int[][] entryVectors;
+    private int[] entryVectorCounts;
+    private double[][] entryPerturbationVectors;
+    private int[] tsvqNodeData;
+
+    private LBGCheckpoint() {
+    }
+
+    /**
+     * Create checkpoint of the learning codebook.
+     *
+     * @param vectorDimensions    Dimensions of the quantization vector.
+     * @param targetCodebookSize  Size of the codebook, which is being trained.
+     * @param trainingDigest      Digest of the training data and codebook parameters.
+     * @param randomSeed          Seed of the training.
+     * @param phase               Training phase.
+     * @param iteration           Number of finished LBG iterations in the current phase.
+     * @param previousDistortion  Average distortion of the last LBG iteration.
+     * @param lastDistortion      Relative distortion improvement of the last LBG iteration.
+     * @param codebook            Current learning codebook.
+     * @param tsvqNodeData        Recorded TSVQ hierarchy or null.
+     */
+    LBGCheckpoint(final V3i vectorDimensions,
+                  final int targetCodebookSize,
+                  final byte[] trainingDigest,
+                  final long randomSeed,
+                  final Phase phase,
+                  final int iteration,
+                  final double previousDistortion,
+                  final double lastDistortion,
+                  final LearningCodebookEntry[] codebook,
+                  final int[] tsvqNodeData) {
+        this.vectorDimensions = vectorDimensions;
+        this.targetCodebookSize = targetCodebookSize;
+        this.trainingDigest = trainingDigest.clone();
+        this.randomSeed = randomSeed;
+        this.phase = phase;
+        this.iteration = iteration;
+        this.previousDistortion = previousDistortion;
+        this.lastDistortion = lastDistortion;
+        this.entryVectors = new int[codebook.length][];
+        this.entryVectorCounts = new int[codebook.length];
+        this.entryPerturbationVectors = new double[codebook.length][];
+        for (int i = 0; i < codebook.length; i++) {
+            entryVectors[i] = codebook[i].getVector().clone();
+            entryVectorCounts[i] = codebook[i].getVectorCount();
+            final double[] prtV = codebook[i].getPerturbationVector();
+            entryPerturbationVectors[i] = (prtV != null) ? prtV.clone() : null;
+        }
+        this.tsvqNodeData = (tsvqNodeData != null) ? tsvqNodeData.clone() : null;
+    }
+
+    /**
+     * Create the learning codebook from the checkpoint.
+     *
+     * @return Learning codebook.
+     */
+    LearningCodebookEntry[] createLearningCodebook() {
+        final LearningCodebookEntry[] codebook = new LearningCodebookEntry[entryVectors.length];
+        for (int i = 0; i < codebook.length; i++) {
+            codebook[i] = new LearningCodebookEntry(entryVectors[i].clone(),
+                                                    entryVectorCounts[i],
+                                                    (entryPerturbationVectors[i] != null)
+                                                            ? entryPerturbationVectors[i].clone()
+                                                            : null);
+        }
+        return codebook;
+    }
+
+    /**
+     * Check whether the checkpoint was created by the training with same parameters and training data.
+     *
+     * @param vectorDimensions    Dimensions of the quantization vector.
+     * @param targetCodebookSize  Size of the trained codebook.
+     * @param trainingDigest      Digest of the training data and codebook parameters.
+     * @return True if the training can be resumed from this checkpoint.
+     */
+    boolean isCompatible(final V3i vectorDimensions, final int targetCodebookSize, final byte[] trainingDigest) {
+        return (this.vectorDimensions.getX() == vectorDimensions.getX()) &&
+                (this.vectorDimensions.getY() == vectorDimensions.getY()) &&
+                (this.vectorDimensions.getZ() == vectorDimensions.getZ()) &&
+                (this.targetCodebookSize == targetCodebookSize) &&
+                Arrays.equals(this.trainingDigest, trainingDigest);
+    }
+
+    public V3i getVectorDimensions() {
+        return vectorDimensions;
+    }
+
+    public int getTargetCodebookSize() {
+        return targetCodebookSize;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    long getRandomSeed() {
+        return randomSeed;
+    }
+
+    double getPreviousDistortion() {
+        return previousDistortion;
+    }
+
+    double getLastDistortion() {
+        return lastDistortion;
+    }
+
+    /**
+     * Get the size of the learning codebook, which is the current split level.
+     *
+     * @return Number of codebook entries.
+     */
+    public int getCodebookSize() {
+        return entryVectors.length;
+    }
+
+    int[] getTSVQNodeData() {
+        return (tsvqNodeData != null) ? tsvqNodeData.clone() : null;
+    }
+
+    /**
+     * Write the checkpoint to the stream.
+     *
+     * @param outputStream Output stream.
+     * @throws IOException when fails to write the checkpoint.
+     */
+    public void writeToStream(final DataOutputStream outputStream) throws IOException {
+        outputStream.writeBytes(MAGIC_VALUE);
+        outputStream.writeShort(vectorDimensions.getX());
+        outputStream.writeShort(vectorDimensions.getY());
+        outputStream.writeShort(vectorDimensions.getZ());
+        outputStream.writeInt(targetCodebookSize);
+        outputStream.writeByte(trainingDigest.length);
+        outputStream.write(trainingDigest);
+        outputStream.writeLong(randomSeed);
+        outputStream.writeByte(phase.ordinal());
+        outputStream.writeInt(iteration);
+        outputStream.writeDouble(previousDistortion);
+        outputStream.writeDouble(lastDistortion);
+
+        outputStream.writeInt(entryVectors.length);
+        for (int i = 0; i < entryVectors.length; i++) {
+            for (final int value : entryVectors[i]) {
+                outputStream.writeInt(value);
+            }
+            outputStream.writeInt(entryVectorCounts[i]);
+            outputStream.writeBoolean(entryPerturbationVectors[i] != null);
+            if (entryPerturbationVectors[i] != null) {
+                for (final double value : entryPerturbationVectors[i]) {
+                    outputStream.writeDouble(value);
+                }
+            }
+        }
+
+        outputStream.writeBoolean(tsvqNodeData != null);
+        if (tsvqNodeData != null) {
+            for (final int value : tsvqNodeData) {
+                outputStream.writeInt(value);
+            }
+        }
+    }
+
+    /**
+     * Read the checkpoint from the stream.
+     *
+     * @param inputStream Input stream.
+     * @return Checkpoint.
+     * @throws IOException when fails to read the checkpoint or the stream doesn't contain the checkpoint.
+     */
+    public static LBGCheckpoint readFromStream(final DataInputStream inputStream) throws IOException {
+        final byte[] magicBuffer = new byte[MAGIC_VALUE.length()];
+        inputStream.readFully(magicBuffer);
+        if (!MAGIC_VALUE.equals(new String(magicBuffer))) {
+            throw new IOException("Invalid LBG checkpoint file. Wrong magic value.");
+        }
+
+        final LBGCheckpoint checkpoint = new LBGCheckpoint();
+        checkpoint.vectorDimensions = new V3i(inputStream.readUnsignedShort(),
+                                              inputStream.readUnsignedShort(),
+                                              inputStream.readUnsignedShort());
+        checkpoint.targetCodebookSize = inputStream.readInt();
+        checkpoint.trainingDigest = new byte[inputStream.readUnsignedByte()];
+        inputStream.readFully(checkpoint.trainingDigest);
+        checkpoint.randomSeed = inputStream.readLong();
+        final int phaseOrdinal = inputStream.readUnsignedByte();
+        if (phaseOrdinal >= Phase.values().length) {
+            throw new IOException("Invalid LBG checkpoint file. Unknown training phase.");
+        }
+        checkpoint.phase = Phase.values()[phaseOrdinal];
+        checkpoint.iteration = inputStream.readInt();
+        checkpoint.previousDistortion = inputStream.readDouble();
+        checkpoint.lastDistortion = inputStream.readDouble();
+
+        final int vectorSize = (int) checkpoint.vectorDimensions.multiplyTogether();
+        final int entryCount = inputStream.readInt();
+        if ((entryCount <= 0) || (entryCount > checkpoint.targetCodebookSize)) {
+            throw new IOException("Invalid LBG checkpoint file. Wrong codebook size.");
+        }
+        checkpoint.entryVectors = new int[entryCount][vectorSize];
+        checkpoint.entryVectorCounts = new int[entryCount];
+        checkpoint.entryPerturbationVectors = new double[entryCount][];
+        for (int i = 0; i < entryCount; i++) {
+            for (int dim = 0; dim < vectorSize; dim++) {
+                checkpoint.entryVectors[i][dim] = inputStream.readInt();
+            }
+            checkpoint.entryVectorCounts[i] = inputStream.readInt();
+            if (inputStream.readBoolean()) {
+                checkpoint.entryPerturbationVectors[i] = new double[vectorSize];
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    checkpoint.entryPerturbationVectors[i][dim] = inputStream.readDouble();
+                }
+            }
+        }
+
+        if (inputStream.readBoolean()) {
+            checkpoint.tsvqNodeData = new int[checkpoint.targetCodebookSize * vectorSize];
+            for (int i = 0; i < checkpoint.tsvqNodeData.length; i++) {
+                checkpoint.tsvqNodeData[i] = inputStream.readInt();
+            }
+        }
+        return checkpoint;
+    }
+}
@@ -1,6 +1,7 @@
 package cz.it4i.qcmp.quantization.vector;
 
 import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
 
 public class LBGResult {
 
@@ -9,13 +10,24 @@ public class LBGResult {
     private final double averageMse;
     private final double psnr;
     private final V3i vectorDims;
+    private final TSVQTree tsvqTree;
 
     public LBGResult(final V3i vectorDims,
                      final int[][] codebook,
                      final long[] frequencies,
                      final double averageMse,
                      final double psnr) {
+        this(vectorDims, codebook, frequencies, averageMse, psnr, null);
+    }
+
+    public LBGResult(final V3i vectorDims,
+                     final int[][] codebook,
+                     final long[] frequencies,
+                     final double averageMse,
+                     final double psnr,
+                     final TSVQTree tsvqTree) {
         this.vectorDims = vectorDims;
+        this.tsvqTree = tsvqTree;
         this.codebookVectors = codebook;
         this.frequencies = frequencies;
         this.averageMse = averageMse;
@@ -23,7 +35,7 @@ public class LBGResult {
     }
 
     public VQCodebook getCodebook() {
-        return new VQCodebook(vectorDims, codebookVectors, frequencies);
+        return new VQCodebook(vectorDims, VectorBatch.fromVectorArray(codebookVectors), frequencies, tsvqTree);
     }
 
     public double getAverageMse() {
@@ -34,6 +46,15 @@ public class LBGResult {
         return psnr;
     }
 
+    /**
+     * Get the split tree of the codebook.
+     *
+     * @return TSVQ tree or null if the codebook wasn't created by binary splitting.
+     */
+    public TSVQTree getTSVQTree() {
+        return tsvqTree;
+    }
+
     public int getCodebookSize() {
         return codebookVectors.length;
     }
@@ -3,62 +3,424 @@ package cz.it4i.qcmp.quantization.vector;
 import cz.it4i.qcmp.U16;
 import cz.it4i.qcmp.compression.listeners.IStatusListener;
 import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.data.WeightedVectorBatch;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
 import cz.it4i.qcmp.utilities.Stopwatch;
 import cz.it4i.qcmp.utilities.Utils;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
 
-public class LBGVectorQuantizer {
+public class LBGVectorQuantizer implements ICodebookTrainer {
     public final static double PRT_VECTOR_DIVIDER = 4.0;
     private final double EPSILON = 0.005;
+
+    /**
+     * Relative safety margin of the bound comparison, which covers the rounding of the floating point bounds.
+     */
+    private static final double BOUND_TOLERANCE = 1e-9;
+
+    /**
+     * Number of sampled training vectors per codebook entry of the split level trained on the sample.
+     */
+    private static final int COARSE_SAMPLE_VECTORS_PER_ENTRY = 256;
     final V3i vectorDimensions;
     private final int vectorSize;
     private final int codebookSize;
     private final int workerCount;
 
-    private int uniqueVectorCount = 0;
-    private ArrayList<TrainingVector> uniqueTrainingVectors;
-    private final TrainingVector[] trainingVectors;
-    private final VectorDistanceMetric metric = VectorDistanceMetric.Euclidean;
+    /**
+     * Unique training vectors stored in single array, vector after vector.
+     */
+    private final int[] trainingData;
+    private final int trainingVectorCount;
+
+    /**
+     * Number of occurrences of every unique training vector in the source data.
+     */
+    private final int[] trainingWeights;
+
+    /**
+     * Number of source training vectors, sum of the training weights.
+     */
+    private final int totalTrainingWeight;
+
+    /**
+     * Index of the closest codebook entry for every training vector.
+     */
+    private final int[] entryIndices;
+
+    /**
+     * Distance to the closest codebook entry for every training vector.
+     */
+    private final double[] entryDistances;
+
+    /**
+     * Lower bound of the distance to the second closest codebook entry for every training vector.
+     */
+    private final double[] lowerBounds;
+
+    /**
+     * Codebook used in the last assignment, the entry drifts are measured against it.
+     */
+    private int[] previousCodebookData = null;
+
+    /**
+     * Buffer for the codebook of the current assignment, swapped with previousCodebookData after the assignment.
+     */
+    private int[] currentCodebookData = null;
+
+    /**
+     * Number of entries of previousCodebookData.
+     */
+    private int previousEntryCount = 0;
+
+    /**
+     * Flag whether lowerBounds, entryVectorCounts and entryVectorSums are valid for previousCodebookData.
+     */
+    private boolean boundsValid = false;
+
+    /**
+     * Weighted number of training vectors assigned to every entry, maintained incrementally.
+     */
+    private long[] entryVectorCounts = null;
+
+    /**
+     * Weighted sums of training vectors assigned to every entry, maintained incrementally.
+     */
+    private long[] entryVectorSums = null;
+
+    /**
+     * Half of the distance from every entry to its closest other entry.
+     */
+    private double[] entryHalfGaps = null;
+    private long[] entryMinDistances = null;
+
+    /**
+     * Cluster membership index in compressed sparse row layout. Members of entry e are the training vector indices
+     * memberIndices[entryMemberFrom[e]] to memberIndices[entryMemberFrom[e] + entryMemberCounts[e] - 1], in the
+     * ascending order after the assignment. Member counts and offsets are calculated by every assignment, member
+     * indices are filled only when they are needed by the empty entry repair.
+     */
+    private final int[] memberIndices;
+    private int[] entryMemberFrom = null;
+    private int[] entryMemberCounts = null;
+
+    /**
+     * Flag whether memberIndices were filled for the last assignment.
+     */
+    private boolean membersValid = false;
+
+    /**
+     * Entry properties passed to the codebook entries, reused by all iterations.
+     */
+    private EntryInfo[] entryInfos = null;
+
+    /**
+     * Accumulators of the assignment pass, one for every chunk of the training vectors.
+     */
+    private final ChunkAccumulator[] chunkAccumulators;
+
+    /**
+     * Number of training vectors, whose codebook scan wasn't skipped in the last assignment.
+     */
+    private long lastScanCount = 0;
+
+    /**
+     * Weighted sum of squared errors of the codebook used in the last assignment.
+     */
+    private double lastSquaredErrorSum = 0.0;
 
     private final long[] frequencies;
 
+    private final IDistanceKernel distanceKernel = DistanceKernels.getKernel();
+
+    /**
+     * Node vectors of the binary split hierarchy, see {@link TSVQTree}. Null if the hierarchy isn't recorded.
+     */
+    private int[] tsvqNodeData = null;
+
+    /**
+     * Flag whether the TSVQ tree nodes are refined for the greedy tree descent.
+     */
+    private boolean refineTSVQTree = false;
+
     private IStatusListener statusListener = null;
-    private double _mse = 0.0;
 
-    public interface CodebookFoundCallback {
-        void process(final VQCodebook trainedCodebook);
+    /**
+     * Method creating the initial codebook.
+     */
+    private CodebookInitialization initialization = CodebookInitialization.Splitting;
+
+    /**
+     * Flag whether the smaller split levels are trained on the random sample of the training vectors.
+     */
+    private boolean coarseToFine = false;
+
+    /**
+     * Receiver of the training checkpoints, null if the checkpoints are not created.
+     */
+    private CheckpointCallback checkpointCallback = null;
+
+    /**
+     * Number of LBG iterations between the checkpoints, zero creates checkpoints only after the split levels.
+     */
+    private int checkpointInterval = 0;
+
+    /**
+     * Checkpoint from which the training is resumed or null.
+     */
+    private LBGCheckpoint resumeCheckpoint = null;
+
+    /**
+     * Codebook from which only the final refinement starts or null.
+     */
+    private VQCodebook initialCodebook = null;
+
+    /**
+     * SHA-256 digest of the training data and codebook parameters, calculated on demand.
+     */
+    private byte[] trainingDigest = null;
+
+    /**
+     * Seed of the training, from which the random generator of every LBG iteration and split is derived.
+     */
+    private long randomSeed = new Random().nextLong();
+
+    /**
+     * Random generator of the current LBG iteration or split, used for the empty entry repair and random entries.
+     */
+    private Random random = null;
+
+    /**
+     * Observer of the assignment state or null, used by the tests.
+     */
+    private AssignmentCallback assignmentCallback = null;
+
+    public interface CheckpointCallback {
+        void save(final LBGCheckpoint checkpoint);
+    }
+
+    /**
+     * Observer of the assignment state of the LBG iterations, it may read the state through the package-private
+     * getters.
+     */
+    interface AssignmentCallback {
+        /**
+         * Called after the training vectors were assigned to the closest entries of the assignment codebook.
+         */
+        void vectorsAssigned();
+
+        /**
+         * Called after every repair of an empty entry.
+         */
+        void entryRepaired();
     }
 
     public LBGVectorQuantizer(final int[][] vectors,
                               final int codebookSize,
                               final int workerCount,
-                              final V3i vectorDimensions,
-                              final boolean createCopyOfSrcVectors) {
-        assert (vectors.length > 0) : "No training vectors provided";
+                              final V3i vectorDimensions) {
+        this(VectorBatch.fromVectorArray(vectors), codebookSize, workerCount, vectorDimensions);
+    }
 
-        this.vectorDimensions = vectorDimensions;
-        this.vectorSize = vectors[0].length;
+    /**
+     * Create LBG quantizer for training vectors stored in flat batch. Repeated training vectors are merged
+     * and the training operates on the unique vectors weighted by their occurrence count. When there are no
+     * repeated vectors, batch data are not copied and must not be modified during the training.
+     *
+     * @param vectors          Training vectors.
+     * @param codebookSize     Requested codebook size.
+     * @param workerCount      Number of worker threads.
+     * @param vectorDimensions Dimensions of the quantization vector.
+     */
+    public LBGVectorQuantizer(final VectorBatch vectors,
+                              final int codebookSize,
+                              final int workerCount,
+                              final V3i vectorDimensions) {
+        this(WeightedVectorBatch.deduplicate(vectors), codebookSize, workerCount, vectorDimensions);
+    }
 
+    /**
+     * Create LBG quantizer for unique training vectors weighted by their occurrence count.
+     *
+     * @param uniqueVectors    Unique training vectors with their weights.
+     * @param codebookSize     Requested codebook size.
+     * @param workerCount      Number of worker threads.
+     * @param vectorDimensions Dimensions of the quantization vector.
+     */
+    private LBGVectorQuantizer(final WeightedVectorBatch uniqueVectors,
+                               final int codebookSize,
+                               final int workerCount,
+                               final V3i vectorDimensions) {
+        assert (uniqueVectors.getUniqueVectorCount() > 0) : "No training vectors provided";
 
-        this.trainingVectors = new TrainingVector[vectors.length];
-        for (int i = 0; i < vectors.length; i++) {
-            trainingVectors[i] = new TrainingVector(createCopyOfSrcVectors ? Arrays.copyOf(vectors[i], vectorSize) : vectors[i]);
-        }
+        this.vectorDimensions = vectorDimensions;
+        this.vectorSize = uniqueVectors.getVectors().getVectorSize();
+
+        this.trainingData = uniqueVectors.getVectors().getData();
+        this.trainingVectorCount = uniqueVectors.getUniqueVectorCount();
+        this.trainingWeights = uniqueVectors.getWeights();
+        this.totalTrainingWeight = uniqueVectors.getTotalWeight();
+        this.entryIndices = new int[trainingVectorCount];
+        this.memberIndices = new int[trainingVectorCount];
+        this.entryDistances = new double[trainingVectorCount];
+        this.lowerBounds = new double[trainingVectorCount];
+        Arrays.fill(entryIndices, -1);
+        Arrays.fill(entryDistances, Double.POSITIVE_INFINITY);
 
         this.codebookSize = codebookSize;
         this.workerCount = workerCount;
 
         frequencies = new long[this.codebookSize];
-        findUniqueVectors();
+
+        chunkAccumulators = new ChunkAccumulator[ParallelExecutor.getChunkCount(trainingVectorCount, workerCount)];
+        for (int chunk = 0; chunk < chunkAccumulators.length; chunk++) {
+            chunkAccumulators[chunk] = new ChunkAccumulator();
+        }
+    }
+
+    /**
+     * Set whether the internal nodes of the TSVQ tree are refined to the centroids of vectors routed by the tree
+     * descent. Refinement improves the TSVQ encoding quality, full search results are not affected.
+     *
+     * @param refineTSVQTree True to refine the tree.
+     */
+    public void setRefineTSVQTree(final boolean refineTSVQTree) {
+        this.refineTSVQTree = refineTSVQTree;
+    }
+
+    /**
+     * Set the method creating the initial codebook. PNN initialization doesn't record the TSVQ hierarchy.
+     *
+     * @param initialization Initialization method.
+     */
+    public void setInitialization(final CodebookInitialization initialization) {
+        this.initialization = initialization;
+    }
+
+    /**
+     * Set whether the smaller split levels of the splitting initialization are trained on the random sample of the
+     * training vectors. Split level of K entries is trained on at most K * {@value #COARSE_SAMPLE_VECTORS_PER_ENTRY}
+     * training vectors and at most half of them, larger levels and the final refinement use all training vectors.
+     *
+     * @param coarseToFine True to train the smaller split levels on the sample.
+     */
+    public void setCoarseToFine(final boolean coarseToFine) {
+        this.coarseToFine = coarseToFine;
     }
 
+    /**
+     * Set the seed of the training. Random generator of every LBG iteration and split is derived from the seed and
+     * the training position, so the same seed, training data and worker count produce the same codebook and the
+     * training resumed from the checkpoint continues with the same random choices. Seed is stored in the checkpoints
+     * and the seed of the resumed checkpoint replaces this one.
+     *
+     * @param randomSeed Seed of the training.
+     */
+    public void setRandomSeed(final long randomSeed) {
+        this.randomSeed = randomSeed;
+    }
+
+    /**
+     * Set the receiver of the training checkpoints. Checkpoint is created after the LBG of every split level and
+     * every iterationInterval LBG iterations.
+     *
+     * @param callback          Checkpoint receiver, null disables the checkpoints.
+     * @param iterationInterval Number of iterations between the checkpoints, zero for split levels only.
+     */
+    public void setCheckpointCallback(final CheckpointCallback callback, final int iterationInterval) {
+        assert (iterationInterval >= 0) : "Invalid checkpoint interval";
+        this.checkpointCallback = callback;
+        this.checkpointInterval = iterationInterval;
+    }
+
+    /**
+     * Set the checkpoint from which the training continues. Checkpoint created for different training data or
+     * codebook parameters is ignored and the training starts from scratch.
+     *
+     * @param checkpoint Checkpoint or null.
+     */
+    public void setResumeCheckpoint(final LBGCheckpoint checkpoint) {
+        this.resumeCheckpoint = checkpoint;
+    }
+
+    /**
+     * Set the codebook, which is only refined by the final LBG instead of creating the initial codebook, e.g. the
+     * cached codebook of the previous time point. Codebook of different size or vector dimensions is ignored.
+     * Compatible resume checkpoint takes precedence over the initial codebook.
+     *
+     * @param codebook Initial codebook or null.
+     */
+    public void setInitialCodebook(final VQCodebook codebook) {
+        this.initialCodebook = codebook;
+    }
+
+    @Override
     public void setStatusListener(final IStatusListener statusListener) {
         this.statusListener = statusListener;
     }
 
+    void setAssignmentCallback(final AssignmentCallback callback) {
+        this.assignmentCallback = callback;
+    }
+
+    /**
+     * Get the unique training vectors, which are indexed by the entry indices and the member indices.
+     *
+     * @return Training vectors stored vector after vector.
+     */
+    int[] getTrainingData() {
+        return trainingData;
+    }
+
+    /**
+     * Get the closest entry of every training vector, -1 for vectors dropped by the empty entry repair.
+     *
+     * @return Entry indices.
+     */
+    int[] getEntryIndices() {
+        return entryIndices;
+    }
+
+    /**
+     * Get the codebook used in the last assignment.
+     *
+     * @return Flat codebook, only the first getAssignmentEntryCount() entries are valid.
+     */
+    int[] getAssignmentCodebookData() {
+        return previousCodebookData;
+    }
+
+    int getAssignmentEntryCount() {
+        return previousEntryCount;
+    }
+
+    /**
+     * Get the number of training vectors, whose codebook scan wasn't skipped in the last assignment.
+     *
+     * @return Scanned vector count.
+     */
+    long getLastScanCount() {
+        return lastScanCount;
+    }
+
+    /**
+     * Get the members of the entry from the cluster membership index. Member indices are filled if they weren't.
+     *
+     * @param entry Entry index.
+     * @return Indices of the training vectors in the segment of the entry.
+     */
+    int[] getEntryMembers(final int entry) {
+        fillMemberIndices();
+        final int memberFrom = entryMemberFrom[entry];
+        return Arrays.copyOfRange(memberIndices, memberFrom, memberFrom + entryMemberCounts[entry]);
+    }
+
     private void reportStatus(final String message) {
         if (statusListener != null)
             statusListener.sendMessage(message);
@@ -68,41 +430,26 @@ public class LBGVectorQuantizer {
         reportStatus(String.format(format, arg));
     }
 
-    private void findUniqueVectors() {
-        uniqueVectorCount = 0;
-        uniqueTrainingVectors = new ArrayList<>(codebookSize);
-        boolean unique;
-        for (final TrainingVector trainingVector : trainingVectors) {
-            unique = true;
-            for (final TrainingVector uniqueVector : uniqueTrainingVectors) {
-                if (uniqueVector.vectorEqual(trainingVector)) {
-                    unique = false;
-                    break;
-                }
-            }
-            if (unique) {
-                uniqueTrainingVectors.add(trainingVector);
-                ++uniqueVectorCount;
-                // If there is more than codebookSize training vectors, then we must use the LBG algorithm.
-                if (uniqueVectorCount > codebookSize) {
-                    uniqueTrainingVectors = null;
-                    break;
-                }
-            }
-        }
+    /**
+     * Copy training vector out of the training data.
+     *
+     * @param vectorIndex Index of the training vector.
+     * @return Copy of the training vector.
+     */
+    private int[] copyTrainingVector(final int vectorIndex) {
+        final int offset = vectorIndex * vectorSize;
+        return Arrays.copyOfRange(trainingData, offset, offset + vectorSize);
     }
 
     private LBGResult createCodebookFromUniqueVectors() {
-
-        assert (uniqueTrainingVectors != null) : "uniqueTrainingVectors aren't initialized.";
         reportStatus("There is only %d unique vectors. Creating codebook from unique vectors...",
-                     uniqueTrainingVectors.size());
+                     trainingVectorCount);
         final int[][] codebook = new int[codebookSize][vectorSize];
         final int[] zeroEntry = new int[vectorSize];
         Arrays.fill(zeroEntry, 0);
         for (int i = 0; i < codebookSize; i++) {
-            if (i < uniqueVectorCount) {
-                codebook[i] = uniqueTrainingVectors.get(i).getVector();
+            if (i < trainingVectorCount) {
+                codebook[i] = copyTrainingVector(i);
             } else {
                 codebook[i] = zeroEntry;
             }
@@ -113,6 +460,7 @@ public class LBGVectorQuantizer {
         return new LBGResult(vectorDimensions, codebook, frequencies, mse, psnr);
     }
 
+    @Override
     public LBGResult findOptimalCodebook() {
         return findOptimalCodebook(null);
     }
@@ -122,17 +470,37 @@ public class LBGVectorQuantizer {
      *
      * @return Result of the search.
      */
+    @Override
     public LBGResult findOptimalCodebook(final CodebookFoundCallback codebookCallback) {
         final Stopwatch stopwatch = Stopwatch.startNew("LBG::findOptimalCodebook()");
 
-        if (uniqueVectorCount < codebookSize) {
+        if (trainingVectorCount < codebookSize) {
             return createCodebookFromUniqueVectors();
         }
-
-        final LearningCodebookEntry[] codebook = initializeCodebook(codebookCallback);
+        reportStatus("LBG::findOptimalCodebook() - Training on %d unique vectors out of %d vectors.",
+                     trainingVectorCount, totalTrainingWeight);
+
+        final LBGCheckpoint checkpoint = getCompatibleResumeCheckpoint();
+        final LearningCodebookEntry[] codebook;
+        LBGCheckpoint refinementCheckpoint = null;
+        if ((checkpoint != null) && (checkpoint.getPhase() == LBGCheckpoint.Phase.FinalRefinement)) {
+            codebook = checkpoint.createLearningCodebook();
+            tsvqNodeData = checkpoint.getTSVQNodeData();
+            refinementCheckpoint = checkpoint;
+        } else if ((checkpoint == null) && isInitialCodebookCompatible()) {
+            reportStatus("LBG::findOptimalCodebook() - Refining the initial codebook.");
+            codebook = createLearningCodebook(new VectorBatch(initialCodebook.getVectorData().clone(),
+                                                              vectorSize).toVectorArray());
+            final TSVQTree tsvqTree = initialCodebook.getTSVQTree();
+            tsvqNodeData = (tsvqTree != null) ? tsvqTree.getNodeData().clone() : null;
+        } else if ((checkpoint == null) && (initialization == CodebookInitialization.PNN)) {
+            codebook = initializeCodebookByPNN(codebookCallback);
+        } else {
+            codebook = initializeCodebook(codebookCallback, checkpoint);
+        }
         reportStatus("LBG::findOptimalCodebook() - Got initial codebook. Improving it...");
 
-        LBG(codebook, EPSILON * 0.1);
+        LBG(codebook, EPSILON * 0.1, LBGCheckpoint.Phase.FinalRefinement, refinementCheckpoint);
         final double finalMse = averageMse(codebook);
         final double psnr = Utils.calculatePsnr(finalMse, U16.Max);
         reportStatus("LBG::findOptimalCodebook() - Improved the codebook. Final MSE: %f  PSNR: %f (dB)",
@@ -141,7 +509,9 @@ public class LBGVectorQuantizer {
         stopwatch.stop();
         reportStatus(stopwatch.toString());
 
-        final LBGResult result = new LBGResult(vectorDimensions, learningCodebookToCodebook(codebook), frequencies, finalMse, psnr);
+        final int[][] finalCodebook = learningCodebookToCodebook(codebook);
+        final LBGResult result = new LBGResult(vectorDimensions, finalCodebook, frequencies, finalMse, psnr,
+                                               createTSVQTree(finalCodebook));
 
         if (codebookCallback != null) {
             codebookCallback.process(result.getCodebook());
@@ -151,125 +521,191 @@ public class LBGVectorQuantizer {
     }
 
     /**
-     * Convert LearningCodebookEntry array to CodebookEntry array.
+     * Check if the initial codebook is set and matches the codebook size and vector dimensions.
      *
-     * @param learningCodebook Source array of LearningCodebookEntry.
-     * @return Array of CodebookEntries.
+     * @return True if the training should start from the initial codebook.
      */
-    private int[][] learningCodebookToCodebook(final LearningCodebookEntry[] learningCodebook) {
-        final int[][] codebook = new int[learningCodebook.length][vectorSize];
-        for (int i = 0; i < codebook.length; i++) {
-            codebook[i] = learningCodebook[i].getVector();
+    private boolean isInitialCodebookCompatible() {
+        if (initialCodebook == null) {
+            return false;
         }
-        return codebook;
+        final V3i initialDimensions = initialCodebook.getVectorDims();
+        if ((initialCodebook.getCodebookSize() != codebookSize) ||
+                (initialDimensions.getX() != vectorDimensions.getX()) ||
+                (initialDimensions.getY() != vectorDimensions.getY()) ||
+                (initialDimensions.getZ() != vectorDimensions.getZ())) {
+            reportStatus("LBG::findOptimalCodebook() - Initial codebook doesn't match the codebook parameters, " +
+                                 "starting from scratch.");
+            return false;
+        }
+        return true;
     }
 
     /**
-     * Add value to the global mse in synchronized way.
+     * Get the resume checkpoint if it was created for this training.
      *
-     * @param threadMse Value to add.
+     * @return Compatible checkpoint or null.
      */
-    private synchronized void updateMse(final double threadMse) {
-        _mse += threadMse;
+    private LBGCheckpoint getCompatibleResumeCheckpoint() {
+        if (resumeCheckpoint == null) {
+            return null;
+        }
+        if (!resumeCheckpoint.isCompatible(vectorDimensions, codebookSize, getTrainingDigest())) {
+            reportStatus("LBG::findOptimalCodebook() - Checkpoint doesn't match the training data, starting from scratch.");
+            return null;
+        }
+        randomSeed = resumeCheckpoint.getRandomSeed();
+        reportStatus("LBG::findOptimalCodebook() - Resuming from checkpoint with %d entries, phase %s, iteration %d.",
+                     resumeCheckpoint.getCodebookSize(), resumeCheckpoint.getPhase(), resumeCheckpoint.getIteration());
+        return resumeCheckpoint;
     }
 
-    private void resetFrequencies() {
-        Arrays.fill(frequencies, 0);
+    /**
+     * Get the SHA-256 digest of the vector dimensions, codebook size, unique training vectors and their weights.
+     *
+     * @return Digest of the training data.
+     */
+    private byte[] getTrainingDigest() {
+        if (trainingDigest != null) {
+            return trainingDigest;
+        }
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 digest is not available.", e);
+        }
+        final int[] header = {vectorDimensions.getX(), vectorDimensions.getY(), vectorDimensions.getZ(),
+                codebookSize, trainingVectorCount};
+        updateDigest(digest, header, header.length);
+        updateDigest(digest, trainingData, trainingVectorCount * vectorSize);
+        updateDigest(digest, trainingWeights, trainingVectorCount);
+        trainingDigest = digest.digest();
+        return trainingDigest;
     }
 
-    private synchronized void addWorkerFrequencies(final long[] workerFrequencies) {
-        for (int i = 0; i < workerFrequencies.length; i++) {
-            frequencies[i] += workerFrequencies[i];
+    /**
+     * Update the digest by the big-endian bytes of the values.
+     *
+     * @param digest     Message digest.
+     * @param values     Values.
+     * @param valueCount Number of values from the beginning of the array.
+     */
+    private static void updateDigest(final MessageDigest digest, final int[] values, final int valueCount) {
+        final byte[] buffer = new byte[4 * 4096];
+        int bufferLength = 0;
+        for (int i = 0; i < valueCount; i++) {
+            if (bufferLength == buffer.length) {
+                digest.update(buffer, 0, bufferLength);
+                bufferLength = 0;
+            }
+            buffer[bufferLength++] = (byte) (values[i] >>> 24);
+            buffer[bufferLength++] = (byte) (values[i] >>> 16);
+            buffer[bufferLength++] = (byte) (values[i] >>> 8);
+            buffer[bufferLength++] = (byte) values[i];
         }
+        digest.update(buffer, 0, bufferLength);
     }
 
-    private double averageMse(final LearningCodebookEntry[] codebook) {
-        return averageMse(learningCodebookToCodebook(codebook));
+    /**
+     * Create the random generator of the training position. Generator depends only on the training seed and the
+     * position, so the resumed training repeats the random choices of the uninterrupted one.
+     *
+     * @param phase     Training phase.
+     * @param levelSize Size of the learning codebook.
+     * @param iteration LBG iteration in the phase.
+     * @return Random generator.
+     */
+    private Random createRandom(final LBGCheckpoint.Phase phase, final int levelSize, final int iteration) {
+        // SplitMix64 finalizer spreads the neighbouring positions over the whole seed space.
+        long z = randomSeed + (0x9E3779B97F4A7C15L * ((((long) levelSize * 4 + phase.ordinal()) << 32) + iteration));
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
     }
 
     /**
-     * Calculate the average mean square error of the codebook.
+     * Pass the checkpoint of the current training state to the checkpoint callback.
      *
-     * @param codebook Codebook of vectors.
-     * @return Mean square error.
+     * @param phase              Training phase.
+     * @param iteration          Number of finished LBG iterations in the phase.
+     * @param codebook           Current learning codebook.
+     * @param previousDistortion Average distortion of the last LBG iteration.
+     * @param lastDistortion     Relative distortion improvement of the last LBG iteration.
      */
-    private double averageMse(final int[][] codebook) {
-        double mse = 0.0;
-        resetFrequencies();
-        if (workerCount > 1) {
-            // Reset the global mse
-            _mse = 0.0;
-            final Thread[] workers = new Thread[workerCount];
-            final int workSize = trainingVectors.length / workerCount;
-            for (int wId = 0; wId < workerCount; wId++) {
-                final int fromIndex = wId * workSize;
-                final int toIndex = (wId == workerCount - 1) ? trainingVectors.length : (workSize + (wId * workSize));
-
-                workers[wId] = new Thread(() -> {
-                    final long[] workerFrequencies = new long[codebook.length];
-                    final VectorQuantizer quantizer = new VectorQuantizer(new VQCodebook(vectorDimensions,
-                                                                                         codebook,
-                                                                                         frequencies));
-
-                    double threadMse = 0.0;
-                    int[] vector;
-                    int qIndex;
-                    int[] qVector;
-                    for (int i = fromIndex; i < toIndex; i++) {
-                        vector = trainingVectors[i].getVector();
-                        qIndex = quantizer.quantizeToIndex(vector);
-                        ++workerFrequencies[qIndex];
-
-
-                        qVector = quantizer.getCodebookVectors()[qIndex];
-                        for (int vI = 0; vI < vectorSize; vI++) {
-                            threadMse += Math.pow(((double) vector[vI] - (double) qVector[vI]), 2);
-                        }
-                    }
-                    threadMse /= (double) (toIndex - fromIndex);
-
-                    // Update global mse, updateMse function is synchronized.
-                    updateMse(threadMse);
-                    addWorkerFrequencies(workerFrequencies);
-                });
-                workers[wId].start();
+    private void saveCheckpoint(final LBGCheckpoint.Phase phase,
+                                final int iteration,
+                                final LearningCodebookEntry[] codebook,
+                                final double previousDistortion,
+                                final double lastDistortion) {
+        if (checkpointCallback == null) {
+            return;
+        }
+        // Smaller PNN codebooks are refined after the full size codebook was created, they can't be resumed.
+        if ((initialization == CodebookInitialization.PNN) && (phase != LBGCheckpoint.Phase.FinalRefinement)) {
+            return;
+        }
+        checkpointCallback.save(new LBGCheckpoint(vectorDimensions, codebookSize, getTrainingDigest(), randomSeed,
+                                                  phase, iteration, previousDistortion, lastDistortion,
+                                                  codebook, tsvqNodeData));
+    }
 
-            }
+    /**
+     * Create TSVQ tree of the codebook from the recorded split hierarchy.
+     *
+     * @param codebook Codebook, whose size selects the number of used tree levels.
+     * @return TSVQ tree or null if the hierarchy wasn't recorded for the codebook.
+     */
+    private TSVQTree createTSVQTree(final int[][] codebook) {
+        if ((tsvqNodeData == null) || !TSVQTree.isSupportedCodebookSize(codebook.length)) {
+            return null;
+        }
+        final TSVQTree tree = new TSVQTree(Arrays.copyOf(tsvqNodeData, codebook.length * vectorSize),
+                                           codebook.length,
+                                           vectorSize);
+        if (refineTSVQTree) {
+            tree.refine(trainingData, trainingWeights, VectorBatch.fromVectorArray(codebook).getData(), workerCount);
+        }
+        return tree;
+    }
 
-            try {
-                for (int wId = 0; wId < workerCount; wId++) {
-                    workers[wId].join();
-                }
-            } catch (final InterruptedException e) {
-                e.printStackTrace();
-            }
-            mse = _mse / (double) workerCount;
-        } else {
-            final VectorQuantizer quantizer = new VectorQuantizer(new VQCodebook(vectorDimensions,
-                                                                                 codebook,
-                                                                                 frequencies));
-            int qIndex;
-            int[] qVector;
-            for (final TrainingVector trV : trainingVectors) {
-                qIndex = quantizer.quantizeToIndex(trV.getVector());
-                qVector = quantizer.getCodebookVectors()[qIndex];
-                ++frequencies[qIndex];
-                for (int i = 0; i < vectorSize; i++) {
-                    mse += Math.pow(((double) trV.getVector()[i] - (double) qVector[i]), 2);
-                }
-            }
-            mse /= (double) trainingVectors.length;
+    /**
+     * Convert LearningCodebookEntry array to CodebookEntry array.
+     *
+     * @param learningCodebook Source array of LearningCodebookEntry.
+     * @return Array of CodebookEntries.
+     */
+    private int[][] learningCodebookToCodebook(final LearningCodebookEntry[] learningCodebook) {
+        final int[][] codebook = new int[learningCodebook.length][vectorSize];
+        for (int i = 0; i < codebook.length; i++) {
+            codebook[i] = learningCodebook[i].getVector();
         }
-        return mse;
+        return codebook;
     }
 
     /**
-     * Calculate the initial perturbation from training vectors.
+     * Calculate the average mean square error of the codebook and the frequencies of its vectors. Measurement is
+     * done by the assignment pass without the entry update, so the next LBG iteration starts with valid bounds.
+     *
+     * @param codebook Codebook of vectors.
+     * @return Mean square error.
+     */
+    private double averageMse(final LearningCodebookEntry[] codebook) {
+        assignVectorsToClosestEntry(codebook, false);
+        System.arraycopy(entryVectorCounts, 0, frequencies, 0, codebook.length);
+        return lastSquaredErrorSum / (double) totalTrainingWeight;
+    }
+
+    private double averageMse(final int[][] codebook) {
+        return averageMse(createLearningCodebook(codebook));
+    }
+
+    /**
+     * Calculate the initial perturbation from all training vectors.
      *
-     * @param vectors Training vectors.
      * @return Perturbation vector.
      */
-    private double[] getPerturbationVector(final TrainingVector[] vectors) {
+    private double[] getPerturbationVector() {
 
         // Max is initialized to zero that is ok.
         final int[] max = new int[vectorSize];
@@ -277,13 +713,15 @@ public class LBGVectorQuantizer {
         final int[] min = new int[vectorSize];
         Arrays.fill(min, U16.Max);
 
-        for (final TrainingVector v : vectors) {
+        int value;
+        for (int vectorOffset = 0; vectorOffset < trainingData.length; vectorOffset += vectorSize) {
             for (int i = 0; i < vectorSize; i++) {
-                if (v.getVector()[i] < min[i]) {
-                    min[i] = v.getVector()[i];
+                value = trainingData[vectorOffset + i];
+                if (value < min[i]) {
+                    min[i] = value;
                 }
-                if (v.getVector()[i] > max[i]) {
-                    max[i] = v.getVector()[i];
+                if (value > max[i]) {
+                    max[i] = value;
                 }
             }
         }
@@ -303,14 +741,16 @@ public class LBGVectorQuantizer {
     private LearningCodebookEntry createInitialEntry() {
         final double[] vectorSum = new double[vectorSize];
 
-        for (final TrainingVector trainingVector : trainingVectors) {
+        for (int vecIndex = 0; vecIndex < trainingVectorCount; vecIndex++) {
+            final int vectorOffset = vecIndex * vectorSize;
+            final double weight = trainingWeights[vecIndex];
             for (int i = 0; i < vectorSize; i++) {
-                vectorSum[i] += (double) trainingVector.getVector()[i];
+                vectorSum[i] += weight * (double) trainingData[vectorOffset + i];
             }
         }
         final int[] result = new int[vectorSize];
         for (int i = 0; i < vectorSize; i++) {
-            result[i] = (int) Math.round(vectorSum[i] / (double) trainingVectors.length);
+            result[i] = (int) Math.round(vectorSum[i] / (double) totalTrainingWeight);
         }
         return new LearningCodebookEntry(result);
     }
@@ -318,14 +758,37 @@ public class LBGVectorQuantizer {
     /**
      * Initialize the LBG codebook be recursively splitting each entry into two new.
      *
+     * @param codebookFoundCallback Callback receiving the codebook of every split level or null.
+     * @param checkpoint            Checkpoint from which the splitting continues or null.
      * @return The initial codebook to be improved by LBG.
      */
-    private LearningCodebookEntry[] initializeCodebook(final CodebookFoundCallback codebookFoundCallback) {
+    private LearningCodebookEntry[] initializeCodebook(final CodebookFoundCallback codebookFoundCallback,
+                                                       final LBGCheckpoint checkpoint) {
 
         int currentCodebookSize = 1;
         LearningCodebookEntry[] codebook = new LearningCodebookEntry[]{createInitialEntry()};
+        tsvqNodeData = TSVQTree.isSupportedCodebookSize(codebookSize) ? new int[codebookSize * vectorSize] : null;
+        if (checkpoint != null) {
+            codebook = checkpoint.createLearningCodebook();
+            currentCodebookSize = codebook.length;
+            tsvqNodeData = checkpoint.getTSVQNodeData();
+            if (checkpoint.getPhase() == LBGCheckpoint.Phase.LevelTraining) {
+                trainSplitLevel(codebook, codebookFoundCallback, checkpoint);
+            }
+        } else if (coarseToFine) {
+            final int coarseCodebookSize = getCoarseCodebookSize();
+            if (coarseCodebookSize > 1) {
+                codebook = trainCoarseCodebook(coarseCodebookSize, codebookFoundCallback);
+                currentCodebookSize = coarseCodebookSize;
+            }
+        }
 
         while (currentCodebookSize != codebookSize) {
+            random = createRandom(LBGCheckpoint.Phase.LevelFinished, currentCodebookSize, 0);
+            // Entry i of the current codebook is split into entries 2i and 2i + 1, record it as the tree level.
+            if (tsvqNodeData != null) {
+                TSVQTree.storeLevel(tsvqNodeData, vectorSize, learningCodebookToCodebook(codebook));
+            }
             int cbIndex = 0;
             final LearningCodebookEntry[] newCodebook = new LearningCodebookEntry[currentCodebookSize * 2];
 
@@ -333,9 +796,9 @@ public class LBGVectorQuantizer {
             for (final LearningCodebookEntry entryToSplit : codebook) {
                 final double[] prtV;
                 if (codebook.length == 1) {
-                    assert (trainingVectors.length > 0) :
+                    assert (trainingVectorCount > 0) :
                             "There are no vectors from which to create perturbation " + "vector";
-                    prtV = getPerturbationVector(trainingVectors);
+                    prtV = getPerturbationVector();
                 } else {
                     //                    assert (entryToSplit.getVectorCount() > 0) :
                     //                            "There are no vectors from which to create perturbation vector";
@@ -400,26 +863,150 @@ public class LBGVectorQuantizer {
             currentCodebookSize *= 2;
 
             // Execute LBG Algorithm on current codebook to improve it.
+            trainSplitLevel(codebook, codebookFoundCallback, null);
+        }
+        return codebook;
+    }
 
-            final double eps = codebookFoundCallback == null ? EPSILON : EPSILON * 0.1;
-            LBG(codebook, eps);
-
-            final double avgMse = averageMse(codebook);
-            reportStatus("MSE of improved divided codebook: %f", avgMse);
-
-            if (codebookFoundCallback != null) {
+    /**
+     * Get the largest split level, whose training sample contains at most half of the training vectors.
+     *
+     * @return Size of the split level trained on the sample, one if there is no such level.
+     */
+    private int getCoarseCodebookSize() {
+        int coarseCodebookSize = 1;
+        while ((coarseCodebookSize < codebookSize) &&
+                ((long) 4 * coarseCodebookSize * COARSE_SAMPLE_VECTORS_PER_ENTRY <= trainingVectorCount)) {
+            coarseCodebookSize *= 2;
+        }
+        return coarseCodebookSize;
+    }
 
-                final long[] codebookFrequencies = new long[codebook.length];
-                System.arraycopy(frequencies, 0, codebookFrequencies, 0, codebook.length);
+    /**
+     * Train the split levels up to the coarse codebook size on the random sample of the unique training vectors.
+     * Sampled vectors keep their weights. The sample trainer again trains its smaller levels on its own sample,
+     * so the sample grows with the codebook. Codebooks of the split levels are passed to the callback with the
+     * frequencies measured on all training vectors.
+     *
+     * @param coarseCodebookSize    Size of the codebook trained on the sample.
+     * @param codebookFoundCallback Callback receiving the codebook of every split level or null.
+     * @return Codebook of the split level with the entry properties calculated from the sample.
+     */
+    private LearningCodebookEntry[] trainCoarseCodebook(final int coarseCodebookSize,
+                                                        final CodebookFoundCallback codebookFoundCallback) {
+        final int sampleSize = coarseCodebookSize * COARSE_SAMPLE_VECTORS_PER_ENTRY;
+        final VectorBatch sampleVectors = new VectorBatch(vectorSize, sampleSize);
+        final int[] sampleWeights = new int[sampleSize];
+
+        // Selection sampling keeps the sampled vectors in the order of the training data.
+        final Random sampleRandom = createRandom(LBGCheckpoint.Phase.LevelTraining, coarseCodebookSize, 0);
+        int sampleIndex = 0;
+        for (int vecIndex = 0; (vecIndex < trainingVectorCount) && (sampleIndex < sampleSize); vecIndex++) {
+            if (sampleRandom.nextInt(trainingVectorCount - vecIndex) < (sampleSize - sampleIndex)) {
+                System.arraycopy(trainingData, vecIndex * vectorSize,
+                                 sampleVectors.getData(), sampleIndex * vectorSize,
+                                 vectorSize);
+                sampleWeights[sampleIndex++] = trainingWeights[vecIndex];
+            }
+        }
+        reportStatus("LBG::initializeCodebook() - Training %d entries on %d sampled vectors.",
+                     coarseCodebookSize, sampleSize);
+
+        final LBGVectorQuantizer sampleTrainer = new LBGVectorQuantizer(new WeightedVectorBatch(sampleVectors,
+                                                                                                sampleWeights),
+                                                                        coarseCodebookSize,
+                                                                        workerCount,
+                                                                        vectorDimensions);
+        sampleTrainer.setRandomSeed(sampleRandom.nextLong());
+        sampleTrainer.setCoarseToFine(true);
+        sampleTrainer.setRefineTSVQTree(refineTSVQTree);
+        sampleTrainer.setStatusListener(statusListener);
+        final CodebookFoundCallback sampleCallback = (codebookFoundCallback == null) ? null : levelCodebook -> {
+            final double avgMse = averageMse(levelCodebook.getVectors());
+            reportStatus("MSE of divided codebook on all training vectors: %f", avgMse);
+            codebookFoundCallback.process(new VQCodebook(vectorDimensions,
+                                                         new VectorBatch(levelCodebook.getVectorData(), vectorSize),
+                                                         Arrays.copyOf(frequencies, levelCodebook.getCodebookSize()),
+                                                         levelCodebook.getTSVQTree()));
+        };
+        final LearningCodebookEntry[] codebook = sampleTrainer.initializeCodebook(sampleCallback, null);
+        if ((tsvqNodeData != null) && (sampleTrainer.tsvqNodeData != null)) {
+            System.arraycopy(sampleTrainer.tsvqNodeData, 0, tsvqNodeData, 0, coarseCodebookSize * vectorSize);
+        }
+        return codebook;
+    }
 
-                codebookFoundCallback.process(new VQCodebook(vectorDimensions,
-                                                             learningCodebookToCodebook(codebook),
-                                                             codebookFrequencies));
+    /**
+     * Initialize the codebook by the pairwise nearest neighbour merging of the training vectors. When the callback
+     * is set, PNN continues to the smaller power of two sizes and every such codebook is refined by LBG and passed
+     * to the callback, from the smallest one.
+     *
+     * @param codebookFoundCallback Callback receiving the refined smaller codebooks or null.
+     * @return The initial codebook to be improved by LBG.
+     */
+    private LearningCodebookEntry[] initializeCodebookByPNN(final CodebookFoundCallback codebookFoundCallback) {
+        final Stopwatch stopwatch = Stopwatch.startNew("LBG::initializeCodebookByPNN()");
+        tsvqNodeData = null;
+        final PNNCodebookInitializer pnn = new PNNCodebookInitializer(trainingData, trainingWeights,
+                                                                      vectorSize, workerCount);
+        pnn.reduceTo(codebookSize);
+        final LearningCodebookEntry[] codebook = createLearningCodebook(pnn.getCodebook());
+
+        if (codebookFoundCallback != null) {
+            final ArrayList<int[][]> levelCodebooks = new ArrayList<>();
+            for (int levelSize = codebookSize / 2; levelSize >= 2; levelSize /= 2) {
+                pnn.reduceTo(levelSize);
+                levelCodebooks.add(0, pnn.getCodebook());
+            }
+            for (final int[][] levelCodebook : levelCodebooks) {
+                reportStatus("LBG::initializeCodebookByPNN() - Refining PNN codebook of size %d", levelCodebook.length);
+                trainSplitLevel(createLearningCodebook(levelCodebook), codebookFoundCallback, null);
             }
         }
+        stopwatch.stop();
+        reportStatus(stopwatch.toString());
         return codebook;
     }
 
+    private LearningCodebookEntry[] createLearningCodebook(final int[][] codebook) {
+        final LearningCodebookEntry[] learningCodebook = new LearningCodebookEntry[codebook.length];
+        for (int i = 0; i < codebook.length; i++) {
+            learningCodebook[i] = new LearningCodebookEntry(codebook[i]);
+        }
+        return learningCodebook;
+    }
+
+    /**
+     * Improve the codebook of the split level by LBG, report its MSE to the callback and create the checkpoint.
+     *
+     * @param codebook              Codebook of the split level.
+     * @param codebookFoundCallback Callback receiving the codebook of the level or null.
+     * @param resumeFrom            Checkpoint of the LBG of this level, from which the training continues, or null.
+     */
+    private void trainSplitLevel(final LearningCodebookEntry[] codebook,
+                                 final CodebookFoundCallback codebookFoundCallback,
+                                 final LBGCheckpoint resumeFrom) {
+        final double eps = codebookFoundCallback == null ? EPSILON : EPSILON * 0.1;
+        LBG(codebook, eps, LBGCheckpoint.Phase.LevelTraining, resumeFrom);
+
+        final double avgMse = averageMse(codebook);
+        reportStatus("MSE of improved divided codebook: %f", avgMse);
+
+        if (codebookFoundCallback != null) {
+
+            final long[] codebookFrequencies = new long[codebook.length];
+            System.arraycopy(frequencies, 0, codebookFrequencies, 0, codebook.length);
+
+            final int[][] levelCodebook = learningCodebookToCodebook(codebook);
+            codebookFoundCallback.process(new VQCodebook(vectorDimensions,
+                                                         VectorBatch.fromVectorArray(levelCodebook),
+                                                         codebookFrequencies,
+                                                         createTSVQTree(levelCodebook)));
+        }
+        saveCheckpoint(LBGCheckpoint.Phase.LevelFinished, 0, codebook,
+                       Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
     /**
      * Generate random vector of size = this.vectorSize
      *
@@ -427,18 +1014,16 @@ public class LBGVectorQuantizer {
      */
     private int[] generateRandomVector() {
         final int[] randomVector = new int[vectorSize];
-        final Random rnd = new Random();
         for (int i = 0; i < vectorSize; i++) {
-            randomVector[i] = rnd.nextInt(U16.Max + 1);
+            randomVector[i] = random.nextInt(U16.Max + 1);
         }
         return randomVector;
     }
 
     private double[] generateRandomVectorDouble() {
         final double[] randomVector = new double[vectorSize];
-        final Random rnd = new Random();
         for (int i = 0; i < vectorSize; i++) {
-            randomVector[i] = rnd.nextInt(U16.Max + 1);
+            randomVector[i] = random.nextInt(U16.Max + 1);
         }
         return randomVector;
     }
@@ -450,23 +1035,38 @@ public class LBGVectorQuantizer {
      * @param codebook Codebook to improve.
      */
     private void LBG(final LearningCodebookEntry[] codebook) {
-        LBG(codebook, EPSILON);
+        LBG(codebook, EPSILON, LBGCheckpoint.Phase.LevelTraining, null);
     }
 
     /**
      * Execute the LBG algorithm with specific epsilon value.
      *
-     * @param codebook Codebook to improve.
-     * @param epsilon  Epsilon value.
+     * @param codebook       Codebook to improve.
+     * @param epsilon        Epsilon value.
+     * @param phase          Training phase stored in the checkpoints.
+     * @param resumeFrom     Checkpoint of the LBG in this phase, from which the training continues, or null.
      */
-    private void LBG(final LearningCodebookEntry[] codebook, final double epsilon) {
+    private void LBG(final LearningCodebookEntry[] codebook,
+                     final double epsilon,
+                     final LBGCheckpoint.Phase phase,
+                     final LBGCheckpoint resumeFrom) {
         //this.verbose = true;
         double previousDistortion = Double.POSITIVE_INFINITY;
         int iteration = 1;
         double lastDist = Double.POSITIVE_INFINITY;
+        if (resumeFrom != null) {
+            previousDistortion = resumeFrom.getPreviousDistortion();
+            iteration = resumeFrom.getIteration() + 1;
+            lastDist = resumeFrom.getLastDistortion();
+        }
         while (true) {
+            random = createRandom(phase, codebook.length, iteration);
+
             // Assign training vectors to the closest codebook entry and calculate the entry properties.
-            assignVectorsToClosestEntry(codebook);
+            assignVectorsToClosestEntry(codebook, true);
+            if (assignmentCallback != null) {
+                assignmentCallback.vectorsAssigned();
+            }
 
             // Fix empty codebook entries.
             fixEmptyEntries(codebook);
@@ -480,8 +1080,8 @@ public class LBGVectorQuantizer {
 
             // Calculate distortion
             final double distortion = (previousDistortion - avgDistortion) / avgDistortion;
-            reportStatus("LBG::LBG() - Iteration: %d  Distortion: %.5f", iteration++, distortion);
-
+            reportStatus("LBG::LBG() - Iteration: %d  Distortion: %.5f  Scanned vectors: %d/%d",
+                         iteration, distortion, lastScanCount, trainingVectorCount);
 
             if (Double.isNaN(distortion)) {
                 reportStatus("Distortion is NaN. Stopping LBG::LBG().");
@@ -500,213 +1100,316 @@ public class LBGVectorQuantizer {
                 previousDistortion = avgDistortion;
                 lastDist = distortion;
             }
-        }
-    }
 
-    /**
-     * Assign each training vector to the closest codebook entry.
-     *
-     * @param codebook Vector codebook.
-     */
-    private void assignVectorsToClosestEntry(final LearningCodebookEntry[] codebook) {
-        //        Stopwatch stopwatch = Stopwatch.startNew("assignVectorsToClosestEntry");
-        if (workerCount > 1) {
-            parallelAssignVectors(codebook);
-            // In parallel version entry properties are already calculated.
-        } else {
-            defaultAssignVectors(codebook);
-            // Calculate all the entry properties.
-            calculateEntryProperties(codebook);
+            // Checkpoint holds the state of the next iteration, so the resumed training stops at the same iteration.
+            if ((checkpointInterval > 0) && ((iteration % checkpointInterval) == 0)) {
+                saveCheckpoint(phase, iteration, codebook, previousDistortion, lastDist);
+            }
+            ++iteration;
         }
-        //        stopwatch.stop();
-        //        if (this.verbose) {
-        //            System.out.println(stopwatch);
-        //        }
-
     }
 
     /**
-     * Default version (Single Thread) of assigning vectors to closest codebook entry.
+     * Assign each training vector to the closest codebook entry and calculate the entry properties.
+     * <p>
+     * Assignment uses Hamerly's bounds. For every training vector the lower bound of the distance to the second
+     * closest entry is kept, after the entries move it is decreased by the largest entry drift. Distance to the
+     * assigned entry is evaluated exactly, because it is needed for the distortion anyway. When it is smaller than
+     * the lower bound or than half of the distance from the assigned entry to its closest other entry, the vector
+     * can't change its entry and the codebook scan is skipped. Entry vector sums and counts are updated
+     * incrementally, only for the vectors which changed their entry. Assignments are the same as of the full
+     * search, including the tie resolution in favor of the lower index.
+     * <p>
+     * Same traversal accumulates the squared quantization error and the entry frequencies of the codebook used
+     * for the assignment. All buffers are kept between the calls, they are only reallocated when the codebook
+     * grows.
      *
-     * @param codebook Vector codebook.
+     * @param codebook      Vector codebook.
+     * @param updateEntries True to move entries to the centroids of assigned vectors, false to only measure the
+     *                      codebook error and frequencies.
      */
-    private void defaultAssignVectors(final LearningCodebookEntry[] codebook) {
-        double minDist;
-        int closestEntryIndex;
-
-        for (final TrainingVector trainingVector : trainingVectors) {
-            minDist = Double.POSITIVE_INFINITY;
-            closestEntryIndex = -1;
-
-            for (int entryIndex = 0; entryIndex < codebook.length; entryIndex++) {
-                final double entryDistance = VectorQuantizer.distanceBetweenVectors(codebook[entryIndex].getVector(),
-                                                                                    trainingVector.getVector(),
-                                                                                    metric);
-
-                if (entryDistance < minDist) {
-                    minDist = entryDistance;
-                    closestEntryIndex = entryIndex;
+    private void assignVectorsToClosestEntry(final LearningCodebookEntry[] codebook, final boolean updateEntries) {
+        final int entryCount = codebook.length;
+        ensureEntryCapacity(entryCount);
+        final int[] codebookData = currentCodebookData;
+        flattenCodebook(codebook, codebookData);
+        final boolean fullSearch = !boundsValid || (previousEntryCount != entryCount);
+
+        int maxDriftEntry = -1;
+        double maxDrift = 0.0;
+        double secondMaxDrift = 0.0;
+        if (!fullSearch) {
+            calculateEntryHalfGaps(codebookData, entryCount);
+            for (int entry = 0; entry < entryCount; entry++) {
+                final double drift = Math.sqrt((double) distanceKernel.squaredDistance(codebookData, entry * vectorSize,
+                                                                                       previousCodebookData,
+                                                                                       entry * vectorSize,
+                                                                                       vectorSize));
+                if (drift > maxDrift) {
+                    secondMaxDrift = maxDrift;
+                    maxDrift = drift;
+                    maxDriftEntry = entry;
+                } else if (drift > secondMaxDrift) {
+                    secondMaxDrift = drift;
                 }
             }
-
-            if (closestEntryIndex != -1) {
-                assert (closestEntryIndex < codebook.length);
-                trainingVector.setEntryInfo(closestEntryIndex, minDist);
-            } else {
-                assert (false) : "Did not found closest entry.";
-                System.err.println("Did not found closest entry.");
-            }
         }
-    }
-
-    /**
-     * Multi-Threaded version of assigning vectors to closest codebook entry.
-     *
-     * @param codebook Vector codebook.
-     */
-    private void parallelAssignVectors(final LearningCodebookEntry[] codebook) {
-        final Thread[] workers = new Thread[workerCount];
-        final int workSize = trainingVectors.length / workerCount;
-        final EntryInfo[][] threadEntryInfos = new EntryInfo[workerCount][codebook.length];
-
-
-        for (int wId = 0; wId < workerCount; wId++) {
-            final int fromIndex = wId * workSize;
-            final int toIndex = (wId == workerCount - 1) ? trainingVectors.length : (workSize + (wId * workSize));
-
-            threadEntryInfos[wId] = new EntryInfo[codebook.length];
-            final EntryInfo[] threadEntryInfoArray = threadEntryInfos[wId];
-
-            workers[wId] = new Thread(() -> {
-                for (int eI = 0; eI < codebook.length; eI++) {
-                    threadEntryInfoArray[eI] = new EntryInfo(vectorSize);
+        final int finalMaxDriftEntry = maxDriftEntry;
+        final double finalMaxDrift = maxDrift;
+        final double finalSecondMaxDrift = secondMaxDrift;
+
+        ParallelExecutor.forEachChunk(trainingVectorCount, workerCount, (chunkIndex, fromIndex, toIndex) -> {
+            // Accumulator holds distance sums and min/max of all vectors, but vector counts and dimension sums only
+            // of the vector moves (full sums in the full search).
+            final ChunkAccumulator acc = chunkAccumulators[chunkIndex];
+            acc.reset(entryCount, vectorSize);
+            for (int vecIndex = fromIndex; vecIndex < toIndex; vecIndex++) {
+                final int vectorOffset = vecIndex * vectorSize;
+                final int weight = trainingWeights[vecIndex];
+                final int oldEntry = fullSearch ? -1 : entryIndices[vecIndex];
+                long squaredDistance = 0;
+                boolean scan = fullSearch;
+                if (!fullSearch) {
+                    lowerBounds[vecIndex] -= (oldEntry == finalMaxDriftEntry) ? finalSecondMaxDrift : finalMaxDrift;
+                    squaredDistance = distanceKernel.squaredDistance(trainingData, vectorOffset,
+                                                                     codebookData, oldEntry * vectorSize, vectorSize);
+                    entryDistances[vecIndex] = Math.sqrt((double) squaredDistance);
+                    final double bound = Math.max(lowerBounds[vecIndex], entryHalfGaps[oldEntry]);
+                    scan = !(entryDistances[vecIndex] < bound * (1.0 - BOUND_TOLERANCE));
                 }
-                int value;
-                double minimalDistance, entryDistance;
-                for (int vecIndex = fromIndex; vecIndex < toIndex; vecIndex++) {
-                    minimalDistance = Double.POSITIVE_INFINITY;
-                    int closestEntryIndex = -1;
-
-                    for (int entryIndex = 0; entryIndex < codebook.length; entryIndex++) {
-                        entryDistance = VectorQuantizer.distanceBetweenVectors(codebook[entryIndex].getVector(),
-                                                                               trainingVectors[vecIndex].getVector(),
-                                                                               metric);
-
-                        if (entryDistance < minimalDistance) {
-                            minimalDistance = entryDistance;
-                            closestEntryIndex = entryIndex;
-                        }
+                if (scan) {
+                    ++acc.scanCount;
+                    squaredDistance = scanCodebook(codebookData, entryCount, vecIndex);
+                }
+                final int entry = entryIndices[vecIndex];
+                ++acc.memberCounts[entry];
+                acc.squaredErrorSum += (double) weight * (double) squaredDistance;
+                acc.distanceSums[entry] += weight * entryDistances[vecIndex];
+                if (entry != oldEntry) {
+                    acc.vectorCounts[entry] += weight;
+                    if (oldEntry >= 0) {
+                        acc.vectorCounts[oldEntry] -= weight;
                     }
-
-                    if (closestEntryIndex != -1) {
-                        trainingVectors[vecIndex].setEntryInfo(closestEntryIndex, minimalDistance);
-
-                        threadEntryInfoArray[closestEntryIndex].vectorCount += 1;
-                        threadEntryInfoArray[closestEntryIndex].distanceSum += minimalDistance;
-                        for (int dim = 0; dim < vectorSize; dim++) {
-                            value = trainingVectors[vecIndex].getVector()[dim];
-
-                            threadEntryInfoArray[closestEntryIndex].dimensionSum[dim] += value;
-
-
-                            if (value < threadEntryInfoArray[closestEntryIndex].min[dim]) {
-                                threadEntryInfoArray[closestEntryIndex].min[dim] = value;
-                            }
-                            if (value > threadEntryInfoArray[closestEntryIndex].max[dim]) {
-                                threadEntryInfoArray[closestEntryIndex].max[dim] = value;
-                            }
+                }
+                final int entryOffset = entry * vectorSize;
+                final int oldEntryOffset = oldEntry * vectorSize;
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    final int value = trainingData[vectorOffset + dim];
+                    if (entry != oldEntry) {
+                        acc.dimensionSums[entryOffset + dim] += (long) weight * value;
+                        if (oldEntry >= 0) {
+                            acc.dimensionSums[oldEntryOffset + dim] -= (long) weight * value;
                         }
-
-                    } else {
-                        assert (false) : "Did not found closest entry.";
-                        System.err.println("Did not found closest entry.");
+                    }
+                    if (value < acc.min[entryOffset + dim]) {
+                        acc.min[entryOffset + dim] = value;
+                    }
+                    if (value > acc.max[entryOffset + dim]) {
+                        acc.max[entryOffset + dim] = value;
                     }
                 }
-            });
-            workers[wId].start();
-        }
+            }
+        });
 
-        try {
-            for (int wId = 0; wId < workerCount; wId++) {
-                workers[wId].join();
+        if (fullSearch) {
+            Arrays.fill(entryVectorCounts, 0, entryCount, 0);
+            Arrays.fill(entryVectorSums, 0, entryCount * vectorSize, 0);
+        }
+        final int chunkCount = ParallelExecutor.getChunkCount(trainingVectorCount, workerCount);
+        long scanCount = 0;
+        double squaredErrorSum = 0.0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            scanCount += chunkAccumulators[chunk].scanCount;
+            squaredErrorSum += chunkAccumulators[chunk].squaredErrorSum;
+        }
+        lastScanCount = scanCount;
+        lastSquaredErrorSum = squaredErrorSum;
+
+        int memberFrom = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            int memberCount = 0;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                memberCount += chunkAccumulators[chunk].memberCounts[entry];
             }
-        } catch (final InterruptedException e) {
-            e.printStackTrace();
-            assert (false) : "Failed parallel join";
+            entryMemberFrom[entry] = memberFrom;
+            entryMemberCounts[entry] = memberCount;
+            memberFrom += memberCount;
         }
-
-        // Combine all thread entry infos to final array distributed to the entries.
-        final EntryInfo[] entryInfos = new EntryInfo[codebook.length];
-        // Assign first thread infos and we can skip it later.
-        System.arraycopy(threadEntryInfos[0], 0, entryInfos, 0, codebook.length);
-
-        for (int tId = 1; tId < workerCount; tId++) {
-            for (int entryIndex = 0; entryIndex < codebook.length; entryIndex++) {
-                combine(entryInfos[entryIndex], threadEntryInfos[tId][entryIndex]);
+        membersValid = false;
+
+        for (int entry = 0; entry < entryCount; entry++) {
+            final EntryInfo info = entryInfos[entry];
+            info.reset();
+            final int entryOffset = entry * vectorSize;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                final ChunkAccumulator acc = chunkAccumulators[chunk];
+                entryVectorCounts[entry] += acc.vectorCounts[entry];
+                info.distanceSum += acc.distanceSums[entry];
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    entryVectorSums[entryOffset + dim] += acc.dimensionSums[entryOffset + dim];
+                    info.min[dim] = Math.min(info.min[dim], acc.min[entryOffset + dim]);
+                    info.max[dim] = Math.max(info.max[dim], acc.max[entryOffset + dim]);
+                }
+            }
+            info.vectorCount = (int) entryVectorCounts[entry];
+            for (int dim = 0; dim < vectorSize; dim++) {
+                info.dimensionSum[dim] = entryVectorSums[entryOffset + dim];
             }
         }
 
-        for (int i = 0; i < codebook.length; i++) {
-            codebook[i].setInfo(entryInfos[i]);
+        // Keep the assignment codebook for the drift calculation, current buffer is overwritten next time.
+        currentCodebookData = previousCodebookData;
+        previousCodebookData = codebookData;
+        previousEntryCount = entryCount;
+        boundsValid = true;
+        if (updateEntries) {
+            for (int i = 0; i < entryCount; i++) {
+                codebook[i].setInfo(entryInfos[i]);
+            }
         }
     }
 
-    private void combine(final EntryInfo finalEntryInfo, final EntryInfo threadEntryInfo) {
-        finalEntryInfo.vectorCount += threadEntryInfo.vectorCount;
-        finalEntryInfo.distanceSum += threadEntryInfo.distanceSum;
-
-        for (int dim = 0; dim < vectorSize; dim++) {
-            finalEntryInfo.dimensionSum[dim] += threadEntryInfo.dimensionSum[dim];
+    /**
+     * Make sure, that the codebook buffers and accumulators can hold given number of entries.
+     *
+     * @param entryCount Number of codebook entries.
+     */
+    private void ensureEntryCapacity(final int entryCount) {
+        if ((entryInfos != null) && (entryInfos.length >= entryCount)) {
+            return;
+        }
+        // Codebook size changed, so the next assignment is the full search and the old content isn't needed.
+        currentCodebookData = new int[entryCount * vectorSize];
+        previousCodebookData = new int[entryCount * vectorSize];
+        entryVectorCounts = new long[entryCount];
+        entryVectorSums = new long[entryCount * vectorSize];
+        entryHalfGaps = new double[entryCount];
+        entryMinDistances = new long[entryCount];
+        entryMemberFrom = new int[entryCount];
+        entryMemberCounts = new int[entryCount];
+        entryInfos = new EntryInfo[entryCount];
+        for (int entry = 0; entry < entryCount; entry++) {
+            entryInfos[entry] = new EntryInfo(vectorSize);
+        }
+    }
 
-            if (threadEntryInfo.min[dim] < finalEntryInfo.min[dim]) {
-                finalEntryInfo.min[dim] = threadEntryInfo.min[dim];
+    /**
+     * Find the closest and the second closest codebook entry of the training vector. Store the closest entry
+     * index, its distance and the lower bound of the second closest entry distance.
+     *
+     * @param codebookData Flat codebook vectors.
+     * @param entryCount   Number of codebook entries.
+     * @param vecIndex     Index of the training vector.
+     * @return Squared distance to the closest codebook entry.
+     */
+    private long scanCodebook(final int[] codebookData, final int entryCount, final int vecIndex) {
+        final int vectorOffset = vecIndex * vectorSize;
+        long minDistance = Long.MAX_VALUE;
+        long secondMinDistance = Long.MAX_VALUE;
+        int closestEntryIndex = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            final long distance = distanceKernel.squaredDistance(trainingData, vectorOffset,
+                                                                 codebookData, entry * vectorSize, vectorSize);
+            if (distance < minDistance) {
+                secondMinDistance = minDistance;
+                minDistance = distance;
+                closestEntryIndex = entry;
+            } else if (distance < secondMinDistance) {
+                secondMinDistance = distance;
             }
+        }
+        entryIndices[vecIndex] = closestEntryIndex;
+        entryDistances[vecIndex] = Math.sqrt((double) minDistance);
+        lowerBounds[vecIndex] = (secondMinDistance == Long.MAX_VALUE)
+                ? Double.POSITIVE_INFINITY
+                : Math.sqrt((double) secondMinDistance);
+        return minDistance;
+    }
 
-            if (threadEntryInfo.max[dim] > finalEntryInfo.max[dim]) {
-                finalEntryInfo.max[dim] = threadEntryInfo.max[dim];
+    /**
+     * Calculate half of the distance from every entry to its closest other entry into entryHalfGaps. Vector closer
+     * to its entry than this distance can't be closer to any other entry.
+     *
+     * @param codebookData Flat codebook vectors.
+     * @param entryCount   Number of codebook entries.
+     */
+    private void calculateEntryHalfGaps(final int[] codebookData, final int entryCount) {
+        ParallelExecutor.parallelFor(entryCount, workerCount, (fromIndex, toIndex) -> {
+            for (int entry = fromIndex; entry < toIndex; entry++) {
+                long minDistance = Long.MAX_VALUE;
+                for (int other = 0; other < entryCount; other++) {
+                    if (other == entry) {
+                        continue;
+                    }
+                    final long distance = distanceKernel.squaredDistance(codebookData, entry * vectorSize,
+                                                                         codebookData, other * vectorSize, vectorSize);
+                    if (distance < minDistance) {
+                        minDistance = distance;
+                    }
+                }
+                entryMinDistances[entry] = minDistance;
             }
+        });
+        for (int entry = 0; entry < entryCount; entry++) {
+            entryHalfGaps[entry] = (entryMinDistances[entry] == Long.MAX_VALUE)
+                    ? Double.POSITIVE_INFINITY
+                    : 0.5 * Math.sqrt((double) entryMinDistances[entry]);
         }
     }
 
     /**
-     * Calculate properties (vector count, new centroid, distortion, perturbation vector) for codebook entries.
+     * Copy codebook entry vectors into single array.
      *
-     * @param codebook Vector codebook.
+     * @param codebook     Vector codebook.
+     * @param codebookData Target array for the flat codebook vectors.
      */
-    private void calculateEntryProperties(final LearningCodebookEntry[] codebook) {
-
-        int value;
-        final EntryInfo[] entryInfos = new EntryInfo[codebook.length];
-        for (int i = 0; i < entryInfos.length; i++) {
-            entryInfos[i] = new EntryInfo(vectorSize);
+    private void flattenCodebook(final LearningCodebookEntry[] codebook, final int[] codebookData) {
+        for (int entryIndex = 0; entryIndex < codebook.length; entryIndex++) {
+            System.arraycopy(codebook[entryIndex].getVector(), 0, codebookData, entryIndex * vectorSize, vectorSize);
         }
+    }
 
-        for (final TrainingVector trainingVector : trainingVectors) {
-            final int eIndex = trainingVector.getEntryIndex();
-
-            entryInfos[eIndex].vectorCount += 1;
-            entryInfos[eIndex].distanceSum += trainingVector.getEntryDistance();
-
-            for (int dim = 0; dim < vectorSize; dim++) {
-                value = trainingVector.getVector()[dim];
-
-                entryInfos[eIndex].dimensionSum[dim] += value;
-
-
-                if (value < entryInfos[eIndex].min[dim]) {
-                    entryInfos[eIndex].min[dim] = value;
-                }
-                if (value > entryInfos[eIndex].max[dim]) {
-                    entryInfos[eIndex].max[dim] = value;
-                }
+    /**
+     * Per chunk accumulators of the assignment pass, reused by all iterations.
+     */
+    private static final class ChunkAccumulator {
+        long[] vectorCounts = new long[0];
+        int[] memberCounts = new int[0];
+        long[] dimensionSums = new long[0];
+        double[] distanceSums = new double[0];
+        int[] min = new int[0];
+        int[] max = new int[0];
+        double squaredErrorSum;
+        long scanCount;
+
+        /**
+         * Clear the accumulators of given number of entries, grow them if needed.
+         *
+         * @param entryCount Number of codebook entries.
+         * @param vectorSize Size of the codebook vector.
+         */
+        void reset(final int entryCount, final int vectorSize) {
+            final int elementCount = entryCount * vectorSize;
+            if (vectorCounts.length < entryCount) {
+                vectorCounts = new long[entryCount];
+                memberCounts = new int[entryCount];
+                distanceSums = new double[entryCount];
+                dimensionSums = new long[elementCount];
+                min = new int[elementCount];
+                max = new int[elementCount];
+            } else {
+                Arrays.fill(vectorCounts, 0, entryCount, 0);
+                Arrays.fill(memberCounts, 0, entryCount, 0);
+                Arrays.fill(distanceSums, 0, entryCount, 0.0);
+                Arrays.fill(dimensionSums, 0, elementCount, 0);
+                Arrays.fill(max, 0, elementCount, 0);
             }
-        }
-        for (int i = 0; i < codebook.length; i++) {
-            codebook[i].setInfo(entryInfos[i]);
+            Arrays.fill(min, 0, elementCount, U16.Max);
+            squaredErrorSum = 0.0;
+            scanCount = 0;
         }
     }
 
-
     /**
      * Fix all empty codebook entries.
      *
@@ -726,6 +1429,11 @@ public class LBGVectorQuantizer {
             if (!ableToFix) {
                 break;
             }
+            // Entries and assignments were changed outside of the bounded assignment.
+            boundsValid = false;
+            if (assignmentCallback != null) {
+                assignmentCallback.entryRepaired();
+            }
             emptyEntryIndex = -1;
             for (int i = 0; i < codebook.length; i++) {
                 if (codebook[i].getVectorCount() < 2) {
@@ -748,13 +1456,16 @@ public class LBGVectorQuantizer {
      * @param emptyEntryIndex Index of the empty entry.
      */
     private boolean fixSingleEmptyEntry(final LearningCodebookEntry[] codebook, final int emptyEntryIndex) {
-        // Find biggest partition.
+        // Find biggest partition, which contains at least two different vectors, otherwise the split can't
+        // divide it into two non-empty partitions.
+        final int[] uniqueVectorCounts = entryMemberCounts;
         int largestEntryIndex = emptyEntryIndex;
         int largestEntrySize = codebook[emptyEntryIndex].getVectorCount();
 
         // NOTE(Moravec): We can't select random training vector, because zero vector would create another zero vector.
         for (int i = 0; i < codebook.length; i++) {
-            if ((codebook[i].getVectorCount() > largestEntrySize) && !isZeroVector(codebook[i].getVector())) {
+            if ((codebook[i].getVectorCount() > largestEntrySize) && (uniqueVectorCounts[i] > 1) &&
+                    !isZeroVector(codebook[i].getVector())) {
                 largestEntryIndex = i;
                 largestEntrySize = codebook[i].getVectorCount();
             }
@@ -767,15 +1478,29 @@ public class LBGVectorQuantizer {
         //assert (largestEntryIndex != emptyEntryIndex) : "Unable to find biggest partition.";
         assert (codebook[largestEntryIndex].getVectorCount() > 0) : "Biggest partitions was empty before split";
 
-        // Get training vectors assigned to the largest codebook entry.
-        final TrainingVector[] largestPartitionVectors = getEntryTrainingVectors(largestEntryIndex,
-                                                                                 codebook[largestEntryIndex].getVectorCount());
+        // Previous members of the repaired entry are dropped with its properties, the next assignment is a full
+        // search, which assigns them again.
+        fillMemberIndices();
+        final int droppedFrom = entryMemberFrom[emptyEntryIndex];
+        for (int i = droppedFrom; i < droppedFrom + entryMemberCounts[emptyEntryIndex]; i++) {
+            entryIndices[memberIndices[i]] = -1;
+        }
 
-        // Choose random trainingVector from biggest partition and set it as new entry.
-        final int randomIndex = new Random().nextInt(largestPartitionVectors.length);
+        // Training vectors assigned to the largest codebook entry.
+        final int partitionFrom = entryMemberFrom[largestEntryIndex];
+        final int partitionTo = partitionFrom + entryMemberCounts[largestEntryIndex];
+
+        // Choose random trainingVector from biggest partition and set it as new entry, every vector is chosen
+        // with probability proportional to its weight.
+        int randomWeight = random.nextInt(codebook[largestEntryIndex].getVectorCount());
+        int randomIndex = partitionFrom;
+        while (randomWeight >= trainingWeights[memberIndices[randomIndex]]) {
+            randomWeight -= trainingWeights[memberIndices[randomIndex]];
+            ++randomIndex;
+        }
 
         // Plane the new entry on the index of the empty entry.
-        codebook[emptyEntryIndex] = new LearningCodebookEntry(largestPartitionVectors[randomIndex].getVector());
+        codebook[emptyEntryIndex] = new LearningCodebookEntry(copyTrainingVector(memberIndices[randomIndex]));
 
 
         // Speedup - speed the look for closest entry.
@@ -783,15 +1508,12 @@ public class LBGVectorQuantizer {
         final EntryInfo oldEntryInfo = new EntryInfo(vectorSize);
         final EntryInfo newEntryInfo = new EntryInfo(vectorSize);
 
-        int value, entryIndex;
+        int value, entryIndex, trainingVectorIndex;
         double oldDistance, newDistance, distance;
-        for (int vIndex = 0; vIndex < largestPartitionVectors.length; vIndex++) {
-            oldDistance = VectorQuantizer.distanceBetweenVectors(largestPartitionVectors[vIndex].getVector(),
-                                                                 codebook[largestEntryIndex].getVector(),
-                                                                 metric);
-            newDistance = VectorQuantizer.distanceBetweenVectors(largestPartitionVectors[vIndex].getVector(),
-                                                                 codebook[emptyEntryIndex].getVector(),
-                                                                 metric);
+        for (int vIndex = partitionFrom; vIndex < partitionTo; vIndex++) {
+            trainingVectorIndex = memberIndices[vIndex];
+            oldDistance = distanceToTrainingVector(codebook[largestEntryIndex].getVector(), trainingVectorIndex);
+            newDistance = distanceToTrainingVector(codebook[emptyEntryIndex].getVector(), trainingVectorIndex);
 
             distance = Math.min(oldDistance, newDistance);
 
@@ -813,15 +1535,17 @@ public class LBGVectorQuantizer {
                 entryIndex = largestEntryIndex;
             }
 
-            largestPartitionVectors[vIndex].setEntryInfo(entryIndex, distance);
+            entryIndices[trainingVectorIndex] = entryIndex;
+            entryDistances[trainingVectorIndex] = distance;
 
-            ++closerEntryInfo.vectorCount;
-            closerEntryInfo.distanceSum += distance;
+            final int weight = trainingWeights[trainingVectorIndex];
+            closerEntryInfo.vectorCount += weight;
+            closerEntryInfo.distanceSum += weight * distance;
 
             for (int dim = 0; dim < vectorSize; dim++) {
-                value = largestPartitionVectors[vIndex].getVector()[dim];
+                value = trainingData[(trainingVectorIndex * vectorSize) + dim];
 
-                closerEntryInfo.dimensionSum[dim] += value;
+                closerEntryInfo.dimensionSum[dim] += (double) weight * value;
 
 
                 if (value < closerEntryInfo.min[dim]) {
@@ -835,34 +1559,79 @@ public class LBGVectorQuantizer {
 
         codebook[largestEntryIndex].setInfo(oldEntryInfo);
         codebook[emptyEntryIndex].setInfo(newEntryInfo);
+        splitMembers(largestEntryIndex, emptyEntryIndex);
         return true;
     }
 
     /**
-     * Get training vectors associated with entry index.
-     *
-     * @param entryIndex  Codebook entry index.
-     * @param vectorCount Codebook entry vector count.
-     * @return Array of training vectors.
+     * Fill the member indices of all entries from the last assignment, if they weren't filled yet. Every chunk of
+     * the assignment pass writes its vectors behind the members of the previous chunks.
      */
-    private TrainingVector[] getEntryTrainingVectors(final int entryIndex, final int vectorCount) {
-
-        int index = 0;
-
-        int count = 0;
-        for (final TrainingVector trainingVector : trainingVectors) {
-            if (trainingVector.getEntryIndex() == entryIndex) {
-                ++count;
+    private void fillMemberIndices() {
+        if (membersValid) {
+            return;
+        }
+        final int entryCount = previousEntryCount;
+        final int chunkCount = ParallelExecutor.getChunkCount(trainingVectorCount, workerCount);
+        final int[][] chunkMemberFrom = new int[chunkCount][entryCount];
+        for (int entry = 0; entry < entryCount; entry++) {
+            int memberFrom = entryMemberFrom[entry];
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                chunkMemberFrom[chunk][entry] = memberFrom;
+                memberFrom += chunkAccumulators[chunk].memberCounts[entry];
             }
         }
-        final TrainingVector[] vectors = new TrainingVector[count];
+        ParallelExecutor.forEachChunk(trainingVectorCount, workerCount, (chunkIndex, fromIndex, toIndex) -> {
+            final int[] memberPositions = chunkMemberFrom[chunkIndex];
+            for (int vecIndex = fromIndex; vecIndex < toIndex; vecIndex++) {
+                memberIndices[memberPositions[entryIndices[vecIndex]]++] = vecIndex;
+            }
+        });
+        membersValid = true;
+    }
 
-        for (final TrainingVector trainingVector : trainingVectors) {
-            if (trainingVector.getEntryIndex() == entryIndex) {
-                vectors[index++] = trainingVector;
+    /**
+     * Move the members reassigned by the empty entry repair from the segment of the split entry to its end and
+     * make that part the segment of the repaired entry. Previous members of the repaired entry are dropped from
+     * the index, same as from its properties and entry indices.
+     *
+     * @param splitEntryIndex    Index of the split entry.
+     * @param repairedEntryIndex Index of the repaired entry.
+     */
+    private void splitMembers(final int splitEntryIndex, final int repairedEntryIndex) {
+        final int memberFrom = entryMemberFrom[splitEntryIndex];
+        final int memberTo = memberFrom + entryMemberCounts[splitEntryIndex];
+        final int[] movedMembers = new int[memberTo - memberFrom];
+        int keptCount = 0;
+        int movedCount = 0;
+        for (int i = memberFrom; i < memberTo; i++) {
+            final int vecIndex = memberIndices[i];
+            if (entryIndices[vecIndex] == splitEntryIndex) {
+                memberIndices[memberFrom + keptCount++] = vecIndex;
+            } else {
+                movedMembers[movedCount++] = vecIndex;
             }
         }
-        return vectors;
+        System.arraycopy(movedMembers, 0, memberIndices, memberFrom + keptCount, movedCount);
+        entryMemberCounts[splitEntryIndex] = keptCount;
+        entryMemberFrom[repairedEntryIndex] = memberFrom + keptCount;
+        entryMemberCounts[repairedEntryIndex] = movedCount;
+    }
+
+    /**
+     * Calculate the euclidean distance between codebook entry and training vector.
+     *
+     * @param entryVector         Codebook entry vector.
+     * @param trainingVectorIndex Index of the training vector.
+     * @return Euclidean distance.
+     */
+    private double distanceToTrainingVector(final int[] entryVector, final int trainingVectorIndex) {
+        final int vectorOffset = trainingVectorIndex * vectorSize;
+        double sum = 0.0;
+        for (int dim = 0; dim < vectorSize; dim++) {
+            sum += Math.pow(((double) entryVector[dim] - (double) trainingData[vectorOffset + dim]), 2);
+        }
+        return Math.sqrt(sum);
     }
 
     /**
@@ -11,6 +11,19 @@ public class LearningCodebookEntry {
         this.codebookVector = codebookVector;
     }
 
+    /**
+     * Create codebook entry with the properties restored from the training checkpoint.
+     *
+     * @param codebookVector     Entry vector.
+     * @param vectorCount        Number of associated vectors.
+     * @param perturbationVector Perturbation vector or null.
+     */
+    LearningCodebookEntry(final int[] codebookVector, final int vectorCount, final double[] perturbationVector) {
+        this.codebookVector = codebookVector;
+        this.vectorCount = vectorCount;
+        this.perturbationVector = perturbationVector;
+    }
+
     /**
      * Set codebook entry properties from helper object.
      *
@@ -20,11 +33,12 @@ public class LearningCodebookEntry {
         this.vectorCount = info.vectorCount;
         this.averageDistortion = info.calculateAverageDistortion();
 
-        final int[] newCentroid = info.calculateCentroid();
-        assert (newCentroid.length == codebookVector.length);
-        System.arraycopy(newCentroid, 0, this.codebookVector, 0, newCentroid.length);
+        info.calculateCentroid(this.codebookVector);
 
-        this.perturbationVector = info.calculatePRTVector();
+        if (this.perturbationVector == null) {
+            this.perturbationVector = new double[codebookVector.length];
+        }
+        info.calculatePRTVector(this.perturbationVector);
     }
 
     public int[] getVector() {
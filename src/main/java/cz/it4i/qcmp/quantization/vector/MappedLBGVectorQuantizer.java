@@ -0,0 +1,215 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.compression.listeners.IStatusListener;
+import cz.it4i.qcmp.data.MappedVectorStore;
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * LBG codebook training over the training vectors in {@link MappedVectorStore}, for training sets which don't fit
+ * into the heap.
+ * <p>
+ * LBG iterations are run by {@link StatisticsLBGTrainer}, initial codebook is trained on the random sample of the
+ * stored vectors. Every iteration then scans the whole store in continuous blocks, which are decoded from the 16 bit
+ * values just before their vectors are assigned to the closest entries. Workers process continuous block ranges, so
+ * the file is read sequentially. Entry of every vector is kept in the parallel primitive array, training stops when
+ * the relative MSE improvement drops below epsilon or no vector changes its entry.
+ */
+public class MappedLBGVectorQuantizer implements ICodebookTrainer {
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+    /**
+     * Same epsilon as the final refinement of LBGVectorQuantizer.
+     */
+    private static final double EPSILON = 0.0005;
+
+    /**
+     * Number of vectors decoded at once.
+     */
+    private static final int BLOCK_VECTOR_COUNT = 16384;
+
+    private final MappedVectorStore store;
+    private final int codebookSize;
+    private final int workerCount;
+    private final V3i vectorDimensions;
+    private final int vectorSize;
+
+    /**
+     * Number of vectors which changed their entry in the last assignment.
+     */
+    private long changedVectorCount = -1;
+
+    /**
+     * Index of the closest entry of every stored vector, -1 before the first assignment.
+     */
+    private final int[] entryIndices;
+
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+    private final IDistanceKernel distanceKernel = DistanceKernels.getKernel();
+
+    private IStatusListener statusListener = null;
+
+    /**
+     * Create LBG quantizer of the stored training vectors.
+     *
+     * @param store            Store with the training vectors, it must not be modified during the training.
+     * @param codebookSize     Requested codebook size.
+     * @param workerCount      Number of worker threads.
+     * @param vectorDimensions Dimensions of the quantization vector.
+     */
+    public MappedLBGVectorQuantizer(final MappedVectorStore store,
+                                    final int codebookSize,
+                                    final int workerCount,
+                                    final V3i vectorDimensions) {
+        assert (store.getVectorCount() > 0) : "No training vectors provided";
+        this.store = store;
+        this.codebookSize = codebookSize;
+        this.workerCount = workerCount;
+        this.vectorDimensions = vectorDimensions;
+        this.vectorSize = store.getVectorSize();
+        this.entryIndices = new int[store.getVectorCount()];
+        Arrays.fill(entryIndices, -1);
+    }
+
+    @Override
+    public void setStatusListener(final IStatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    private void reportStatus(final String format, final Object... arg) {
+        if (statusListener != null)
+            statusListener.sendMessage(String.format(format, arg));
+    }
+
+    /**
+     * Set the maximum number of LBG iterations over the store.
+     *
+     * @param maxIterations Maximum number of iterations.
+     */
+    public void setMaxIterations(final int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    @Override
+    public LBGResult findOptimalCodebook() {
+        return findOptimalCodebook(null);
+    }
+
+    /**
+     * Train the codebook. Only the final codebook is passed to the callback.
+     *
+     * @param codebookCallback Callback receiving the trained codebook or null.
+     * @return Result with codebook and its MSE and frequencies over all stored vectors.
+     */
+    @Override
+    public LBGResult findOptimalCodebook(final CodebookFoundCallback codebookCallback) {
+        reportStatus("MappedLBG - Training on %d stored vectors.", store.getVectorCount());
+        final StatisticsLBGTrainer<RuntimeException> trainer =
+                new StatisticsLBGTrainer<>(new StoreVectorSource(), codebookSize, workerCount, vectorDimensions,
+                                           "MappedLBG", maxIterations, EPSILON);
+        trainer.setStatusListener(statusListener);
+        final LBGResult result = trainer.train();
+        if (codebookCallback != null) {
+            codebookCallback.process(result.getCodebook());
+        }
+        return result;
+    }
+
+    /**
+     * Stored vectors as the source of the LBG trainer.
+     */
+    private final class StoreVectorSource implements IStatisticsVectorSource<RuntimeException> {
+        @Override
+        public long getVectorCount() {
+            return store.getVectorCount();
+        }
+
+        @Override
+        public int[] drawSample(final int sampleSize) {
+            return drawStoreSample(sampleSize);
+        }
+
+        @Override
+        public ShardStatistics assignVectors(final int[] codebookData, final int entryCount) {
+            return assignStoredVectors(codebookData);
+        }
+
+        @Override
+        public long getChangedVectorCount() {
+            return changedVectorCount;
+        }
+    }
+
+    /**
+     * Draw random stored vectors. Sample vectors are read in the order of their position in the store.
+     *
+     * @param sampleSize Number of vectors.
+     * @return Flat sample data.
+     */
+    private int[] drawStoreSample(final int sampleSize) {
+        final Random random = new Random();
+        final int[] sampleIndices = new int[sampleSize];
+        for (int i = 0; i < sampleSize; i++) {
+            sampleIndices[i] = random.nextInt(store.getVectorCount());
+        }
+        Arrays.sort(sampleIndices);
+
+        final int[] sampleData = new int[sampleSize * vectorSize];
+        for (int i = 0; i < sampleSize; i++) {
+            store.readVector(sampleIndices[i], sampleData, i * vectorSize);
+        }
+        return sampleData;
+    }
+
+    /**
+     * Assign all stored vectors to the closest codebook entries and count the vectors which changed their entry.
+     *
+     * @param codebookData Flat codebook.
+     * @return Statistics of all vectors.
+     */
+    private ShardStatistics assignStoredVectors(final int[] codebookData) {
+        final int vectorCount = store.getVectorCount();
+        final int blockCount = (vectorCount + BLOCK_VECTOR_COUNT - 1) / BLOCK_VECTOR_COUNT;
+        final int chunkCount = ParallelExecutor.getChunkCount(blockCount, workerCount);
+        final ShardStatistics[] chunkStatistics = new ShardStatistics[chunkCount];
+        final long[] chunkChangedCounts = new long[chunkCount];
+        final PackedCodebook packedCodebook = distanceKernel.packCodebook(codebookData, codebookSize, vectorSize);
+
+        ParallelExecutor.forEachChunk(blockCount, workerCount, (chunkIndex, fromBlock, toBlock) -> {
+            final ShardStatistics statistics = new ShardStatistics(codebookSize, vectorSize);
+            final short[] values = new short[BLOCK_VECTOR_COUNT * vectorSize];
+            final int[] blockData = new int[BLOCK_VECTOR_COUNT * vectorSize];
+            long changed = 0;
+            for (int block = fromBlock; block < toBlock; block++) {
+                final int fromVector = block * BLOCK_VECTOR_COUNT;
+                final int blockVectorCount = Math.min(BLOCK_VECTOR_COUNT, vectorCount - fromVector);
+                store.readBlock(fromVector, blockVectorCount, values, blockData);
+                for (int i = 0; i < blockVectorCount; i++) {
+                    final int offset = i * vectorSize;
+                    final int entry = distanceKernel.findClosestEntry(packedCodebook, blockData, offset);
+                    final long distance = distanceKernel.squaredDistance(blockData, offset, codebookData,
+                                                                         entry * vectorSize, vectorSize);
+                    statistics.add(entry, blockData, offset, 1, distance);
+                    if (entryIndices[fromVector + i] != entry) {
+                        entryIndices[fromVector + i] = entry;
+                        ++changed;
+                    }
+                }
+            }
+            chunkStatistics[chunkIndex] = statistics;
+            chunkChangedCounts[chunkIndex] = changed;
+        });
+
+        final ShardStatistics statistics = new ShardStatistics(codebookSize, vectorSize);
+        changedVectorCount = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            statistics.merge(chunkStatistics[chunk]);
+            changedVectorCount += chunkChangedCounts[chunk];
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,502 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.compression.listeners.IStatusListener;
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.data.WeightedVectorBatch;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
+import cz.it4i.qcmp.utilities.Stopwatch;
+import cz.it4i.qcmp.utilities.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Maximum Descent (MD) codebook training by Chan and Ma.
+ * <p>
+ * Training starts with a single cluster of all training vectors. For every cluster the hyperplane split with the
+ * maximum reduction of the distortion is found and the cluster with the largest reduction is split next, until
+ * the requested number of clusters is reached. Cluster centroids form the codebook. Candidate hyperplanes are
+ * perpendicular to the principal axis of the cluster and to its coordinate axes of the largest variance. Along
+ * every direction the projections are sorted and the reduction n1 * n2 / n * |m1 - m2|^2 of all thresholds is
+ * evaluated in single pass with prefix sums, so the training doesn't iterate over the whole training set like LBG.
+ * <p>
+ * Training vectors are deduplicated and weighted by their occurrence count. Reported MSE and frequencies are
+ * measured by the nearest entry assignment, which is used by the encoder.
+ */
+public class MaximumDescentVectorQuantizer implements ICodebookTrainer {
+    /**
+     * Number of the coordinate axes with the largest variance tried as the split direction.
+     */
+    private static final int AXIS_CANDIDATE_COUNT = 4;
+
+    /**
+     * Number of power iterations approximating the principal axis of the cluster.
+     */
+    private static final int POWER_ITERATIONS = 4;
+
+    /**
+     * Number of cluster members, from which the split directions are evaluated in parallel.
+     */
+    private static final int PARALLEL_SPLIT_THRESHOLD = 4096;
+
+    private final V3i vectorDimensions;
+    private final int vectorSize;
+    private final int codebookSize;
+    private final int workerCount;
+
+    /**
+     * Unique training vectors, vector after vector.
+     */
+    private final int[] trainingData;
+    private final int trainingVectorCount;
+
+    /**
+     * Number of occurrences of every unique training vector.
+     */
+    private final int[] trainingWeights;
+    private final int totalTrainingWeight;
+
+    private final IDistanceKernel distanceKernel = DistanceKernels.getKernel();
+
+    private IStatusListener statusListener = null;
+
+    /**
+     * Cluster of training vectors with its best split.
+     */
+    private static final class Cluster {
+        /**
+         * Indices of the unique training vectors.
+         */
+        final int[] members;
+        final long weight;
+        final double[] sum;
+
+        /**
+         * Distortion reduction of the best split, zero if the cluster can't be split.
+         */
+        double reduction = 0.0;
+
+        /**
+         * Normal of the best split hyperplane or null if the cluster can't be split.
+         */
+        double[] splitDirection = null;
+
+        /**
+         * Sortable key of the largest projection falling into the first part.
+         */
+        int splitKey = 0;
+
+        Cluster(final int[] members, final long weight, final double[] sum) {
+            this.members = members;
+            this.weight = weight;
+            this.sum = sum;
+        }
+    }
+
+    /**
+     * Create Maximum Descent quantizer. Repeated training vectors are merged and weighted by their occurrence count.
+     *
+     * @param vectors          Training vectors.
+     * @param codebookSize     Requested codebook size.
+     * @param workerCount      Number of worker threads.
+     * @param vectorDimensions Dimensions of the quantization vector.
+     */
+    public MaximumDescentVectorQuantizer(final VectorBatch vectors,
+                                         final int codebookSize,
+                                         final int workerCount,
+                                         final V3i vectorDimensions) {
+        assert (vectors.getVectorCount() > 0) : "No training vectors provided";
+        this.vectorDimensions = vectorDimensions;
+        this.vectorSize = vectors.getVectorSize();
+        this.codebookSize = codebookSize;
+        this.workerCount = workerCount;
+
+        final WeightedVectorBatch uniqueVectors = WeightedVectorBatch.deduplicate(vectors);
+        this.trainingData = uniqueVectors.getVectors().getData();
+        this.trainingVectorCount = uniqueVectors.getUniqueVectorCount();
+        this.trainingWeights = uniqueVectors.getWeights();
+        this.totalTrainingWeight = uniqueVectors.getTotalWeight();
+    }
+
+    @Override
+    public void setStatusListener(final IStatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    private void reportStatus(final String format, final Object... arg) {
+        if (statusListener != null)
+            statusListener.sendMessage(String.format(format, arg));
+    }
+
+    @Override
+    public LBGResult findOptimalCodebook() {
+        return findOptimalCodebook(null);
+    }
+
+    @Override
+    public LBGResult findOptimalCodebook(final CodebookFoundCallback codebookCallback) {
+        final Stopwatch stopwatch = Stopwatch.startNew("MaximumDescent::findOptimalCodebook()");
+        reportStatus("MaximumDescent - Training on %d unique vectors out of %d vectors.",
+                     trainingVectorCount, totalTrainingWeight);
+
+        final int[] allMembers = new int[trainingVectorCount];
+        for (int i = 0; i < trainingVectorCount; i++) {
+            allMembers[i] = i;
+        }
+        final Cluster root = createCluster(allMembers);
+        findBestSplit(root);
+
+        final PriorityQueue<Cluster> clusters = new PriorityQueue<>(codebookSize,
+                                                                    (a, b) -> Double.compare(b.reduction, a.reduction));
+        clusters.add(root);
+        while (clusters.size() < codebookSize) {
+            final Cluster cluster = clusters.poll();
+            if (cluster.splitDirection == null) {
+                // No cluster can be split, there is less unique vectors than requested entries.
+                clusters.add(cluster);
+                break;
+            }
+            for (final Cluster part : split(cluster)) {
+                findBestSplit(part);
+                clusters.add(part);
+            }
+
+            final int clusterCount = clusters.size();
+            if ((codebookCallback != null) && (clusterCount < codebookSize) && ((clusterCount & (clusterCount - 1)) == 0)) {
+                final LBGResult levelResult = createResult(clusters, clusterCount);
+                reportStatus("MaximumDescent - Codebook of size %d, MSE: %f  PSNR: %f (dB)",
+                             clusterCount, levelResult.getAverageMse(), levelResult.getPsnr());
+                codebookCallback.process(levelResult.getCodebook());
+            }
+        }
+
+        final LBGResult result = createResult(clusters, codebookSize);
+        stopwatch.stop();
+        reportStatus("MaximumDescent - Finished. MSE: %f  PSNR: %f (dB)", result.getAverageMse(), result.getPsnr());
+        reportStatus(stopwatch.toString());
+
+        if (codebookCallback != null) {
+            codebookCallback.process(result.getCodebook());
+        }
+        return result;
+    }
+
+    /**
+     * Create cluster and calculate its weight and vector sum.
+     *
+     * @param members Indices of the unique training vectors.
+     * @return New cluster.
+     */
+    private Cluster createCluster(final int[] members) {
+        final double[] sum = new double[vectorSize];
+        long weight = 0;
+        for (final int member : members) {
+            final int weightOfMember = trainingWeights[member];
+            final int offset = member * vectorSize;
+            for (int dim = 0; dim < vectorSize; dim++) {
+                sum[dim] += (double) weightOfMember * trainingData[offset + dim];
+            }
+            weight += weightOfMember;
+        }
+        return new Cluster(members, weight, sum);
+    }
+
+    /**
+     * Find the split of the cluster with the maximum distortion reduction among the candidate directions.
+     *
+     * @param cluster Cluster to be evaluated.
+     */
+    private void findBestSplit(final Cluster cluster) {
+        if (cluster.members.length < 2) {
+            return;
+        }
+        final double[][] directions = createCandidateDirections(cluster);
+        final double[] reductions = new double[directions.length];
+        final int[] splitKeys = new int[directions.length];
+
+        final ParallelExecutor.RangeTask evaluateDirections = (fromIndex, toIndex) -> {
+            final long[] keys = new long[cluster.members.length];
+            final double[] prefixSum = new double[vectorSize];
+            for (int i = fromIndex; i < toIndex; i++) {
+                evaluateDirection(cluster, directions[i], keys, prefixSum, reductions, splitKeys, i);
+            }
+        };
+        if (cluster.members.length >= PARALLEL_SPLIT_THRESHOLD) {
+            ParallelExecutor.parallelFor(directions.length, workerCount, evaluateDirections);
+        } else {
+            evaluateDirections.run(0, directions.length);
+        }
+
+        for (int i = 0; i < directions.length; i++) {
+            if (reductions[i] > cluster.reduction) {
+                cluster.reduction = reductions[i];
+                cluster.splitDirection = directions[i];
+                cluster.splitKey = splitKeys[i];
+            }
+        }
+    }
+
+    /**
+     * Create the split directions of the cluster, the coordinate axes of the largest variance and the principal axis.
+     *
+     * @param cluster Cluster of vectors.
+     * @return Unit direction vectors, coordinate axis is stored as single element array with the axis index.
+     */
+    private double[][] createCandidateDirections(final Cluster cluster) {
+        final double[] mean = new double[vectorSize];
+        for (int dim = 0; dim < vectorSize; dim++) {
+            mean[dim] = cluster.sum[dim] / (double) cluster.weight;
+        }
+        final double[] variances = new double[vectorSize];
+        for (final int member : cluster.members) {
+            final int offset = member * vectorSize;
+            for (int dim = 0; dim < vectorSize; dim++) {
+                final double diff = trainingData[offset + dim] - mean[dim];
+                variances[dim] += trainingWeights[member] * diff * diff;
+            }
+        }
+
+        final ArrayList<double[]> directions = new ArrayList<>(AXIS_CANDIDATE_COUNT + 1);
+        final Integer[] axes = new Integer[vectorSize];
+        for (int dim = 0; dim < vectorSize; dim++) {
+            axes[dim] = dim;
+        }
+        Arrays.sort(axes, (a, b) -> Double.compare(variances[b], variances[a]));
+        for (int i = 0; (i < Math.min(AXIS_CANDIDATE_COUNT, vectorSize)) && (variances[axes[i]] > 0.0); i++) {
+            directions.add(new double[]{axes[i]});
+        }
+
+        // Single element vector has only one axis, which is already included.
+        final double[] principalAxis = (vectorSize > 1) ? findPrincipalAxis(cluster, mean, variances) : null;
+        if (principalAxis != null) {
+            directions.add(principalAxis);
+        }
+        return directions.toArray(new double[0][]);
+    }
+
+    /**
+     * Approximate the principal axis of the cluster by the power iteration started from the variance vector.
+     *
+     * @param cluster   Cluster of vectors.
+     * @param mean      Cluster centroid.
+     * @param variances Weighted variances of the coordinates.
+     * @return Unit principal axis or null if the cluster has zero variance.
+     */
+    private double[] findPrincipalAxis(final Cluster cluster, final double[] mean, final double[] variances) {
+        double[] axis = variances.clone();
+        if (!normalize(axis)) {
+            return null;
+        }
+        final double[] centered = new double[vectorSize];
+        for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++) {
+            final double[] nextAxis = new double[vectorSize];
+            for (final int member : cluster.members) {
+                final int offset = member * vectorSize;
+                double projection = 0.0;
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    centered[dim] = trainingData[offset + dim] - mean[dim];
+                    projection += centered[dim] * axis[dim];
+                }
+                projection *= trainingWeights[member];
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    nextAxis[dim] += projection * centered[dim];
+                }
+            }
+            if (!normalize(nextAxis)) {
+                break;
+            }
+            axis = nextAxis;
+        }
+        return axis;
+    }
+
+    private static boolean normalize(final double[] vector) {
+        double norm = 0.0;
+        for (final double value : vector) {
+            norm += value * value;
+        }
+        if (norm <= 0.0) {
+            return false;
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= norm;
+        }
+        return true;
+    }
+
+    /**
+     * Find the threshold along the direction with the maximum distortion reduction. For the first part with
+     * weight n1 and vector sum S1 the reduction is |n * S1 - n1 * S|^2 / (n * n1 * n2).
+     *
+     * @param cluster        Cluster of vectors.
+     * @param direction      Unit split direction.
+     * @param keys           Buffer for the sort keys of the cluster members.
+     * @param prefixSum      Buffer for the vector sum of the first part.
+     * @param reductions     Output array of the reductions.
+     * @param splitKeys      Output array of the split keys.
+     * @param directionIndex Index of the direction in the output arrays.
+     */
+    private void evaluateDirection(final Cluster cluster,
+                                   final double[] direction,
+                                   final long[] keys,
+                                   final double[] prefixSum,
+                                   final double[] reductions,
+                                   final int[] splitKeys,
+                                   final int directionIndex) {
+        final int[] members = cluster.members;
+        for (int i = 0; i < members.length; i++) {
+            keys[i] = ((long) projectionKey(members[i], direction) << 32) | i;
+        }
+        Arrays.sort(keys);
+        Arrays.fill(prefixSum, 0.0);
+
+        final double totalWeight = cluster.weight;
+        long prefixWeight = 0;
+        double bestReduction = 0.0;
+        int bestKey = 0;
+        for (int i = 0; i < members.length - 1; i++) {
+            final int member = members[(int) keys[i]];
+            final int offset = member * vectorSize;
+            final int weight = trainingWeights[member];
+            for (int dim = 0; dim < vectorSize; dim++) {
+                prefixSum[dim] += (double) weight * trainingData[offset + dim];
+            }
+            prefixWeight += weight;
+
+            final int key = (int) (keys[i] >> 32);
+            if (key == (int) (keys[i + 1] >> 32)) {
+                continue;
+            }
+            double distance = 0.0;
+            for (int dim = 0; dim < vectorSize; dim++) {
+                final double diff = (totalWeight * prefixSum[dim]) - (prefixWeight * cluster.sum[dim]);
+                distance += diff * diff;
+            }
+            final double reduction = distance / (totalWeight * prefixWeight * (totalWeight - prefixWeight));
+            if (reduction > bestReduction) {
+                bestReduction = reduction;
+                bestKey = key;
+            }
+        }
+        reductions[directionIndex] = bestReduction;
+        splitKeys[directionIndex] = bestKey;
+    }
+
+    /**
+     * Calculate the sortable key of the training vector projection onto the direction. Projection is rounded
+     * to float and its bits are transformed, so that signed integer order matches the order of projections.
+     *
+     * @param member    Index of the unique training vector.
+     * @param direction Unit direction or single element array with the coordinate axis index.
+     * @return Sortable projection key.
+     */
+    private int projectionKey(final int member, final double[] direction) {
+        final int offset = member * vectorSize;
+        final double projection;
+        if (direction.length == 1) {
+            projection = trainingData[offset + (int) direction[0]];
+        } else {
+            double dot = 0.0;
+            for (int dim = 0; dim < vectorSize; dim++) {
+                dot += trainingData[offset + dim] * direction[dim];
+            }
+            projection = dot;
+        }
+        final int bits = Float.floatToIntBits((float) projection);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    /**
+     * Split the cluster by its best hyperplane.
+     *
+     * @param cluster Cluster with the valid split.
+     * @return Two parts of the cluster.
+     */
+    private Cluster[] split(final Cluster cluster) {
+        final int[] members = cluster.members;
+        final boolean[] inFirstPart = new boolean[members.length];
+        int firstPartSize = 0;
+        for (int i = 0; i < members.length; i++) {
+            inFirstPart[i] = projectionKey(members[i], cluster.splitDirection) <= cluster.splitKey;
+            if (inFirstPart[i]) {
+                ++firstPartSize;
+            }
+        }
+        assert ((firstPartSize > 0) && (firstPartSize < members.length)) : "Invalid cluster split";
+
+        final int[] firstMembers = new int[firstPartSize];
+        final int[] secondMembers = new int[members.length - firstPartSize];
+        int firstIndex = 0;
+        int secondIndex = 0;
+        for (int i = 0; i < members.length; i++) {
+            if (inFirstPart[i]) {
+                firstMembers[firstIndex++] = members[i];
+            } else {
+                secondMembers[secondIndex++] = members[i];
+            }
+        }
+
+        final Cluster firstPart = createCluster(firstMembers);
+        final double[] secondSum = new double[vectorSize];
+        for (int dim = 0; dim < vectorSize; dim++) {
+            secondSum[dim] = cluster.sum[dim] - firstPart.sum[dim];
+        }
+        return new Cluster[]{firstPart, new Cluster(secondMembers, cluster.weight - firstPart.weight, secondSum)};
+    }
+
+    /**
+     * Create the codebook from the cluster centroids and measure its MSE and frequencies by the nearest entry
+     * assignment of the training vectors.
+     *
+     * @param clusters     Current clusters.
+     * @param codebookSize Size of the codebook, missing entries are zero vectors.
+     * @return Training result.
+     */
+    private LBGResult createResult(final Iterable<Cluster> clusters, final int codebookSize) {
+        final int[][] codebook = new int[codebookSize][vectorSize];
+        final int[] codebookData = new int[codebookSize * vectorSize];
+        int entry = 0;
+        for (final Cluster cluster : clusters) {
+            for (int dim = 0; dim < vectorSize; dim++) {
+                codebook[entry][dim] = (int) Math.round(cluster.sum[dim] / (double) cluster.weight);
+                codebookData[(entry * vectorSize) + dim] = codebook[entry][dim];
+            }
+            ++entry;
+        }
+
+        final int chunkCount = ParallelExecutor.getChunkCount(trainingVectorCount, workerCount);
+        final long[][] chunkFrequencies = new long[chunkCount][];
+        final double[] chunkErrors = new double[chunkCount];
+        final PackedCodebook packedCodebook = distanceKernel.packCodebook(codebookData, codebookSize, vectorSize);
+        ParallelExecutor.forEachChunk(trainingVectorCount, workerCount, (chunkIndex, fromIndex, toIndex) -> {
+            final long[] chunkFrequency = new long[codebookSize];
+            double error = 0.0;
+            for (int vecIndex = fromIndex; vecIndex < toIndex; vecIndex++) {
+                final int offset = vecIndex * vectorSize;
+                final int closest = distanceKernel.findClosestEntry(packedCodebook, trainingData, offset);
+                final long distance = distanceKernel.squaredDistance(trainingData, offset, codebookData,
+                                                                     closest * vectorSize, vectorSize);
+                chunkFrequency[closest] += trainingWeights[vecIndex];
+                error += (double) trainingWeights[vecIndex] * distance;
+            }
+            chunkFrequencies[chunkIndex] = chunkFrequency;
+            chunkErrors[chunkIndex] = error;
+        });
+
+        final long[] frequencies = new long[codebookSize];
+        double squaredErrorSum = 0.0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            for (int i = 0; i < codebookSize; i++) {
+                frequencies[i] += chunkFrequencies[chunk][i];
+            }
+            squaredErrorSum += chunkErrors[chunk];
+        }
+        // Same MSE definition as LBGVectorQuantizer, the error per vector.
+        final double mse = squaredErrorSum / (double) totalTrainingWeight;
+        return new LBGResult(vectorDimensions, codebook, frequencies, mse, Utils.calculatePsnr(mse, U16.Max));
+    }
+}
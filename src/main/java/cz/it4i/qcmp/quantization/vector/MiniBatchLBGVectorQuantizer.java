@@ -0,0 +1,300 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.compression.exception.ImageCompressionException;
+import cz.it4i.qcmp.compression.listeners.IStatusListener;
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.quantization.QuantizationResult;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
+import cz.it4i.qcmp.utilities.Stopwatch;
+import cz.it4i.qcmp.utilities.Utils;
+
+/**
+ * Mini-batch variant of the LBG codebook training for training sets, which don't fit into memory.
+ * <p>
+ * Initial codebook is trained by the full LBG on the first batch. Every next batch drawn from the source is
+ * assigned to the closest codebook entries and every entry moves towards the mean of its assigned vectors
+ * by the learning rate m / n, where m is the number of vectors assigned in this batch and n is the number of
+ * vectors assigned to the entry so far. Entry is therefore the running mean of all its vectors, the learning
+ * rate can be bounded from below, so that the codebook keeps adapting to the later batches.
+ * <p>
+ * Convergence is checked after every window of iterations on the fixed validation batch drawn before the training,
+ * so the check doesn't depend on the noise of the training batches. Training stops when the validation MSE improves
+ * less than the convergence epsilon compared to the previous check, or after the maximum number of iterations.
+ * Final MSE and codebook frequencies are measured on separate validation batches.
+ */
+public class MiniBatchLBGVectorQuantizer {
+    public static final int DEFAULT_BATCH_SIZE = 16384;
+    public static final int DEFAULT_MAX_ITERATIONS = 500;
+    public static final double DEFAULT_CONVERGENCE_EPSILON = 0.001;
+    public static final double DEFAULT_MIN_LEARNING_RATE = 0.0;
+
+    /**
+     * Number of iterations between the convergence checks, their batch MSE is averaged for the status report.
+     */
+    private static final int CONVERGENCE_WINDOW = 10;
+
+    /**
+     * Number of batches used to measure the final MSE and frequencies.
+     */
+    private static final int VALIDATION_BATCH_COUNT = 4;
+
+    private final IVectorBatchSource batchSource;
+    private final int codebookSize;
+    private final int workerCount;
+    private final V3i vectorDimensions;
+    private final int vectorSize;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+    private double convergenceEpsilon = DEFAULT_CONVERGENCE_EPSILON;
+    private double minLearningRate = DEFAULT_MIN_LEARNING_RATE;
+
+    private final IDistanceKernel distanceKernel = DistanceKernels.getKernel();
+
+    private IStatusListener statusListener = null;
+
+    /**
+     * Create mini-batch LBG quantizer.
+     *
+     * @param batchSource      Source of training vector batches.
+     * @param codebookSize     Requested codebook size.
+     * @param workerCount      Number of worker threads.
+     * @param vectorDimensions Dimensions of the quantization vector.
+     */
+    public MiniBatchLBGVectorQuantizer(final IVectorBatchSource batchSource,
+                                       final int codebookSize,
+                                       final int workerCount,
+                                       final V3i vectorDimensions) {
+        this.batchSource = batchSource;
+        this.codebookSize = codebookSize;
+        this.workerCount = workerCount;
+        this.vectorDimensions = vectorDimensions;
+        this.vectorSize = (int) vectorDimensions.multiplyTogether();
+    }
+
+    public void setStatusListener(final IStatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    private void reportStatus(final String format, final Object... arg) {
+        if (statusListener != null)
+            statusListener.sendMessage(String.format(format, arg));
+    }
+
+    /**
+     * Set the number of vectors in single batch.
+     *
+     * @param batchSize Batch size.
+     */
+    public void setBatchSize(final int batchSize) {
+        assert (batchSize > 0) : "Invalid batch size";
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the maximum number of batches processed after the initialization.
+     *
+     * @param maxIterations Maximum number of iterations.
+     */
+    public void setMaxIterations(final int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Set the minimum relative improvement of the windowed batch MSE, under which the training stops.
+     *
+     * @param convergenceEpsilon Convergence epsilon.
+     */
+    public void setConvergenceEpsilon(final double convergenceEpsilon) {
+        this.convergenceEpsilon = convergenceEpsilon;
+    }
+
+    /**
+     * Set the lower bound of the per entry learning rate. Zero gives the exact running mean, higher values
+     * give more weight to the later batches.
+     *
+     * @param minLearningRate Learning rate in range [0, 1].
+     */
+    public void setMinLearningRate(final double minLearningRate) {
+        assert (minLearningRate >= 0.0 && minLearningRate <= 1.0) : "Invalid learning rate";
+        this.minLearningRate = minLearningRate;
+    }
+
+    /**
+     * Train the codebook.
+     *
+     * @return Result with codebook and its MSE and frequencies measured on the validation batches.
+     * @throws ImageCompressionException when the training vectors can't be loaded.
+     */
+    public LBGResult findOptimalCodebook() throws ImageCompressionException {
+        final Stopwatch stopwatch = Stopwatch.startNew("MiniBatchLBG::findOptimalCodebook()");
+
+        final VectorBatch initialBatch = batchSource.nextBatch(Math.max(batchSize, codebookSize));
+        final LBGVectorQuantizer initializer = new LBGVectorQuantizer(initialBatch, codebookSize, workerCount, vectorDimensions);
+        final LBGResult initialResult = initializer.findOptimalCodebook();
+        reportStatus("MiniBatchLBG - Initial codebook from %d vectors, MSE: %f  PSNR: %f (dB)",
+                     initialBatch.getVectorCount(), initialResult.getAverageMse(), initialResult.getPsnr());
+
+        final int[] codebookData = initialResult.getCodebook().getVectorData().clone();
+        final double[] entries = new double[codebookData.length];
+        for (int i = 0; i < codebookData.length; i++) {
+            entries[i] = codebookData[i];
+        }
+        // Vectors of the initial batch are already included in the entries.
+        final long[] entryCounts = initialResult.getCodebook().getVectorFrequencies().clone();
+
+        final VectorBatch convergenceBatch = batchSource.nextValidationBatch(batchSize);
+        double previousValidationMse = calculateValidationMse(codebookData, convergenceBatch);
+        final double[] windowMse = new double[CONVERGENCE_WINDOW];
+        int iteration = 0;
+        while (iteration < maxIterations) {
+            final VectorBatch batch = batchSource.nextBatch(batchSize);
+            final double batchMse = updateEntries(batch, codebookData, entries, entryCounts);
+            windowMse[iteration % CONVERGENCE_WINDOW] = batchMse;
+            ++iteration;
+
+            if ((iteration % CONVERGENCE_WINDOW) != 0) {
+                continue;
+            }
+            double windowMean = 0.0;
+            for (final double mse : windowMse) {
+                windowMean += mse;
+            }
+            windowMean /= CONVERGENCE_WINDOW;
+            final double validationMse = calculateValidationMse(codebookData, convergenceBatch);
+            final double improvement = (previousValidationMse - validationMse) / validationMse;
+            reportStatus("MiniBatchLBG - Iteration: %d  Batch MSE: %f  Validation MSE: %f  Improvement: %.5f",
+                         iteration, windowMean, validationMse, improvement);
+            if (improvement < convergenceEpsilon) {
+                break;
+            }
+            previousValidationMse = validationMse;
+        }
+
+        final VQCodebook codebook = new VQCodebook(vectorDimensions, new VectorBatch(codebookData, vectorSize),
+                                                   new long[codebookSize]);
+        final VectorQuantizer quantizer = new VectorQuantizer(codebook);
+        final long[] frequencies = new long[codebookSize];
+        double squaredErrorSum = 0.0;
+        long elementCount = 0;
+        for (int i = 0; i < VALIDATION_BATCH_COUNT; i++) {
+            final QuantizationResult result = quantizer.quantizeWithStatistics(batchSource.nextBatch(batchSize), workerCount);
+            for (int entry = 0; entry < codebookSize; entry++) {
+                frequencies[entry] += result.getHistogram()[entry];
+            }
+            squaredErrorSum += result.getSquaredErrorSum();
+            elementCount += result.getElementCount();
+        }
+        // Same MSE definition as LBGVectorQuantizer, the error per vector.
+        final double mse = (squaredErrorSum / (double) elementCount) * vectorSize;
+        final double psnr = Utils.calculatePsnr(mse, U16.Max);
+
+        stopwatch.stop();
+        reportStatus("MiniBatchLBG - Finished after %d iterations. Validation MSE: %f  PSNR: %f (dB)", iteration, mse, psnr);
+        reportStatus(stopwatch.toString());
+        return new LBGResult(vectorDimensions, codebook.getVectors(), frequencies, mse, psnr);
+    }
+
+    /**
+     * Calculate the MSE of the codebook on the validation batch.
+     *
+     * @param codebookData Rounded codebook entries.
+     * @param batch        Validation batch.
+     * @return MSE, error per vector.
+     */
+    private double calculateValidationMse(final int[] codebookData, final VectorBatch batch) {
+        final int[] batchData = batch.getData();
+        final int vectorCount = batch.getVectorCount();
+        final int chunkCount = ParallelExecutor.getChunkCount(vectorCount, workerCount);
+        final double[] chunkErrors = new double[chunkCount];
+        final PackedCodebook packedCodebook = distanceKernel.packCodebook(codebookData, codebookSize, vectorSize);
+
+        ParallelExecutor.forEachChunk(vectorCount, workerCount, (chunkIndex, fromIndex, toIndex) -> {
+            double error = 0.0;
+            for (int vectorIndex = fromIndex; vectorIndex < toIndex; vectorIndex++) {
+                final int vectorOffset = vectorIndex * vectorSize;
+                final int entry = distanceKernel.findClosestEntry(packedCodebook, batchData, vectorOffset);
+                error += distanceKernel.squaredDistance(batchData, vectorOffset, codebookData, entry * vectorSize, vectorSize);
+            }
+            chunkErrors[chunkIndex] = error;
+        });
+
+        double errorSum = 0.0;
+        for (final double chunkError : chunkErrors) {
+            errorSum += chunkError;
+        }
+        return errorSum / (double) vectorCount;
+    }
+
+    /**
+     * Assign batch vectors to the closest entries and move the entries towards the means of assigned vectors.
+     *
+     * @param batch        Batch of training vectors.
+     * @param codebookData Rounded codebook entries used for the assignment, updated after the step.
+     * @param entries      Codebook entries in full precision.
+     * @param entryCounts  Number of vectors assigned to every entry so far.
+     * @return MSE of the batch before the update, error per vector.
+     */
+    private double updateEntries(final VectorBatch batch,
+                                 final int[] codebookData,
+                                 final double[] entries,
+                                 final long[] entryCounts) {
+        final int[] batchData = batch.getData();
+        final int vectorCount = batch.getVectorCount();
+        final int chunkCount = ParallelExecutor.getChunkCount(vectorCount, workerCount);
+        final double[][] chunkSums = new double[chunkCount][];
+        final long[][] chunkCounts = new long[chunkCount][];
+        final double[] chunkErrors = new double[chunkCount];
+        final PackedCodebook packedCodebook = distanceKernel.packCodebook(codebookData, codebookSize, vectorSize);
+
+        ParallelExecutor.forEachChunk(vectorCount, workerCount, (chunkIndex, fromIndex, toIndex) -> {
+            final double[] sums = new double[codebookSize * vectorSize];
+            final long[] counts = new long[codebookSize];
+            double error = 0.0;
+            for (int vectorIndex = fromIndex; vectorIndex < toIndex; vectorIndex++) {
+                final int vectorOffset = vectorIndex * vectorSize;
+                final int entry = distanceKernel.findClosestEntry(packedCodebook, batchData, vectorOffset);
+                error += distanceKernel.squaredDistance(batchData, vectorOffset, codebookData, entry * vectorSize, vectorSize);
+                ++counts[entry];
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    sums[(entry * vectorSize) + dim] += batchData[vectorOffset + dim];
+                }
+            }
+            chunkSums[chunkIndex] = sums;
+            chunkCounts[chunkIndex] = counts;
+            chunkErrors[chunkIndex] = error;
+        });
+
+        double errorSum = 0.0;
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            for (int i = 0; i < codebookSize * vectorSize; i++) {
+                chunkSums[0][i] += chunkSums[chunk][i];
+            }
+            for (int entry = 0; entry < codebookSize; entry++) {
+                chunkCounts[0][entry] += chunkCounts[chunk][entry];
+            }
+        }
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            errorSum += chunkErrors[chunk];
+        }
+
+        final double[] sums = chunkSums[0];
+        final long[] counts = chunkCounts[0];
+        for (int entry = 0; entry < codebookSize; entry++) {
+            if (counts[entry] == 0) {
+                continue;
+            }
+            entryCounts[entry] += counts[entry];
+            final double learningRate = Math.max((double) counts[entry] / (double) entryCounts[entry], minLearningRate);
+            for (int dim = 0; dim < vectorSize; dim++) {
+                final int index = (entry * vectorSize) + dim;
+                final double batchMean = sums[index] / (double) counts[entry];
+                entries[index] += learningRate * (batchMean - entries[index]);
+                codebookData[index] = (int) Math.round(entries[index]);
+            }
+        }
+        return errorSum / (double) vectorCount;
+    }
+}
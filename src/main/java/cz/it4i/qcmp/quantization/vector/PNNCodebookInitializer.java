@@ -0,0 +1,219 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.kdtree.KDTree;
+import cz.it4i.qcmp.kdtree.KDTreeBuilder;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Pairwise nearest neighbour (PNN) codebook initialization with the KD-tree acceleration by Equitz.
+ * <p>
+ * Every unique training vector starts as a cluster. Clusters are repeatedly merged in pairs, the cost of merging
+ * clusters i and j is the increase of the distortion n_i * n_j / (n_i + n_j) * |c_i - c_j|^2. Instead of
+ * searching the globally cheapest pair, cluster centroids are partitioned by the KD-tree and every cluster looks
+ * for its cheapest partner only in its bucket. Cheapest of these pairs, at most MERGE_FRACTION of clusters, are
+ * merged in single pass, then the tree is rebuilt from the new centroids. Cluster centroids form the initial
+ * codebook, which is then refined by LBG.
+ */
+class PNNCodebookInitializer {
+    /**
+     * Size of the KD-tree bucket, in which the merge partners are searched.
+     */
+    private static final int BUCKET_SIZE = 16;
+
+    /**
+     * Maximum fraction of clusters merged in single pass.
+     */
+    private static final double MERGE_FRACTION = 0.5;
+
+    private final int vectorSize;
+    private final int workerCount;
+
+    /**
+     * Weighted sums of cluster vectors, cluster after cluster.
+     */
+    private double[] clusterSums;
+
+    /**
+     * Weighted number of vectors of every cluster.
+     */
+    private long[] clusterCounts;
+    private int clusterCount;
+
+    /**
+     * Create initializer with every unique training vector as single cluster.
+     *
+     * @param trainingData    Unique training vectors, vector after vector.
+     * @param trainingWeights Number of occurrences of every unique vector.
+     * @param vectorSize      Size of the training vector.
+     * @param workerCount     Number of worker threads.
+     */
+    PNNCodebookInitializer(final int[] trainingData,
+                           final int[] trainingWeights,
+                           final int vectorSize,
+                           final int workerCount) {
+        this.vectorSize = vectorSize;
+        this.workerCount = workerCount;
+        this.clusterCount = trainingWeights.length;
+        this.clusterCounts = new long[clusterCount];
+        this.clusterSums = new double[clusterCount * vectorSize];
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            final int weight = trainingWeights[cluster];
+            clusterCounts[cluster] = weight;
+            for (int dim = 0; dim < vectorSize; dim++) {
+                clusterSums[(cluster * vectorSize) + dim] = (double) weight * trainingData[(cluster * vectorSize) + dim];
+            }
+        }
+    }
+
+    /**
+     * Merge clusters until the requested number of clusters remains.
+     *
+     * @param targetClusterCount Requested number of clusters.
+     */
+    void reduceTo(final int targetClusterCount) {
+        assert (targetClusterCount > 0) : "Invalid cluster count";
+        while (clusterCount > targetClusterCount) {
+            final int maxMerges = Math.min(clusterCount - targetClusterCount,
+                                           Math.max(1, (int) (clusterCount * MERGE_FRACTION)));
+            final int mergeCount = mergePass(maxMerges);
+            if (mergeCount == 0) {
+                // Buckets don't contain any pair, search the partners among all clusters.
+                mergePass(maxMerges, createSingleBucket());
+            }
+        }
+    }
+
+    /**
+     * Get the rounded cluster centroids.
+     *
+     * @return Codebook vectors.
+     */
+    int[][] getCodebook() {
+        final int[][] codebook = new int[clusterCount][vectorSize];
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            for (int dim = 0; dim < vectorSize; dim++) {
+                codebook[cluster][dim] = (int) Math.round(clusterSums[(cluster * vectorSize) + dim] /
+                                                                  (double) clusterCounts[cluster]);
+            }
+        }
+        return codebook;
+    }
+
+    private ArrayList<int[]> createSingleBucket() {
+        final int[] indices = new int[clusterCount];
+        for (int i = 0; i < clusterCount; i++) {
+            indices[i] = i;
+        }
+        final ArrayList<int[]> buckets = new ArrayList<>(1);
+        buckets.add(indices);
+        return buckets;
+    }
+
+    /**
+     * Partition the clusters by the KD-tree of their centroids and merge the cheapest bucket pairs.
+     *
+     * @param maxMerges Maximum number of merges.
+     * @return Number of merged pairs.
+     */
+    private int mergePass(final int maxMerges) {
+        final KDTree tree = new KDTreeBuilder(vectorSize, BUCKET_SIZE).buildTree(getCodebook());
+        return mergePass(maxMerges, tree.getBuckets());
+    }
+
+    /**
+     * Find the cheapest merge partner of every cluster in its bucket and merge the cheapest pairs.
+     *
+     * @param maxMerges Maximum number of merges.
+     * @param buckets   Cluster indices of the buckets.
+     * @return Number of merged pairs.
+     */
+    private int mergePass(final int maxMerges, final ArrayList<int[]> buckets) {
+        final int[] partners = new int[clusterCount];
+        final double[] costs = new double[clusterCount];
+        Arrays.fill(partners, -1);
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+
+        ParallelExecutor.parallelFor(buckets.size(), workerCount, (fromIndex, toIndex) -> {
+            for (int bucketIndex = fromIndex; bucketIndex < toIndex; bucketIndex++) {
+                final int[] bucket = buckets.get(bucketIndex);
+                for (int i = 0; i < bucket.length; i++) {
+                    for (int j = i + 1; j < bucket.length; j++) {
+                        final double cost = mergeCost(bucket[i], bucket[j]);
+                        if (cost < costs[bucket[i]]) {
+                            costs[bucket[i]] = cost;
+                            partners[bucket[i]] = bucket[j];
+                        }
+                        if (cost < costs[bucket[j]]) {
+                            costs[bucket[j]] = cost;
+                            partners[bucket[j]] = bucket[i];
+                        }
+                    }
+                }
+            }
+        });
+
+        final double[] sortedCosts = costs.clone();
+        Arrays.sort(sortedCosts);
+        final double costThreshold = sortedCosts[Math.min(maxMerges, clusterCount) - 1];
+
+        final boolean[] merged = new boolean[clusterCount];
+        int mergeCount = 0;
+        for (int cluster = 0; (cluster < clusterCount) && (mergeCount < maxMerges); cluster++) {
+            final int partner = partners[cluster];
+            if ((partner < 0) || (costs[cluster] > costThreshold) || merged[cluster] || merged[partner]) {
+                continue;
+            }
+            // Partner cluster is added to this cluster and marked as merged.
+            clusterCounts[cluster] += clusterCounts[partner];
+            for (int dim = 0; dim < vectorSize; dim++) {
+                clusterSums[(cluster * vectorSize) + dim] += clusterSums[(partner * vectorSize) + dim];
+            }
+            merged[cluster] = true;
+            merged[partner] = true;
+            clusterCounts[partner] = 0;
+            ++mergeCount;
+        }
+        removeMergedClusters();
+        return mergeCount;
+    }
+
+    /**
+     * Calculate the distortion increase caused by merging two clusters.
+     *
+     * @param a First cluster.
+     * @param b Second cluster.
+     * @return Merge cost.
+     */
+    private double mergeCost(final int a, final int b) {
+        final double countA = clusterCounts[a];
+        final double countB = clusterCounts[b];
+        double distance = 0.0;
+        for (int dim = 0; dim < vectorSize; dim++) {
+            final double diff = (clusterSums[(a * vectorSize) + dim] / countA) -
+                    (clusterSums[(b * vectorSize) + dim] / countB);
+            distance += diff * diff;
+        }
+        return ((countA * countB) / (countA + countB)) * distance;
+    }
+
+    /**
+     * Compact cluster arrays by removing the clusters with zero count.
+     */
+    private void removeMergedClusters() {
+        int newCount = 0;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            if (clusterCounts[cluster] == 0) {
+                continue;
+            }
+            if (newCount != cluster) {
+                clusterCounts[newCount] = clusterCounts[cluster];
+                System.arraycopy(clusterSums, cluster * vectorSize, clusterSums, newCount * vectorSize, vectorSize);
+            }
+            ++newCount;
+        }
+        clusterCount = newCount;
+    }
+}
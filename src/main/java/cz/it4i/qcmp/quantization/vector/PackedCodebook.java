@@ -0,0 +1,97 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Codebook prepared by {@link IDistanceKernel#packCodebook(int[], int, int)} for repeated closest entry searches.
+ * <p>
+ * Blocked codebook stores the entries in blocks of blockLength entries transposed to the structure of arrays, so
+ * single SIMD register holds the same element of all entries of the block:
+ * blockData[((block * vectorSize) + dim) * blockLength + lane] is element dim of entry block * blockLength + lane.
+ * Last block is padded by copies of the last entry, which never win the lower index tie-break.
+ */
+public final class PackedCodebook {
+    private final int[] codebookData;
+    private final int codebookSize;
+    private final int vectorSize;
+
+    /**
+     * Number of entries in single block, 0 if the codebook isn't blocked.
+     */
+    private final int blockLength;
+    private final double[] blockData;
+
+    /**
+     * Create codebook without the blocked layout.
+     *
+     * @param codebookData Flat codebook vectors, entry after entry.
+     * @param codebookSize Number of codebook entries.
+     * @param vectorSize   Number of elements of single vector.
+     */
+    public PackedCodebook(final int[] codebookData, final int codebookSize, final int vectorSize) {
+        this(codebookData, codebookSize, vectorSize, 0);
+    }
+
+    /**
+     * Create codebook with the blocked layout.
+     *
+     * @param codebookData Flat codebook vectors, entry after entry.
+     * @param codebookSize Number of codebook entries.
+     * @param vectorSize   Number of elements of single vector.
+     * @param blockLength  Number of entries in single block, 0 for no blocked layout.
+     */
+    public PackedCodebook(final int[] codebookData, final int codebookSize, final int vectorSize, final int blockLength) {
+        assert (codebookSize > 0 && codebookData.length >= codebookSize * vectorSize) : "Invalid codebook";
+        this.codebookData = codebookData;
+        this.codebookSize = codebookSize;
+        this.vectorSize = vectorSize;
+        this.blockLength = blockLength;
+        this.blockData = (blockLength > 0) ? createBlockData() : null;
+    }
+
+    private double[] createBlockData() {
+        final int blockCount = getBlockCount();
+        final double[] data = new double[blockCount * vectorSize * blockLength];
+        for (int block = 0; block < blockCount; block++) {
+            for (int lane = 0; lane < blockLength; lane++) {
+                final int entry = Math.min((block * blockLength) + lane, codebookSize - 1);
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    data[(((block * vectorSize) + dim) * blockLength) + lane] = codebookData[(entry * vectorSize) + dim];
+                }
+            }
+        }
+        return data;
+    }
+
+    public int[] getCodebookData() {
+        return codebookData;
+    }
+
+    public int getCodebookSize() {
+        return codebookSize;
+    }
+
+    public int getVectorSize() {
+        return vectorSize;
+    }
+
+    public int getBlockLength() {
+        return blockLength;
+    }
+
+    /**
+     * Get the number of entry blocks, including the padded last block.
+     *
+     * @return Block count or 0 if the codebook isn't blocked.
+     */
+    public int getBlockCount() {
+        return (blockLength > 0) ? (codebookSize + blockLength - 1) / blockLength : 0;
+    }
+
+    /**
+     * Get the codebook transposed to the blocks.
+     *
+     * @return Block data or null if the codebook isn't blocked.
+     */
+    public double[] getBlockData() {
+        return blockData;
+    }
+}
@@ -0,0 +1,123 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import java.util.Arrays;
+
+/**
+ * Exact Euclidean nearest codebook entry search.
+ * <p>
+ * Squared distances are compared in integer arithmetic and codebook entry is abandoned as soon as its partial
+ * distance exceeds the current best distance. Entries can be scanned in descending frequency order, so that
+ * good bound is found early. Ties are always resolved in favor of the lower codebook index, therefore the result
+ * is the same as of the brute-force search.
+ */
+public class PartialDistanceSearch implements ICodebookSearch {
+    /**
+     * Codebook vectors stored entry after entry.
+     */
+    private final int[] codebookData;
+    private final int vectorSize;
+
+    /**
+     * Order in which the codebook entries are visited.
+     */
+    private final int[] searchOrder;
+
+    /**
+     * Create search engine, which visits codebook entries in the index order.
+     *
+     * @param codebookData Flat codebook vectors.
+     * @param vectorSize   Size of single codebook vector.
+     */
+    public PartialDistanceSearch(final int[] codebookData, final int vectorSize) {
+        this(codebookData, vectorSize, null);
+    }
+
+    /**
+     * Create search engine, which visits codebook entries in descending frequency order.
+     *
+     * @param codebookData Flat codebook vectors.
+     * @param vectorSize   Size of single codebook vector.
+     * @param frequencies  Frequencies of codebook vectors, if null entries are visited in the index order.
+     */
+    public PartialDistanceSearch(final int[] codebookData, final int vectorSize, final long[] frequencies) {
+        assert (codebookData.length > 0 && codebookData.length % vectorSize == 0) : "Invalid codebook";
+        this.codebookData = codebookData;
+        this.vectorSize = vectorSize;
+        this.searchOrder = createSearchOrder(codebookData.length / vectorSize, frequencies);
+    }
+
+    /**
+     * Create order of codebook entries sorted by descending frequency. Entries with same frequency are kept in
+     * the index order.
+     *
+     * @param codebookSize Number of codebook entries.
+     * @param frequencies  Frequencies of codebook entries or null.
+     * @return Entry indices in search order.
+     */
+    private static int[] createSearchOrder(final int codebookSize, final long[] frequencies) {
+        final int[] order = new int[codebookSize];
+        for (int i = 0; i < codebookSize; i++) {
+            order[i] = i;
+        }
+        if ((frequencies == null) || (frequencies.length != codebookSize)) {
+            return order;
+        }
+
+        final Integer[] boxedOrder = new Integer[codebookSize];
+        for (int i = 0; i < codebookSize; i++) {
+            boxedOrder[i] = i;
+        }
+        // Arrays.sort of objects is stable, so entries of equal frequency stay in the index order.
+        Arrays.sort(boxedOrder, (a, b) -> Long.compare(frequencies[b], frequencies[a]));
+        for (int i = 0; i < codebookSize; i++) {
+            order[i] = boxedOrder[i];
+        }
+        return order;
+    }
+
+    @Override
+    public int findClosestEntryIndex(final int[] vectorData, final int offset) {
+        long minDistance = Long.MAX_VALUE;
+        int closestEntryIndex = 0;
+
+        for (final int entryIndex : searchOrder) {
+            final int entryOffset = entryIndex * vectorSize;
+            long distance = 0;
+            int dim = 0;
+            for (; dim < vectorSize; dim++) {
+                final long diff = vectorData[offset + dim] - codebookData[entryOffset + dim];
+                distance += diff * diff;
+                if (distance > minDistance) {
+                    break;
+                }
+            }
+            // Entry was abandoned before all dimensions were summed.
+            if (dim != vectorSize) {
+                continue;
+            }
+
+            if ((distance < minDistance) || (entryIndex < closestEntryIndex)) {
+                minDistance = distance;
+                closestEntryIndex = entryIndex;
+            }
+        }
+        return closestEntryIndex;
+    }
+
+    /**
+     * Calculate the squared euclidean distance between two vectors.
+     *
+     * @param v1 First vector.
+     * @param v2 Second vector.
+     * @return Squared euclidean distance.
+     */
+    public static long squaredDistance(final int[] v1, final int[] v2) {
+        assert (v1.length == v2.length);
+        long sum = 0;
+        for (int i = 0; i < v1.length; i++) {
+            final long diff = v1[i] - v2[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,15 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Factory of the platform specific distance kernel. This is the Java 8 version, multi-release build replaces it
+ * with the version from src/main/java17, which can use the Vector API.
+ */
+final class PlatformDistanceKernel {
+
+    private PlatformDistanceKernel() {
+    }
+
+    static IDistanceKernel create() {
+        return new ScalarDistanceKernel();
+    }
+}
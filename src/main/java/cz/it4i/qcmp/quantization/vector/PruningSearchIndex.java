@@ -0,0 +1,350 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Precomputed structure for the exact Euclidean nearest codebook entry search.
+ * <p>
+ * Index holds norms of the codebook entries sorted in ascending order and for every entry the list of other
+ * entries sorted by their distance from it. Search starts at the entry with the closest norm and follows
+ * Orchard's method: neighbours of the current best entry are visited in the order of their distance and the
+ * scan stops once the neighbour is further than twice the current best distance, since no such entry can be
+ * closer to the query. Remaining candidates are eliminated by the norm difference bound |x| - |c| <= |x - c|
+ * and by the partial distance evaluation.
+ * <p>
+ * Result is the same as of the brute-force search, including the tie resolution in favor of the lower index.
+ * Index is immutable and can be shared by multiple threads.
+ */
+public class PruningSearchIndex implements ICodebookSearch {
+    /**
+     * Maximum length of the neighbour list of single codebook entry.
+     */
+    private static final int MAX_NEIGHBOUR_COUNT = 512;
+
+    /**
+     * Safety margin for comparison of floating point norms.
+     */
+    private static final double NORM_EPSILON = 1e-6;
+
+    /**
+     * Codebook vectors stored entry after entry.
+     */
+    private final int[] codebookData;
+    private final int codebookSize;
+    private final int vectorSize;
+
+    /**
+     * Euclidean norms of codebook entries.
+     */
+    private final double[] norms;
+
+    /**
+     * Codebook entry indices sorted by ascending norm.
+     */
+    private final int[] normOrder;
+
+    /**
+     * Norms in ascending order, sortedNorms[i] = norms[normOrder[i]].
+     */
+    private final double[] sortedNorms;
+
+    /**
+     * Number of neighbours stored for every codebook entry.
+     */
+    private final int neighbourCount;
+
+    /**
+     * Flattened neighbour lists, neighbours of entry i are at [i * neighbourCount, (i + 1) * neighbourCount).
+     */
+    private final int[] neighbours;
+
+    /**
+     * Squared distances to the neighbours in the same layout as neighbours.
+     */
+    private final long[] neighbourDistances;
+
+    /**
+     * Per thread marks of the entries, which were already evaluated for the current query.
+     */
+    private final ThreadLocal<VisitMarks> visitMarks;
+
+    private final LongAdder queryCounter = new LongAdder();
+    private final LongAdder distanceEvaluationCounter = new LongAdder();
+
+    private static class VisitMarks {
+        final int[] marks;
+        int stamp = 0;
+
+        VisitMarks(final int codebookSize) {
+            marks = new int[codebookSize];
+        }
+
+        int nextStamp() {
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                stamp = 1;
+            }
+            return stamp;
+        }
+    }
+
+    /**
+     * Build the search index for the codebook.
+     *
+     * @param codebookData Flat codebook vectors.
+     * @param vectorSize   Size of single codebook vector.
+     */
+    public PruningSearchIndex(final int[] codebookData, final int vectorSize) {
+        assert (codebookData.length > 0 && codebookData.length % vectorSize == 0) : "Invalid codebook";
+        this.codebookData = codebookData;
+        this.codebookSize = codebookData.length / vectorSize;
+        this.vectorSize = vectorSize;
+
+        norms = new double[codebookSize];
+        for (int i = 0; i < codebookSize; i++) {
+            norms[i] = norm(codebookData, i * vectorSize, vectorSize);
+        }
+        normOrder = sortIndices(codebookSize, (a, b) -> Double.compare(norms[a], norms[b]));
+        sortedNorms = new double[codebookSize];
+        for (int i = 0; i < codebookSize; i++) {
+            sortedNorms[i] = norms[normOrder[i]];
+        }
+
+        neighbourCount = Math.min(codebookSize - 1, MAX_NEIGHBOUR_COUNT);
+        neighbours = new int[codebookSize * neighbourCount];
+        neighbourDistances = new long[codebookSize * neighbourCount];
+        buildNeighbourLists();
+
+        visitMarks = ThreadLocal.withInitial(() -> new VisitMarks(codebookSize));
+    }
+
+    private void buildNeighbourLists() {
+        if (neighbourCount == 0) {
+            return;
+        }
+        final long[] distances = new long[codebookSize];
+        for (int entry = 0; entry < codebookSize; entry++) {
+            for (int other = 0; other < codebookSize; other++) {
+                distances[other] = boundedDistance(codebookData, entry * vectorSize, other, Long.MAX_VALUE);
+            }
+            final int self = entry;
+            final int[] order = sortIndices(codebookSize, (a, b) -> {
+                // Entry itself is always placed last, so it is cut off from the list.
+                if (a == self || b == self) {
+                    return Boolean.compare(a == self, b == self);
+                }
+                return Long.compare(distances[a], distances[b]);
+            });
+
+            final int listOffset = entry * neighbourCount;
+            for (int i = 0; i < neighbourCount; i++) {
+                neighbours[listOffset + i] = order[i];
+                neighbourDistances[listOffset + i] = distances[order[i]];
+            }
+        }
+    }
+
+    private interface IndexComparator {
+        int compare(final int a, final int b);
+    }
+
+    private static int[] sortIndices(final int count, final IndexComparator comparator) {
+        final Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, comparator::compare);
+        final int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = boxed[i];
+        }
+        return result;
+    }
+
+    private static double norm(final int[] data, final int offset, final int size) {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            final long value = data[offset + i];
+            sum += value * value;
+        }
+        return Math.sqrt((double) sum);
+    }
+
+    /**
+     * Find position in sortedNorms with the norm closest to the given norm.
+     */
+    private int findClosestNormPosition(final double queryNorm) {
+        final int insertion = Arrays.binarySearch(sortedNorms, queryNorm);
+        if (insertion >= 0) {
+            return insertion;
+        }
+        final int upper = -(insertion + 1);
+        if (upper == 0) {
+            return 0;
+        }
+        if (upper == codebookSize) {
+            return codebookSize - 1;
+        }
+        return ((queryNorm - sortedNorms[upper - 1]) <= (sortedNorms[upper] - queryNorm)) ? upper - 1 : upper;
+    }
+
+    /**
+     * Calculate the squared distance with early exit.
+     *
+     * @return Squared distance or -1 if the distance exceeds the bound.
+     */
+    private long boundedDistance(final int[] vectorData, final int offset, final int entryIndex, final long bound) {
+        final int entryOffset = entryIndex * vectorSize;
+        long distance = 0;
+        for (int dim = 0; dim < vectorSize; dim++) {
+            final long diff = vectorData[offset + dim] - codebookData[entryOffset + dim];
+            distance += diff * diff;
+            if (distance > bound) {
+                return -1;
+            }
+        }
+        return distance;
+    }
+
+    private boolean canBeSkippedByNorm(final double queryNorm, final int entryIndex, final double bestDistanceSqrt) {
+        return (Math.abs(queryNorm - norms[entryIndex]) - NORM_EPSILON) > bestDistanceSqrt;
+    }
+
+    @Override
+    public int findClosestEntryIndex(final int[] vectorData, final int offset) {
+        final VisitMarks visit = visitMarks.get();
+        final int stamp = visit.nextStamp();
+        final int[] marks = visit.marks;
+
+        final double queryNorm = norm(vectorData, offset, vectorSize);
+        final int startPosition = findClosestNormPosition(queryNorm);
+
+        int bestIndex = normOrder[startPosition];
+        long bestDistance = boundedDistance(vectorData, offset, bestIndex, Long.MAX_VALUE);
+        marks[bestIndex] = stamp;
+        long evaluations = 1;
+
+        boolean improved = true;
+        boolean listExhausted = false;
+        while (improved) {
+            improved = false;
+            listExhausted = true;
+            final long stopDistance = 4 * bestDistance;
+            final double bestDistanceSqrt = Math.sqrt((double) bestDistance);
+            final int listOffset = bestIndex * neighbourCount;
+
+            for (int i = 0; i < neighbourCount; i++) {
+                // |c - n| > 2|x - c| implies |x - n| > |x - c|, so no further neighbour can win.
+                if (neighbourDistances[listOffset + i] > stopDistance) {
+                    listExhausted = false;
+                    break;
+                }
+                final int candidate = neighbours[listOffset + i];
+                if ((marks[candidate] == stamp) || canBeSkippedByNorm(queryNorm, candidate, bestDistanceSqrt)) {
+                    continue;
+                }
+                marks[candidate] = stamp;
+                ++evaluations;
+
+                final long distance = boundedDistance(vectorData, offset, candidate, bestDistance);
+                if ((distance >= 0) && ((distance < bestDistance) || (candidate < bestIndex))) {
+                    bestDistance = distance;
+                    bestIndex = candidate;
+                    improved = true;
+                    break;
+                }
+            }
+        }
+
+        // Neighbour list was too short to prove the result, finish with the norm ordered scan.
+        if (listExhausted && (neighbourCount < codebookSize - 1)) {
+            final double bestDistanceSqrt = Math.sqrt((double) bestDistance);
+            int low = startPosition - 1;
+            int high = startPosition + 1;
+            while (low >= 0 || high < codebookSize) {
+                if (low >= 0) {
+                    final int candidate = normOrder[low--];
+                    if (canBeSkippedByNorm(queryNorm, candidate, bestDistanceSqrt)) {
+                        low = -1;
+                    } else if (marks[candidate] != stamp) {
+                        marks[candidate] = stamp;
+                        ++evaluations;
+                        final long distance = boundedDistance(vectorData, offset, candidate, bestDistance);
+                        if ((distance >= 0) && ((distance < bestDistance) || (candidate < bestIndex))) {
+                            bestDistance = distance;
+                            bestIndex = candidate;
+                        }
+                    }
+                }
+                if (high < codebookSize) {
+                    final int candidate = normOrder[high++];
+                    if (canBeSkippedByNorm(queryNorm, candidate, bestDistanceSqrt)) {
+                        high = codebookSize;
+                    } else if (marks[candidate] != stamp) {
+                        marks[candidate] = stamp;
+                        ++evaluations;
+                        final long distance = boundedDistance(vectorData, offset, candidate, bestDistance);
+                        if ((distance >= 0) && ((distance < bestDistance) || (candidate < bestIndex))) {
+                            bestDistance = distance;
+                            bestIndex = candidate;
+                        }
+                    }
+                }
+            }
+        }
+
+        queryCounter.increment();
+        distanceEvaluationCounter.add(evaluations);
+        return bestIndex;
+    }
+
+    /**
+     * Get the number of queries since the creation or the last statistics reset.
+     *
+     * @return Number of queries.
+     */
+    public long getQueryCount() {
+        return queryCounter.sum();
+    }
+
+    /**
+     * Get the number of evaluated (possibly early terminated) distances.
+     *
+     * @return Number of distance evaluations.
+     */
+    public long getDistanceEvaluationCount() {
+        return distanceEvaluationCounter.sum();
+    }
+
+    /**
+     * Get the average number of distance evaluations per query.
+     *
+     * @return Average distance evaluations per query.
+     */
+    public double getAverageDistanceEvaluations() {
+        final long queries = getQueryCount();
+        return (queries > 0) ? ((double) getDistanceEvaluationCount() / (double) queries) : 0.0;
+    }
+
+    /**
+     * Get the fraction of codebook entries, which were not evaluated, compared to the full search.
+     *
+     * @return Pruning rate in range [0, 1].
+     */
+    public double getPruningRate() {
+        final long queries = getQueryCount();
+        if (queries == 0) {
+            return 0.0;
+        }
+        return 1.0 - ((double) getDistanceEvaluationCount() / ((double) queries * (double) codebookSize));
+    }
+
+    /**
+     * Reset the query and distance evaluation counters.
+     */
+    public void resetStatistics() {
+        queryCounter.reset();
+        distanceEvaluationCounter.reset();
+    }
+}
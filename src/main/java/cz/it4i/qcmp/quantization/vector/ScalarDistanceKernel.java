@@ -0,0 +1,73 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Plain Java distance kernel. Common vector sizes (9, 27 and 64 elements) have unrolled specializations,
+ * other sizes use the loop unrolled by four.
+ */
+public class ScalarDistanceKernel implements IDistanceKernel {
+
+    @Override
+    public long squaredDistance(final int[] a, final int aOffset, final int[] b, final int bOffset, final int size) {
+        switch (size) {
+            case 9:
+                return squaredDistance9(a, aOffset, b, bOffset);
+            case 27:
+                return squaredDistance9(a, aOffset, b, bOffset) +
+                        squaredDistance9(a, aOffset + 9, b, bOffset + 9) +
+                        squaredDistance9(a, aOffset + 18, b, bOffset + 18);
+            case 64:
+                return squaredDistance64(a, aOffset, b, bOffset);
+            default:
+                return squaredDistanceUnrolled(a, aOffset, b, bOffset, size);
+        }
+    }
+
+    private static long squaredDistance9(final int[] a, final int aOffset, final int[] b, final int bOffset) {
+        final long d0 = a[aOffset] - b[bOffset];
+        final long d1 = a[aOffset + 1] - b[bOffset + 1];
+        final long d2 = a[aOffset + 2] - b[bOffset + 2];
+        final long d3 = a[aOffset + 3] - b[bOffset + 3];
+        final long d4 = a[aOffset + 4] - b[bOffset + 4];
+        final long d5 = a[aOffset + 5] - b[bOffset + 5];
+        final long d6 = a[aOffset + 6] - b[bOffset + 6];
+        final long d7 = a[aOffset + 7] - b[bOffset + 7];
+        final long d8 = a[aOffset + 8] - b[bOffset + 8];
+        return (d0 * d0 + d1 * d1 + d2 * d2) + (d3 * d3 + d4 * d4 + d5 * d5) + (d6 * d6 + d7 * d7 + d8 * d8);
+    }
+
+    private static long squaredDistance64(final int[] a, final int aOffset, final int[] b, final int bOffset) {
+        long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int i = 0; i < 64; i += 4) {
+            final long d0 = a[aOffset + i] - b[bOffset + i];
+            final long d1 = a[aOffset + i + 1] - b[bOffset + i + 1];
+            final long d2 = a[aOffset + i + 2] - b[bOffset + i + 2];
+            final long d3 = a[aOffset + i + 3] - b[bOffset + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static long squaredDistanceUnrolled(final int[] a, final int aOffset, final int[] b, final int bOffset, final int size) {
+        long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        final int unrolledSize = size & ~3;
+        int i = 0;
+        for (; i < unrolledSize; i += 4) {
+            final long d0 = a[aOffset + i] - b[bOffset + i];
+            final long d1 = a[aOffset + i + 1] - b[bOffset + i + 1];
+            final long d2 = a[aOffset + i + 2] - b[bOffset + i + 2];
+            final long d3 = a[aOffset + i + 3] - b[bOffset + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < size; i++) {
+            final long d = a[aOffset + i] - b[bOffset + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,181 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.U16;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Per-entry statistics of the training vectors assigned to their closest codebook entries. Statistics of the
+ * shards are summed, from which the new centroids and the distortion of the whole training set are computed.
+ */
+class ShardStatistics {
+    private final int entryCount;
+    private final int vectorSize;
+
+    /**
+     * Number of vectors assigned to every entry.
+     */
+    private final long[] counts;
+
+    /**
+     * Sums of the vectors assigned to every entry, entry after entry.
+     */
+    private final long[] sums;
+
+    /**
+     * Sum of squared distances of the vectors assigned to every entry.
+     */
+    private final double[] distortions;
+
+    ShardStatistics(final int entryCount, final int vectorSize) {
+        this.entryCount = entryCount;
+        this.vectorSize = vectorSize;
+        this.counts = new long[entryCount];
+        this.sums = new long[entryCount * vectorSize];
+        this.distortions = new double[entryCount];
+    }
+
+    /**
+     * Add the vector assigned to the entry.
+     *
+     * @param entry      Index of the closest entry.
+     * @param vectorData Array containing the vector.
+     * @param offset     Offset of the vector.
+     * @param weight     Number of occurrences of the vector.
+     * @param distance   Squared distance of the vector to the entry.
+     */
+    void add(final int entry, final int[] vectorData, final int offset, final int weight, final long distance) {
+        counts[entry] += weight;
+        distortions[entry] += (double) weight * distance;
+        final int sumOffset = entry * vectorSize;
+        for (int dim = 0; dim < vectorSize; dim++) {
+            sums[sumOffset + dim] += (long) weight * vectorData[offset + dim];
+        }
+    }
+
+    /**
+     * Add statistics of other shard or chunk.
+     *
+     * @param other Statistics of the same codebook.
+     */
+    void merge(final ShardStatistics other) {
+        assert (other.entryCount == entryCount && other.vectorSize == vectorSize) : "Statistics size mismatch";
+        for (int entry = 0; entry < entryCount; entry++) {
+            counts[entry] += other.counts[entry];
+            distortions[entry] += other.distortions[entry];
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] += other.sums[i];
+        }
+    }
+
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    long[] getCounts() {
+        return counts;
+    }
+
+    double getTotalDistortion() {
+        double distortion = 0.0;
+        for (final double entryDistortion : distortions) {
+            distortion += entryDistortion;
+        }
+        return distortion;
+    }
+
+    long getTotalCount() {
+        long count = 0;
+        for (final long entryCount : counts) {
+            count += entryCount;
+        }
+        return count;
+    }
+
+    /**
+     * Write the rounded centroid of the entry vectors into the codebook.
+     *
+     * @param entry        Entry index.
+     * @param codebookData Flat codebook data.
+     */
+    void calculateCentroid(final int entry, final int[] codebookData) {
+        final int offset = entry * vectorSize;
+        for (int dim = 0; dim < vectorSize; dim++) {
+            codebookData[offset + dim] = (int) Math.round((double) sums[offset + dim] / (double) counts[entry]);
+        }
+    }
+
+    /**
+     * Move entries to the centroids of their vectors. Empty entry is moved next to the centroid of the entry with
+     * the largest distortion, which is expected to split the largest cluster in the next iteration.
+     *
+     * @param codebookData Flat codebook, updated in place.
+     * @return Number of moved empty entries.
+     */
+    int updateCodebook(final int[] codebookData) {
+        final double[] remainingDistortions = distortions.clone();
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (counts[entry] > 0) {
+                calculateCentroid(entry, codebookData);
+            }
+        }
+        int movedEntryCount = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (counts[entry] > 0) {
+                continue;
+            }
+            int largestEntry = 0;
+            for (int i = 1; i < entryCount; i++) {
+                if (remainingDistortions[i] > remainingDistortions[largestEntry]) {
+                    largestEntry = i;
+                }
+            }
+            if (remainingDistortions[largestEntry] <= 0.0) {
+                break;
+            }
+            // Offset by the root mean square deviation of the cluster element.
+            final int offset = (int) Math.max(1.0, Math.sqrt(remainingDistortions[largestEntry] /
+                                                                     (counts[largestEntry] * vectorSize)));
+            for (int dim = 0; dim < vectorSize; dim++) {
+                final int value = codebookData[(largestEntry * vectorSize) + dim] + offset;
+                codebookData[(entry * vectorSize) + dim] = Math.min(value, U16.Max);
+            }
+            remainingDistortions[largestEntry] /= 2.0;
+            ++movedEntryCount;
+        }
+        return movedEntryCount;
+    }
+
+    void writeToStream(final DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(entryCount);
+        for (int entry = 0; entry < entryCount; entry++) {
+            outputStream.writeLong(counts[entry]);
+            outputStream.writeDouble(distortions[entry]);
+            for (int dim = 0; dim < vectorSize; dim++) {
+                outputStream.writeLong(sums[(entry * vectorSize) + dim]);
+            }
+        }
+    }
+
+    static ShardStatistics readFromStream(final DataInputStream inputStream,
+                                          final int expectedEntryCount,
+                                          final int vectorSize) throws IOException {
+        final int entryCount = inputStream.readInt();
+        if (entryCount != expectedEntryCount) {
+            throw new IOException("Shard statistics of wrong codebook size. Expected " + expectedEntryCount +
+                                          " entries, got " + entryCount);
+        }
+        final ShardStatistics statistics = new ShardStatistics(entryCount, vectorSize);
+        for (int entry = 0; entry < entryCount; entry++) {
+            statistics.counts[entry] = inputStream.readLong();
+            statistics.distortions[entry] = inputStream.readDouble();
+            for (int dim = 0; dim < vectorSize; dim++) {
+                statistics.sums[(entry * vectorSize) + dim] = inputStream.readLong();
+            }
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,305 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.compression.listeners.IStatusListener;
+import cz.it4i.qcmp.data.V3i;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Coordinator of the sharded LBG codebook training.
+ * <p>
+ * Training vectors are split into shards held by {@link ShardedLBGWorker} processes, which connect to the
+ * coordinator over TCP. Worker is accepted only after its protocol header matches the training, all socket operations
+ * are limited by the timeout. LBG iterations are run by {@link StatisticsLBGTrainer}, initial codebook is trained
+ * on the random sample drawn from all shards proportionally to their size. Every LBG iteration the coordinator
+ * broadcasts the codebook, workers assign their vectors to the closest entries and reply with the per-entry sums,
+ * counts and distortion. Coordinator merges the statistics, moves the entries to the centroids and repeats until the
+ * relative MSE improvement drops below epsilon. Workers can run on the same machine or on other nodes.
+ */
+public class ShardedLBGCoordinator {
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+    public static final double DEFAULT_EPSILON = 0.0005;
+
+    /**
+     * Default timeout of waiting for the workers and for their replies in seconds.
+     */
+    public static final int DEFAULT_TIMEOUT = 60 * 60;
+
+    private final int port;
+    private final int shardCount;
+    private final int codebookSize;
+    private final int workerCount;
+    private final V3i vectorDimensions;
+    private final int vectorSize;
+
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+    private double epsilon = DEFAULT_EPSILON;
+    private String bindAddress = null;
+    private int timeout = DEFAULT_TIMEOUT;
+
+    private IStatusListener statusListener = null;
+
+    /**
+     * Connection to single worker.
+     */
+    private static final class WorkerConnection {
+        final Socket socket;
+        final DataInputStream inputStream;
+        final DataOutputStream outputStream;
+        final long vectorCount;
+
+        /**
+         * Read the worker header and accept the worker if the header matches the training.
+         *
+         * @param socket     Connected worker socket.
+         * @param vectorSize Size of the training vector.
+         * @param timeout    Timeout of the replies after the worker is accepted in milliseconds.
+         * @throws IOException when the header can't be read or doesn't match, the worker is rejected.
+         */
+        WorkerConnection(final Socket socket, final int vectorSize, final int timeout) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(ShardedTrainingProtocol.HANDSHAKE_TIMEOUT);
+            this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            try {
+                this.vectorCount = ShardedTrainingProtocol.readHeader(inputStream, vectorSize);
+            } catch (final IOException e) {
+                outputStream.writeByte(ShardedTrainingProtocol.REJECT_RESPONSE);
+                outputStream.flush();
+                throw e;
+            }
+            outputStream.writeByte(ShardedTrainingProtocol.ACCEPT_RESPONSE);
+            outputStream.flush();
+            socket.setSoTimeout(timeout);
+        }
+    }
+
+    /**
+     * Create coordinator of the sharded training.
+     *
+     * @param port             Port on which the workers connect.
+     * @param shardCount       Number of workers to wait for.
+     * @param codebookSize     Requested codebook size.
+     * @param workerCount      Number of local threads used for the initial codebook.
+     * @param vectorDimensions Dimensions of the quantization vector.
+     */
+    public ShardedLBGCoordinator(final int port,
+                                 final int shardCount,
+                                 final int codebookSize,
+                                 final int workerCount,
+                                 final V3i vectorDimensions) {
+        assert (shardCount > 0) : "Invalid shard count";
+        this.port = port;
+        this.shardCount = shardCount;
+        this.codebookSize = codebookSize;
+        this.workerCount = workerCount;
+        this.vectorDimensions = vectorDimensions;
+        this.vectorSize = (int) vectorDimensions.multiplyTogether();
+    }
+
+    public void setStatusListener(final IStatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    private void reportStatus(final String format, final Object... arg) {
+        if (statusListener != null)
+            statusListener.sendMessage(String.format(format, arg));
+    }
+
+    /**
+     * Set the maximum number of distributed LBG iterations.
+     *
+     * @param maxIterations Maximum number of iterations.
+     */
+    public void setMaxIterations(final int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Set the relative MSE improvement, under which the training stops.
+     *
+     * @param epsilon Convergence epsilon.
+     */
+    public void setEpsilon(final double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Set the address on which the coordinator listens.
+     *
+     * @param bindAddress Host name or IP address of the local interface, null for all interfaces.
+     */
+    public void setBindAddress(final String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Set the timeout of waiting for all workers to connect and of waiting for every worker reply.
+     *
+     * @param timeout Timeout in seconds.
+     */
+    public void setTimeout(final int timeout) {
+        assert (timeout > 0) : "Invalid timeout";
+        this.timeout = timeout;
+    }
+
+    /**
+     * Wait for the workers and train the codebook on their shards.
+     *
+     * @return Result with codebook and its MSE and frequencies over all shards.
+     * @throws IOException when the workers don't connect in time or the communication with any worker fails.
+     */
+    public LBGResult findOptimalCodebook() throws IOException {
+        final WorkerConnection[] workers = new WorkerConnection[shardCount];
+        try (final ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.bind((bindAddress != null)
+                                      ? new InetSocketAddress(bindAddress, port)
+                                      : new InetSocketAddress(port));
+            reportStatus("ShardedLBG - Waiting for %d workers on %s.",
+                         shardCount, serverSocket.getLocalSocketAddress());
+            acceptWorkers(serverSocket, workers);
+            final LBGResult result = train(workers);
+            for (final WorkerConnection worker : workers) {
+                worker.outputStream.writeByte(ShardedTrainingProtocol.FINISH_COMMAND);
+                worker.outputStream.flush();
+            }
+            return result;
+        } finally {
+            for (final WorkerConnection worker : workers) {
+                if (worker != null) {
+                    worker.socket.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Accept the workers until all shards are connected. Workers with invalid header are rejected and don't count.
+     *
+     * @param serverSocket Listening server socket.
+     * @param workers      Array filled with the accepted worker connections.
+     * @throws IOException when not all workers connect within the timeout.
+     */
+    private void acceptWorkers(final ServerSocket serverSocket, final WorkerConnection[] workers) throws IOException {
+        final long deadline = System.currentTimeMillis() + (timeout * 1000L);
+        int connectedCount = 0;
+        while (connectedCount < workers.length) {
+            final long remainingTime = deadline - System.currentTimeMillis();
+            if (remainingTime <= 0) {
+                throw new IOException(String.format("Only %d of %d workers connected within %d s.",
+                                                    connectedCount, workers.length, timeout));
+            }
+            serverSocket.setSoTimeout((int) Math.min(remainingTime, Integer.MAX_VALUE));
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (final SocketTimeoutException e) {
+                continue;
+            }
+            try {
+                workers[connectedCount] = new WorkerConnection(socket, vectorSize, timeout * 1000);
+            } catch (final IOException e) {
+                reportStatus("ShardedLBG - Rejected worker %s: %s", socket.getRemoteSocketAddress(), e.getMessage());
+                socket.close();
+                continue;
+            }
+            reportStatus("ShardedLBG - Worker %s connected with %d vectors.",
+                         socket.getRemoteSocketAddress(), workers[connectedCount].vectorCount);
+            ++connectedCount;
+        }
+    }
+
+    private LBGResult train(final WorkerConnection[] workers) throws IOException {
+        final StatisticsLBGTrainer<IOException> trainer =
+                new StatisticsLBGTrainer<>(new WorkerVectorSource(workers), codebookSize, workerCount,
+                                           vectorDimensions, "ShardedLBG", maxIterations, epsilon);
+        trainer.setStatusListener(statusListener);
+        return trainer.train();
+    }
+
+    /**
+     * Shards of the connected workers as the source of the LBG trainer.
+     */
+    private final class WorkerVectorSource implements IStatisticsVectorSource<IOException> {
+        private final WorkerConnection[] workers;
+        private final long totalVectorCount;
+
+        WorkerVectorSource(final WorkerConnection[] workers) {
+            this.workers = workers;
+            long vectorCount = 0;
+            for (final WorkerConnection worker : workers) {
+                vectorCount += worker.vectorCount;
+            }
+            this.totalVectorCount = vectorCount;
+        }
+
+        @Override
+        public long getVectorCount() {
+            return totalVectorCount;
+        }
+
+        /**
+         * Draw the sample from all shards proportionally to their size.
+         *
+         * @param sampleSize Number of vectors.
+         * @return Flat sample data.
+         * @throws IOException when the sample can't be received.
+         */
+        @Override
+        public int[] drawSample(final int sampleSize) throws IOException {
+            final int[] shardSampleSizes = new int[workers.length];
+            int totalSampleSize = 0;
+            for (int i = 0; i < workers.length; i++) {
+                shardSampleSizes[i] = (int) Math.min(workers[i].vectorCount,
+                                                     Math.round((double) sampleSize * workers[i].vectorCount /
+                                                                        totalVectorCount));
+                workers[i].outputStream.writeByte(ShardedTrainingProtocol.SAMPLE_COMMAND);
+                workers[i].outputStream.writeInt(shardSampleSizes[i]);
+                workers[i].outputStream.flush();
+                totalSampleSize += shardSampleSizes[i];
+            }
+
+            final int[] sampleData = new int[totalSampleSize * vectorSize];
+            int sampleOffset = 0;
+            for (final WorkerConnection worker : workers) {
+                final int[] shardSample = ShardedTrainingProtocol.readVectors(worker.inputStream, vectorSize);
+                System.arraycopy(shardSample, 0, sampleData, sampleOffset, shardSample.length);
+                sampleOffset += shardSample.length;
+            }
+            return sampleData;
+        }
+
+        /**
+         * Broadcast the codebook to all workers and merge their statistics.
+         *
+         * @param codebookData Flat codebook.
+         * @param entryCount   Number of codebook entries.
+         * @return Statistics of all shards.
+         * @throws IOException when the communication with any worker fails.
+         */
+        @Override
+        public ShardStatistics assignVectors(final int[] codebookData, final int entryCount) throws IOException {
+            // All workers get the codebook first, so that they compute in parallel.
+            for (final WorkerConnection worker : workers) {
+                worker.outputStream.writeByte(ShardedTrainingProtocol.ASSIGN_COMMAND);
+                ShardedTrainingProtocol.writeVectors(worker.outputStream, codebookData, entryCount, vectorSize);
+                worker.outputStream.flush();
+            }
+            final ShardStatistics statistics = new ShardStatistics(entryCount, vectorSize);
+            for (final WorkerConnection worker : workers) {
+                statistics.merge(ShardStatistics.readFromStream(worker.inputStream, entryCount, vectorSize));
+            }
+            return statistics;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.compression.listeners.IStatusListener;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.data.WeightedVectorBatch;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Worker of the sharded codebook training. Worker holds its shard of the training vectors and for every codebook
+ * sent by the {@link ShardedLBGCoordinator} computes the per-entry sums, counts and distortion of its vectors.
+ */
+public class ShardedLBGWorker {
+    private final int vectorSize;
+    private final int workerCount;
+
+    /**
+     * Unique shard vectors, vector after vector.
+     */
+    private final int[] trainingData;
+    private final int trainingVectorCount;
+
+    /**
+     * Number of occurrences of every unique shard vector.
+     */
+    private final int[] trainingWeights;
+    private final int totalTrainingWeight;
+
+    /**
+     * Prefix sums of the weights used for the sampling, created on demand.
+     */
+    private long[] cumulativeWeights = null;
+
+    private final IDistanceKernel distanceKernel = DistanceKernels.getKernel();
+    private final Random random = new Random();
+
+    private int timeout = ShardedLBGCoordinator.DEFAULT_TIMEOUT;
+
+    private IStatusListener statusListener = null;
+
+    /**
+     * Create worker of the shard vectors. Repeated vectors are merged and weighted by their occurrence count.
+     *
+     * @param shardVectors Training vectors of this shard.
+     * @param workerCount  Number of worker threads.
+     */
+    public ShardedLBGWorker(final VectorBatch shardVectors, final int workerCount) {
+        this.vectorSize = shardVectors.getVectorSize();
+        this.workerCount = workerCount;
+        final WeightedVectorBatch uniqueVectors = WeightedVectorBatch.deduplicate(shardVectors);
+        this.trainingData = uniqueVectors.getVectors().getData();
+        this.trainingVectorCount = uniqueVectors.getUniqueVectorCount();
+        this.trainingWeights = uniqueVectors.getWeights();
+        this.totalTrainingWeight = uniqueVectors.getTotalWeight();
+    }
+
+    public void setStatusListener(final IStatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    private void reportStatus(final String format, final Object... arg) {
+        if (statusListener != null)
+            statusListener.sendMessage(String.format(format, arg));
+    }
+
+    /**
+     * Set the timeout of waiting for every coordinator command.
+     *
+     * @param timeout Timeout in seconds.
+     */
+    public void setTimeout(final int timeout) {
+        assert (timeout > 0) : "Invalid timeout";
+        this.timeout = timeout;
+    }
+
+    /**
+     * Connect to the coordinator and serve its commands until the training is finished.
+     *
+     * @param host Coordinator host.
+     * @param port Coordinator port.
+     * @throws IOException when the coordinator rejects the shard, doesn't reply in time or the communication fails.
+     */
+    public void run(final String host, final int port) throws IOException {
+        try (final Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), ShardedTrainingProtocol.HANDSHAKE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(ShardedTrainingProtocol.HANDSHAKE_TIMEOUT);
+            final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            ShardedTrainingProtocol.writeHeader(outputStream, vectorSize, totalTrainingWeight);
+            outputStream.flush();
+            if (inputStream.readByte() != ShardedTrainingProtocol.ACCEPT_RESPONSE) {
+                throw new IOException(String.format("Coordinator %s:%d rejected the shard.", host, port));
+            }
+            socket.setSoTimeout(timeout * 1000);
+            reportStatus("ShardedLBGWorker - Connected to %s:%d with %d vectors (%d unique).",
+                         host, port, totalTrainingWeight, trainingVectorCount);
+
+            int assignCount = 0;
+            while (true) {
+                final byte command = inputStream.readByte();
+                if (command == ShardedTrainingProtocol.SAMPLE_COMMAND) {
+                    final int sampleSize = inputStream.readInt();
+                    ShardedTrainingProtocol.writeVectors(outputStream, drawSample(sampleSize), sampleSize, vectorSize);
+                } else if (command == ShardedTrainingProtocol.ASSIGN_COMMAND) {
+                    final int[] codebookData = ShardedTrainingProtocol.readVectors(inputStream, vectorSize);
+                    calculateStatistics(codebookData, codebookData.length / vectorSize).writeToStream(outputStream);
+                    ++assignCount;
+                } else if (command == ShardedTrainingProtocol.FINISH_COMMAND) {
+                    reportStatus("ShardedLBGWorker - Training finished after %d iterations.", assignCount);
+                    return;
+                } else {
+                    throw new IOException("Unknown sharded training command " + command);
+                }
+                outputStream.flush();
+            }
+        }
+    }
+
+    /**
+     * Draw random vectors of the shard, every vector is drawn with probability proportional to its weight.
+     *
+     * @param sampleSize Number of vectors.
+     * @return Flat sample data.
+     */
+    private int[] drawSample(final int sampleSize) {
+        if (cumulativeWeights == null) {
+            cumulativeWeights = new long[trainingVectorCount];
+            long sum = 0;
+            for (int i = 0; i < trainingVectorCount; i++) {
+                sum += trainingWeights[i];
+                cumulativeWeights[i] = sum;
+            }
+        }
+        final int[] sample = new int[sampleSize * vectorSize];
+        for (int i = 0; i < sampleSize; i++) {
+            final long position = (long) (random.nextDouble() * totalTrainingWeight);
+            int vectorIndex = Arrays.binarySearch(cumulativeWeights, position + 1);
+            if (vectorIndex < 0) {
+                vectorIndex = -(vectorIndex + 1);
+            }
+            System.arraycopy(trainingData, vectorIndex * vectorSize, sample, i * vectorSize, vectorSize);
+        }
+        return sample;
+    }
+
+    /**
+     * Assign shard vectors to the closest codebook entries and sum their statistics.
+     *
+     * @param codebookData Flat codebook data.
+     * @param entryCount   Number of codebook entries.
+     * @return Statistics of the shard.
+     */
+    ShardStatistics calculateStatistics(final int[] codebookData, final int entryCount) {
+        final int chunkCount = ParallelExecutor.getChunkCount(trainingVectorCount, workerCount);
+        final ShardStatistics[] chunkStatistics = new ShardStatistics[chunkCount];
+        final PackedCodebook packedCodebook = distanceKernel.packCodebook(codebookData, entryCount, vectorSize);
+        ParallelExecutor.forEachChunk(trainingVectorCount, workerCount, (chunkIndex, fromIndex, toIndex) -> {
+            final ShardStatistics statistics = new ShardStatistics(entryCount, vectorSize);
+            for (int vecIndex = fromIndex; vecIndex < toIndex; vecIndex++) {
+                final int offset = vecIndex * vectorSize;
+                final int entry = distanceKernel.findClosestEntry(packedCodebook, trainingData, offset);
+                final long distance = distanceKernel.squaredDistance(trainingData, offset, codebookData,
+                                                                     entry * vectorSize, vectorSize);
+                statistics.add(entry, trainingData, offset, trainingWeights[vecIndex], distance);
+            }
+            chunkStatistics[chunkIndex] = statistics;
+        });
+
+        final ShardStatistics statistics = new ShardStatistics(entryCount, vectorSize);
+        for (final ShardStatistics chunk : chunkStatistics) {
+            statistics.merge(chunk);
+        }
+        return statistics;
+    }
+}
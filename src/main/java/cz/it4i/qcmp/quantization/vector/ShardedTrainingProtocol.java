@@ -0,0 +1,124 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Messages exchanged between the coordinator and the workers of the sharded codebook training.
+ * <p>
+ * Worker connects to the coordinator and sends the header: magic value, protocol version, vector size and number of
+ * its training vectors. Coordinator validates the header and replies with the ACCEPT or REJECT byte, rejected worker
+ * is disconnected. Coordinator then sends commands to the accepted workers, every command starts with the command
+ * byte:
+ * <ul>
+ *     <li>SAMPLE with the requested vector count, worker replies with the count and the random sample vectors.</li>
+ *     <li>ASSIGN with the codebook, worker replies with {@link ShardStatistics} of its vectors.</li>
+ *     <li>FINISH, worker closes the connection.</li>
+ * </ul>
+ * Vector elements are sent as unsigned 16 bit values.
+ */
+final class ShardedTrainingProtocol {
+    static final String MAGIC_VALUE = "QCMPSHRD";
+    static final int PROTOCOL_VERSION = 1;
+
+    /**
+     * Timeout of the connection and the header exchange in milliseconds.
+     */
+    static final int HANDSHAKE_TIMEOUT = 30 * 1000;
+
+    static final byte ACCEPT_RESPONSE = 1;
+    static final byte REJECT_RESPONSE = 2;
+
+    static final byte SAMPLE_COMMAND = 1;
+    static final byte ASSIGN_COMMAND = 2;
+    static final byte FINISH_COMMAND = 3;
+
+    private ShardedTrainingProtocol() {
+    }
+
+    /**
+     * Write the worker header.
+     *
+     * @param outputStream Output stream.
+     * @param vectorSize   Size of the vector.
+     * @param vectorCount  Number of the shard training vectors.
+     * @throws IOException when fails to write the header.
+     */
+    static void writeHeader(final DataOutputStream outputStream,
+                            final int vectorSize,
+                            final long vectorCount) throws IOException {
+        outputStream.writeBytes(MAGIC_VALUE);
+        outputStream.writeInt(PROTOCOL_VERSION);
+        outputStream.writeInt(vectorSize);
+        outputStream.writeLong(vectorCount);
+    }
+
+    /**
+     * Read and validate the worker header.
+     *
+     * @param inputStream Input stream.
+     * @param vectorSize  Expected size of the vector.
+     * @return Number of the shard training vectors.
+     * @throws IOException when fails to read the header or the header doesn't match the training.
+     */
+    static long readHeader(final DataInputStream inputStream, final int vectorSize) throws IOException {
+        final byte[] magicBuffer = new byte[MAGIC_VALUE.length()];
+        inputStream.readFully(magicBuffer);
+        if (!MAGIC_VALUE.equals(new String(magicBuffer))) {
+            throw new IOException("Peer is not sharded training worker. Wrong magic value.");
+        }
+        final int version = inputStream.readInt();
+        if (version != PROTOCOL_VERSION) {
+            throw new IOException("Worker uses protocol version " + version + ", expected " + PROTOCOL_VERSION);
+        }
+        final int workerVectorSize = inputStream.readInt();
+        if (workerVectorSize != vectorSize) {
+            throw new IOException("Worker has vector size " + workerVectorSize + ", expected " + vectorSize);
+        }
+        final long vectorCount = inputStream.readLong();
+        if (vectorCount <= 0) {
+            throw new IOException("Worker has no training vectors.");
+        }
+        return vectorCount;
+    }
+
+    /**
+     * Write the vectors as unsigned 16 bit values, preceded by their count.
+     *
+     * @param outputStream Output stream.
+     * @param vectorData   Flat vector data.
+     * @param vectorCount  Number of vectors.
+     * @param vectorSize   Size of the vector.
+     * @throws IOException when fails to write the vectors.
+     */
+    static void writeVectors(final DataOutputStream outputStream,
+                             final int[] vectorData,
+                             final int vectorCount,
+                             final int vectorSize) throws IOException {
+        outputStream.writeInt(vectorCount);
+        for (int i = 0; i < vectorCount * vectorSize; i++) {
+            outputStream.writeShort(vectorData[i]);
+        }
+    }
+
+    /**
+     * Read the vectors written by writeVectors.
+     *
+     * @param inputStream Input stream.
+     * @param vectorSize  Size of the vector.
+     * @return Flat vector data.
+     * @throws IOException when fails to read the vectors.
+     */
+    static int[] readVectors(final DataInputStream inputStream, final int vectorSize) throws IOException {
+        final int vectorCount = inputStream.readInt();
+        if (vectorCount < 0) {
+            throw new IOException("Invalid vector count " + vectorCount);
+        }
+        final int[] vectorData = new int[vectorCount * vectorSize];
+        for (int i = 0; i < vectorData.length; i++) {
+            vectorData[i] = inputStream.readUnsignedShort();
+        }
+        return vectorData;
+    }
+}
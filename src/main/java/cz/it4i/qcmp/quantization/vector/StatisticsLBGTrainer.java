@@ -0,0 +1,150 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.compression.listeners.IStatusListener;
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.utilities.Stopwatch;
+import cz.it4i.qcmp.utilities.Utils;
+
+/**
+ * LBG iterations over the training vectors of {@link IStatisticsVectorSource}, shared by the sharded and the
+ * memory-mapped training.
+ * <p>
+ * Initial codebook is trained by {@link LBGVectorQuantizer} on the random sample of the source. Every iteration the
+ * source assigns all its vectors to the closest entries and returns the per-entry statistics, from which the entries
+ * are moved to the centroids. Training stops when the relative MSE improvement drops below epsilon, no vector
+ * changes its entry or the maximum number of iterations is reached.
+ *
+ * @param <E> Exception thrown by the vector source.
+ */
+final class StatisticsLBGTrainer<E extends Exception> {
+    /**
+     * Number of sample vectors per codebook entry used for the initial codebook.
+     */
+    static final int SAMPLE_VECTORS_PER_ENTRY = 64;
+
+    private final IStatisticsVectorSource<E> source;
+    private final int codebookSize;
+    private final int workerCount;
+    private final V3i vectorDimensions;
+    private final int vectorSize;
+
+    /**
+     * Name of the trainer used in the status messages.
+     */
+    private final String name;
+
+    private final int maxIterations;
+    private final double epsilon;
+
+    private IStatusListener statusListener = null;
+
+    /**
+     * Create trainer of the source vectors.
+     *
+     * @param source           Source of the training vectors.
+     * @param codebookSize     Requested codebook size.
+     * @param workerCount      Number of local threads used for the initial codebook.
+     * @param vectorDimensions Dimensions of the quantization vector.
+     * @param name             Name of the trainer used in the status messages.
+     * @param maxIterations    Maximum number of iterations.
+     * @param epsilon          Relative MSE improvement, under which the training stops.
+     */
+    StatisticsLBGTrainer(final IStatisticsVectorSource<E> source,
+                         final int codebookSize,
+                         final int workerCount,
+                         final V3i vectorDimensions,
+                         final String name,
+                         final int maxIterations,
+                         final double epsilon) {
+        this.source = source;
+        this.codebookSize = codebookSize;
+        this.workerCount = workerCount;
+        this.vectorDimensions = vectorDimensions;
+        this.vectorSize = (int) vectorDimensions.multiplyTogether();
+        this.name = name;
+        this.maxIterations = maxIterations;
+        this.epsilon = epsilon;
+    }
+
+    void setStatusListener(final IStatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    private void reportStatus(final String format, final Object... arg) {
+        if (statusListener != null)
+            statusListener.sendMessage(String.format(format, arg));
+    }
+
+    /**
+     * Train the codebook.
+     *
+     * @return Result with codebook and its MSE and frequencies over all source vectors.
+     * @throws E when the source vectors can't be accessed.
+     */
+    LBGResult train() throws E {
+        final Stopwatch stopwatch = Stopwatch.startNew(name + "::findOptimalCodebook()");
+        final long vectorCount = source.getVectorCount();
+
+        final int[] codebookData = createInitialCodebook(vectorCount);
+        ShardStatistics statistics;
+        double previousMse = Double.POSITIVE_INFINITY;
+        double mse;
+        int iteration = 0;
+        while (true) {
+            // Returned codebook is always the one measured by the last statistics.
+            statistics = source.assignVectors(codebookData, codebookSize);
+            mse = statistics.getTotalDistortion() / (double) vectorCount;
+            ++iteration;
+
+            final double improvement = (previousMse - mse) / mse;
+            final long changedCount = source.getChangedVectorCount();
+            if (changedCount >= 0) {
+                reportStatus("%s - Iteration: %d  MSE: %f  Improvement: %.5f  Changed vectors: %d",
+                             name, iteration, mse, improvement, changedCount);
+            } else {
+                reportStatus("%s - Iteration: %d  MSE: %f  Improvement: %.5f", name, iteration, mse, improvement);
+            }
+            if ((mse <= 0.0) || (changedCount == 0) || (improvement < epsilon) || (iteration >= maxIterations)) {
+                break;
+            }
+            final int movedEntryCount = statistics.updateCodebook(codebookData);
+            if (movedEntryCount > 0) {
+                reportStatus("%s - Moved %d empty entries next to the entries with the largest distortion.",
+                             name, movedEntryCount);
+            }
+            previousMse = mse;
+        }
+
+        final double psnr = Utils.calculatePsnr(mse, U16.Max);
+        stopwatch.stop();
+        reportStatus("%s - Finished after %d iterations. MSE: %f  PSNR: %f (dB)", name, iteration, mse, psnr);
+        reportStatus(stopwatch.toString());
+
+        return new LBGResult(vectorDimensions,
+                             new VectorBatch(codebookData, vectorSize).toVectorArray(),
+                             statistics.getCounts(),
+                             mse,
+                             psnr);
+    }
+
+    /**
+     * Train the initial codebook by LBG on the random sample of the source vectors.
+     *
+     * @param vectorCount Number of source vectors.
+     * @return Flat initial codebook.
+     * @throws E when the sample can't be drawn.
+     */
+    private int[] createInitialCodebook(final long vectorCount) throws E {
+        final int sampleSize = (int) Math.min(vectorCount, (long) codebookSize * SAMPLE_VECTORS_PER_ENTRY);
+        final int[] sampleData = source.drawSample(sampleSize);
+        reportStatus("%s - Training initial codebook on %d sample vectors.", name, sampleData.length / vectorSize);
+
+        final LBGVectorQuantizer sampleTrainer = new LBGVectorQuantizer(new VectorBatch(sampleData, vectorSize),
+                                                                        codebookSize,
+                                                                        workerCount,
+                                                                        vectorDimensions);
+        return sampleTrainer.findOptimalCodebook().getCodebook().getVectorData().clone();
+    }
+}
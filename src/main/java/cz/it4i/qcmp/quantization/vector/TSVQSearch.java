@@ -0,0 +1,32 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Approximate nearest codebook entry search by the descent in the {@link TSVQTree}.
+ * <p>
+ * Every level compares the vector with the two children of the current node, so the search needs 2 * log2(K)
+ * distance evaluations instead of K. Result may differ from the full search, because the descent never returns
+ * to the rejected subtree.
+ */
+public class TSVQSearch implements ICodebookSearch {
+    private final TSVQTree tree;
+    private final int[] codebookData;
+    private final IDistanceKernel kernel;
+
+    /**
+     * Create TSVQ search.
+     *
+     * @param tree         TSVQ tree of the codebook.
+     * @param codebookData Flat codebook vectors (tree leaves).
+     */
+    public TSVQSearch(final TSVQTree tree, final int[] codebookData) {
+        assert (codebookData.length == tree.getCodebookSize() * tree.getVectorSize()) : "Tree doesn't match codebook";
+        this.tree = tree;
+        this.codebookData = codebookData;
+        this.kernel = DistanceKernels.getKernel();
+    }
+
+    @Override
+    public int findClosestEntryIndex(final int[] vectorData, final int offset) {
+        return tree.descend(vectorData, offset, tree.getDepth(), codebookData, kernel) - tree.getCodebookSize();
+    }
+}
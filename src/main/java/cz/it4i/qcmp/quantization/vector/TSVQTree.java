@@ -0,0 +1,203 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
+
+/**
+ * Binary tree of the tree-structured vector quantizer (TSVQ).
+ * <p>
+ * Tree is the split hierarchy of the LBG codebook initialization. Nodes are stored in heap order, node 1 is
+ * the root and children of node n are nodes 2n and 2n + 1. Nodes of level L correspond to the codebook of size 2^L,
+ * so entry i of that codebook is node (2^L + i). Only internal nodes (1 to codebookSize - 1) are stored, leaves are
+ * the entries of the final codebook: leaf node (codebookSize + i) is codebook entry i.
+ */
+public class TSVQTree {
+    private final int codebookSize;
+    private final int vectorSize;
+
+    /**
+     * Internal node vectors, vector of node n starts at index (n * vectorSize). Node 0 is unused.
+     */
+    private final int[] nodeData;
+
+    /**
+     * Create tree from internal node vectors.
+     *
+     * @param nodeData     Internal node vectors in heap order, node 0 is unused.
+     * @param codebookSize Number of leaves, must be power of two.
+     * @param vectorSize   Number of elements of single vector.
+     */
+    public TSVQTree(final int[] nodeData, final int codebookSize, final int vectorSize) {
+        assert (isSupportedCodebookSize(codebookSize)) : "TSVQ codebook size must be power of two";
+        assert (nodeData.length == codebookSize * vectorSize) : "Invalid tree node data";
+        this.nodeData = nodeData;
+        this.codebookSize = codebookSize;
+        this.vectorSize = vectorSize;
+    }
+
+    /**
+     * Check if the tree can be built for the codebook of given size.
+     *
+     * @param codebookSize Codebook size.
+     * @return True if codebook size is power of two greater than one.
+     */
+    public static boolean isSupportedCodebookSize(final int codebookSize) {
+        return (codebookSize > 1) && (Integer.bitCount(codebookSize) == 1);
+    }
+
+    /**
+     * Get the number of levels between the root and the leaves.
+     *
+     * @return Depth of the tree.
+     */
+    public int getDepth() {
+        return Integer.numberOfTrailingZeros(codebookSize);
+    }
+
+    public int getCodebookSize() {
+        return codebookSize;
+    }
+
+    public int getVectorSize() {
+        return vectorSize;
+    }
+
+    /**
+     * Get internal node vectors in heap order, vector of node n starts at index (n * vectorSize).
+     *
+     * @return Internal node data.
+     */
+    public int[] getNodeData() {
+        return nodeData;
+    }
+
+    /**
+     * Descend from the root by the given number of levels, choosing the closer child in every step.
+     * Ties are resolved in favor of the left child.
+     *
+     * @param vectorData   Array containing the vector.
+     * @param offset       Offset of the first vector element.
+     * @param levelCount   Number of levels to descend.
+     * @param codebookData Flat leaf vectors, used when the descent reaches the leaves.
+     * @param kernel       Distance kernel.
+     * @return Heap index of the reached node.
+     */
+    int descend(final int[] vectorData,
+                final int offset,
+                final int levelCount,
+                final int[] codebookData,
+                final IDistanceKernel kernel) {
+        int node = 1;
+        for (int level = 0; level < levelCount; level++) {
+            final int left = 2 * node;
+            final long leftDistance = distanceToNode(vectorData, offset, left, codebookData, kernel);
+            final long rightDistance = distanceToNode(vectorData, offset, left + 1, codebookData, kernel);
+            node = (rightDistance < leftDistance) ? left + 1 : left;
+        }
+        return node;
+    }
+
+    private long distanceToNode(final int[] vectorData,
+                                final int offset,
+                                final int node,
+                                final int[] codebookData,
+                                final IDistanceKernel kernel) {
+        if (node >= codebookSize) {
+            return kernel.squaredDistance(vectorData, offset, codebookData, (node - codebookSize) * vectorSize, vectorSize);
+        }
+        return kernel.squaredDistance(vectorData, offset, nodeData, node * vectorSize, vectorSize);
+    }
+
+    /**
+     * Refine internal nodes, so that every node is the centroid of the training vectors, whose closest codebook
+     * entry lies in its subtree. LBG keeps the split hierarchy only structurally, after the later LBG iterations
+     * the node vector can be far from the entries below it, which misleads the tree descent.
+     *
+     * @param trainingData Flat training vectors.
+     * @param weights      Number of occurrences of every training vector, null if every vector occurs once.
+     * @param codebookData Flat leaf vectors.
+     * @param workerCount  Number of worker threads.
+     */
+    public void refine(final int[] trainingData, final int[] weights, final int[] codebookData, final int workerCount) {
+        final IDistanceKernel kernel = DistanceKernels.getKernel();
+        final int vectorCount = trainingData.length / vectorSize;
+        final int chunkCount = ParallelExecutor.getChunkCount(vectorCount, workerCount);
+        final long[][] chunkSums = new long[chunkCount][];
+        final long[][] chunkCounts = new long[chunkCount][];
+        final PackedCodebook packedCodebook = kernel.packCodebook(codebookData, codebookSize, vectorSize);
+
+        // Sums and counts of vectors assigned to leaves by the full search.
+        ParallelExecutor.forEachChunk(vectorCount, workerCount, (chunkIndex, fromIndex, toIndex) -> {
+            final long[] sums = new long[codebookSize * vectorSize];
+            final long[] counts = new long[codebookSize];
+            for (int vectorIndex = fromIndex; vectorIndex < toIndex; vectorIndex++) {
+                final int vectorOffset = vectorIndex * vectorSize;
+                final int leaf = kernel.findClosestEntry(packedCodebook, trainingData, vectorOffset);
+                final long weight = (weights != null) ? weights[vectorIndex] : 1;
+                counts[leaf] += weight;
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    sums[(leaf * vectorSize) + dim] += weight * trainingData[vectorOffset + dim];
+                }
+            }
+            chunkSums[chunkIndex] = sums;
+            chunkCounts[chunkIndex] = counts;
+        });
+
+        // Accumulate in heap order, node n at [n * vectorSize], leaves at [codebookSize, 2 * codebookSize).
+        final long[] nodeSums = new long[2 * codebookSize * vectorSize];
+        final long[] nodeCounts = new long[2 * codebookSize];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            for (int leaf = 0; leaf < codebookSize; leaf++) {
+                nodeCounts[codebookSize + leaf] += chunkCounts[chunk][leaf];
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    nodeSums[((codebookSize + leaf) * vectorSize) + dim] += chunkSums[chunk][(leaf * vectorSize) + dim];
+                }
+            }
+        }
+        for (int node = codebookSize - 1; node >= 1; node--) {
+            nodeCounts[node] = nodeCounts[2 * node] + nodeCounts[(2 * node) + 1];
+            for (int dim = 0; dim < vectorSize; dim++) {
+                nodeSums[(node * vectorSize) + dim] = nodeSums[(2 * node * vectorSize) + dim] +
+                        nodeSums[(((2 * node) + 1) * vectorSize) + dim];
+            }
+            // Nodes without vectors keep the LBG centroid.
+            if (nodeCounts[node] == 0) {
+                continue;
+            }
+            for (int dim = 0; dim < vectorSize; dim++) {
+                nodeData[(node * vectorSize) + dim] =
+                        (int) Math.round((double) nodeSums[(node * vectorSize) + dim] / (double) nodeCounts[node]);
+            }
+        }
+    }
+
+    /**
+     * Store node vectors of the codebook level to the tree, values are clamped to the U16 range.
+     *
+     * @param nodeData     Tree node data.
+     * @param vectorSize   Number of elements of single vector.
+     * @param levelEntries Codebook of the level, its size determines the level.
+     */
+    static void storeLevel(final int[] nodeData, final int vectorSize, final int[][] levelEntries) {
+        final int firstNode = levelEntries.length;
+        for (int i = 0; i < levelEntries.length; i++) {
+            final int nodeOffset = (firstNode + i) * vectorSize;
+            for (int dim = 0; dim < vectorSize; dim++) {
+                nodeData[nodeOffset + dim] = Math.max(U16.Min, Math.min(U16.Max, levelEntries[i][dim]));
+            }
+        }
+    }
+
+    /**
+     * Create tree of the smaller codebook from the top levels of this tree.
+     *
+     * @param levelCodebookSize Size of the smaller codebook.
+     * @return Tree with the top levels of this tree.
+     */
+    TSVQTree topLevels(final int levelCodebookSize) {
+        assert (levelCodebookSize <= codebookSize);
+        final int[] levelNodeData = new int[levelCodebookSize * vectorSize];
+        System.arraycopy(nodeData, 0, levelNodeData, 0, levelNodeData.length);
+        return new TSVQTree(levelNodeData, levelCodebookSize, vectorSize);
+    }
+}
@@ -0,0 +1,148 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Exact nearest codebook entry search for batches of vectors, organized as the tiled matrix product.
+ * <p>
+ * Squared distance is expanded as |x|^2 - 2 x.c + |c|^2. The |x|^2 term doesn't change the order of the entries,
+ * |c|^2 is precomputed and the dot products of the vector tile with the entry tile are accumulated as rank-1 updates
+ * over the transposed codebook, so the inner loop runs over consecutive memory and can be vectorized by the JIT.
+ * Tiles are sized to stay in the L1/L2 cache.
+ * <p>
+ * Dot products are accumulated in doubles. For 16 bit data all intermediate values are integers smaller than 2^53,
+ * so they are exact and the result, including the tie resolution in favor of the lower index, is the same as of
+ * the brute-force search.
+ */
+public class TiledBatchSearch {
+    /**
+     * Number of vectors processed together.
+     */
+    private static final int VECTOR_TILE_SIZE = 32;
+
+    /**
+     * Target size of the transposed codebook tile in doubles (32 KiB).
+     */
+    private static final int ENTRY_TILE_ELEMENTS = 4096;
+
+    private final int codebookSize;
+    private final int vectorSize;
+    private final int entryTileSize;
+
+    /**
+     * Transposed codebook, element dim of entry e is at index (dim * codebookSize + e).
+     */
+    private final double[] transposedCodebook;
+
+    /**
+     * Squared norms of codebook entries.
+     */
+    private final double[] entryNorms;
+
+    /**
+     * Per thread tile buffers.
+     */
+    private final ThreadLocal<TileBuffers> tileBuffers;
+
+    private class TileBuffers {
+        final double[] vectorTile = new double[VECTOR_TILE_SIZE * vectorSize];
+        final double[] dotProducts = new double[VECTOR_TILE_SIZE * entryTileSize];
+        final double[] minDistances = new double[VECTOR_TILE_SIZE];
+        final int[] minIndices = new int[VECTOR_TILE_SIZE];
+    }
+
+    /**
+     * Create batch search for the codebook.
+     *
+     * @param codebookData Flat codebook vectors.
+     * @param vectorSize   Size of single codebook vector.
+     */
+    public TiledBatchSearch(final int[] codebookData, final int vectorSize) {
+        assert (codebookData.length > 0 && codebookData.length % vectorSize == 0) : "Invalid codebook";
+        this.codebookSize = codebookData.length / vectorSize;
+        this.vectorSize = vectorSize;
+        this.entryTileSize = Math.min(codebookSize, Math.max(16, ENTRY_TILE_ELEMENTS / vectorSize));
+
+        transposedCodebook = new double[codebookData.length];
+        entryNorms = new double[codebookSize];
+        for (int entry = 0; entry < codebookSize; entry++) {
+            double norm = 0.0;
+            for (int dim = 0; dim < vectorSize; dim++) {
+                final double value = codebookData[(entry * vectorSize) + dim];
+                transposedCodebook[(dim * codebookSize) + entry] = value;
+                norm += value * value;
+            }
+            entryNorms[entry] = norm;
+        }
+        tileBuffers = ThreadLocal.withInitial(TileBuffers::new);
+    }
+
+    /**
+     * Find the closest codebook entries for the range of vectors.
+     *
+     * @param vectorData Flat vectors.
+     * @param fromIndex  Index of the first vector.
+     * @param toIndex    Index after the last vector.
+     * @param indices    Array receiving the index of the closest entry at the vector index.
+     */
+    public void findClosestEntries(final int[] vectorData, final int fromIndex, final int toIndex, final int[] indices) {
+        final TileBuffers buffers = tileBuffers.get();
+        for (int tileStart = fromIndex; tileStart < toIndex; tileStart += VECTOR_TILE_SIZE) {
+            final int tileVectorCount = Math.min(VECTOR_TILE_SIZE, toIndex - tileStart);
+            processVectorTile(vectorData, tileStart, tileVectorCount, buffers);
+            System.arraycopy(buffers.minIndices, 0, indices, tileStart, tileVectorCount);
+        }
+    }
+
+    private void processVectorTile(final int[] vectorData,
+                                   final int tileStart,
+                                   final int tileVectorCount,
+                                   final TileBuffers buffers) {
+        final double[] vectorTile = buffers.vectorTile;
+        final double[] dotProducts = buffers.dotProducts;
+        final double[] minDistances = buffers.minDistances;
+        final int[] minIndices = buffers.minIndices;
+
+        final int tileDataOffset = tileStart * vectorSize;
+        for (int i = 0; i < tileVectorCount * vectorSize; i++) {
+            vectorTile[i] = vectorData[tileDataOffset + i];
+        }
+        for (int v = 0; v < tileVectorCount; v++) {
+            minDistances[v] = Double.POSITIVE_INFINITY;
+            minIndices[v] = 0;
+        }
+
+        for (int entryStart = 0; entryStart < codebookSize; entryStart += entryTileSize) {
+            final int tileEntryCount = Math.min(entryTileSize, codebookSize - entryStart);
+
+            // Dot products of the vector tile with the entry tile.
+            for (int v = 0; v < tileVectorCount; v++) {
+                final int dotOffset = v * entryTileSize;
+                for (int e = 0; e < tileEntryCount; e++) {
+                    dotProducts[dotOffset + e] = 0.0;
+                }
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    final double x = vectorTile[(v * vectorSize) + dim];
+                    final int rowOffset = (dim * codebookSize) + entryStart;
+                    for (int e = 0; e < tileEntryCount; e++) {
+                        dotProducts[dotOffset + e] += x * transposedCodebook[rowOffset + e];
+                    }
+                }
+            }
+
+            // Update the running minima, strict comparison keeps the lower index on ties.
+            for (int v = 0; v < tileVectorCount; v++) {
+                final int dotOffset = v * entryTileSize;
+                double minDistance = minDistances[v];
+                int minIndex = minIndices[v];
+                for (int e = 0; e < tileEntryCount; e++) {
+                    final double distance = entryNorms[entryStart + e] - (2.0 * dotProducts[dotOffset + e]);
+                    if (distance < minDistance) {
+                        minDistance = distance;
+                        minIndex = entryStart + e;
+                    }
+                }
+                minDistances[v] = minDistance;
+                minIndices[v] = minIndex;
+            }
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package cz.it4i.qcmp.quantization.vector;
 
 import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.kdtree.KDTree;
+import cz.it4i.qcmp.kdtree.KDTreeBuilder;
 
 /**
  * Codebook for vector quantizer.
  */
 public class VQCodebook {
     /**
-     * Quantization vectors.
+     * Quantization vectors stored in single array, entry after entry.
      */
-    private final int[][] vectors;
+    private final int[] vectorData;
+
+    /**
+     * Number of elements of single quantization vector.
+     */
+    private final int vectorSize;
+
+    /**
+     * Lazily created view of quantization vectors as 2D array.
+     */
+    private int[][] vectors = null;
 
     /**
      * Absolute frequencies of quantization vectors.
@@ -26,23 +39,74 @@ public class VQCodebook {
      */
     private final V3i vectorDims;
 
+    /**
+     * Lazily built search index for the nearest entry search.
+     */
+    private PruningSearchIndex pruningSearchIndex = null;
+
+    /**
+     * Lazily built KD-tree of quantization vectors.
+     */
+    private KDTree kdTree = null;
+
+    /**
+     * Tree of the tree-structured quantizer, null if the codebook wasn't created by binary splitting.
+     */
+    private final TSVQTree tsvqTree;
+
     public VQCodebook(final V3i vectorDims, final int[][] vectors, final long[] vectorFrequencies) {
+        this(vectorDims, VectorBatch.fromVectorArray(vectors), vectorFrequencies);
+    }
+
+    public VQCodebook(final V3i vectorDims, final VectorBatch vectors, final long[] vectorFrequencies) {
+        this(vectorDims, vectors, vectorFrequencies, null);
+    }
+
+    public VQCodebook(final V3i vectorDims,
+                      final VectorBatch vectors,
+                      final long[] vectorFrequencies,
+                      final TSVQTree tsvqTree) {
         //assert (vectors.length == vectorFrequencies.length);
         this.vectorDims = vectorDims;
-        this.vectors = vectors;
+        this.vectorData = vectors.getData();
+        this.vectorSize = vectors.getVectorSize();
         this.vectorFrequencies = vectorFrequencies;
-        this.codebookSize = vectors.length;
+        this.codebookSize = vectors.getVectorCount();
+        assert (tsvqTree == null || tsvqTree.getCodebookSize() == codebookSize) : "TSVQ tree doesn't match codebook";
+        this.tsvqTree = tsvqTree;
     }
 
     /**
      * Get vectors (quantization vectors) from the codebook.
+     * Array is created from the flat codebook data on the first call.
      *
      * @return Quantization vectors.
      */
-    public int[][] getVectors() {
+    public synchronized int[][] getVectors() {
+        if (vectors == null) {
+            vectors = new VectorBatch(vectorData, vectorSize).toVectorArray();
+        }
         return vectors;
     }
 
+    /**
+     * Get quantization vectors stored in single array. Entry i starts at index (i * vectorSize).
+     *
+     * @return Flat quantization vector data.
+     */
+    public int[] getVectorData() {
+        return vectorData;
+    }
+
+    /**
+     * Get number of elements of single quantization vector.
+     *
+     * @return Vector size.
+     */
+    public int getVectorSize() {
+        return vectorSize;
+    }
+
     /**
      * Get frequencies of codebook vectors at indices.
      *
@@ -69,4 +133,37 @@ public class VQCodebook {
     public V3i getVectorDims() {
         return vectorDims;
     }
+
+    /**
+     * Get the pruning search index of this codebook. Index is built on the first call.
+     *
+     * @return Pruning search index.
+     */
+    public synchronized PruningSearchIndex getPruningSearchIndex() {
+        if (pruningSearchIndex == null) {
+            pruningSearchIndex = new PruningSearchIndex(vectorData, vectorSize);
+        }
+        return pruningSearchIndex;
+    }
+
+    /**
+     * Get the KD-tree of quantization vectors. Tree is built on the first call.
+     *
+     * @return KD-tree of this codebook.
+     */
+    public synchronized KDTree getKDTree() {
+        if (kdTree == null) {
+            kdTree = new KDTreeBuilder(vectorSize, KDTreeSearch.BUCKET_SIZE).buildTree(getVectors());
+        }
+        return kdTree;
+    }
+
+    /**
+     * Get the tree of the tree-structured quantizer.
+     *
+     * @return TSVQ tree or null if the codebook doesn't have one.
+     */
+    public TSVQTree getTSVQTree() {
+        return tsvqTree;
+    }
 }
@@ -0,0 +1,120 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import java.util.Arrays;
+
+/**
+ * Bounded open-addressing hash table mapping vector content to the codebook index.
+ * <p>
+ * Keys are stored in single flat array, so no objects are allocated per entry. Lookup probes at most
+ * MAX_PROBE_COUNT slots, when all of them are occupied by other vectors the home slot is overwritten.
+ * Cache is not thread safe, every thread should use its own instance.
+ */
+class VectorIndexCache {
+    private static final int MAX_PROBE_COUNT = 8;
+    private static final int EMPTY_SLOT = -1;
+
+    private final int vectorSize;
+    private final int mask;
+
+    /**
+     * Cached vectors, vector of slot i starts at index (i * vectorSize).
+     */
+    private final int[] keys;
+
+    /**
+     * Codebook index of the cached vector or EMPTY_SLOT.
+     */
+    private final int[] values;
+
+    /**
+     * Hashes of cached vectors, used to skip full key comparison.
+     */
+    private final int[] hashes;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * Create cache.
+     *
+     * @param capacity   Maximum number of cached vectors, rounded up to the power of two.
+     * @param vectorSize Number of elements of single vector.
+     */
+    VectorIndexCache(final int capacity, final int vectorSize) {
+        final int slotCount = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.vectorSize = vectorSize;
+        this.mask = slotCount - 1;
+        this.keys = new int[slotCount * vectorSize];
+        this.values = new int[slotCount];
+        this.hashes = new int[slotCount];
+        Arrays.fill(values, EMPTY_SLOT);
+    }
+
+    private int hash(final int[] vectorData, final int offset) {
+        int hash = 0x9E3779B9;
+        for (int i = 0; i < vectorSize; i++) {
+            hash = (hash ^ vectorData[offset + i]) * 0x01000193;
+        }
+        // Final avalanche, so that the low bits used as the slot index depend on all elements.
+        hash ^= (hash >>> 16);
+        hash *= 0x85EBCA6B;
+        hash ^= (hash >>> 13);
+        return hash;
+    }
+
+    private boolean keyEquals(final int slot, final int[] vectorData, final int offset) {
+        final int keyOffset = slot * vectorSize;
+        for (int i = 0; i < vectorSize; i++) {
+            if (keys[keyOffset + i] != vectorData[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the codebook index of the vector, compute and store it on cache miss.
+     *
+     * @param vectorData Array containing the vector.
+     * @param offset     Offset of the first vector element.
+     * @param search     Search used on cache miss.
+     * @return Index of the closest codebook entry.
+     */
+    int findOrCompute(final int[] vectorData, final int offset, final ICodebookSearch search) {
+        final int hash = hash(vectorData, offset);
+        final int homeSlot = hash & mask;
+        int freeSlot = -1;
+        for (int probe = 0; probe < MAX_PROBE_COUNT; probe++) {
+            final int slot = (homeSlot + probe) & mask;
+            if (values[slot] == EMPTY_SLOT) {
+                freeSlot = slot;
+                break;
+            }
+            if ((hashes[slot] == hash) && keyEquals(slot, vectorData, offset)) {
+                ++hitCount;
+                return values[slot];
+            }
+        }
+
+        ++missCount;
+        final int index = search.findClosestEntryIndex(vectorData, offset);
+        final int slot = (freeSlot != -1) ? freeSlot : homeSlot;
+        System.arraycopy(vectorData, offset, keys, slot * vectorSize, vectorSize);
+        hashes[slot] = hash;
+        values[slot] = index;
+        return index;
+    }
+
+    long getHitCount() {
+        return hitCount;
+    }
+
+    long getMissCount() {
+        return missCount;
+    }
+
+    void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+    }
+}
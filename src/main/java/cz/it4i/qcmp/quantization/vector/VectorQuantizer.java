@@ -1,26 +1,78 @@
 package cz.it4i.qcmp.quantization.vector;
 
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.quantization.QuantizationResult;
+import cz.it4i.qcmp.utilities.ParallelExecutor;
 import cz.it4i.qcmp.utilities.Utils;
 
 public class VectorQuantizer {
 
+    /**
+     * Minimum number of vectors, for which the tiled batch search is used instead of the per vector search.
+     */
+    private static final int MIN_BATCH_SEARCH_VECTOR_COUNT = 1024;
+
     private interface QuantizeVectorMethod {
-        int call(final int[] vector);
+        int call(final int vectorIndex);
     }
 
     private final VectorDistanceMetric metric = VectorDistanceMetric.Euclidean;
-    private final int[][] codebookVectors;
+    private final VQCodebook codebook;
     private final int vectorSize;
     private final long[] frequencies;
+    private ICodebookSearch euclideanSearch;
 
-    //    private final KDTree kdTree;
+    /**
+     * Tiled search used for large batches, null if the tiled batch search method wasn't selected.
+     */
+    private final TiledBatchSearch batchSearch;
 
     public VectorQuantizer(final VQCodebook codebook) {
-        this.codebookVectors = codebook.getVectors();
-        this.vectorSize = codebook.getVectors()[0].length;
-        this.frequencies = codebook.getVectorFrequencies();
+        this(codebook, CodebookSearchMethod.TiledBatch);
+    }
 
-        //        kdTree = new KDTreeBuilder(this.vectorSize, 8).buildTree(codebook.getVectors());
+    public VectorQuantizer(final VQCodebook codebook, final CodebookSearchMethod searchMethod) {
+        this(codebook, searchMethod, KDTreeSearch.DEFAULT_MAX_E);
+    }
+
+    /**
+     * Create vector quantizer with selected codebook search method.
+     *
+     * @param codebook     Codebook of the quantizer.
+     * @param searchMethod Method of the closest codebook entry search.
+     * @param kdTreeMaxE   Maximum number of visited leaves for the KDTree search method.
+     */
+    public VectorQuantizer(final VQCodebook codebook, final CodebookSearchMethod searchMethod, final int kdTreeMaxE) {
+        this.codebook = codebook;
+        this.vectorSize = codebook.getVectorSize();
+        this.frequencies = codebook.getVectorFrequencies();
+        this.batchSearch = (searchMethod == CodebookSearchMethod.TiledBatch)
+                ? new TiledBatchSearch(codebook.getVectorData(), vectorSize)
+                : null;
+        switch (searchMethod) {
+            case PruningIndex:
+                this.euclideanSearch = codebook.getPruningSearchIndex();
+                break;
+            case FullScan:
+                this.euclideanSearch = new FullScanSearch(codebook.getVectorData(), vectorSize);
+                break;
+            case KDTree:
+                this.euclideanSearch = new KDTreeSearch(codebook.getKDTree(), kdTreeMaxE);
+                break;
+            case TreeStructured:
+                if (codebook.getTSVQTree() != null) {
+                    this.euclideanSearch = new TSVQSearch(codebook.getTSVQTree(), codebook.getVectorData());
+                } else {
+                    // Codebook without split hierarchy, use the exact search.
+                    this.euclideanSearch = new PartialDistanceSearch(codebook.getVectorData(), vectorSize, frequencies);
+                }
+                break;
+            case TiledBatch:
+            case PartialDistance:
+            default:
+                this.euclideanSearch = new PartialDistanceSearch(codebook.getVectorData(), vectorSize, frequencies);
+                break;
+        }
     }
 
     public int[] quantize(final int[] dataVector) {
@@ -33,6 +85,18 @@ public class VectorQuantizer {
         return findClosestCodebookEntryIndex(dataVector, metric);
     }
 
+    /**
+     * Find the index of the closest codebook entry to the vector stored in flat array.
+     *
+     * @param vectorData Array containing the vector.
+     * @param offset     Offset of the first vector element.
+     * @return Index of the closest codebook entry.
+     */
+    public int quantizeToIndex(final int[] vectorData, final int offset) {
+        assert (offset + vectorSize <= vectorData.length) : "Wrong vector offset";
+        return euclideanSearch.findClosestEntryIndex(vectorData, offset);
+    }
+
     public int[][] quantize(final int[][] dataVectors, final int workerCount) {
         assert (dataVectors.length > 0 && dataVectors[0].length % vectorSize == 0) : "Wrong vector size";
         final int[][] result = new int[dataVectors.length][vectorSize];
@@ -42,6 +106,7 @@ public class VectorQuantizer {
                 result[vectorIndex] = findClosestCodebookEntry(dataVectors[vectorIndex], metric);
             }
         } else {
+            final int[][] codebookVectors = getCodebookVectors();
             final int[] indices = quantizeIntoIndices(dataVectors, workerCount);
             for (int i = 0; i < dataVectors.length; i++) {
                 result[i] = codebookVectors[indices[i]];
@@ -55,58 +120,137 @@ public class VectorQuantizer {
         return quantizeIntoIndices(dataVectors, 1);
     }
 
-    private int[] quantizeIntoIndicesImpl(final int[][] dataVectors,
+    private int[] quantizeIntoIndicesImpl(final int vectorCount,
                                           final int maxWorkerCount,
                                           final QuantizeVectorMethod method) {
+        final int[] indices = new int[vectorCount];
 
+        ParallelExecutor.parallelFor(vectorCount, maxWorkerCount, (fromIndex, toIndex) -> {
+            for (int vectorIndex = fromIndex; vectorIndex < toIndex; vectorIndex++) {
+                indices[vectorIndex] = method.call(vectorIndex);
+            }
+        });
 
+        return indices;
+    }
+
+    public int[] quantizeIntoIndices(final int[][] dataVectors, final int maxWorkerCount) {
         assert (dataVectors.length > 0 && dataVectors[0].length == vectorSize) : "Wrong vector size";
-        final int[] indices = new int[dataVectors.length];
+        return quantizeIntoIndicesImpl(dataVectors.length, maxWorkerCount, (final int vectorIndex) ->
+                findClosestCodebookEntryIndex(dataVectors[vectorIndex], metric));
+    }
 
-        if (maxWorkerCount == 1) {
-            for (int vectorIndex = 0; vectorIndex < dataVectors.length; vectorIndex++) {
-                indices[vectorIndex] = method.call(dataVectors[vectorIndex]);
-            }
-        } else {
-            // Cap the worker count on 8
-            final int workerCount = Math.min(maxWorkerCount, 8);
-            final Thread[] workers = new Thread[workerCount];
-            final int workSize = dataVectors.length / workerCount;
-
-            for (int wId = 0; wId < workerCount; wId++) {
-                final int fromIndex = wId * workSize;
-                final int toIndex = (wId == workerCount - 1) ? dataVectors.length : (workSize + (wId * workSize));
-
-                workers[wId] = new Thread(() -> {
-                    for (int vectorIndex = fromIndex; vectorIndex < toIndex; vectorIndex++) {
-                        indices[vectorIndex] = method.call(dataVectors[vectorIndex]);
-                    }
-                });
+    /**
+     * Quantize vectors of the flat batch into codebook indices.
+     * Large batches are quantized by the tiled batch search, when the tiled batch search method is selected and the
+     * vector cache is disabled. Result is the same as of the per vector search.
+     *
+     * @param vectors        Vector batch.
+     * @param maxWorkerCount Maximum number of worker threads.
+     * @return Indices of the closest codebook entries.
+     */
+    public int[] quantizeIntoIndices(final VectorBatch vectors, final int maxWorkerCount) {
+        assert (vectors.getVectorSize() == vectorSize) : "Wrong vector size";
+        final int[] vectorData = vectors.getData();
+        final int[] indices = new int[vectors.getVectorCount()];
+        final boolean useBatchSearch = canUseBatchSearch(indices.length);
+        ParallelExecutor.parallelFor(indices.length, maxWorkerCount, (fromIndex, toIndex) ->
+                quantizeRange(vectorData, fromIndex, toIndex, indices, useBatchSearch));
+        return indices;
+    }
 
-                workers[wId].start();
-            }
-            try {
-                for (int wId = 0; wId < workerCount; wId++) {
-                    workers[wId].join();
+    /**
+     * Quantize vectors of the flat batch in single parallel pass, which produces the codebook indices, histogram
+     * of the indices and the sum of squared errors. Every chunk of vectors is quantized and measured while its data
+     * are still in the cache.
+     *
+     * @param vectors        Vector batch.
+     * @param maxWorkerCount Maximum number of worker threads.
+     * @return Indices with their histogram and the quantization error.
+     */
+    public QuantizationResult quantizeWithStatistics(final VectorBatch vectors, final int maxWorkerCount) {
+        return quantizeWithStatistics(vectors, null, maxWorkerCount);
+    }
+
+    /**
+     * Quantize weighted vectors in single parallel pass. Every vector contributes to the histogram and to the
+     * error by its weight, so the result describes the data, from which the unique vectors were taken.
+     *
+     * @param vectors        Vector batch.
+     * @param weights        Number of occurrences of every vector, null if every vector occurs once.
+     * @param maxWorkerCount Maximum number of worker threads.
+     * @return Indices with their weighted histogram and the quantization error.
+     */
+    public QuantizationResult quantizeWithStatistics(final VectorBatch vectors,
+                                                     final int[] weights,
+                                                     final int maxWorkerCount) {
+        assert (vectors.getVectorSize() == vectorSize) : "Wrong vector size";
+        assert (weights == null || weights.length == vectors.getVectorCount()) : "Wrong weight count";
+        final int[] vectorData = vectors.getData();
+        final int[] codebookData = codebook.getVectorData();
+        final int codebookSize = codebookData.length / vectorSize;
+        final int vectorCount = vectors.getVectorCount();
+        final int[] indices = new int[vectorCount];
+        final boolean useBatchSearch = canUseBatchSearch(vectorCount);
+
+        final int chunkCount = ParallelExecutor.getChunkCount(vectorCount, maxWorkerCount);
+        final long[][] chunkHistograms = new long[chunkCount][];
+        final double[] chunkErrors = new double[chunkCount];
+
+        ParallelExecutor.forEachChunk(vectorCount, maxWorkerCount, (chunkIndex, fromIndex, toIndex) -> {
+            quantizeRange(vectorData, fromIndex, toIndex, indices, useBatchSearch);
+
+            final long[] histogram = new long[codebookSize];
+            double errorSum = 0.0;
+            for (int vectorIndex = fromIndex; vectorIndex < toIndex; vectorIndex++) {
+                final int entryIndex = indices[vectorIndex];
+                final long weight = (weights != null) ? weights[vectorIndex] : 1;
+                histogram[entryIndex] += weight;
+
+                final int vectorOffset = vectorIndex * vectorSize;
+                final int entryOffset = entryIndex * vectorSize;
+                long vectorError = 0;
+                for (int dim = 0; dim < vectorSize; dim++) {
+                    final long diff = vectorData[vectorOffset + dim] - codebookData[entryOffset + dim];
+                    vectorError += diff * diff;
                 }
-            } catch (final InterruptedException e) {
-                e.printStackTrace();
+                errorSum += (double) (weight * vectorError);
+            }
+            chunkHistograms[chunkIndex] = histogram;
+            chunkErrors[chunkIndex] = errorSum;
+        });
+
+        final long[] histogram = new long[codebookSize];
+        double errorSum = 0.0;
+        long totalWeight = 0;
+        for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+            for (int i = 0; i < codebookSize; i++) {
+                histogram[i] += chunkHistograms[chunkIndex][i];
+                totalWeight += chunkHistograms[chunkIndex][i];
             }
+            errorSum += chunkErrors[chunkIndex];
         }
-
-        return indices;
+        return new QuantizationResult(indices, histogram, errorSum, totalWeight * (long) vectorSize);
     }
 
-    //    public int[] quantizeIntoIndicesUsingKDTree(final int[][] dataVectors, final int maxWorkerCount) {
-    //
-    //        return quantizeIntoIndicesImpl(dataVectors, maxWorkerCount, (final int[] queryVector) ->
-    //                kdTree.findNearestBBF(queryVector, 8));
-    //    }
-
-    public int[] quantizeIntoIndices(final int[][] dataVectors, final int maxWorkerCount) {
+    private void quantizeRange(final int[] vectorData,
+                               final int fromIndex,
+                               final int toIndex,
+                               final int[] indices,
+                               final boolean useBatchSearch) {
+        if (useBatchSearch) {
+            batchSearch.findClosestEntries(vectorData, fromIndex, toIndex, indices);
+            return;
+        }
+        for (int vectorIndex = fromIndex; vectorIndex < toIndex; vectorIndex++) {
+            indices[vectorIndex] = euclideanSearch.findClosestEntryIndex(vectorData, vectorIndex * vectorSize);
+        }
+    }
 
-        return quantizeIntoIndicesImpl(dataVectors, maxWorkerCount, (final int[] queryVector) ->
-                findClosestCodebookEntryIndex(queryVector, metric));
+    private boolean canUseBatchSearch(final int vectorCount) {
+        return (batchSearch != null) &&
+                !(euclideanSearch instanceof CachedCodebookSearch) &&
+                (vectorCount >= MIN_BATCH_SEARCH_VECTOR_COUNT);
     }
 
     public static double distanceBetweenVectors(final int[] originalDataVector,
@@ -144,10 +288,14 @@ public class VectorQuantizer {
     }
 
     private int[] findClosestCodebookEntry(final int[] dataVector, final VectorDistanceMetric metric) {
-        return codebookVectors[findClosestCodebookEntryIndex(dataVector, metric)];
+        return getCodebookVectors()[findClosestCodebookEntryIndex(dataVector, metric)];
     }
 
     private int findClosestCodebookEntryIndex(final int[] dataVector, final VectorDistanceMetric metric) {
+        if (metric == VectorDistanceMetric.Euclidean) {
+            return euclideanSearch.findClosestEntryIndex(dataVector);
+        }
+        final int[][] codebookVectors = getCodebookVectors();
         double minDist = Double.MAX_VALUE;
         int closestEntryIndex = 0;
         for (int entryIndex = 0; entryIndex < codebookVectors.length; entryIndex++) {
@@ -163,12 +311,52 @@ public class VectorQuantizer {
         return closestEntryIndex;
     }
 
+    public VQCodebook getCodebook() {
+        return codebook;
+    }
+
     public int[][] getCodebookVectors() {
-        return codebookVectors;
+        return codebook.getVectors();
+    }
+
+    /**
+     * Get codebook vectors stored in single array.
+     *
+     * @return Flat codebook data.
+     */
+    public int[] getCodebookData() {
+        return codebook.getVectorData();
+    }
+
+    public int getVectorSize() {
+        return vectorSize;
     }
 
     public long[] getFrequencies() {
         return frequencies;
     }
+
+    /**
+     * Memoize the codebook search results of repeated vectors in per thread cache.
+     *
+     * @param capacity Maximum number of cached vectors per thread, zero disables the cache.
+     */
+    public void setVectorCacheCapacity(final int capacity) {
+        if (euclideanSearch instanceof CachedCodebookSearch) {
+            euclideanSearch = ((CachedCodebookSearch) euclideanSearch).getSearch();
+        }
+        if (capacity > 0) {
+            euclideanSearch = new CachedCodebookSearch(euclideanSearch, capacity, vectorSize);
+        }
+    }
+
+    /**
+     * Get the engine used for the nearest codebook entry search.
+     *
+     * @return Codebook search engine.
+     */
+    public ICodebookSearch getCodebookSearch() {
+        return euclideanSearch;
+    }
 }
 
@@ -0,0 +1,220 @@
+package cz.it4i.qcmp.utilities;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Library-wide execution service for data parallel loops.
+ * <p>
+ * Work is split into chunks, which are executed by shared work-stealing ForkJoinPool. Pools are created once for
+ * every requested parallelism and reused by all later calls, so no threads are spawned per call. Worker threads
+ * are daemon threads and don't block the application exit.
+ * <p>
+ * Concurrent jobs, which must not share the threads of the same parallelism, create their own job pool and run
+ * in it by runInPool(). All loops started by the job thread or by the workers of its pool use the job pool.
+ */
+public final class ParallelExecutor {
+
+    /**
+     * Number of chunks created per worker, more chunks give the work-stealing a chance to balance uneven work.
+     */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /**
+     * Pools indexed by their parallelism.
+     */
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Job pool of the current thread or null if the thread uses the shared pools.
+     */
+    private static final ThreadLocal<ForkJoinPool> jobPool = new ThreadLocal<>();
+
+    /**
+     * Task processing continuous index range.
+     */
+    public interface RangeTask {
+        void run(final int fromIndex, final int toIndex);
+    }
+
+    /**
+     * Task processing single chunk of the index range. Chunk index can be used to address per-chunk accumulators.
+     */
+    public interface ChunkTask {
+        void run(final int chunkIndex, final int fromIndex, final int toIndex);
+    }
+
+    /**
+     * Job executed with the job pool.
+     *
+     * @param <E> Type of the exception thrown by the job.
+     */
+    public interface PoolJob<E extends Exception> {
+        void run() throws E;
+    }
+
+    private ParallelExecutor() {
+    }
+
+    /**
+     * Get the shared pool with given parallelism.
+     *
+     * @param parallelism Number of worker threads.
+     * @return ForkJoinPool with requested parallelism.
+     */
+    public static ForkJoinPool getPool(final int parallelism) {
+        return pools.computeIfAbsent(Math.max(1, parallelism), p -> new ForkJoinPool(p, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setDaemon(true);
+            thread.setName("qcmp-worker-" + p + "-" + thread.getPoolIndex());
+            return thread;
+        }, null, false));
+    }
+
+    /**
+     * Create the pool dedicated to single job. Pool isn't shared and must be shut down by the caller.
+     *
+     * @param parallelism Number of worker threads.
+     * @return New ForkJoinPool with requested parallelism.
+     */
+    public static ForkJoinPool createJobPool(final int parallelism) {
+        return new ForkJoinPool(Math.max(1, parallelism), JobWorkerThread::new, null, false);
+    }
+
+    /**
+     * Run the job on the current thread, loops of the job are executed by the job pool instead of the shared pools.
+     *
+     * @param pool Job pool created by createJobPool().
+     * @param job  Job to run.
+     * @param <E>  Type of the exception thrown by the job.
+     * @throws E when the job fails.
+     */
+    public static <E extends Exception> void runInPool(final ForkJoinPool pool, final PoolJob<E> job) throws E {
+        final ForkJoinPool previousPool = jobPool.get();
+        jobPool.set(pool);
+        try {
+            job.run();
+        } finally {
+            if (previousPool != null) {
+                jobPool.set(previousPool);
+            } else {
+                jobPool.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the pool executing the loops of the current thread.
+     *
+     * @param workerCount Number of workers requested by the loop.
+     * @return Job pool of the current job or the shared pool with given parallelism.
+     */
+    private static ForkJoinPool getCurrentPool(final int workerCount) {
+        final ForkJoinPool pool = jobPool.get();
+        if (pool != null) {
+            return pool;
+        }
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof JobWorkerThread) {
+            return ((JobWorkerThread) thread).getPool();
+        }
+        return getPool(workerCount);
+    }
+
+    /**
+     * Get the number of chunks into which the index range is split.
+     *
+     * @param count       Size of the index range.
+     * @param workerCount Number of workers.
+     * @return Number of chunks.
+     */
+    public static int getChunkCount(final int count, final int workerCount) {
+        if (count <= 0) {
+            return 0;
+        }
+        if (workerCount <= 1) {
+            return 1;
+        }
+        return Math.min(count, workerCount * CHUNKS_PER_WORKER);
+    }
+
+    /**
+     * Execute task over the index range [0, count) with given number of workers.
+     *
+     * @param count       Size of the index range.
+     * @param workerCount Number of workers.
+     * @param task        Task processing index sub-range.
+     */
+    public static void parallelFor(final int count, final int workerCount, final RangeTask task) {
+        forEachChunk(count, workerCount, (chunkIndex, fromIndex, toIndex) -> task.run(fromIndex, toIndex));
+    }
+
+    /**
+     * Execute task over the index range [0, count) split into getChunkCount(count, workerCount) chunks.
+     * Method returns after all chunks were processed.
+     *
+     * @param count       Size of the index range.
+     * @param workerCount Number of workers.
+     * @param task        Task processing single chunk.
+     */
+    public static void forEachChunk(final int count, final int workerCount, final ChunkTask task) {
+        final int chunkCount = getChunkCount(count, workerCount);
+        if (chunkCount == 0) {
+            return;
+        }
+        if (chunkCount == 1) {
+            task.run(0, 0, count);
+            return;
+        }
+        getCurrentPool(workerCount).invoke(new ChunkAction(task, count, chunkCount, 0, chunkCount));
+    }
+
+    /**
+     * Daemon worker thread of the job pool.
+     */
+    private static final class JobWorkerThread extends ForkJoinWorkerThread {
+        JobWorkerThread(final ForkJoinPool pool) {
+            super(pool);
+            setDaemon(true);
+            setName("qcmp-job-worker-" + getPoolIndex());
+        }
+    }
+
+    /**
+     * Action recursively splitting the chunk range until single chunk remains.
+     */
+    private static final class ChunkAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ChunkTask task;
+        private final int count;
+        private final int chunkCount;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkAction(final ChunkTask task, final int count, final int chunkCount, final int fromChunk, final int toChunk) {
+            this.task = task;
+            this.count = count;
+            this.chunkCount = chunkCount;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        private int chunkStart(final int chunkIndex) {
+            return (int) (((long) count * (long) chunkIndex) / (long) chunkCount);
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk == 1) {
+                task.run(fromChunk, chunkStart(fromChunk), chunkStart(fromChunk + 1));
+                return;
+            }
+            final int middleChunk = (fromChunk + toChunk) >>> 1;
+            invokeAll(new ChunkAction(task, count, chunkCount, fromChunk, middleChunk),
+                      new ChunkAction(task, count, chunkCount, middleChunk, toChunk));
+        }
+    }
+}
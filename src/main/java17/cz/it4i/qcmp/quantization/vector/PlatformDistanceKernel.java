@@ -0,0 +1,23 @@
+package cz.it4i.qcmp.quantization.vector;
+
+/**
+ * Factory of the platform specific distance kernel, JDK 17+ version. Vector API kernel is used when
+ * the jdk.incubator.vector module is present in the boot layer, otherwise the scalar kernel is used.
+ */
+final class PlatformDistanceKernel {
+    private static final String VECTOR_MODULE_NAME = "jdk.incubator.vector";
+
+    private PlatformDistanceKernel() {
+    }
+
+    static IDistanceKernel create() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE_NAME).isPresent()) {
+            try {
+                return new VectorApiDistanceKernel();
+            } catch (final LinkageError e) {
+                // Vector API is not usable on this JVM, fall back to the scalar kernel.
+            }
+        }
+        return new ScalarDistanceKernel();
+    }
+}
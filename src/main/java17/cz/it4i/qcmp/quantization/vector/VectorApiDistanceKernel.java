@@ -0,0 +1,264 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Distance kernel using the Vector API.
+ * <p>
+ * Single distance widens integer elements to long lanes, so squared differences of 16 bit values can't overflow.
+ * Vectors shorter than one long vector use the scalar kernel.
+ * <p>
+ * Closest entry search of the packed codebook evaluates one block of entries per SIMD register, lane l holds
+ * the distance to entry block * blockLength + l, so even the 9 element vectors use all lanes. Distances are
+ * accumulated in double lanes, which are exact while the sum of squared differences stays below 2^53, i.e. for
+ * 16 bit elements and vectors shorter than 2^20 elements. Every lane keeps its minimum distance and the lowest
+ * entry index reaching it, the lanes are reduced after the last block. Vectors of 9 elements (3x3) have the query
+ * elements broadcast once per search, 27 (3x3x3) and 64 (4x4x4) elements evaluate two blocks per pass with
+ * the element loop unrolled by three and four.
+ */
+final class VectorApiDistanceKernel implements IDistanceKernel {
+    private static final VectorSpecies<Long> LONG_SPECIES = LongVector.SPECIES_PREFERRED;
+
+    /**
+     * Integer species with the same lane count as LONG_SPECIES.
+     */
+    private static final VectorSpecies<Integer> INT_SPECIES =
+            IntVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(LONG_SPECIES.vectorBitSize() / 2));
+
+    private static final int LANE_COUNT = LONG_SPECIES.length();
+
+    private static final VectorSpecies<Double> DOUBLE_SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Number of codebook entries evaluated at once, one per double lane.
+     */
+    private static final int BLOCK_LENGTH = DOUBLE_SPECIES.length();
+
+    /**
+     * Lane offsets 0, 1, ..., BLOCK_LENGTH - 1 of the entry indices within the block.
+     */
+    private static final DoubleVector LANE_INDICES = DoubleVector.zero(DOUBLE_SPECIES).addIndex(1);
+
+    private final ScalarDistanceKernel scalarKernel = new ScalarDistanceKernel();
+
+    @Override
+    public long squaredDistance(final int[] a, final int aOffset, final int[] b, final int bOffset, final int size) {
+        if (size < LANE_COUNT) {
+            return scalarKernel.squaredDistance(a, aOffset, b, bOffset, size);
+        }
+        LongVector sum = LongVector.zero(LONG_SPECIES);
+        final int vectorizedSize = LONG_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < vectorizedSize; i += LANE_COUNT) {
+            final LongVector va = widen(a, aOffset + i);
+            final LongVector vb = widen(b, bOffset + i);
+            final LongVector diff = va.sub(vb);
+            sum = sum.add(diff.mul(diff));
+        }
+        long result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < size; i++) {
+            final long diff = a[aOffset + i] - b[bOffset + i];
+            result += diff * diff;
+        }
+        return result;
+    }
+
+    private static LongVector widen(final int[] data, final int offset) {
+        return (LongVector) IntVector.fromArray(INT_SPECIES, data, offset).convertShape(VectorOperators.I2L, LONG_SPECIES, 0);
+    }
+
+    @Override
+    public PackedCodebook packCodebook(final int[] codebookData, final int codebookSize, final int vectorSize) {
+        return new PackedCodebook(codebookData, codebookSize, vectorSize, BLOCK_LENGTH);
+    }
+
+    @Override
+    public int findClosestEntry(final PackedCodebook codebook, final int[] vectorData, final int offset) {
+        if (codebook.getBlockLength() != BLOCK_LENGTH) {
+            return IDistanceKernel.super.findClosestEntry(codebook, vectorData, offset);
+        }
+        switch (codebook.getVectorSize()) {
+            case 9:
+                return findClosestEntry9(codebook, vectorData, offset);
+            case 27:
+                return findClosestEntry27(codebook, vectorData, offset);
+            case 64:
+                return findClosestEntry64(codebook, vectorData, offset);
+            default:
+                return findClosestEntryGeneric(codebook, vectorData, offset);
+        }
+    }
+
+    /**
+     * Lane-wise minimum distances and the entry indices reaching them.
+     */
+    private static final class LaneMinimum {
+        private DoubleVector distances = DoubleVector.broadcast(DOUBLE_SPECIES, Double.POSITIVE_INFINITY);
+        private DoubleVector indices = DoubleVector.zero(DOUBLE_SPECIES);
+
+        /**
+         * Update the lanes with the distances of the block. Blocks must be offered in the increasing order, so
+         * the strict comparison keeps the lowest index of equal distances.
+         *
+         * @param blockDistances Distances to the entries of the block.
+         * @param block          Block index.
+         */
+        void update(final DoubleVector blockDistances, final int block) {
+            final VectorMask<Double> closer = blockDistances.lt(distances);
+            distances = distances.blend(blockDistances, closer);
+            indices = indices.blend(LANE_INDICES.add((double) (block * BLOCK_LENGTH)), closer);
+        }
+
+        int getClosestEntry() {
+            final double minDistance = distances.reduceLanes(VectorOperators.MIN);
+            return (int) indices.reduceLanes(VectorOperators.MIN, distances.eq(minDistance));
+        }
+    }
+
+    /**
+     * Add squared differences of one element of the block entries and the broadcast query element.
+     */
+    private static DoubleVector accumulate(final DoubleVector sum,
+                                           final double[] blockData,
+                                           final int index,
+                                           final DoubleVector queryElement) {
+        final DoubleVector diff = DoubleVector.fromArray(DOUBLE_SPECIES, blockData, index).sub(queryElement);
+        return diff.fma(diff, sum);
+    }
+
+    private static int findClosestEntry9(final PackedCodebook codebook, final int[] vectorData, final int offset) {
+        final double[] blockData = codebook.getBlockData();
+        final int blockCount = codebook.getBlockCount();
+        final DoubleVector q0 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset]);
+        final DoubleVector q1 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + 1]);
+        final DoubleVector q2 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + 2]);
+        final DoubleVector q3 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + 3]);
+        final DoubleVector q4 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + 4]);
+        final DoubleVector q5 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + 5]);
+        final DoubleVector q6 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + 6]);
+        final DoubleVector q7 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + 7]);
+        final DoubleVector q8 = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + 8]);
+        final LaneMinimum minimum = new LaneMinimum();
+        for (int block = 0; block < blockCount; block++) {
+            final int base = block * 9 * BLOCK_LENGTH;
+            DoubleVector sum = DoubleVector.zero(DOUBLE_SPECIES);
+            sum = accumulate(sum, blockData, base, q0);
+            sum = accumulate(sum, blockData, base + BLOCK_LENGTH, q1);
+            sum = accumulate(sum, blockData, base + 2 * BLOCK_LENGTH, q2);
+            sum = accumulate(sum, blockData, base + 3 * BLOCK_LENGTH, q3);
+            sum = accumulate(sum, blockData, base + 4 * BLOCK_LENGTH, q4);
+            sum = accumulate(sum, blockData, base + 5 * BLOCK_LENGTH, q5);
+            sum = accumulate(sum, blockData, base + 6 * BLOCK_LENGTH, q6);
+            sum = accumulate(sum, blockData, base + 7 * BLOCK_LENGTH, q7);
+            sum = accumulate(sum, blockData, base + 8 * BLOCK_LENGTH, q8);
+            minimum.update(sum, block);
+        }
+        return minimum.getClosestEntry();
+    }
+
+    private static int findClosestEntry27(final PackedCodebook codebook, final int[] vectorData, final int offset) {
+        final double[] blockData = codebook.getBlockData();
+        final int blockCount = codebook.getBlockCount();
+        final int blockStride = 27 * BLOCK_LENGTH;
+        final LaneMinimum minimum = new LaneMinimum();
+        int block = 0;
+        for (; block + 1 < blockCount; block += 2) {
+            final int base = block * blockStride;
+            DoubleVector sum0 = DoubleVector.zero(DOUBLE_SPECIES);
+            DoubleVector sum1 = DoubleVector.zero(DOUBLE_SPECIES);
+            for (int dim = 0; dim < 27; dim += 3) {
+                final DoubleVector qa = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + dim]);
+                final DoubleVector qb = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + dim + 1]);
+                final DoubleVector qc = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + dim + 2]);
+                final int index = base + dim * BLOCK_LENGTH;
+                sum0 = accumulate(sum0, blockData, index, qa);
+                sum1 = accumulate(sum1, blockData, index + blockStride, qa);
+                sum0 = accumulate(sum0, blockData, index + BLOCK_LENGTH, qb);
+                sum1 = accumulate(sum1, blockData, index + blockStride + BLOCK_LENGTH, qb);
+                sum0 = accumulate(sum0, blockData, index + 2 * BLOCK_LENGTH, qc);
+                sum1 = accumulate(sum1, blockData, index + blockStride + 2 * BLOCK_LENGTH, qc);
+            }
+            minimum.update(sum0, block);
+            minimum.update(sum1, block + 1);
+        }
+        if (block < blockCount) {
+            minimum.update(blockDistances(blockData, block, 27, vectorData, offset), block);
+        }
+        return minimum.getClosestEntry();
+    }
+
+    private static int findClosestEntry64(final PackedCodebook codebook, final int[] vectorData, final int offset) {
+        final double[] blockData = codebook.getBlockData();
+        final int blockCount = codebook.getBlockCount();
+        final int blockStride = 64 * BLOCK_LENGTH;
+        final LaneMinimum minimum = new LaneMinimum();
+        int block = 0;
+        for (; block + 1 < blockCount; block += 2) {
+            final int base = block * blockStride;
+            DoubleVector sum0 = DoubleVector.zero(DOUBLE_SPECIES);
+            DoubleVector sum1 = DoubleVector.zero(DOUBLE_SPECIES);
+            for (int dim = 0; dim < 64; dim += 4) {
+                final DoubleVector qa = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + dim]);
+                final DoubleVector qb = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + dim + 1]);
+                final DoubleVector qc = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + dim + 2]);
+                final DoubleVector qd = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + dim + 3]);
+                final int index = base + dim * BLOCK_LENGTH;
+                sum0 = accumulate(sum0, blockData, index, qa);
+                sum1 = accumulate(sum1, blockData, index + blockStride, qa);
+                sum0 = accumulate(sum0, blockData, index + BLOCK_LENGTH, qb);
+                sum1 = accumulate(sum1, blockData, index + blockStride + BLOCK_LENGTH, qb);
+                sum0 = accumulate(sum0, blockData, index + 2 * BLOCK_LENGTH, qc);
+                sum1 = accumulate(sum1, blockData, index + blockStride + 2 * BLOCK_LENGTH, qc);
+                sum0 = accumulate(sum0, blockData, index + 3 * BLOCK_LENGTH, qd);
+                sum1 = accumulate(sum1, blockData, index + blockStride + 3 * BLOCK_LENGTH, qd);
+            }
+            minimum.update(sum0, block);
+            minimum.update(sum1, block + 1);
+        }
+        if (block < blockCount) {
+            minimum.update(blockDistances(blockData, block, 64, vectorData, offset), block);
+        }
+        return minimum.getClosestEntry();
+    }
+
+    private static int findClosestEntryGeneric(final PackedCodebook codebook, final int[] vectorData, final int offset) {
+        final double[] blockData = codebook.getBlockData();
+        final int blockCount = codebook.getBlockCount();
+        final int vectorSize = codebook.getVectorSize();
+        final LaneMinimum minimum = new LaneMinimum();
+        for (int block = 0; block < blockCount; block++) {
+            minimum.update(blockDistances(blockData, block, vectorSize, vectorData, offset), block);
+        }
+        return minimum.getClosestEntry();
+    }
+
+    /**
+     * Calculate the squared distances of the query vector to all entries of single block.
+     *
+     * @param blockData  Blocked codebook data.
+     * @param block      Block index.
+     * @param vectorSize Number of elements of single vector.
+     * @param vectorData Array containing the query vector.
+     * @param offset     Offset of the query vector.
+     * @return Distances to the block entries.
+     */
+    private static DoubleVector blockDistances(final double[] blockData,
+                                               final int block,
+                                               final int vectorSize,
+                                               final int[] vectorData,
+                                               final int offset) {
+        final int base = block * vectorSize * BLOCK_LENGTH;
+        DoubleVector sum = DoubleVector.zero(DOUBLE_SPECIES);
+        for (int dim = 0; dim < vectorSize; dim++) {
+            final DoubleVector query = DoubleVector.broadcast(DOUBLE_SPECIES, vectorData[offset + dim]);
+            sum = accumulate(sum, blockData, base + dim * BLOCK_LENGTH, query);
+        }
+        return sum;
+    }
+}
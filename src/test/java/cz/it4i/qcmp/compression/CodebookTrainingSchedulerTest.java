@@ -0,0 +1,121 @@
+package cz.it4i.qcmp.compression;
+
+import cz.it4i.qcmp.cache.QuantizationCacheManager;
+import cz.it4i.qcmp.compression.exception.ImageCompressionException;
+import cz.it4i.qcmp.data.Range;
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.fileformat.QuantizationType;
+import cz.it4i.qcmp.io.FlatBufferInputData;
+import cz.it4i.qcmp.io.InputData;
+import cz.it4i.qcmp.quantization.scalar.SQCodebook;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Codebooks trained by {@link CodebookTrainingScheduler} must be the same as of the separate training runs.
+ */
+public class CodebookTrainingSchedulerTest {
+    private static final String CACHE_HINT = "scheduler-test";
+    private static final V3i DIMENSIONS = new V3i(32, 16, 6);
+    private static final int BITS_PER_CODEBOOK_INDEX = 3;
+
+    /**
+     * Create planes, whose values don't overlap, so that every plane changes the trained codebook.
+     */
+    private static short[] createPlanes() {
+        final Random random = new Random(21);
+        final int planePixelCount = DIMENSIONS.getX() * DIMENSIONS.getY();
+        final short[] buffer = new short[planePixelCount * DIMENSIONS.getZ()];
+        for (int plane = 0; plane < DIMENSIONS.getZ(); plane++) {
+            for (int i = 0; i < planePixelCount; i++) {
+                buffer[(plane * planePixelCount) + i] = (short) ((plane * 4000) + random.nextInt(1000));
+            }
+        }
+        return buffer;
+    }
+
+    private static CompressionOptions createOptions(final short[] buffer, final Range<Integer> planeRange) {
+        final InputData inputData = new FlatBufferInputData(buffer, DIMENSIONS, InputData.PixelType.Gray16,
+                                                            CACHE_HINT);
+        inputData.setPlaneRange(planeRange);
+        final CompressionOptions options = new CompressionOptions();
+        options.setInputDataInfo(inputData);
+        options.setBitsPerCodebookIndex(BITS_PER_CODEBOOK_INDEX);
+        options.setCodebookType(CompressionOptions.CodebookType.Global);
+        options.setWorkerCount(2);
+        return options;
+    }
+
+    private static SQCodebook trainStandaloneSQCodebook(final short[] buffer,
+                                                        final Range<Integer> planeRange,
+                                                        final File cacheFolder) throws ImageCompressionException {
+        final CompressionOptions options = createOptions(buffer, planeRange);
+        options.setQuantizationType(QuantizationType.Scalar);
+        options.setQuantizationVector(new V3i(1, 1, 1));
+        options.setCodebookCacheFolder(cacheFolder.getAbsolutePath());
+        new SQImageCompressor(options).trainAndSaveCodebook();
+        return loadSQCodebook(cacheFolder);
+    }
+
+    private static SQCodebook loadSQCodebook(final File cacheFolder) {
+        final SQCodebook codebook = new QuantizationCacheManager(cacheFolder.getAbsolutePath())
+                .loadSQCodebook(CACHE_HINT, 1 << BITS_PER_CODEBOOK_INDEX);
+        assertNotNull("SQ codebook wasn't saved to " + cacheFolder, codebook);
+        return codebook;
+    }
+
+    private static void deleteFolder(final File folder) {
+        final File[] files = folder.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        folder.delete();
+    }
+
+    @Test
+    public void scalarCodebookOfPlaneRangeIsSameAsOfStandaloneTraining() throws IOException, ImageCompressionException {
+        final short[] buffer = createPlanes();
+        final Range<Integer> planeRange = new Range<>(1, 3);
+        final File schedulerFolder = Files.createTempDirectory("qcmp-scheduler").toFile();
+        final File standaloneFolder = Files.createTempDirectory("qcmp-standalone").toFile();
+        final File shorterRangeFolder = Files.createTempDirectory("qcmp-shorter").toFile();
+        try {
+            final CompressionOptions options = createOptions(buffer, planeRange);
+            options.setCodebookCacheFolder(schedulerFolder.getAbsolutePath());
+            options.setTrainingConfigurations(Collections.singletonList(new CodebookTrainingConfiguration()));
+            assertTrue("Scheduled training failed", new CodebookTrainingScheduler(options).trainAndSaveCodebooks());
+            final SQCodebook scheduledCodebook = loadSQCodebook(schedulerFolder);
+
+            final SQCodebook standaloneCodebook = trainStandaloneSQCodebook(buffer, planeRange, standaloneFolder);
+            assertArrayEquals("Centroids", standaloneCodebook.getCentroids(), scheduledCodebook.getCentroids());
+            assertArrayEquals("Frequencies",
+                              standaloneCodebook.getSymbolFrequencies(),
+                              scheduledCodebook.getSymbolFrequencies());
+
+            // Without the last plane of the range the codebook differs, so the comparison above includes it.
+            final SQCodebook shorterRangeCodebook = trainStandaloneSQCodebook(buffer, new Range<>(1, 2),
+                                                                              shorterRangeFolder);
+            assertFalse("Last plane doesn't change the codebook",
+                        Arrays.equals(shorterRangeCodebook.getCentroids(), scheduledCodebook.getCentroids()));
+        } finally {
+            deleteFolder(schedulerFolder);
+            deleteFolder(standaloneFolder);
+            deleteFolder(shorterRangeFolder);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package cz.it4i.qcmp.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Size and distribution checks of the uniform and the weighted {@link VectorReservoir} sampling. Vectors carry
+ * their stream position as the first element, so the sampled positions can be counted.
+ */
+public class VectorReservoirTest {
+
+    /**
+     * Create vectors, whose first element is the stream position and the second one differs from it by the
+     * given offset.
+     *
+     * @param fromPosition Stream position of the first vector.
+     * @param vectorCount  Number of vectors.
+     * @param offsets      Offset of the second element of every stream position.
+     * @return Batch of two element vectors.
+     */
+    private static VectorBatch createBatch(final int fromPosition, final int vectorCount, final int[] offsets) {
+        final VectorBatch batch = new VectorBatch(2, vectorCount);
+        for (int i = 0; i < vectorCount; i++) {
+            final int position = fromPosition + i;
+            batch.getData()[2 * i] = position;
+            batch.getData()[(2 * i) + 1] = position + offsets[position];
+        }
+        return batch;
+    }
+
+    /**
+     * Offer the whole stream in batches of random size and count the sampled stream positions.
+     *
+     * @param reservoir     Empty reservoir.
+     * @param offsets       Offset of the second element of every stream position.
+     * @param random        Random generator of the batch sizes.
+     * @param sampledCounts Number of samples containing every stream position, updated.
+     */
+    private static void sampleStream(final VectorReservoir reservoir,
+                                     final int[] offsets,
+                                     final Random random,
+                                     final int[] sampledCounts) {
+        int position = 0;
+        while (position < offsets.length) {
+            final int batchSize = Math.min(offsets.length - position, 1 + random.nextInt(200));
+            reservoir.add(createBatch(position, batchSize, offsets));
+            position += batchSize;
+        }
+        assertEquals(offsets.length, reservoir.getOfferedCount());
+
+        final VectorBatch sample = reservoir.toVectorBatch();
+        final boolean[] sampled = new boolean[offsets.length];
+        for (int i = 0; i < sample.getVectorCount(); i++) {
+            final int samplePosition = sample.getData()[sample.getOffset(i)];
+            assertTrue("Vector was sampled twice", !sampled[samplePosition]);
+            assertEquals("Vector was corrupted", samplePosition + offsets[samplePosition],
+                         sample.getData()[sample.getOffset(i) + 1]);
+            sampled[samplePosition] = true;
+            ++sampledCounts[samplePosition];
+        }
+    }
+
+    @Test
+    public void keepsOfferedVectorsUntilFull() {
+        for (final boolean importanceWeighting : new boolean[]{false, true}) {
+            final int[] offsets = new int[60];
+            final VectorReservoir reservoir = new VectorReservoir(2, 100, importanceWeighting, new Random(1));
+            reservoir.add(createBatch(0, 25, offsets));
+            reservoir.add(createBatch(25, 35, offsets));
+
+            assertEquals(60, reservoir.getSize());
+            assertEquals(60, reservoir.getOfferedCount());
+            assertArrayEquals(createBatch(0, 60, offsets).getData(), reservoir.toVectorBatch().getData());
+        }
+    }
+
+    @Test
+    public void sampleSizeIsBoundedByCapacity() {
+        for (final boolean importanceWeighting : new boolean[]{false, true}) {
+            final int[] offsets = new int[10000];
+            final VectorReservoir reservoir = new VectorReservoir(2, 100, importanceWeighting, new Random(2));
+            sampleStream(reservoir, offsets, new Random(3), new int[offsets.length]);
+
+            assertEquals(100, reservoir.getSize());
+            assertEquals(100, reservoir.toVectorBatch().getVectorCount());
+        }
+    }
+
+    @Test
+    public void uniformSampleIncludesEveryVectorEqually() {
+        final int streamLength = 1000;
+        final int capacity = 100;
+        final int trialCount = 2000;
+        final int[] offsets = new int[streamLength];
+        final int[] sampledCounts = new int[streamLength];
+        final Random random = new Random(4);
+        for (int trial = 0; trial < trialCount; trial++) {
+            sampleStream(new VectorReservoir(2, capacity, false, random), offsets, random, sampledCounts);
+        }
+
+        // Chi-square statistic of the inclusion counts has streamLength - 1 degrees of freedom, the bound is
+        // more than five standard deviations above its mean.
+        final double expectedCount = (double) trialCount * capacity / streamLength;
+        double chiSquare = 0.0;
+        for (final int count : sampledCounts) {
+            chiSquare += (count - expectedCount) * (count - expectedCount) / expectedCount;
+        }
+        final double degreesOfFreedom = streamLength - 1;
+        assertTrue("Chi-square " + chiSquare,
+                   chiSquare < degreesOfFreedom + (5.0 * Math.sqrt(2.0 * degreesOfFreedom)));
+    }
+
+    @Test
+    public void weightedSampleFollowsImportance() {
+        // Even positions are flat vectors of weight 1, odd positions have standard deviation 3 and weight 4.
+        final int streamLength = 1000;
+        final int capacity = 10;
+        final int trialCount = 4000;
+        final int[] offsets = new int[streamLength];
+        for (int position = 1; position < streamLength; position += 2) {
+            offsets[position] = 6;
+        }
+        final int[] sampledCounts = new int[streamLength];
+        final Random random = new Random(5);
+        for (int trial = 0; trial < trialCount; trial++) {
+            sampleStream(new VectorReservoir(2, capacity, true, random), offsets, random, sampledCounts);
+        }
+
+        final long[] weightedCounts = new long[2];
+        final long[] halfCounts = new long[2];
+        for (int position = 0; position < streamLength; position++) {
+            weightedCounts[position % 2] += sampledCounts[position];
+            halfCounts[(2 * position) / streamLength] += sampledCounts[position];
+        }
+        final double totalCount = (double) trialCount * capacity;
+        // Small sample of the large stream is drawn nearly proportionally to the weights, 4 / (4 + 1).
+        assertEquals(0.8, weightedCounts[1] / totalCount, 0.02);
+        // Position in the stream doesn't change the inclusion probability.
+        assertEquals(0.5, halfCounts[0] / totalCount, 0.02);
+    }
+}
@@ -0,0 +1,110 @@
+package cz.it4i.qcmp.quantization.scalar;
+
+import cz.it4i.qcmp.quantization.QTrainIteration;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks of the histogram based {@link LloydMaxU16ScalarQuantization} training against the per value quantization.
+ */
+public class LloydMaxU16ScalarQuantizationTest {
+    private static final int MIN_VALUE = 100;
+    private static final int MAX_VALUE = 400;
+    private static final int CODEBOOK_SIZE = 8;
+
+    /**
+     * Create random values, which contain every value of [MIN_VALUE, MAX_VALUE] at least once. Boundary points of
+     * the trained quantizer lie in this range, so values equal to every boundary point are present.
+     *
+     * @param random     Random generator.
+     * @param valueCount Number of values, larger than the range size.
+     * @return Shuffled values.
+     */
+    private static int[] createValues(final Random random, final int valueCount) {
+        final int[] values = new int[valueCount];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i <= (MAX_VALUE - MIN_VALUE))
+                    ? MIN_VALUE + i
+                    : MIN_VALUE + random.nextInt(MAX_VALUE - MIN_VALUE + 1);
+        }
+        for (int i = values.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return values;
+    }
+
+    @Test
+    public void trainingMseAndFrequenciesMatchPerValueQuantization() {
+        final Random random = new Random(25);
+        for (final int workerCount : new int[]{1, 3}) {
+            final int[] values = createValues(random, 5000);
+            final LloydMaxU16ScalarQuantization lloydMax = new LloydMaxU16ScalarQuantization(values, CODEBOOK_SIZE,
+                                                                                             workerCount);
+            final QTrainIteration[] iterations = lloydMax.train();
+            final double trainingMse = iterations[iterations.length - 1].getMse();
+            final long[] trainingFrequencies = lloydMax.getCodebook().getSymbolFrequencies().clone();
+
+            // quantize() puts the value on the boundary point to the lower interval and increments its frequency.
+            long squaredErrorSum = 0;
+            for (final int value : values) {
+                final long error = value - lloydMax.quantize(value);
+                squaredErrorSum += error * error;
+            }
+            final long[] quantizedFrequencies = lloydMax.getCodebook().getSymbolFrequencies().clone();
+            for (int i = 0; i < CODEBOOK_SIZE; i++) {
+                quantizedFrequencies[i] -= trainingFrequencies[i];
+            }
+
+            assertArrayEquals("Frequencies, " + workerCount + " workers", quantizedFrequencies, trainingFrequencies);
+            // Squared errors are integers, so both sums are exact and the MSE is bit-identical.
+            assertEquals("MSE, " + workerCount + " workers",
+                         (double) squaredErrorSum / values.length, trainingMse, 0.0);
+        }
+    }
+
+    @Test
+    public void histogramOfBatchesIsSameAsOfSingleArray() {
+        final Random random = new Random(26);
+        final int[] values = createValues(random, 7919);
+        final U16Histogram singleHistogram = new U16Histogram(3);
+        singleHistogram.add(values);
+
+        // Batches of random size, including empty ones and batches smaller than the worker count.
+        final U16Histogram batchHistogram = new U16Histogram(3);
+        int fromIndex = 0;
+        while (fromIndex < values.length) {
+            final int toIndex = Math.min(values.length, fromIndex + random.nextInt(600));
+            batchHistogram.add(Arrays.copyOfRange(values, fromIndex, toIndex));
+            fromIndex = toIndex;
+        }
+
+        assertArrayEquals("Counts", singleHistogram.getCounts(), batchHistogram.getCounts());
+        assertEquals(values.length, batchHistogram.getTotalCount());
+        assertEquals(MIN_VALUE, batchHistogram.getMin());
+        assertEquals(MAX_VALUE, batchHistogram.getMax());
+
+        final LloydMaxU16ScalarQuantization singleLloydMax = new LloydMaxU16ScalarQuantization(values,
+                                                                                               CODEBOOK_SIZE, 3);
+        final LloydMaxU16ScalarQuantization batchLloydMax = new LloydMaxU16ScalarQuantization(batchHistogram,
+                                                                                              CODEBOOK_SIZE, 3);
+        final QTrainIteration[] singleIterations = singleLloydMax.train();
+        final QTrainIteration[] batchIterations = batchLloydMax.train();
+        assertEquals("Iteration count", singleIterations.length, batchIterations.length);
+        assertEquals("MSE", singleIterations[singleIterations.length - 1].getMse(),
+                     batchIterations[batchIterations.length - 1].getMse(), 0.0);
+        assertArrayEquals("Centroids",
+                          singleLloydMax.getCodebook().getCentroids(),
+                          batchLloydMax.getCodebook().getCentroids());
+        assertArrayEquals("Frequencies",
+                          singleLloydMax.getCodebook().getSymbolFrequencies(),
+                          batchLloydMax.getCodebook().getSymbolFrequencies());
+    }
+}
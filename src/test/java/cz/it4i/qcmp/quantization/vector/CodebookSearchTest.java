@@ -0,0 +1,252 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.data.VectorBatch;
+import cz.it4i.qcmp.kdtree.KDTreeBuilder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized equivalence of every exact codebook search with the brute-force search. All searches run on the same
+ * random codebooks and queries, including queries equal to codebook entries and codebooks of small repeated values,
+ * where ties must resolve to the lower entry index.
+ */
+@RunWith(Parameterized.class)
+public class CodebookSearchTest {
+    private static final int[] VECTOR_SIZES = {1, 4, 9, 27, 64};
+    private static final int[] CODEBOOK_SIZES = {1, 2, 7, 64, 100, 256};
+    private static final int QUERY_COUNT = 500;
+
+    /**
+     * Largest value of the tied codebooks, small range makes the equal distances frequent.
+     */
+    private static final int TIED_MAX_VALUE = 3;
+
+    /**
+     * Cache capacity of the tested cached search, smaller than the query count so that entries get evicted.
+     */
+    private static final int CACHE_CAPACITY = 64;
+
+    /**
+     * Search of the closest entries of the queries in range [fromIndex, toIndex).
+     */
+    private interface IBatchSearch {
+        void findClosestEntries(final int[] queryData, final int fromIndex, final int toIndex, final int[] indices);
+    }
+
+    /**
+     * Factory of the tested search.
+     */
+    private interface ISearchFactory {
+        IBatchSearch createSearch(final int[] codebookData, final int vectorSize);
+    }
+
+    private final ISearchFactory searchFactory;
+
+    public CodebookSearchTest(final String searchName, final ISearchFactory searchFactory) {
+        this.searchFactory = searchFactory;
+    }
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> getSearches() {
+        return Arrays.asList(new Object[][]{
+                {"PartialDistanceSearch", (ISearchFactory) (codebookData, vectorSize) ->
+                        exactSearch(new PartialDistanceSearch(codebookData, vectorSize), vectorSize)},
+                {"PartialDistanceSearch by frequency", (ISearchFactory) (codebookData, vectorSize) ->
+                        exactSearch(new PartialDistanceSearch(codebookData, vectorSize,
+                                                              createFrequencies(codebookData.length / vectorSize)),
+                                    vectorSize)},
+                {"PruningSearchIndex", (ISearchFactory) (codebookData, vectorSize) ->
+                        exactSearch(new PruningSearchIndex(codebookData, vectorSize), vectorSize)},
+                {"KDTreeSearch", (ISearchFactory) (codebookData, vectorSize) ->
+                        exactSearch(createExactKDTreeSearch(codebookData, vectorSize), vectorSize)},
+                {"FullScanSearch", (ISearchFactory) (codebookData, vectorSize) ->
+                        exactSearch(new FullScanSearch(codebookData, vectorSize), vectorSize)},
+                {"CachedCodebookSearch", (ISearchFactory) (codebookData, vectorSize) ->
+                        exactSearch(new CachedCodebookSearch(new FullScanSearch(codebookData, vectorSize),
+                                                             CACHE_CAPACITY, vectorSize), vectorSize)},
+                {"TiledBatchSearch", (ISearchFactory) (codebookData, vectorSize) ->
+                        new TiledBatchSearch(codebookData, vectorSize)::findClosestEntries}
+        });
+    }
+
+    private static IBatchSearch exactSearch(final ICodebookSearch search, final int vectorSize) {
+        return (queryData, fromIndex, toIndex, indices) -> {
+            for (int query = fromIndex; query < toIndex; query++) {
+                indices[query] = search.findClosestEntryIndex(queryData, query * vectorSize);
+            }
+        };
+    }
+
+    /**
+     * Best Bin First search without approximation (maxE = 0).
+     */
+    private static KDTreeSearch createExactKDTreeSearch(final int[] codebookData, final int vectorSize) {
+        final KDTreeBuilder builder = new KDTreeBuilder(vectorSize, KDTreeSearch.BUCKET_SIZE);
+        return new KDTreeSearch(builder.buildTree(new VectorBatch(codebookData, vectorSize).toVectorArray()), 0);
+    }
+
+    /**
+     * Create frequencies of small values, so that the search order contains runs of equally frequent entries.
+     */
+    private static long[] createFrequencies(final int codebookSize) {
+        final Random random = new Random(codebookSize);
+        final long[] frequencies = new long[codebookSize];
+        for (int entry = 0; entry < codebookSize; entry++) {
+            frequencies[entry] = random.nextInt(4);
+        }
+        return frequencies;
+    }
+
+    @Test
+    public void findsSameEntriesAsBruteForce() {
+        final Random random = new Random(1);
+        for (final int vectorSize : VECTOR_SIZES) {
+            for (final int codebookSize : CODEBOOK_SIZES) {
+                final int[] codebookData = createRandomVectors(random, codebookSize, vectorSize, U16.Max);
+                final int[] queryData = createRandomVectors(random, QUERY_COUNT, vectorSize, U16.Max);
+                // Every fourth query is a copy of random codebook entry.
+                for (int query = 0; query < QUERY_COUNT; query += 4) {
+                    System.arraycopy(codebookData, random.nextInt(codebookSize) * vectorSize,
+                                     queryData, query * vectorSize, vectorSize);
+                }
+                assertSameAsBruteForce(codebookData, vectorSize, queryData);
+            }
+        }
+    }
+
+    @Test
+    public void resolvesTiesToLowerIndex() {
+        final Random random = new Random(2);
+        int tiedQueryCount = 0;
+        for (final int vectorSize : VECTOR_SIZES) {
+            for (final int codebookSize : CODEBOOK_SIZES) {
+                final int[] codebookData = createRandomVectors(random, codebookSize, vectorSize, TIED_MAX_VALUE);
+                // Every odd entry is a copy of some preceding entry.
+                for (int entry = 1; entry < codebookSize; entry += 2) {
+                    System.arraycopy(codebookData, random.nextInt(entry) * vectorSize,
+                                     codebookData, entry * vectorSize, vectorSize);
+                }
+                final int[] queryData = createRandomVectors(random, QUERY_COUNT, vectorSize, TIED_MAX_VALUE);
+                tiedQueryCount += assertSameAsBruteForce(codebookData, vectorSize, queryData);
+            }
+        }
+        assertTrue("Tied codebooks produced no ties", tiedQueryCount > 0);
+    }
+
+    @Test
+    public void fillsOnlyRequestedRange() {
+        final Random random = new Random(3);
+        final int vectorSize = 9;
+        final int[] codebookData = createRandomVectors(random, 64, vectorSize, U16.Max);
+        final int[] queryData = createRandomVectors(random, QUERY_COUNT, vectorSize, U16.Max);
+        final int[] indices = new int[QUERY_COUNT];
+        Arrays.fill(indices, -1);
+        final int fromIndex = 7;
+        final int toIndex = QUERY_COUNT - 3;
+        searchFactory.createSearch(codebookData, vectorSize).findClosestEntries(queryData, fromIndex, toIndex,
+                                                                                indices);
+
+        for (int query = 0; query < QUERY_COUNT; query++) {
+            final int expected = ((query >= fromIndex) && (query < toIndex))
+                    ? findClosestEntryBruteForce(codebookData, vectorSize, queryData, query * vectorSize)
+                    : -1;
+            assertEquals("Query " + query, expected, indices[query]);
+        }
+    }
+
+    /**
+     * Check that the tested search finds the brute-force result for every query.
+     *
+     * @param codebookData Flat codebook.
+     * @param vectorSize   Size of the vector.
+     * @param queryData    Flat query vectors.
+     * @return Number of queries with more than one closest entry.
+     */
+    private int assertSameAsBruteForce(final int[] codebookData, final int vectorSize, final int[] queryData) {
+        final int queryCount = queryData.length / vectorSize;
+        final int[] indices = new int[queryCount];
+        searchFactory.createSearch(codebookData, vectorSize).findClosestEntries(queryData, 0, queryCount, indices);
+
+        int tiedQueryCount = 0;
+        for (int query = 0; query < queryCount; query++) {
+            final int offset = query * vectorSize;
+            final int expected = findClosestEntryBruteForce(codebookData, vectorSize, queryData, offset);
+            assertEquals(String.format("Query %d, codebook size %d, vector size %d",
+                                       query, codebookData.length / vectorSize, vectorSize),
+                         expected, indices[query]);
+            if (countClosestEntries(codebookData, vectorSize, queryData, offset, expected) > 1) {
+                ++tiedQueryCount;
+            }
+        }
+        return tiedQueryCount;
+    }
+
+    private static int[] createRandomVectors(final Random random,
+                                             final int vectorCount,
+                                             final int vectorSize,
+                                             final int maxValue) {
+        final int[] vectorData = new int[vectorCount * vectorSize];
+        for (int i = 0; i < vectorData.length; i++) {
+            vectorData[i] = random.nextInt(maxValue + 1);
+        }
+        return vectorData;
+    }
+
+    /**
+     * Find the closest entry by comparing the distances to all entries, the first of the equally distant entries
+     * wins.
+     */
+    private static int findClosestEntryBruteForce(final int[] codebookData,
+                                                  final int vectorSize,
+                                                  final int[] vectorData,
+                                                  final int offset) {
+        int closestEntry = 0;
+        long closestDistance = Long.MAX_VALUE;
+        for (int entry = 0; entry < codebookData.length / vectorSize; entry++) {
+            final long distance = squaredDistance(codebookData, entry, vectorSize, vectorData, offset);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closestEntry = entry;
+            }
+        }
+        return closestEntry;
+    }
+
+    private static int countClosestEntries(final int[] codebookData,
+                                           final int vectorSize,
+                                           final int[] vectorData,
+                                           final int offset,
+                                           final int closestEntry) {
+        final long closestDistance = squaredDistance(codebookData, closestEntry, vectorSize, vectorData, offset);
+        int closestEntryCount = 0;
+        for (int entry = 0; entry < codebookData.length / vectorSize; entry++) {
+            if (squaredDistance(codebookData, entry, vectorSize, vectorData, offset) == closestDistance) {
+                ++closestEntryCount;
+            }
+        }
+        return closestEntryCount;
+    }
+
+    private static long squaredDistance(final int[] codebookData,
+                                        final int entry,
+                                        final int vectorSize,
+                                        final int[] vectorData,
+                                        final int offset) {
+        long distance = 0;
+        for (int dim = 0; dim < vectorSize; dim++) {
+            final long difference = vectorData[offset + dim] - codebookData[(entry * vectorSize) + dim];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+}
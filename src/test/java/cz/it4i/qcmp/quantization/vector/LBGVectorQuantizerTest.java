@@ -0,0 +1,195 @@
+package cz.it4i.qcmp.quantization.vector;
+
+import cz.it4i.qcmp.U16;
+import cz.it4i.qcmp.data.V3i;
+import cz.it4i.qcmp.data.VectorBatch;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks of the assignment state of {@link LBGVectorQuantizer} after every assignment with Hamerly's bounds and
+ * after every empty entry repair. Training data contain many repeated vectors and the codebooks get empty entries.
+ */
+public class LBGVectorQuantizerTest {
+    private static final V3i VECTOR_DIMENSIONS = new V3i(3, 1, 1);
+    private static final int VECTOR_SIZE = 3;
+    private static final int CLUSTER_COUNT = 6;
+    private static final int WORKER_COUNT = 2;
+
+    /**
+     * Value of the outlier vector, far from all clusters.
+     */
+    private static final int OUTLIER_VALUE = 30000;
+
+    /**
+     * Checker of the assignment state, called by the quantizer during the training.
+     */
+    private static final class AssignmentChecker implements LBGVectorQuantizer.AssignmentCallback {
+        private final LBGVectorQuantizer quantizer;
+        private int assignmentCount = 0;
+        private int boundedAssignmentCount = 0;
+        private int repairCount = 0;
+
+        AssignmentChecker(final LBGVectorQuantizer quantizer) {
+            this.quantizer = quantizer;
+            quantizer.setAssignmentCallback(this);
+        }
+
+        @Override
+        public void vectorsAssigned() {
+            ++assignmentCount;
+            final int[] trainingData = quantizer.getTrainingData();
+            final int[] entryIndices = quantizer.getEntryIndices();
+            final int[] codebookData = quantizer.getAssignmentCodebookData();
+            final int entryCount = quantizer.getAssignmentEntryCount();
+            for (int vecIndex = 0; vecIndex < entryIndices.length; vecIndex++) {
+                assertEquals(String.format("Assignment %d, vector %d", assignmentCount, vecIndex),
+                             findClosestEntry(codebookData, entryCount, trainingData, vecIndex),
+                             entryIndices[vecIndex]);
+            }
+            if (quantizer.getLastScanCount() < entryIndices.length) {
+                ++boundedAssignmentCount;
+            }
+            checkMembers("Assignment " + assignmentCount);
+        }
+
+        @Override
+        public void entryRepaired() {
+            ++repairCount;
+            checkMembers("Repair " + repairCount);
+        }
+
+        /**
+         * Check that the member segment of every entry lists exactly the vectors assigned to the entry.
+         */
+        private void checkMembers(final String message) {
+            final int[] entryIndices = quantizer.getEntryIndices();
+            final int entryCount = quantizer.getAssignmentEntryCount();
+            for (int entry = 0; entry < entryCount; entry++) {
+                int memberCount = 0;
+                for (final int entryIndex : entryIndices) {
+                    if (entryIndex == entry) {
+                        ++memberCount;
+                    }
+                }
+                final int[] expectedMembers = new int[memberCount];
+                memberCount = 0;
+                for (int vecIndex = 0; vecIndex < entryIndices.length; vecIndex++) {
+                    if (entryIndices[vecIndex] == entry) {
+                        expectedMembers[memberCount++] = vecIndex;
+                    }
+                }
+                final int[] members = quantizer.getEntryMembers(entry);
+                Arrays.sort(members);
+                assertArrayEquals(message + ", members of entry " + entry, expectedMembers, members);
+            }
+        }
+    }
+
+    /**
+     * Find the closest entry by comparing the distances to all entries, the first of the equally distant entries
+     * wins.
+     */
+    private static int findClosestEntry(final int[] codebookData,
+                                        final int entryCount,
+                                        final int[] trainingData,
+                                        final int vecIndex) {
+        int closestEntry = 0;
+        long closestDistance = Long.MAX_VALUE;
+        for (int entry = 0; entry < entryCount; entry++) {
+            long distance = 0;
+            for (int dim = 0; dim < VECTOR_SIZE; dim++) {
+                final long difference = trainingData[(vecIndex * VECTOR_SIZE) + dim] -
+                        codebookData[(entry * VECTOR_SIZE) + dim];
+                distance += difference * difference;
+            }
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closestEntry = entry;
+            }
+        }
+        return closestEntry;
+    }
+
+    /**
+     * Create vectors around random cluster centers. Noise is small, so many vectors are repeated.
+     *
+     * @param random      Random generator.
+     * @param centers     Cluster centers stored vector after vector.
+     * @param vectorCount Number of vectors.
+     * @return Training vectors.
+     */
+    private static VectorBatch createClusteredVectors(final Random random, final int[] centers, final int vectorCount) {
+        final VectorBatch vectors = new VectorBatch(VECTOR_SIZE, vectorCount);
+        final int clusterCount = centers.length / VECTOR_SIZE;
+        for (int i = 0; i < vectorCount; i++) {
+            final int cluster = random.nextInt(clusterCount);
+            for (int dim = 0; dim < VECTOR_SIZE; dim++) {
+                vectors.getData()[(i * VECTOR_SIZE) + dim] = centers[(cluster * VECTOR_SIZE) + dim] +
+                        random.nextInt(5) - 2;
+            }
+        }
+        return vectors;
+    }
+
+    private static int[] createCenters(final Random random) {
+        final int[] centers = new int[CLUSTER_COUNT * VECTOR_SIZE];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = 10 + random.nextInt(2000);
+        }
+        return centers;
+    }
+
+    @Test
+    public void splitTrainingKeepsExactAssignmentsAndMembers() {
+        final Random random = new Random(13);
+        final VectorBatch vectors = createClusteredVectors(random, createCenters(random), 6000);
+        final LBGVectorQuantizer quantizer = new LBGVectorQuantizer(vectors, 64, WORKER_COUNT, VECTOR_DIMENSIONS);
+        quantizer.setRandomSeed(22);
+        final AssignmentChecker checker = new AssignmentChecker(quantizer);
+
+        quantizer.findOptimalCodebook();
+        assertTrue("No bounded assignment skipped a codebook scan", checker.boundedAssignmentCount > 0);
+        assertTrue("No empty entry was repaired", checker.repairCount > 0);
+    }
+
+    @Test
+    public void refinementOfCodebookWithEmptyEntriesKeepsExactAssignmentsAndMembers() {
+        final Random random = new Random(14);
+        final int[] centers = createCenters(random);
+        final VectorBatch vectors = createClusteredVectors(random, centers, 6000);
+        // Single outlier is the only member of its entry, the repair of that entry drops it from the entry.
+        Arrays.fill(vectors.getData(), 0, VECTOR_SIZE, OUTLIER_VALUE);
+
+        // Copies of the first center are never the closest entry and the entries at the maximum are too far.
+        final int codebookSize = 16;
+        final int[][] initialEntries = new int[codebookSize][];
+        for (int entry = 0; entry < codebookSize; entry++) {
+            if (entry < CLUSTER_COUNT) {
+                initialEntries[entry] = Arrays.copyOfRange(centers, entry * VECTOR_SIZE, (entry + 1) * VECTOR_SIZE);
+            } else if (entry < 11) {
+                initialEntries[entry] = Arrays.copyOf(centers, VECTOR_SIZE);
+            } else if (entry == 11) {
+                initialEntries[entry] = new int[VECTOR_SIZE];
+                Arrays.fill(initialEntries[entry], OUTLIER_VALUE);
+            } else {
+                initialEntries[entry] = new int[VECTOR_SIZE];
+                Arrays.fill(initialEntries[entry], U16.Max);
+            }
+        }
+        final LBGVectorQuantizer quantizer = new LBGVectorQuantizer(vectors, codebookSize, WORKER_COUNT,
+                                                                    VECTOR_DIMENSIONS);
+        quantizer.setRandomSeed(23);
+        quantizer.setInitialCodebook(new VQCodebook(VECTOR_DIMENSIONS, initialEntries, new long[codebookSize]));
+        final AssignmentChecker checker = new AssignmentChecker(quantizer);
+
+        quantizer.findOptimalCodebook();
+        assertTrue("No empty entry was repaired", checker.repairCount > 0);
+    }
+}